@@ -1,6 +1,5 @@
 package digital.sepa.nfc;
 
-import android.content.Context;
 import digital.sepa.nfc.model.CardInfo;
 
 /**
@@ -46,9 +45,9 @@ public class AppController {
     /**
      * @return the cardInfo
      */
-    public CardInfo getCardInfoNullSafe(Context ctx) {
+    public CardInfo getCardInfoNullSafe() {
         if (cardInfo == null) {
-            return new CardInfo(ctx);
+            return new CardInfo();
         }
         return cardInfo;
     }
@@ -0,0 +1,454 @@
+package digital.sepa.nfc;
+
+import android.content.Context;
+import android.nfc.Tag;
+import android.nfc.TagLostException;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import digital.sepa.nfc.exceptions.NoSmartCardException;
+import digital.sepa.nfc.exceptions.ReadCancelledException;
+import digital.sepa.nfc.iso7816emv.ApduTrace;
+import digital.sepa.nfc.iso7816emv.CardReadListener;
+import digital.sepa.nfc.iso7816emv.EmvCardReader;
+import digital.sepa.nfc.iso7816emv.RecordPipeline;
+import digital.sepa.nfc.model.CardInfo;
+import digital.sepa.nfc.transport.ApduTranscript;
+import digital.sepa.nfc.transport.ApduTransport;
+import digital.sepa.nfc.transport.IsoDepTransport;
+import digital.sepa.nfc.transport.TranscriptRecorder;
+import digital.sepa.nfc.util.ResourceLabelProvider;
+import digital.sepa.nfc.util.Utils;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import static digital.sepa.nfc.util.Utils.TAG;
+
+/**
+ * Reads cards on its own background thread (not an Android service, just a
+ * singleton owning the thread).<br>
+ * <br>
+ * Each tapped card starts a new read. A read which is still running when the
+ * next card is tapped is cancelled (the reader checks for cancellation before
+ * each command), and its result is dropped, so only the result of the latest
+ * tap is delivered.<br>
+ * <br>
+ * Results are delivered on the main thread to the current {@link Listener}.
+ * If no listener is set (e.g. because the activity is paused), the result is
+ * kept until the next listener is set. The service never holds a reference to
+ * an activity besides the listener, which the activity has to remove in
+ * <code>onPause()</code>.
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public class CardReadService {
+
+    /**
+     * Receives the result of a read, always on the main thread
+     */
+    public interface Listener {
+        /**
+         * @param result result of the latest read
+         */
+        void onCardRead(Result result);
+    }
+
+    /**
+     * Result of reading a card
+     */
+    public static class Result {
+        public final static int SUCCESS = 0;
+        public final static int ERROR_TAG_LOST = -1;
+        public final static int ERROR_IO_EX = -2;
+        public final static int ERROR_NO_SMARTCARD = -3;
+        public final static int ERROR_UNKNOWN = -4;
+
+        private final int status;
+        private final CardInfo cardInfo;
+        private final String panUrl;
+
+        private Result(int status, CardInfo cardInfo, String panUrl) {
+            this.status = status;
+            this.cardInfo = cardInfo;
+            this.panUrl = panUrl;
+        }
+
+        /**
+         * @return {@link #SUCCESS} or one of the <code>ERROR_*</code> codes
+         */
+        public int getStatus() {
+            return status;
+        }
+
+        /**
+         * @return <code>true</code> if the card was read
+         */
+        public boolean isSuccess() {
+            return status == SUCCESS;
+        }
+
+        /**
+         * @return the card infos, <code>null</code> if reading failed
+         */
+        public CardInfo getCardInfo() {
+            return cardInfo;
+        }
+
+        /**
+         * @return URL for the PAN (see {@link Utils#getPanUrl(String)}),
+         * <code>null</code> if no PAN was found
+         */
+        public String getPanUrl() {
+            return panUrl;
+        }
+    }
+
+    // transcripts of the latest taps kept in debug builds
+    private static final int MAX_TRANSCRIPTS = 5;
+
+    /**
+     * singleton instance
+     */
+    private static CardReadService instance = null;
+
+    private final ExecutorService executor;
+    // parses the records of all reads, only used on the executor thread
+    private final RecordPipeline recordPipeline;
+    private final Handler mainHandler;
+
+    // the latest read, guarded by this
+    private ReadJob currentJob;
+    // created with the first read, guarded by this
+    private ResourceLabelProvider labels;
+
+    // only accessed on the main thread
+    private Listener listener;
+    private Result pendingResult;
+
+    /**
+     * Get singleton object
+     */
+    public static synchronized CardReadService getInstance() {
+        if (instance == null) {
+            instance = new CardReadService();
+        }
+        return instance;
+    }
+
+    /**
+     * Private constructor
+     */
+    private CardReadService() {
+        this.executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "CardReader");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        this.recordPipeline = new RecordPipeline();
+        this.mainHandler = new Handler(Looper.getMainLooper());
+    }
+
+    /**
+     * Set the listener receiving the results. Must be called on the main
+     * thread. If a result arrived while no listener was set, it is delivered
+     * to the new listener right away.
+     *
+     * @param listener the listener, <code>null</code> to remove it
+     */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+        if (listener != null && pendingResult != null) {
+            Result result = pendingResult;
+            pendingResult = null;
+            listener.onCardRead(result);
+        }
+    }
+
+    /**
+     * Start reading a card. A read which is still running is cancelled.
+     *
+     * @param ctx                  context (only the application context is kept)
+     * @param tag                  the tapped card
+     * @param performFullFileScan  <code>true</code> to read all card data,
+     *                             <code>false</code> to read only the PAN
+     */
+    public void read(Context ctx, Tag tag, boolean performFullFileScan) {
+        ReadJob job;
+        synchronized (this) {
+            if (labels == null) {
+                labels = new ResourceLabelProvider(ctx);
+            }
+            job = new ReadJob(ctx.getApplicationContext(), labels, tag,
+                    performFullFileScan);
+            if (currentJob != null) {
+                Log.d(TAG, "new card tapped, cancelling the running read");
+                currentJob.cancel();
+            }
+            currentJob = job;
+        }
+        executor.execute(job);
+    }
+
+    /**
+     * Cancel the running read (if any), its result won't be delivered
+     */
+    public void cancel() {
+        synchronized (this) {
+            if (currentJob != null) {
+                currentJob.cancel();
+                currentJob = null;
+            }
+        }
+    }
+
+    /**
+     * Post the result to the main thread, unless the read was superseded in
+     * the meantime
+     */
+    private void deliver(final ReadJob job, final Result result) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (CardReadService.this) {
+                    if (currentJob != job) {
+                        Log.d(TAG, "dropping result of a stale read");
+                        return;
+                    }
+                    currentJob = null;
+                }
+                if (result.getCardInfo() != null) {
+                    AppController.getInstance().setCardInfo(result.getCardInfo());
+                }
+                if (listener != null) {
+                    listener.onCardRead(result);
+                } else {
+                    pendingResult = result;
+                }
+            }
+        });
+    }
+
+    /**
+     * Reads a single card
+     */
+    private class ReadJob implements Runnable {
+        private final Context ctx;
+        private final ResourceLabelProvider labels;
+        private final Tag nfcTag;
+        private final boolean performFullFileScan;
+        private volatile boolean cancelled;
+        private volatile EmvCardReader reader;
+        // URL built as soon as the reader found the PAN
+        private volatile String earlyPan;
+        private volatile String earlyPanUrl;
+
+        ReadJob(Context ctx, ResourceLabelProvider labels, Tag nfcTag,
+                boolean performFullFileScan) {
+            this.ctx = ctx;
+            this.labels = labels;
+            this.nfcTag = nfcTag;
+            this.performFullFileScan = performFullFileScan;
+        }
+
+        void cancel() {
+            cancelled = true;
+            EmvCardReader r = reader;
+            if (r != null) {
+                r.cancel();
+            }
+        }
+
+        @Override
+        public void run() {
+            if (cancelled) {
+                // superseded before it even started
+                return;
+            }
+            Result result = readCard();
+            if (result != null && !cancelled) {
+                deliver(this, result);
+            }
+        }
+
+        /**
+         * @return the result, <code>null</code> if the read was cancelled
+         */
+        private Result readCard() {
+            ApduTransport transport = new IsoDepTransport(nfcTag);
+            TranscriptRecorder recorder = null;
+            if (BuildConfig.DEBUG) {
+                // record the session for replaying it later (only in debug
+                // builds, as the transcript contains the card number!)
+                recorder = new TranscriptRecorder(transport);
+                transport = recorder;
+            }
+            EmvCardReader emvReader = new EmvCardReader(transport, labels);
+            emvReader.setRecordPipeline(recordPipeline);
+            if (BuildConfig.DEBUG) {
+                ApduTrace trace = new ApduTrace();
+                trace.setSink(ApduTrace.LOGCAT);
+                emvReader.setApduTrace(trace);
+            }
+            emvReader.setCardReadListener(new CardReadListener.Adapter() {
+                @Override
+                public void onPanFound(String pan) {
+                    // build the URL while the rest of the card is read
+                    try {
+                        earlyPanUrl = Utils.getPanUrl(pan);
+                        earlyPan = pan;
+                    } catch (NoSuchAlgorithmException e) {
+                        Log.w(TAG, "cannot hash the PAN", e);
+                    }
+                }
+            });
+            reader = emvReader;
+            if (cancelled) {
+                // cancel() may have missed the reader
+                emvReader.cancel();
+            }
+            try {
+                emvReader.connectIsoDep();
+                CardInfo cardInfo;
+                if (performFullFileScan) {
+                    // no time budget: the user asked for all files, and
+                    // the scan only stops early if the card is removed
+                    cardInfo = emvReader.readAllCardData(true, 0);
+                } else {
+                    // we only need the PAN for opening the URL. No time
+                    // budget either, as a slow card would otherwise be
+                    // reported as removed on every tap
+                    cardInfo = emvReader.readPanOnly(0);
+                }
+                if (BuildConfig.DEBUG) {
+                    // building the JSON isn't free, so only in debug builds
+                    Log.d(TAG, "card read with " + emvReader.getApduCount()
+                            + " APDUs, metrics: "
+                            + cardInfo.getScanMetrics().toJson());
+                }
+                // hash the PAN here, not on the main thread
+                String pan = cardInfo.getPersonalAccounNumber();
+                if (pan == null && cardInfo.isPartialScan()) {
+                    // card was removed before we got the PAN
+                    return new Result(Result.ERROR_TAG_LOST, null, null);
+                }
+                String panUrl = null;
+                if (pan != null) {
+                    panUrl = pan.equals(earlyPan) ? earlyPanUrl
+                            : Utils.getPanUrl(pan);
+                }
+                return new Result(Result.SUCCESS, cardInfo, panUrl);
+            } catch (ReadCancelledException rce) {
+                Log.d(TAG, "reading the card was cancelled");
+                return null;
+            } catch (NoSmartCardException nsce) {
+                Log.w(TAG,
+                        "Catched NoSmartCardException during reading the card",
+                        nsce);
+                return new Result(Result.ERROR_NO_SMARTCARD, null, null);
+            } catch (TagLostException tle) {
+                Log.w(TAG, "Catched TagLostException during reading the card",
+                        tle);
+                return new Result(Result.ERROR_TAG_LOST, null, null);
+            } catch (IOException e) {
+                Log.e(TAG, "Catched IOException during reading the card", e);
+                return new Result(Result.ERROR_IO_EX, null, null);
+            } catch (NoSuchAlgorithmException e) {
+                Log.e(TAG, "Catched NoSuchAlgorithmException during hashing the PAN", e);
+                return new Result(Result.ERROR_UNKNOWN, null, null);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Catched RuntimeException during reading the card", e);
+                return new Result(Result.ERROR_UNKNOWN, null, null);
+            } finally {
+                try {
+                    emvReader.disconnectIsoDep();
+                } catch (IOException e) {
+                    Log.w(TAG, "cannot disconnect from the card", e);
+                }
+                if (recorder != null) {
+                    saveTranscript(recorder.getTranscript());
+                }
+            }
+        }
+
+        /**
+         * Save the APDU transcript of this session into the cache directory.
+         * As the transcripts contain the card number, only the latest
+         * {@link #MAX_TRANSCRIPTS} are kept.
+         *
+         * @param transcript
+         */
+        private void saveTranscript(ApduTranscript transcript) {
+            File dir = new File(ctx.getCacheDir(), "transcripts");
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                Log.w(TAG, "cannot create transcript directory " + dir);
+                return;
+            }
+            File file = new File(dir, "tap-" + System.currentTimeMillis()
+                    + ".apdt");
+            OutputStream out = null;
+            try {
+                out = new BufferedOutputStream(new FileOutputStream(file));
+                transcript.writeTo(out);
+                Log.d(TAG, "saved APDU transcript with " + transcript.size()
+                        + " commands to " + file);
+            } catch (IOException e) {
+                Log.w(TAG, "cannot save APDU transcript", e);
+            } finally {
+                if (out != null) {
+                    try {
+                        out.close();
+                    } catch (IOException e) {
+                        Log.w(TAG, "cannot close APDU transcript", e);
+                    }
+                }
+            }
+            deleteOldTranscripts(dir);
+        }
+
+        /**
+         * Delete all but the latest {@link #MAX_TRANSCRIPTS} transcripts
+         *
+         * @param dir the transcript directory
+         */
+        private void deleteOldTranscripts(File dir) {
+            File[] files = dir.listFiles(new FilenameFilter() {
+                @Override
+                public boolean accept(File dir, String name) {
+                    return name.startsWith("tap-") && name.endsWith(".apdt");
+                }
+            });
+            if (files == null || files.length <= MAX_TRANSCRIPTS) {
+                return;
+            }
+            // the names contain the time of the tap, so the oldest come first
+            Arrays.sort(files, new Comparator<File>() {
+                @Override
+                public int compare(File f1, File f2) {
+                    String n1 = f1.getName();
+                    String n2 = f2.getName();
+                    return n1.length() != n2.length()
+                            ? n1.length() - n2.length() : n1.compareTo(n2);
+                }
+            });
+            for (int i = 0; i < files.length - MAX_TRANSCRIPTS; i++) {
+                if (!files[i].delete()) {
+                    Log.w(TAG, "cannot delete old APDU transcript " + files[i]);
+                }
+            }
+        }
+    }
+}
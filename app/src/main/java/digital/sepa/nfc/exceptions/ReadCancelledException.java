@@ -0,0 +1,23 @@
+package digital.sepa.nfc.exceptions;
+
+import java.io.IOException;
+
+/**
+ * Thrown by the reader when reading the card was cancelled (for example
+ * because a newer card was tapped). Extends {@link IOException}, so it aborts
+ * the read the same way as a lost card.
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public class ReadCancelledException extends IOException {
+
+    private static final long serialVersionUID = 4617283951306422481L;
+
+    public ReadCancelledException() {
+    }
+
+    public ReadCancelledException(String detailMessage) {
+        super(detailMessage);
+    }
+
+}
@@ -0,0 +1,22 @@
+package digital.sepa.nfc.exceptions;
+
+import java.io.IOException;
+
+/**
+ * Thrown by the reader when the time budget of a scan is used up. Extends
+ * {@link IOException}, so it aborts the scan the same way as a lost card.
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public class ScanDeadlineException extends IOException {
+
+    private static final long serialVersionUID = -6215630857329714802L;
+
+    public ScanDeadlineException() {
+    }
+
+    public ScanDeadlineException(String detailMessage) {
+        super(detailMessage);
+    }
+
+}
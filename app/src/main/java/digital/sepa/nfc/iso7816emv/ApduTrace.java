@@ -0,0 +1,287 @@
+package digital.sepa.nfc.iso7816emv;
+
+import android.util.Log;
+
+/**
+ * Trace of the APDUs exchanged with the card. The raw command and response
+ * bytes are copied into a preallocated ring buffer, so recording neither
+ * allocates nor formats anything. Strings are only built when a
+ * {@link Sink} is set or when a dump is requested (see {@link #dump()}).
+ * When the ring buffer is full, the oldest exchanges are dropped.<br>
+ * <br>
+ * If no trace is set on the {@link EmvCardReader}, tracing costs a single
+ * <code>null</code> check per APDU.
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public class ApduTrace {
+
+    private final static String TAG = "ApduTrace";
+
+    /**
+     * Receives each exchange right after it was recorded
+     */
+    public interface Sink {
+        /**
+         * @param trace the trace (use {@link #format(int)} to format the
+         *              exchange)
+         * @param index index of the exchange within the trace
+         */
+        void onExchange(ApduTrace trace, int index);
+    }
+
+    /**
+     * Sink writing each exchange to logcat (debug level)
+     */
+    public static final Sink LOGCAT = new Sink() {
+        @Override
+        public void onExchange(ApduTrace trace, int index) {
+            Log.d(TAG, trace.format(index));
+        }
+    };
+
+    private static final char[] HEX_DIGITS = {'0', '1', '2', '3', '4', '5',
+            '6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F'};
+
+    // raw bytes of command and response, one after the other
+    private final byte[] data;
+    // number of bytes written so far (position in data is modulo its length)
+    private long written;
+
+    // the exchanges, as ring
+    private final long[] starts;
+    private final short[] commandLengths;
+    // -1 if the card was lost
+    private final short[] responseLengths;
+    private final long[] nanos;
+    private final long[] durations;
+    // number of exchanges recorded so far
+    private int count;
+
+    private Sink sink;
+    private long firstNanos = -1;
+
+    /**
+     * Constructor
+     *
+     * @param maxExchanges number of exchanges kept in the ring
+     * @param maxBytes     number of command and response bytes kept in the
+     *                     ring
+     */
+    public ApduTrace(int maxExchanges, int maxBytes) {
+        if (maxExchanges <= 0 || maxBytes <= 0) {
+            throw new IllegalArgumentException("ApduTrace: invalid size "
+                    + maxExchanges + "/" + maxBytes);
+        }
+        data = new byte[maxBytes];
+        starts = new long[maxExchanges];
+        commandLengths = new short[maxExchanges];
+        responseLengths = new short[maxExchanges];
+        nanos = new long[maxExchanges];
+        durations = new long[maxExchanges];
+    }
+
+    /**
+     * Constructor, keeps the last 256 exchanges (or 16 KB)
+     */
+    public ApduTrace() {
+        this(256, 16 * 1024);
+    }
+
+    /**
+     * @param sink receives each recorded exchange, <code>null</code> to only
+     *             record
+     */
+    public synchronized void setSink(Sink sink) {
+        this.sink = sink;
+    }
+
+    /**
+     * Record an exchange
+     *
+     * @param command  the command APDU
+     * @param response the response APDU, <code>null</code> if the card was
+     *                 lost
+     * @param start    {@link System#nanoTime()} when the command was sent
+     * @param duration round trip time
+     */
+    public void record(byte[] command, byte[] response, long start,
+                       long duration) {
+        Sink currentSink;
+        int index;
+        synchronized (this) {
+            if (firstNanos < 0) {
+                firstNanos = start;
+            }
+            index = count++;
+            int slot = index % starts.length;
+            int commandLength = Math.min(command.length, Short.MAX_VALUE);
+            int responseLength = response == null ? -1 : Math.min(
+                    response.length, Short.MAX_VALUE);
+            starts[slot] = written;
+            commandLengths[slot] = (short) commandLength;
+            responseLengths[slot] = (short) responseLength;
+            nanos[slot] = start - firstNanos;
+            durations[slot] = duration;
+            write(command, commandLength);
+            if (response != null) {
+                write(response, responseLength);
+            }
+            currentSink = sink;
+        }
+        if (currentSink != null) {
+            currentSink.onExchange(this, index);
+        }
+    }
+
+    private void write(byte[] bytes, int length) {
+        int pos = (int) (written % data.length);
+        int first = Math.min(length, data.length - pos);
+        System.arraycopy(bytes, 0, data, pos, first);
+        if (first < length) {
+            // wrap around (if length exceeds the buffer, only the last
+            // bytes are kept, and the exchange can't be dumped anymore)
+            int rest = Math.min(length - first, data.length);
+            System.arraycopy(bytes, length - rest, data, 0, rest);
+        }
+        written += length;
+    }
+
+    /**
+     * @return number of exchanges recorded so far (including the ones which
+     * were already dropped from the ring)
+     */
+    public synchronized int getCount() {
+        return count;
+    }
+
+    /**
+     * @param index
+     * @return <code>true</code> if the bytes of this exchange are still in
+     * the ring
+     */
+    public synchronized boolean isAvailable(int index) {
+        if (index < 0 || index >= count || index < count - starts.length) {
+            return false;
+        }
+        return starts[index % starts.length] >= written - data.length;
+    }
+
+    /**
+     * Format a single exchange, for example:
+     * <pre>
+     * #5 +120 ms (14 ms) READ RECORD SFI 1 RECORD 1
+     *   > 00B2010C00
+     *   < 70...9000 (success :-))
+     * </pre>
+     *
+     * @param index index of the exchange
+     * @return
+     */
+    public synchronized String format(int index) {
+        StringBuilder sb = new StringBuilder();
+        appendExchange(sb, index);
+        return sb.toString();
+    }
+
+    /**
+     * @return all exchanges still in the ring, formatted like
+     * {@link #format(int)}
+     */
+    public synchronized String dump() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = Math.max(0, count - starts.length); i < count; i++) {
+            appendExchange(sb, i);
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Drop all recorded exchanges
+     */
+    public synchronized void clear() {
+        count = 0;
+        written = 0;
+        firstNanos = -1;
+    }
+
+    private void appendExchange(StringBuilder sb, int index) {
+        if (!isAvailable(index)) {
+            sb.append('#').append(index).append(" <dropped>");
+            return;
+        }
+        int slot = index % starts.length;
+        int commandLength = commandLengths[slot];
+        int responseLength = responseLengths[slot];
+        int commandPos = (int) (starts[slot] % data.length);
+        int responsePos = (commandPos + commandLength) % data.length;
+        sb.append('#').append(index).append(" +")
+                .append(nanos[slot] / 1000000).append(" ms (")
+                .append(durations[slot] / 1000000).append(" ms) ");
+        appendCommandName(sb, commandPos, commandLength);
+        sb.append("\n  > ");
+        appendHex(sb, commandPos, commandLength);
+        sb.append("\n  < ");
+        if (responseLength < 0) {
+            sb.append("<tag lost>");
+        } else if (responseLength < 2) {
+            appendHex(sb, responsePos, responseLength);
+        } else {
+            appendHex(sb, responsePos, responseLength);
+            int sw = ((byteAt(responsePos + responseLength - 2) & 0xFF) << 8)
+                    | (byteAt(responsePos + responseLength - 1) & 0xFF);
+            sb.append(" (").append(EmvUtils.statusToString(sw)).append(')');
+        }
+    }
+
+    private void appendCommandName(StringBuilder sb, int pos, int length) {
+        if (length < 4) {
+            sb.append("?");
+            return;
+        }
+        int ins = byteAt(pos + 1) & 0xFF;
+        int p1 = byteAt(pos + 2) & 0xFF;
+        int p2 = byteAt(pos + 3) & 0xFF;
+        switch (ins) {
+            case 0xA4:
+                sb.append("SELECT");
+                break;
+            case 0xB2:
+                sb.append("READ RECORD SFI ").append(p2 >> 3)
+                        .append(" RECORD ").append(p1);
+                break;
+            case 0xB0:
+                sb.append("READ BINARY");
+                break;
+            case 0xCA:
+                sb.append("GET DATA ");
+                appendHex(sb, pos + 2, 2);
+                break;
+            case 0xA8:
+                sb.append("GET PROCESSING OPTIONS");
+                break;
+            case 0xC0:
+                sb.append("GET RESPONSE");
+                break;
+            case 0x20:
+                sb.append("VERIFY");
+                break;
+            default:
+                sb.append("INS ");
+                appendHex(sb, pos + 1, 1);
+                break;
+        }
+    }
+
+    private byte byteAt(int pos) {
+        return data[pos % data.length];
+    }
+
+    private void appendHex(StringBuilder sb, int pos, int length) {
+        for (int i = 0; i < length; i++) {
+            int v = byteAt(pos + i) & 0xFF;
+            sb.append(HEX_DIGITS[v >>> 4]).append(HEX_DIGITS[v & 0x0F]);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package digital.sepa.nfc.iso7816emv;
+
+import digital.sepa.nfc.exceptions.TlvParsingException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import static digital.sepa.nfc.util.Utils.bytesToHex;
+
+/**
+ * An application as advertised by the card in the Proximity Payment System
+ * Environment (PPSE, "2PAY.SYS.DDF01"). Each application template (tag 61) in
+ * the FCI of the PPSE contains the AID (4F), optionally a label (50) and the
+ * Application Priority Indicator (87).
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public class ApplicationDirectoryEntry {
+
+    private final byte[] aid;
+    private final String label;
+    private final int priority;
+    private final int position;
+
+    /**
+     * Sorts by priority (1 is highest), applications without priority after all
+     * others, and within the same priority in the order given by the card.
+     */
+    private static final Comparator<ApplicationDirectoryEntry> PRIORITY_ORDER = new Comparator<ApplicationDirectoryEntry>() {
+        @Override
+        public int compare(ApplicationDirectoryEntry a, ApplicationDirectoryEntry b) {
+            int pa = a.priority == 0 ? Integer.MAX_VALUE : a.priority;
+            int pb = b.priority == 0 ? Integer.MAX_VALUE : b.priority;
+            if (pa != pb) {
+                return pa < pb ? -1 : 1;
+            }
+            return a.position < b.position ? -1 : (a.position == b.position ? 0 : 1);
+        }
+    };
+
+    private ApplicationDirectoryEntry(byte[] aid, String label, int priority,
+                                      int position) {
+        this.aid = aid;
+        this.label = label;
+        this.priority = priority;
+        this.position = position;
+    }
+
+    /**
+     * Parse all application templates out of the PPSE select response
+     *
+     * @param responseData FCI returned by SELECT 2PAY.SYS.DDF01 (without status
+     *                     word)
+     * @return applications sorted by priority
+     * @throws TlvParsingException
+     */
+    public static List<ApplicationDirectoryEntry> parsePpseResponse(
+            byte[] responseData) throws TlvParsingException {
+        return parsePpseResponse(responseData, 0, responseData.length);
+    }
+
+    /**
+     * Parse all application templates out of the PPSE select response
+     *
+     * @param buf    the buffer
+     * @param offset start of the FCI within the buffer
+     * @param length length of the FCI (without status word)
+     * @return applications sorted by priority
+     * @throws TlvParsingException
+     */
+    public static List<ApplicationDirectoryEntry> parsePpseResponse(
+            byte[] buf, int offset, int length) throws TlvParsingException {
+        List<ApplicationDirectoryEntry> entries = new ArrayList<ApplicationDirectoryEntry>();
+        collectApplicationTemplates(new TlvCursor(buf, offset, length),
+                entries);
+        Collections.sort(entries, PRIORITY_ORDER);
+        return entries;
+    }
+
+    /**
+     * Walks through the (nested) TLV data and parses each application template
+     *
+     * @param cursor
+     * @param entries
+     * @throws TlvParsingException
+     */
+    private static void collectApplicationTemplates(TlvCursor cursor,
+                                                    List<ApplicationDirectoryEntry> entries)
+            throws TlvParsingException {
+        while (cursor.next()) {
+            if (cursor.isTag(EMVTags.APPLICATION_TEMPLATE)) {
+                ApplicationDirectoryEntry entry = fromTemplate(cursor.enter(),
+                        entries.size());
+                if (entry != null) {
+                    entries.add(entry);
+                }
+            } else if (cursor.isConstructed()) {
+                collectApplicationTemplates(cursor.enter(), entries);
+            }
+        }
+    }
+
+    /**
+     * @param template cursor over the value of an application template
+     * @param position index of the template within the directory
+     * @return entry or <code>null</code> if the template contains no AID
+     * @throws TlvParsingException
+     */
+    private static ApplicationDirectoryEntry fromTemplate(TlvCursor template,
+                                                          int position) throws TlvParsingException {
+        byte[] aid = null;
+        String label = null;
+        int priority = 0;
+        while (template.next()) {
+            if (template.isTag(EMVTags.AID_CARD)) {
+                aid = template.copyValue();
+            } else if (template.isTag(EMVTags.APPLICATION_LABEL)) {
+                label = new String(template.copyValue());
+            } else if (template.isTag(EMVTags.APPLICATION_PRIORITY_INDICATOR)
+                    && template.getValueLength() > 0) {
+                // bits 4-1: priority, 0 means no priority assigned
+                priority = template.getValueByte(0) & 0x0F;
+            }
+        }
+        if (aid == null) {
+            return null;
+        }
+        return new ApplicationDirectoryEntry(aid, label, priority, position);
+    }
+
+    /**
+     * @return the AID
+     */
+    public byte[] getAid() {
+        return aid;
+    }
+
+    /**
+     * @return the application label or <code>null</code> if not present
+     */
+    public String getLabel() {
+        return label;
+    }
+
+    /**
+     * @return the priority (1 is highest), 0 if the card assigned none
+     */
+    public int getPriority() {
+        return priority;
+    }
+
+    @Override
+    public String toString() {
+        return "ApplicationDirectoryEntry[" + bytesToHex(aid) + ", label="
+                + label + ", priority=" + priority + "]";
+    }
+}
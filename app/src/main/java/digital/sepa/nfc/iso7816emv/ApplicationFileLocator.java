@@ -0,0 +1,157 @@
+package digital.sepa.nfc.iso7816emv;
+
+import digital.sepa.nfc.exceptions.TlvParsingException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Application File Locator (AFL, EMV tag 94) as returned by the card in the
+ * response to GET PROCESSING OPTIONS.<br>
+ * <br>
+ * The AFL consists of 4-byte entries, each of them describing a range of
+ * records within a single EF (see EMV Book 3, 10.2):
+ * <ul>
+ * <li>byte 1: bits 8-4 contain the short EF identifier (SFI)</li>
+ * <li>byte 2: number of the first record to read</li>
+ * <li>byte 3: number of the last record to read</li>
+ * <li>byte 4: number of records involved in offline data authentication</li>
+ * </ul>
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public class ApplicationFileLocator {
+
+    private final List<Entry> entries;
+
+    private ApplicationFileLocator(List<Entry> entries) {
+        this.entries = Collections.unmodifiableList(entries);
+    }
+
+    /**
+     * Parse the raw AFL value bytes (without tag and length)
+     *
+     * @param afl raw value of tag 94
+     * @return parsed AFL
+     * @throws TlvParsingException if length is not a multiple of 4 or an entry
+     *                             contains invalid values
+     */
+    public static ApplicationFileLocator parse(byte[] afl)
+            throws TlvParsingException {
+        if (afl == null || afl.length % 4 != 0) {
+            throw new TlvParsingException(
+                    "AFL length must be a multiple of 4 bytes");
+        }
+        List<Entry> entries = new ArrayList<Entry>(afl.length / 4);
+        for (int i = 0; i < afl.length; i += 4) {
+            int sfi = (afl[i] & 0xFF) >>> 3;
+            int firstRecord = afl[i + 1] & 0xFF;
+            int lastRecord = afl[i + 2] & 0xFF;
+            int offlineAuthRecords = afl[i + 3] & 0xFF;
+            if (sfi < 1 || sfi > 30 || firstRecord == 0
+                    || lastRecord < firstRecord) {
+                throw new TlvParsingException("Invalid AFL entry at offset "
+                        + i + ": SFI " + sfi + ", records " + firstRecord
+                        + "-" + lastRecord);
+            }
+            entries.add(new Entry(sfi, firstRecord, lastRecord,
+                    offlineAuthRecords));
+        }
+        return new ApplicationFileLocator(entries);
+    }
+
+    /**
+     * @return the AFL entries in the order they were returned by the card
+     */
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * @return <code>true</code> if the AFL does not list any records
+     */
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    /**
+     * @param sfi short EF identifier
+     * @return <code>true</code> if the given EF is listed in the AFL
+     */
+    public boolean containsSfi(int sfi) {
+        for (Entry e : entries) {
+            if (e.getSfi() == sfi) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return total number of records listed in the AFL
+     */
+    public int getTotalRecordCount() {
+        int count = 0;
+        for (Entry e : entries) {
+            count += e.getLastRecord() - e.getFirstRecord() + 1;
+        }
+        return count;
+    }
+
+    @Override
+    public String toString() {
+        return "ApplicationFileLocator" + entries;
+    }
+
+    /**
+     * A single AFL entry (a range of records within one EF)
+     */
+    public static class Entry {
+        private final int sfi;
+        private final int firstRecord;
+        private final int lastRecord;
+        private final int offlineAuthRecords;
+
+        Entry(int sfi, int firstRecord, int lastRecord, int offlineAuthRecords) {
+            this.sfi = sfi;
+            this.firstRecord = firstRecord;
+            this.lastRecord = lastRecord;
+            this.offlineAuthRecords = offlineAuthRecords;
+        }
+
+        /**
+         * @return the short EF identifier
+         */
+        public int getSfi() {
+            return sfi;
+        }
+
+        /**
+         * @return the first record number (inclusive)
+         */
+        public int getFirstRecord() {
+            return firstRecord;
+        }
+
+        /**
+         * @return the last record number (inclusive)
+         */
+        public int getLastRecord() {
+            return lastRecord;
+        }
+
+        /**
+         * @return number of records involved in offline data authentication
+         */
+        public int getOfflineAuthRecords() {
+            return offlineAuthRecords;
+        }
+
+        @Override
+        public String toString() {
+            return "[SFI " + sfi + ", records " + firstRecord + "-"
+                    + lastRecord + ", ODA " + offlineAuthRecords + "]";
+        }
+    }
+}
@@ -16,17 +16,14 @@
 package digital.sepa.nfc.iso7816emv;
 
 import digital.sepa.nfc.exceptions.TlvParsingException;
+import digital.sepa.nfc.util.BcdDateCodec;
 
-import java.io.ByteArrayInputStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.util.Arrays;
-import java.util.Date;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
-import static digital.sepa.nfc.iso7816emv.EmvUtils.calculateCplcDate;
-import static digital.sepa.nfc.iso7816emv.EmvUtils.getNextTLV;
 import static digital.sepa.nfc.util.Utils.*;
 
 /**
@@ -95,12 +92,20 @@ public class CPLC {
         }
         // or maybe it's prepended with CPLC tag:
         else if (raw.length == 45) {
-            BERTLV tlv = getNextTLV(new ByteArrayInputStream(raw));
-            if (!tlv.getTag().equals(GPTags.CPLC)) {
+            TlvCursor cursor = new TlvCursor(raw);
+            if (!cursor.next()) {
                 throw new IllegalArgumentException(
-                        "CPLC data not valid. Found tag: " + tlv.getTag());
+                        "CPLC data not valid. No tag found.");
+            }
+            if (!cursor.isTag(GPTags.CPLC)) {
+                throw new IllegalArgumentException(
+                        "CPLC data not valid. Found tag: " + cursor.getTag());
+            }
+            cplc = cursor.copyValue();
+            if (cplc.length != 42) {
+                throw new IllegalArgumentException(
+                        "CPLC data not valid. Length: " + cplc.length);
             }
-            cplc = tlv.getValueBytes();
         } else {
             throw new IllegalArgumentException("CPLC data not valid.");
         }
@@ -251,13 +256,19 @@ public class CPLC {
         }
 
         if (key.contains("Date")) {
-            Date dateVal;
+            int epochDay;
             try {
-                dateVal = calculateCplcDate(fromHexString(val));
+                byte[] dateBytes = fromHexString(val);
+                epochDay = dateBytes.length == 2 ? BcdDateCodec.decodeCplcDate(
+                        dateBytes, 0, BcdDateCodec.currentEpochDay())
+                        : BcdDateCodec.INVALID;
             } catch (Exception e) {
                 return "0x" + val;
             }
-            return formatDateOnly(dateVal);
+            if (epochDay == BcdDateCodec.INVALID) {
+                return "0x" + val;
+            }
+            return BcdDateCodec.formatDate(epochDay);
         }
         if (FIELD_NAME_IC_BATCH_ID.equals(key)
                 || FIELD_NAME_OPERATING_SYSTEM_REL_LEVEL.equals(key)) {
@@ -0,0 +1,290 @@
+package digital.sepa.nfc.iso7816emv;
+
+import digital.sepa.nfc.exceptions.TlvParsingException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * All primitive data objects read from a card during one session, indexed by
+ * tag. The index is built incrementally while the responses are parsed and
+ * remembers for each value the application (AID) and the record it was read
+ * from.<br>
+ * <br>
+ * {@link #first(int)} and {@link #contains(int)} are constant time lookups,
+ * {@link #all(int)} only walks the values of the requested tag. The values
+ * are also kept in the order they were read (see {@link #entries()}).
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public class CardDataIndex {
+
+    /**
+     * A value in the index, with its origin
+     */
+    public static class Entry extends TagAndValue {
+        private final int tagId;
+        private final byte[] aid;
+        private final int sfi;
+        private final int record;
+        private Entry nextWithSameTag;
+
+        private Entry(int tagId, EmvTag tag, byte[] value, byte[] aid,
+                      int sfi, int record) {
+            super(tag, value);
+            this.tagId = tagId;
+            this.aid = aid;
+            this.sfi = sfi;
+            this.record = record;
+        }
+
+        /**
+         * @return the tag packed into an int (for example <code>0x9F36</code>)
+         */
+        public int getTagId() {
+            return tagId;
+        }
+
+        /**
+         * @return the AID of the application selected when the value was read,
+         * or <code>null</code> if no application was selected
+         */
+        public byte[] getAid() {
+            return aid;
+        }
+
+        /**
+         * @return <code>true</code> if the value was read from a record (and
+         * not from a SELECT, GET PROCESSING OPTIONS or GET DATA response)
+         */
+        public boolean isFromRecord() {
+            return record > 0;
+        }
+
+        /**
+         * @return short file identifier of the record, 0 if not read from a
+         * record
+         */
+        public int getSfi() {
+            return sfi;
+        }
+
+        /**
+         * @return record number, 0 if not read from a record
+         */
+        public int getRecord() {
+            return record;
+        }
+    }
+
+    private final List<Entry> entries = new ArrayList<Entry>();
+
+    // open addressing table: tag ID -> first and last entry with this tag
+    private int[] keys = new int[64];
+    private Entry[] heads = new Entry[64];
+    private Entry[] tails = new Entry[64];
+    private int distinctTags;
+
+    // origin of the values added next
+    private byte[] currentAid;
+    private int currentSfi;
+    private int currentRecord;
+
+    /**
+     * Set the currently selected application, values added from now on are
+     * attributed to it
+     *
+     * @param aid
+     */
+    public void setApplication(byte[] aid) {
+        this.currentAid = aid;
+        clearRecord();
+    }
+
+    /**
+     * Values added from now on were read from this record
+     *
+     * @param sfi
+     * @param record
+     */
+    public void setRecord(int sfi, int record) {
+        this.currentSfi = sfi;
+        this.currentRecord = record;
+    }
+
+    /**
+     * Values added from now on were not read from a record
+     */
+    public void clearRecord() {
+        this.currentSfi = 0;
+        this.currentRecord = 0;
+    }
+
+    /**
+     * Parse BER-TLV encoded data and add all primitive data objects
+     *
+     * @param buf
+     * @param offset start of the BER-TLV data
+     * @param length length of the BER-TLV data
+     * @throws TlvParsingException if the data is not valid BER-TLV (the data
+     *                             objects parsed so far are kept)
+     */
+    public void addAll(byte[] buf, int offset, int length)
+            throws TlvParsingException {
+        EmvUtils.walkBerTlv(buf, offset, length, new TlvVisitor() {
+            @Override
+            public boolean onPrimitive(int tag, byte[] buf, int offset,
+                                       int length) {
+                add(tag, Arrays.copyOfRange(buf, offset, offset + length));
+                return true;
+            }
+
+            @Override
+            public boolean onConstructedStart(int tag, byte[] buf, int offset,
+                                              int length) {
+                return true;
+            }
+
+            @Override
+            public boolean onConstructedEnd(int tag) {
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Add a value
+     *
+     * @param tagId the tag packed into an int
+     * @param value
+     * @return the new entry
+     */
+    public Entry add(int tagId, byte[] value) {
+        Entry entry = new Entry(tagId, EMVTags.getNotNull(tagId), value,
+                currentAid, currentSfi, currentRecord);
+        entries.add(entry);
+        int slot = findSlot(tagId);
+        if (keys[slot] == tagId && heads[slot] != null) {
+            tails[slot].nextWithSameTag = entry;
+            tails[slot] = entry;
+        } else {
+            keys[slot] = tagId;
+            heads[slot] = entry;
+            tails[slot] = entry;
+            distinctTags++;
+            if (distinctTags * 2 > keys.length) {
+                resize();
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * @param tagId the tag packed into an int
+     * @return the first value read for this tag or <code>null</code>
+     */
+    public Entry first(int tagId) {
+        int slot = findSlot(tagId);
+        return keys[slot] == tagId ? heads[slot] : null;
+    }
+
+    /**
+     * @param tag
+     * @return the first value read for this tag or <code>null</code>
+     */
+    public Entry first(EmvTag tag) {
+        return first(tagId(tag));
+    }
+
+    /**
+     * @param tagId the tag packed into an int
+     * @return all values read for this tag, in the order they were read
+     */
+    public List<Entry> all(int tagId) {
+        Entry entry = first(tagId);
+        if (entry == null) {
+            return Collections.emptyList();
+        }
+        List<Entry> result = new ArrayList<Entry>();
+        for (; entry != null; entry = entry.nextWithSameTag) {
+            result.add(entry);
+        }
+        return result;
+    }
+
+    /**
+     * @param tag
+     * @return all values read for this tag, in the order they were read
+     */
+    public List<Entry> all(EmvTag tag) {
+        return all(tagId(tag));
+    }
+
+    /**
+     * @param tagId the tag packed into an int
+     * @return <code>true</code> if at least one value was read for this tag
+     */
+    public boolean contains(int tagId) {
+        return first(tagId) != null;
+    }
+
+    /**
+     * @param tag
+     * @return <code>true</code> if at least one value was read for this tag
+     */
+    public boolean contains(EmvTag tag) {
+        return first(tag) != null;
+    }
+
+    /**
+     * @return all values in the order they were read (unmodifiable)
+     */
+    public List<Entry> entries() {
+        return Collections.unmodifiableList(entries);
+    }
+
+    /**
+     * @return number of values
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    private static int tagId(EmvTag tag) {
+        byte[] tagBytes = tag.getTagBytes();
+        return TagRegistry.packTagId(tagBytes, 0, tagBytes.length);
+    }
+
+    /**
+     * @param tagId
+     * @return the slot containing the tag, or the empty slot where it would
+     * be inserted
+     */
+    private int findSlot(int tagId) {
+        int mask = keys.length - 1;
+        int slot = TagRegistry.hash(tagId) & mask;
+        while (heads[slot] != null && keys[slot] != tagId) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void resize() {
+        int[] oldKeys = keys;
+        Entry[] oldHeads = heads;
+        Entry[] oldTails = tails;
+        keys = new int[oldKeys.length * 2];
+        heads = new Entry[keys.length];
+        tails = new Entry[keys.length];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldHeads[i] != null) {
+                int slot = findSlot(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                heads[slot] = oldHeads[i];
+                tails[slot] = oldTails[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package digital.sepa.nfc.iso7816emv;
+
+import digital.sepa.nfc.model.TransactionLogTable;
+
+import java.util.List;
+
+/**
+ * Receives the data of a card while it is still being read (see
+ * {@link EmvCardReader#setCardReadListener(CardReadListener)}), so that the
+ * UI can react on the PAN or show first results before the whole scan is
+ * finished.<br>
+ * <br>
+ * The callbacks are made on the reading thread or on the record parser
+ * thread, but never concurrently. They must return quickly, as the card stays
+ * in the field in the meantime. Exceptions thrown by the listener are logged
+ * and ignored.
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public interface CardReadListener {
+
+    /**
+     * An EMV application was selected successfully
+     *
+     * @param aid   the application ID
+     * @param label application label from the PPSE (may be <code>null</code>)
+     */
+    void onApplicationSelected(byte[] aid, String label);
+
+    /**
+     * The card number was found (called at most once per scan)
+     *
+     * @param pan
+     */
+    void onPanFound(String pan);
+
+    /**
+     * Tags were parsed from a response
+     *
+     * @param tags the new tags (see {@link CardDataIndex.Entry#getSfi()} and
+     *             {@link CardDataIndex.Entry#getRecord()} where they were
+     *             read from)
+     */
+    void onTagsParsed(List<CardDataIndex.Entry> tags);
+
+    /**
+     * A transaction log entry was decoded
+     *
+     * @param table the log table of the current scan (only valid during the
+     *              call, it is still being filled)
+     * @param row   the new row
+     */
+    void onLogEntry(TransactionLogTable table, int row);
+
+    /**
+     * A scan phase was finished
+     *
+     * @param metrics snapshot of the metrics so far, including the time per
+     *                phase (see {@link ScanMetrics#getPhaseNanos(ScanMetrics.Phase)})
+     */
+    void onPhaseTimings(ScanMetrics metrics);
+
+    /**
+     * Empty implementation, for listeners only interested in some of the
+     * callbacks
+     */
+    class Adapter implements CardReadListener {
+        @Override
+        public void onApplicationSelected(byte[] aid, String label) {
+        }
+
+        @Override
+        public void onPanFound(String pan) {
+        }
+
+        @Override
+        public void onTagsParsed(List<CardDataIndex.Entry> tags) {
+        }
+
+        @Override
+        public void onLogEntry(TransactionLogTable table, int row) {
+        }
+
+        @Override
+        public void onPhaseTimings(ScanMetrics metrics) {
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package digital.sepa.nfc.iso7816emv;
+
+import java.util.Arrays;
+
+import static digital.sepa.nfc.util.Utils.bytesToHex;
+
+/**
+ * Immutable command APDU. Instances can be shared between readers and
+ * threads, and can be sent to the card as often as needed without building
+ * the command again (see the constants for the commands sent during each
+ * scan, and {@link #select(byte[])} for the SELECT commands).<br>
+ * <br>
+ * Commands whose parameters change for each command sent (READ RECORD, GET
+ * RESPONSE) are instead encoded into a reusable buffer owned by the reader,
+ * see {@link EmvUtils#encodeReadRecordApdu(byte[], int, int)}.
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public final class CommandApdu {
+
+    public static final CommandApdu GET_DATA_APP_TX_COUNTER = new CommandApdu(
+            EmvUtils.EMV_COMMAND_GET_DATA_APP_TX_COUNTER);
+    public static final CommandApdu GET_DATA_LAST_ONLINE_APP_TX_COUNTER = new CommandApdu(
+            EmvUtils.EMV_COMMAND_GET_DATA_LAST_ONLINE_APP_TX_COUNTER);
+    public static final CommandApdu GET_DATA_CRM_COUNTRY = new CommandApdu(
+            EmvUtils.EMV_COMMAND_GET_DATA_CRM_COUNTRY);
+    public static final CommandApdu GET_DATA_CRM_CURRENCY = new CommandApdu(
+            EmvUtils.EMV_COMMAND_GET_DATA_CRM_CURRENCY);
+    public static final CommandApdu GET_DATA_LOWER_CONSECUTIVE_OFFLINE_LIMIT = new CommandApdu(
+            EmvUtils.EMV_COMMAND_GET_DATA_LOWER_CONSECUTIVE_OFFLINE_LIMIT);
+    public static final CommandApdu GET_DATA_UPPER_CONSECUTIVE_OFFLINE_LIMIT = new CommandApdu(
+            EmvUtils.EMV_COMMAND_GET_DATA_UPPER_CONSECUTIVE_OFFLINE_LIMIT);
+    public static final CommandApdu GET_DATA_LOWER_CUMULATIVE_TX_AMOUNT = new CommandApdu(
+            EmvUtils.EMV_COMMAND_GET_DATA_LOWER_CUMULATIVE_TX_AMOUNT);
+    public static final CommandApdu GET_DATA_UPPER_CUMULATIVE_TX_AMOUNT = new CommandApdu(
+            EmvUtils.EMV_COMMAND_GET_DATA_UPPER_CUMULATIVE_TX_AMOUNT);
+    public static final CommandApdu GET_DATA_PIN_RETRY_COUNTER = new CommandApdu(
+            EmvUtils.EMV_COMMAND_GET_DATA_PIN_RETRY_COUNTER);
+    public static final CommandApdu GET_DATA_LOG_FORMAT = new CommandApdu(
+            EmvUtils.EMV_COMMAND_GET_DATA_LOG_FORMAT);
+    public static final CommandApdu GET_DATA_ALL_COMMON_BER_TLV = new CommandApdu(
+            EmvUtils.EMV_COMMAND_GET_DATA_ALL_COMMON_BER_TLV);
+    public static final CommandApdu GET_DATA_ALL_COMMON_SIMPLE_TLV = new CommandApdu(
+            EmvUtils.EMV_COMMAND_GET_DATA_ALL_COMMON_SIMPLE_TLV);
+    public static final CommandApdu QUICK_READ_BALANCE = new CommandApdu(
+            EmvUtils.ISO_COMMAND_QUICK_READ_BALANCE);
+    public static final CommandApdu QUICK_READ_CURRENCY = new CommandApdu(
+            EmvUtils.ISO_COMMAND_QUICK_READ_CURRENCY);
+    public static final CommandApdu GET_CPLC = new CommandApdu(
+            EmvUtils.GPCS_GET_CPLC_COMMAND);
+    public static final CommandApdu GET_CPLC_WITH_LENGTH = new CommandApdu(
+            EmvUtils.GPCS_GET_CPLC_COMMAND_WITH_LENGTH);
+    public static final CommandApdu SELECT_MASTER_FILE = new CommandApdu(
+            EmvUtils.createSelectMasterFile());
+    public static final CommandApdu SELECT_PARENT_DF = new CommandApdu(
+            EmvUtils.createSelectParentDfFile());
+
+    // cache of SELECT commands, there are only a few different AIDs
+    private static final int SELECT_CACHE_SIZE = 16;
+    private static final CommandApdu[] selectCache = new CommandApdu[SELECT_CACHE_SIZE];
+    private static int selectCacheNext;
+
+    private final byte[] apdu;
+
+    /**
+     * Constructor
+     *
+     * @param apdu the command APDU (is copied)
+     */
+    public CommandApdu(byte[] apdu) {
+        if (apdu == null || apdu.length < 4) {
+            throw new IllegalArgumentException(
+                    "CommandApdu: command was either null or shorter than 4 bytes");
+        }
+        this.apdu = apdu.clone();
+    }
+
+    /**
+     * SELECT command for the given AID. Commands are cached, so selecting the
+     * same application again doesn't build a new command.
+     *
+     * @param aid
+     * @return
+     */
+    public static CommandApdu select(byte[] aid) {
+        synchronized (selectCache) {
+            for (CommandApdu command : selectCache) {
+                if (command != null && command.isSelectOf(aid)) {
+                    return command;
+                }
+            }
+            CommandApdu command = new CommandApdu(EmvUtils.createSelectAid(aid));
+            selectCache[selectCacheNext] = command;
+            selectCacheNext = (selectCacheNext + 1) % SELECT_CACHE_SIZE;
+            return command;
+        }
+    }
+
+    /**
+     * @param aid
+     * @return <code>true</code> if this is the SELECT command (by DF name)
+     * for exactly the given AID
+     */
+    boolean isSelectOf(byte[] aid) {
+        // CLA INS P1 P2 Lc <aid> Le
+        byte[] header = EmvUtils.ISO_COMMAND_SELECT_DIRECT;
+        if (apdu.length != aid.length + 6
+                || (apdu[4] & 0xFF) != aid.length
+                || apdu[apdu.length - 1] != 0) {
+            return false;
+        }
+        for (int i = 0; i < header.length; i++) {
+            if (apdu[i] != header[i]) {
+                return false;
+            }
+        }
+        for (int i = 0; i < aid.length; i++) {
+            if (apdu[5 + i] != aid[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the instruction byte (INS)
+     */
+    public int getIns() {
+        return apdu[1] & 0xFF;
+    }
+
+    /**
+     * @return length of the command APDU
+     */
+    public int length() {
+        return apdu.length;
+    }
+
+    /**
+     * @return the command APDU, not copied (must not be modified)
+     */
+    byte[] getBuffer() {
+        return apdu;
+    }
+
+    /**
+     * @return a copy of the command APDU
+     */
+    public byte[] toByteArray() {
+        return apdu.clone();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof CommandApdu
+                && Arrays.equals(apdu, ((CommandApdu) o).apdu);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(apdu);
+    }
+
+    @Override
+    public String toString() {
+        return bytesToHex(apdu);
+    }
+}
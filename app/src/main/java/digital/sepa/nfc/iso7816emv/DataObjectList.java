@@ -0,0 +1,207 @@
+package digital.sepa.nfc.iso7816emv;
+
+import digital.sepa.nfc.exceptions.TlvParsingException;
+
+import java.util.Arrays;
+
+/**
+ * A parsed Data Object List (DOL), like the PDOL (tag 9F38), CDOL1 (8C), CDOL2
+ * (8D) or the transaction Log Format (9F4F).<br>
+ * <br>
+ * A DOL is a concatenated list of tags and lengths (without values). The
+ * terminal has to answer it by concatenating the values of the requested data
+ * objects (in the same order and with exactly the requested lengths), see EMV
+ * Book 3, 5.4. The same structure describes the layout of the transaction log
+ * records, so for each entry we also keep the offset of its value within the
+ * concatenated data.
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public class DataObjectList {
+
+    private final int[] tagIds;
+    private final int[] lengths;
+    private final int[] offsets;
+    private final int totalLength;
+
+    private DataObjectList(int[] tagIds, int[] lengths, int count) {
+        this.tagIds = Arrays.copyOf(tagIds, count);
+        this.lengths = Arrays.copyOf(lengths, count);
+        this.offsets = new int[count];
+        int offset = 0;
+        for (int i = 0; i < count; i++) {
+            offsets[i] = offset;
+            offset += lengths[i];
+        }
+        this.totalLength = offset;
+    }
+
+    /**
+     * Parse the raw DOL value bytes (without the DOL tag and length)
+     *
+     * @param dol
+     * @return
+     * @throws TlvParsingException
+     */
+    public static DataObjectList parse(byte[] dol) throws TlvParsingException {
+        return parse(dol, 0, dol.length);
+    }
+
+    /**
+     * Parse a DOL out of a part of a byte array
+     *
+     * @param buf    the buffer
+     * @param offset start of the DOL within the buffer
+     * @param length length of the DOL
+     * @return
+     * @throws TlvParsingException if a tag or length is truncated or a tag is
+     *                             longer than 4 bytes
+     */
+    public static DataObjectList parse(byte[] buf, int offset, int length)
+            throws TlvParsingException {
+        // each entry needs at least 2 bytes
+        int[] tagIds = new int[length / 2];
+        int[] lengths = new int[length / 2];
+        int count = 0;
+        int pos = offset;
+        int end = offset + length;
+        while (pos < end) {
+            // tag
+            int tagId = buf[pos] & 0xFF;
+            int tagLength = 1;
+            if ((buf[pos] & 0x1F) == 0x1F) {
+                do {
+                    if (pos + tagLength >= end) {
+                        throw new TlvParsingException("DOL: truncated tag at offset " + pos);
+                    }
+                    tagId = (tagId << 8) | (buf[pos + tagLength] & 0xFF);
+                    tagLength++;
+                } while ((buf[pos + tagLength - 1] & 0x80) != 0);
+            }
+            if (tagLength > 4) {
+                throw new TlvParsingException("DOL: tag longer than 4 bytes at offset " + pos);
+            }
+            pos += tagLength;
+
+            // length
+            if (pos >= end) {
+                throw new TlvParsingException("DOL: missing length for tag "
+                        + Integer.toHexString(tagId));
+            }
+            int valueLength = buf[pos++] & 0xFF;
+            if (valueLength >= 0x80) {
+                int numberOfLengthOctets = valueLength & 0x7F;
+                if (numberOfLengthOctets > 2 || pos + numberOfLengthOctets > end) {
+                    throw new TlvParsingException("DOL: invalid length for tag "
+                            + Integer.toHexString(tagId));
+                }
+                valueLength = 0;
+                for (int i = 0; i < numberOfLengthOctets; i++) {
+                    valueLength = (valueLength << 8) | (buf[pos++] & 0xFF);
+                }
+            }
+            tagIds[count] = tagId;
+            lengths[count] = valueLength;
+            count++;
+        }
+        return new DataObjectList(tagIds, lengths, count);
+    }
+
+    /**
+     * @return number of entries
+     */
+    public int size() {
+        return tagIds.length;
+    }
+
+    /**
+     * @param index
+     * @return the packed tag ID of the entry (for example <code>0x9F02</code>)
+     */
+    public int getTagId(int index) {
+        return tagIds[index];
+    }
+
+    /**
+     * @param index
+     * @return the requested value length of the entry
+     */
+    public int getLength(int index) {
+        return lengths[index];
+    }
+
+    /**
+     * @param index
+     * @return the offset of the entry's value within the concatenated data
+     */
+    public int getOffset(int index) {
+        return offsets[index];
+    }
+
+    /**
+     * @return the total length of all values
+     */
+    public int getTotalLength() {
+        return totalLength;
+    }
+
+    /**
+     * @param tagId packed tag ID
+     * @return index of the first entry with the given tag, or -1
+     */
+    public int indexOf(int tagId) {
+        for (int i = 0; i < tagIds.length; i++) {
+            if (tagIds[i] == tagId) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Write the concatenated values of all entries into the given buffer. Values
+     * not known to the provider are zero-filled.
+     *
+     * @param provider supplies the terminal data
+     * @param out      target buffer, must have room for
+     *                 {@link #getTotalLength()} bytes starting at offset
+     * @param offset   where to start writing
+     * @return the offset after the last written byte
+     */
+    public int fill(TerminalDataProvider provider, byte[] out, int offset) {
+        for (int i = 0; i < tagIds.length; i++) {
+            int valueOffset = offset + offsets[i];
+            Arrays.fill(out, valueOffset, valueOffset + lengths[i], (byte) 0);
+            provider.fill(tagIds[i], out, valueOffset, lengths[i]);
+        }
+        return offset + totalLength;
+    }
+
+    /**
+     * Builds the plain concatenated data for the DOL (as needed for example
+     * for CDOL1 or CDOL2 in GENERATE AC)
+     *
+     * @param provider
+     * @return
+     */
+    public byte[] buildData(TerminalDataProvider provider) {
+        byte[] data = new byte[totalLength];
+        fill(provider, data, 0);
+        return data;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("DataObjectList[");
+        for (int i = 0; i < tagIds.length; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(Integer.toHexString(tagIds[i]).toUpperCase());
+            sb.append(":");
+            sb.append(lengths[i]);
+        }
+        sb.append("]");
+        return sb.toString();
+    }
+}
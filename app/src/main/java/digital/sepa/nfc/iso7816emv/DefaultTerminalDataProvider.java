@@ -0,0 +1,168 @@
+package digital.sepa.nfc.iso7816emv;
+
+import digital.sepa.nfc.util.BcdDateCodec;
+
+import java.security.SecureRandom;
+
+/**
+ * Terminal data used when answering the card's Data Object Lists. The values
+ * describe an Austrian, attended, online capable point of sale terminal doing
+ * a zero amount EUR purchase, which is what most cards accept for simply
+ * reading their records. All values can be changed with the setters.
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public class DefaultTerminalDataProvider implements TerminalDataProvider {
+
+    private long amountAuthorised = 0;
+    private long amountOther = 0;
+    // ISO 3166: Austria
+    private int terminalCountryCode = 40;
+    // ISO 4217: EUR
+    private int transactionCurrencyCode = 978;
+    // 00 = purchase
+    private int transactionType = 0;
+    // 22 = attended, offline with online capability, operated by merchant
+    private int terminalType = 22;
+    // qVSDC, EMV contact chip, online PIN and signature supported
+    private byte[] terminalTransactionQualifiers = {(byte) 0x36, 0x00,
+            0x00, 0x00};
+    // manual key entry, magnetic stripe, IC with contacts; plaintext and
+    // enciphered PIN, signature; SDA, DDA, CDA
+    private byte[] terminalCapabilities = {(byte) 0xE0, (byte) 0xB0,
+            (byte) 0xC8};
+    private final SecureRandom random = new SecureRandom();
+
+    @Override
+    public boolean fill(int tagId, byte[] out, int offset, int length) {
+        switch (tagId) {
+            case 0x9F02: // Amount, Authorised (Numeric)
+                writeBcd(amountAuthorised, out, offset, length);
+                return true;
+            case 0x9F03: // Amount, Other (Numeric)
+                writeBcd(amountOther, out, offset, length);
+                return true;
+            case 0x9F1A: // Terminal Country Code
+                writeBcd(terminalCountryCode, out, offset, length);
+                return true;
+            case 0x5F2A: // Transaction Currency Code
+                writeBcd(transactionCurrencyCode, out, offset, length);
+                return true;
+            case 0x9A: // Transaction Date (YYMMDD)
+                writeBcd(BcdDateCodec.toYearMonthDay(BcdDateCodec
+                        .currentEpochDay()) % 1000000, out, offset, length);
+                return true;
+            case 0x9C: // Transaction Type
+                writeBcd(transactionType, out, offset, length);
+                return true;
+            case 0x9F35: // Terminal Type
+                writeBcd(terminalType, out, offset, length);
+                return true;
+            case 0x9F37: // Unpredictable Number
+                for (int i = offset; i < offset + length; i++) {
+                    out[i] = (byte) random.nextInt(256);
+                }
+                return true;
+            case 0x9F66: // Terminal Transaction Qualifiers
+                writeBinary(terminalTransactionQualifiers, out, offset, length);
+                return true;
+            case 0x9F33: // Terminal Capabilities
+                writeBinary(terminalCapabilities, out, offset, length);
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Writes a numeric value BCD encoded and right-aligned (padded with
+     * leading zeros, leftmost digits are truncated if too long), as required
+     * for numeric data objects.
+     *
+     * @param value
+     * @param out
+     * @param offset
+     * @param length
+     */
+    public static void writeBcd(long value, byte[] out, int offset, int length) {
+        for (int i = offset + length - 1; i >= offset; i--) {
+            int low = (int) (value % 10);
+            value /= 10;
+            int high = (int) (value % 10);
+            value /= 10;
+            out[i] = (byte) ((high << 4) | low);
+        }
+    }
+
+    /**
+     * Writes a binary value left-aligned (padded with trailing zeros, rightmost
+     * bytes are truncated if too long).
+     *
+     * @param value
+     * @param out
+     * @param offset
+     * @param length
+     */
+    public static void writeBinary(byte[] value, byte[] out, int offset,
+                                   int length) {
+        System.arraycopy(value, 0, out, offset, Math.min(value.length, length));
+    }
+
+    /**
+     * @param amountAuthorised amount in minor units (cents)
+     */
+    public void setAmountAuthorised(long amountAuthorised) {
+        this.amountAuthorised = amountAuthorised;
+    }
+
+    /**
+     * @param amountOther amount in minor units (cents)
+     */
+    public void setAmountOther(long amountOther) {
+        this.amountOther = amountOther;
+    }
+
+    /**
+     * @param terminalCountryCode ISO 3166 numeric country code
+     */
+    public void setTerminalCountryCode(int terminalCountryCode) {
+        this.terminalCountryCode = terminalCountryCode;
+    }
+
+    /**
+     * @param transactionCurrencyCode ISO 4217 numeric currency code
+     */
+    public void setTransactionCurrencyCode(int transactionCurrencyCode) {
+        this.transactionCurrencyCode = transactionCurrencyCode;
+    }
+
+    /**
+     * @param transactionType transaction type (first 2 digits of the ISO 8583
+     *                        processing code)
+     */
+    public void setTransactionType(int transactionType) {
+        this.transactionType = transactionType;
+    }
+
+    /**
+     * @param terminalType terminal type as defined in EMV Book 4, Annex A1
+     */
+    public void setTerminalType(int terminalType) {
+        this.terminalType = terminalType;
+    }
+
+    /**
+     * @param terminalTransactionQualifiers 4 bytes TTQ (tag 9F66)
+     */
+    public void setTerminalTransactionQualifiers(
+            byte[] terminalTransactionQualifiers) {
+        this.terminalTransactionQualifiers = terminalTransactionQualifiers;
+    }
+
+    /**
+     * @param terminalCapabilities 3 bytes terminal capabilities (tag 9F33)
+     */
+    public void setTerminalCapabilities(byte[] terminalCapabilities) {
+        this.terminalCapabilities = terminalCapabilities;
+    }
+}
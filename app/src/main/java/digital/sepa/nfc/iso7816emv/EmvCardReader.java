@@ -1,16 +1,18 @@
 package digital.sepa.nfc.iso7816emv;
 
-import android.content.Context;
-import android.nfc.Tag;
-import android.nfc.tech.IsoDep;
+import android.nfc.TagLostException;
 import android.util.Log;
+import digital.sepa.nfc.BuildConfig;
 import digital.sepa.nfc.R;
 import digital.sepa.nfc.exceptions.NoSmartCardException;
+import digital.sepa.nfc.exceptions.ReadCancelledException;
+import digital.sepa.nfc.exceptions.ScanDeadlineException;
 import digital.sepa.nfc.exceptions.TlvParsingException;
 import digital.sepa.nfc.model.CardInfo;
-import digital.sepa.nfc.model.EmvTransactionLogEntry;
+import digital.sepa.nfc.model.TransactionLogTable;
+import digital.sepa.nfc.transport.ApduTransport;
 
-import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -25,48 +27,30 @@ import static digital.sepa.nfc.util.Utils.*;
  * @author Johannes Zweng <johannes@zweng.at>
  */
 public class EmvCardReader {
-    private Tag nfcTag;
-    private IsoDep localIsoDep;
-    private List<TagAndValue> tagList;
-    private Context ctx;
-
-    // 9F 4F - 18 bytes: Log Format
-    // 9F 36 (02 bytes) -> Application Transaction Counter (ATC)
-    // 9F 02 (06 bytes) -> Amount, Authorised (Numeric)
-    // 9F 03 (06 bytes) -> Amount, Other (Numeric)
-    // 9F 1A (02 bytes) -> Terminal Country Code
-    // 95 (05 bytes) -> Terminal Verification Results (TVR)
-    // 5F 2A (02 bytes) -> Transaction Currency Code
-    // 9A (03 bytes) -> Transaction Date
-    // 9C (01 bytes) -> Transaction Type
-    // 9F 80 04 (04 bytes) -> [UNHANDLED TAG]
-    private static final String LOG_FORMAT_VISA = "9F4F189F36029F02069F03069F1A0295055F2A029A039C019F80049000";
-    private static final int LOG_LENGTH_VISA = 33;
-
-    // 9F 4F - 11 bytes: Log Format
-    // 9F 27 (01 bytes) -> Cryptogram Information Data
-    // 9F 02 (06 bytes) -> Amount, Authorised (Numeric)
-    // 5F 2A (02 bytes) -> Transaction Currency Code
-    // 9A (03 bytes) -> Transaction Date
-    // 9F 36 (02 bytes) -> Application Transaction Counter (ATC)
-    // 9F 52 (06 bytes) -> Application Default Action (ADA)
-    // total length: 20 bytes
-    private static final String LOG_FORMAT_MASTERCARD = "9F4F119F27019F02065F2A029A039F36029F52069000";
-    private static final int LOG_LENGTH_MASTERCARD = 22;
-
-    // 9F 4F - 1A bytes: Log Format
-    // 9F 27 (01 bytes) -> Cryptogram Information Data
-    // 9F 02 (06 bytes) -> Amount, Authorised (Numeric)
-    // 5F 2A (02 bytes) -> Transaction Currency Code
-    // 9A (03 bytes) -> Transaction Date
-    // 9F 36 (02 bytes) -> Application Transaction Counter (ATC)
-    // 9F 52 (06 bytes) -> Application Default Action (ADA)
-    // DF 3E (01 bytes) -> [UNHANDLED TAG]
-    // 9F 21 (03 bytes) -> Transaction Time (HHMMSS)
-    // 9F 7C (0x14 bytes) -> Customer Exclusive Data
-    // total length: 44 bytes
-    private static final String LOG_FORMAT_BANKOMAT_AUSTRIA = "9F4F1A9F27019F02065F2A029A039F36029F5206DF3E019F21039F7C149000";
-    private static final int LOG_LENGTH_BANKOMAT_AUSTRIA = 46;
+    private ApduTransport transport;
+    private CardDataIndex cardData;
+    private final LabelProvider labels;
+    private TerminalDataProvider terminalData;
+    private int apduCount;
+    private final ScanMetrics metrics = new ScanMetrics();
+    // null if tracing is off
+    private ApduTrace trace;
+    private volatile boolean cancelled;
+    private CardReadListener listener;
+    // serializes the listener calls of the reading and the parser thread
+    private final Object listenerLock = new Object();
+    private boolean panReported;
+    private boolean phaseRunning;
+    private ScanMetrics.Phase currentPhase;
+    // probes and time budget of the running full scan
+    private ScanScheduler schedule;
+    // parses the records of all passes, created on first use if not shared
+    private RecordPipeline recordPipeline;
+    private boolean ownsRecordPipeline;
+    // reused for every READ RECORD, GET RESPONSE and resent (6Cxx) command
+    private final byte[] readRecordCommand = new byte[5];
+    private final byte[] getResponseCommand = new byte[5];
+    private final byte[] resendCommand = new byte[5];
 
     private static final int LOG_LENGTH_QUICK = 35;
 
@@ -77,42 +61,112 @@ public class EmvCardReader {
     // but still have logs in EF11
     private static final int LOG_RECORD_EF = 11;
 
-    // FIXME: dynamic parsing of log entries, not static pattern comparison
-    private String _logFormatResponse;
+    // AIDs we probe if the card has no PPSE directory
+    private static final byte[][] WELL_KNOWN_AIDS = {
+            APPLICATION_ID_EMV_MAESTRO_BANKOMAT,
+            APPLICATION_ID_EMV_VISA_CREDITCARD, APPLICATION_ID_EMV_MASTERCARD};
+
+    // compiled from the Log Format (9F4F) returned by the card
+    private TransactionLogFormat logFormat;
+
+    /**
+     * Constructor, the labels of the card infos are only the resource IDs
+     * (see {@link LabelProvider#RESOURCE_IDS})
+     *
+     * @param transport the channel to the card
+     */
+    public EmvCardReader(ApduTransport transport) {
+        this(transport, LabelProvider.RESOURCE_IDS);
+    }
 
     /**
      * Constructor
      *
-     * @param nfcTag
-     * @param ctx
+     * @param transport the channel to the card
+     * @param labels    resolves the labels of the card infos
      */
-    public EmvCardReader(Tag nfcTag, Context ctx) {
+    public EmvCardReader(ApduTransport transport, LabelProvider labels) {
         super();
-        this.nfcTag = nfcTag;
-        this.tagList = new ArrayList<TagAndValue>();
-        this.ctx = ctx;
+        this.transport = transport;
+        this.cardData = new CardDataIndex();
+        this.labels = labels;
+        this.terminalData = new DefaultTerminalDataProvider();
     }
 
     /**
-     * Connects to IsoDep
+     * Set the terminal data which is used to answer the card's PDOL in GET
+     * PROCESSING OPTIONS
+     *
+     * @param terminalData
+     */
+    public void setTerminalDataProvider(TerminalDataProvider terminalData) {
+        this.terminalData = terminalData;
+    }
+
+    /**
+     * Record all APDUs exchanged with the card
+     *
+     * @param trace the trace, <code>null</code> to turn tracing off
+     */
+    public void setApduTrace(ApduTrace trace) {
+        this.trace = trace;
+    }
+
+    /**
+     * Set a listener receiving the card data while it is read
+     *
+     * @param listener the listener, <code>null</code> to remove it
+     */
+    public void setCardReadListener(CardReadListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Parse the records with the given pipeline, so that its parser thread
+     * can be reused for several readers. The pipeline is not closed by this
+     * reader. Without a shared pipeline each read starts its own parser
+     * thread.
+     *
+     * @param pipeline the pipeline, <code>null</code> to use an own one
+     */
+    public void setRecordPipeline(RecordPipeline pipeline) {
+        this.recordPipeline = pipeline;
+        this.ownsRecordPipeline = false;
+    }
+
+    /**
+     * Cancel reading the card. May be called from any thread. The reader
+     * checks the flag before sending each command (so also between the
+     * records of a file scan and between the GET DATA commands) and then
+     * aborts with a {@link ReadCancelledException}.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * @return <code>true</code> if {@link #cancel()} was called
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Connects to the card
      *
      * @throws IOException
      */
     public void connectIsoDep() throws IOException, NoSmartCardException {
-        localIsoDep = IsoDep.get(nfcTag);
-        if (localIsoDep == null) {
-            throw new NoSmartCardException("This NFC tag is no ISO 7816 card");
-        }
-        localIsoDep.connect();
+        transport.connect();
     }
 
     /**
-     * Disconnects to IsoDep
+     * Disconnects from the card
      *
      * @throws IOException
      */
     public void disconnectIsoDep() throws IOException {
-        localIsoDep.close();
+        transport.close();
     }
 
     /**
@@ -125,118 +179,298 @@ public class EmvCardReader {
      */
     public CardInfo readAllCardData(boolean performFullFileScan)
             throws IOException {
-        CardInfo result = new CardInfo(ctx);
-        result.addSectionHeader(ctx.getResources().getString(
-                R.string.section_nfc));
-        result.setNfcTagId(nfcTag.getId());
-        result.addSectionHeader(ctx.getResources().getString(
-                R.string.section_GPCS_CPLC));
+        return readAllCardData(performFullFileScan, 0);
+    }
+
+    /**
+     * Try to read all bankomat card data within the given time budget. The
+     * most valuable data (PAN, expiry date, transaction log) is read first.
+     * If the budget is used up or the card is lost, the data read so far is
+     * returned (see {@link CardInfo#isPartialScan()}).
+     *
+     * @param performFullFileScan <code>true</code> if we should try to scan all EFs, false if
+     *                            only some well known on Austrian Bankomat Cards
+     * @param budgetMillis        time budget of the scan (e.g. 300 ms), 0 for
+     *                            no limit
+     * @return
+     * @throws IOException
+     */
+    public CardInfo readAllCardData(boolean performFullFileScan,
+                                    long budgetMillis) throws IOException {
+        schedule = new ScanScheduler(budgetMillis);
+        try {
+            return readAllCardDataScheduled(performFullFileScan);
+        } finally {
+            schedule = null;
+            if (ownsRecordPipeline) {
+                recordPipeline.close();
+                recordPipeline = null;
+                ownsRecordPipeline = false;
+            }
+        }
+    }
+
+    private CardInfo readAllCardDataScheduled(boolean performFullFileScan)
+            throws IOException {
+        CardInfo result = new CardInfo();
+        result.addSectionHeader(labels.getLabel(R.string.section_nfc));
+        result.setNfcTagId(transport.getId());
+        result.addSectionHeader(labels.getLabel(R.string.section_GPCS_CPLC));
         //result = readCPLCInfos(result);
-        result.addSectionHeader(ctx.getResources().getString(
-                R.string.section_emv));
+        result.addSectionHeader(labels.getLabel(R.string.section_emv));
         //result = readQuickInfos(result);
-        result = readMaestroCardInfos(result, performFullFileScan);
-        result = readVisaCardInfos(result, performFullFileScan);
-        result = readMastercardInfos(result, performFullFileScan);
+        try {
+            List<ApplicationDirectoryEntry> applications = readPaymentSystemDirectory();
+            if (applications == null || applications.isEmpty()) {
+                // no (usable) PPSE, so fall back to probing the well known AIDs
+                Log.d(TAG, "no PPSE directory, probing well known AIDs..");
+                for (byte[] aid : WELL_KNOWN_AIDS) {
+                    result = readApplicationInfos(result, aid, null,
+                            performFullFileScan);
+                }
+            } else {
+                for (ApplicationDirectoryEntry application : applications) {
+                    result = readApplicationInfos(result, application.getAid(),
+                            application.getLabel(), performFullFileScan);
+                }
+            }
+        } catch (TagLostException tle) {
+            // keep what we have read so far
+            Log.w(TAG, "card lost, returning partial card infos", tle);
+            result.setPartialScan(true);
+        } catch (ScanDeadlineException sde) {
+            Log.d(TAG, "returning partial card infos: " + sde.getMessage());
+            result.setPartialScan(true);
+        }
+        endPhase();
+        result.setScanMetrics(metrics.snapshot());
         return result;
     }
 
+    /**
+     * Read only the card number (PAN), with as few commands as possible: PPSE,
+     * SELECT, GET PROCESSING OPTIONS and then the AFL records, until the first
+     * record containing the PAN (5A) or the Track 2 Equivalent Data (57).
+     *
+     * @return card infos, containing only the PAN and the card type
+     * @throws IOException
+     */
+    public CardInfo readPanOnly() throws IOException {
+        return readPanOnly(0);
+    }
 
     /**
-     * Read MAESTRO card infos from card
+     * Read only the card number (PAN) within the given time budget (see
+     * {@link #readPanOnly()}). If the budget is used up or the card is lost,
+     * the card infos are returned without PAN (see
+     * {@link CardInfo#isPartialScan()}).
      *
-     * @param result
-     * @param fullFileScan <code>true</code> if we should try to iterate over all EFs,
-     *                     false if only some
+     * @param budgetMillis time budget of the scan (e.g. 300 ms), 0 for no
+     *                     limit
+     * @return card infos, containing only the PAN and the card type
      * @throws IOException
      */
-    private CardInfo readMaestroCardInfos(CardInfo result, boolean fullFileScan)
-            throws IOException {
-        Log.d(TAG, "check if card contains MAESTRO AID..");
-        byte[] selectAidResponse = selectApplicationGetBytes(APPLICATION_ID_EMV_MAESTRO_BANKOMAT);
-        parseAndSaveBerTlvResponse(selectAidResponse);
-        boolean isMaestroCard = isStatusSuccess(getLast2Bytes(selectAidResponse));
-        result.setMaestroCard(isMaestroCard);
-        if (!isMaestroCard) {
-            return result;
+    public CardInfo readPanOnly(long budgetMillis) throws IOException {
+        schedule = new ScanScheduler(budgetMillis);
+        try {
+            return readPanOnlyScheduled();
+        } finally {
+            schedule = null;
         }
-        // ok, so let's catch exceptions here, instead of just letting the whole
-        // scan abort, so that the user gets at least some infos where the
-        // parsing failed:
+    }
+
+    private CardInfo readPanOnlyScheduled() throws IOException {
+        long start = System.nanoTime();
+        final CardInfo result = new CardInfo();
+        result.setNfcTagId(transport.getId());
+        schedule.add(ScanScheduler.PRIORITY_PAN, "PAN",
+                new ScanScheduler.Probe() {
+                    @Override
+                    public void run() throws IOException {
+                        readPan(result);
+                    }
+                });
         try {
-            result = readEmvData(selectAidResponse, result, fullFileScan);
-        } catch (RuntimeException re) {
-            Log.w(TAG, "Catched Exception while reading Maestro infos: ", re);
+            schedule.runAll();
+        } catch (TagLostException tle) {
+            Log.w(TAG, "card lost before the PAN was read", tle);
+            result.setPartialScan(true);
+        } catch (ScanDeadlineException sde) {
+            Log.d(TAG, "PAN not read: " + sde.getMessage());
+            result.setPartialScan(true);
         } catch (TlvParsingException tle) {
-            Log.w(TAG, "Catched Exception while reading Maestro infos: ", tle);
+            Log.w(TAG, "Catched Exception while reading the PAN: ", tle);
+        }
+        endPhase();
+        result.setScanMetrics(metrics.snapshot());
+        if (BuildConfig.DEBUG) {
+            Log.d(TAG, "PAN only read finished after " + apduCount
+                    + " APDUs and " + (System.nanoTime() - start) / 1000000
+                    + " ms");
         }
         return result;
     }
 
     /**
-     * Read Mastercard infos from card
+     * Select the applications of the card (from the PPSE, or the well known
+     * ones) until one of them returns the PAN
      *
      * @param result
-     * @param fullFileScan <code>true</code> if we should try to iterate over all EFs,
-     *                     false if only some
      * @throws IOException
      */
-    private CardInfo readMastercardInfos(CardInfo result, boolean fullFileScan)
+    private void readPan(CardInfo result) throws IOException {
+        List<ApplicationDirectoryEntry> applications = readPaymentSystemDirectory();
+        if (applications == null || applications.isEmpty()) {
+            Log.d(TAG, "no PPSE directory, probing well known AIDs..");
+            for (byte[] aid : WELL_KNOWN_AIDS) {
+                if (readPanFromApplication(result, aid, null)) {
+                    return;
+                }
+            }
+        } else {
+            for (ApplicationDirectoryEntry application : applications) {
+                if (readPanFromApplication(result, application.getAid(),
+                        application.getLabel())) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Select an EMV application and read records until the PAN is found
+     *
+     * @param result
+     * @param aid    the application to select
+     * @param label  application label from the PPSE (may be <code>null</code>)
+     * @return <code>true</code> if the PAN was found
+     * @throws IOException
+     */
+    private boolean readPanFromApplication(CardInfo result, byte[] aid,
+                                           String label) throws IOException {
+        startPhase(ScanMetrics.Phase.SELECT);
+        ResponseApdu selectAidResponse = selectApplicationGetBytes(aid);
+        if (!selectAidResponse.isSuccess()) {
+            return false;
+        }
+        markApplication(result, aid, label);
+        if (findPan(result, selectAidResponse)) {
+            return true;
+        }
+        // some cards (e.g. VISA qVSDC) return track 2 already in the GPO response
+        ProcessingOptions processingOptions = tryToGetProcessingOptions(selectAidResponse);
+        if (extractPan(result)) {
+            return true;
+        }
+        if (processingOptions == null) {
+            return false;
+        }
+        startPhase(ScanMetrics.Phase.READ_RECORDS);
+        for (ApplicationFileLocator.Entry entry : processingOptions
+                .getApplicationFileLocator().getEntries()) {
+            for (int record = entry.getFirstRecord(); record <= entry
+                    .getLastRecord(); record++) {
+                ResponseApdu responsePdu = readRecord(entry.getSfi(), record);
+                if (responsePdu.isSuccess()
+                        && findPan(result, responsePdu)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Select the Proximity Payment System Environment (PPSE) and read the
+     * list of applications on the card
+     *
+     * @return the applications sorted by priority, or <code>null</code> if the
+     * card has no PPSE or the response could not be parsed
+     * @throws IOException
+     */
+    private List<ApplicationDirectoryEntry> readPaymentSystemDirectory()
             throws IOException {
-        Log.d(TAG, "check if card contains Mastercard Creditcard AID..");
-        byte[] selectAidResponse = selectApplicationGetBytes(APPLICATION_ID_EMV_MASTERCARD);
-        parseAndSaveBerTlvResponse(selectAidResponse);
-        boolean isMastercard = isStatusSuccess(getLast2Bytes(selectAidResponse));
-        result.setMasterCard(isMastercard);
-        if (!isMastercard) {
-            return result;
+        Log.d(TAG, "reading PPSE directory..");
+        startPhase(ScanMetrics.Phase.DISCOVERY);
+        ResponseApdu selectPpseResponse = selectApplicationGetBytes(APPLICATION_ID_PPSE);
+        if (!selectPpseResponse.isSuccess()) {
+            return null;
         }
-        // ok, so let's catch exceptions here, instead of just letting the whole
-        // scan abort, so that the user gets at least some infos where the
-        // parsing failed:
         try {
-            result = readEmvData(selectAidResponse, result, fullFileScan);
-        } catch (RuntimeException re) {
-            Log.w(TAG, "Catched Exception while reading mastercard  infos: ",
-                    re);
+            List<ApplicationDirectoryEntry> applications = ApplicationDirectoryEntry
+                    .parsePpseResponse(selectPpseResponse.getBuffer(),
+                            selectPpseResponse.dataOffset(),
+                            selectPpseResponse.dataLength());
+            if (BuildConfig.DEBUG) {
+                Log.d(TAG, "PPSE lists applications: " + applications);
+            }
+            return applications;
         } catch (TlvParsingException tle) {
-            Log.w(TAG, "Catched Exception while reading mastercard  infos: ",
-                    tle);
+            Log.w(TAG, "Catched Exception while parsing PPSE directory: ", tle);
+        } catch (RuntimeException re) {
+            Log.w(TAG, "Catched Exception while parsing PPSE directory: ", re);
         }
-        return result;
+        return null;
     }
 
     /**
-     * Read VISA card infos from card
+     * Select an EMV application and read its infos from card
      *
      * @param result
+     * @param aid          the application to select
+     * @param label        application label from the PPSE (may be
+     *                     <code>null</code>)
      * @param fullFileScan <code>true</code> if we should try to iterate over all EFs,
      *                     false if only some
      * @throws IOException
      */
-    private CardInfo readVisaCardInfos(CardInfo result, boolean fullFileScan)
-            throws IOException {
-        Log.d(TAG, "check if card contains VISA Creditcard AID..");
-        byte[] selectAidResponse = selectApplicationGetBytes(APPLICATION_ID_EMV_VISA_CREDITCARD);
+    private CardInfo readApplicationInfos(CardInfo result, byte[] aid,
+                                          String label, boolean fullFileScan) throws IOException {
+        if (BuildConfig.DEBUG) {
+            Log.d(TAG, "check if card contains AID " + bytesToHex(aid) + "..");
+        }
+        startPhase(ScanMetrics.Phase.SELECT);
+        ResponseApdu selectAidResponse = selectApplicationGetBytes(aid);
         parseAndSaveBerTlvResponse(selectAidResponse);
-        boolean isVisaCard = isStatusSuccess(getLast2Bytes(selectAidResponse));
-        result.setVisaCreditCard(isVisaCard);
-        if (!isVisaCard) {
+        if (!selectAidResponse.isSuccess()) {
             return result;
         }
+        markApplication(result, aid, label);
         // ok, so let's catch exceptions here, instead of just letting the whole
         // scan abort, so that the user gets at least some infos where the
         // parsing failed:
         try {
             result = readEmvData(selectAidResponse, result, fullFileScan);
         } catch (RuntimeException re) {
-            Log.w(TAG, "Catched Exception while reading VISA card infos: ", re);
+            Log.w(TAG, "Catched Exception while reading infos of AID "
+                    + bytesToHex(aid) + ": ", re);
         } catch (TlvParsingException tle) {
-            Log.w(TAG, "Catched Exception while reading VISA card infos: ", tle);
+            Log.w(TAG, "Catched Exception while reading infos of AID "
+                    + bytesToHex(aid) + ": ", tle);
         }
         return result;
     }
 
+    /**
+     * Set the card type flags for a successfully selected application
+     *
+     * @param result
+     * @param aid
+     * @param label application label from the PPSE (may be <code>null</code>)
+     */
+    private void markApplication(CardInfo result, byte[] aid, String label) {
+        if (Arrays.equals(aid, APPLICATION_ID_EMV_MAESTRO_BANKOMAT)) {
+            result.setMaestroCard(true);
+        } else if (Arrays.equals(aid, APPLICATION_ID_EMV_VISA_CREDITCARD)) {
+            result.setVisaCreditCard(true);
+        } else if (Arrays.equals(aid, APPLICATION_ID_EMV_MASTERCARD)) {
+            result.setMasterCard(true);
+        } else {
+            result.setOtherEmvCard(label != null ? label : bytesToHex(aid));
+        }
+        fireApplicationSelected(aid, label);
+    }
+
     /**
      * Try to read some EMV data
      *
@@ -248,50 +482,198 @@ public class EmvCardReader {
      * @throws IOException
      * @throws TlvParsingException
      */
-    private CardInfo readEmvData(byte[] selectAidResponse, CardInfo result,
-                                 boolean fullFileScan) throws IOException, TlvParsingException {
-        tryToReadLogFormat();
-        result = tryToReadPinRetryCounter(result);
-        tryToReadCurrentAtcValue();
-        tryToReadLastOnlineAtcRegisterValue();
-        tryToReadAllCommonSimpleTlvTags();
-        tryToReadAllCommonBerTlvTags();
-        tryToReadAdditionalGetDataFields();
-        result = searchForFiles(result, fullFileScan, true);
-        result.addKeyValuePairs(filterTagsForResult(ctx, tagList, false));
-
-
-        byte[] panBytes = findPAN(tagList);
-        if (panBytes != null && panBytes.length > 0) {
-            String panString = bytesToHex(panBytes);
-            if (panString.matches("^[0-9]+F*$")) {
-
-                int indexF = panString.indexOf('F');
-                if (indexF>-1) {
-                    panString = panString.substring(0,indexF);
+    private CardInfo readEmvData(final ResponseApdu selectAidResponse,
+                                 final CardInfo result, final boolean fullFileScan)
+            throws IOException, TlvParsingException {
+        // the log format is needed for decoding the log records, and the
+        // records contain PAN, expiry date and the log, so they come first
+        schedule.add(ScanScheduler.PRIORITY_LOG_FORMAT, "log format",
+                new ScanScheduler.Probe() {
+                    @Override
+                    public void run() throws IOException {
+                        startPhase(ScanMetrics.Phase.GET_DATA);
+                        tryToReadLogFormat();
+                    }
+                });
+        schedule.add(ScanScheduler.PRIORITY_RECORDS, "records",
+                new ScanScheduler.Probe() {
+                    @Override
+                    public void run() throws IOException {
+                        readRecords(selectAidResponse, result, fullFileScan);
+                    }
+                });
+        schedule.add(ScanScheduler.PRIORITY_PIN_RETRY_COUNTER,
+                "PIN retry counter", new ScanScheduler.Probe() {
+                    @Override
+                    public void run() throws IOException, TlvParsingException {
+                        startPhase(ScanMetrics.Phase.GET_DATA);
+                        tryToReadPinRetryCounter(result);
+                    }
+                });
+        schedule.add(ScanScheduler.PRIORITY_COUNTERS, "ATC",
+                new ScanScheduler.Probe() {
+                    @Override
+                    public void run() throws IOException {
+                        startPhase(ScanMetrics.Phase.GET_DATA);
+                        tryToReadCurrentAtcValue();
+                        tryToReadLastOnlineAtcRegisterValue();
+                    }
+                });
+        schedule.add(ScanScheduler.PRIORITY_RISK_LIMITS,
+                "risk management limits", new ScanScheduler.Probe() {
+                    @Override
+                    public void run() throws IOException, TlvParsingException {
+                        startPhase(ScanMetrics.Phase.GET_DATA);
+                        tryToReadAdditionalGetDataFields();
+                    }
+                });
+        schedule.add(ScanScheduler.PRIORITY_COMMON_TLV, "common TLV tags",
+                new ScanScheduler.Probe() {
+                    @Override
+                    public void run() throws IOException {
+                        startPhase(ScanMetrics.Phase.GET_DATA);
+                        tryToReadAllCommonSimpleTlvTags();
+                        tryToReadAllCommonBerTlvTags();
+                    }
+                });
+        try {
+            schedule.runAll();
+        } finally {
+            // also if the scan was stopped early
+            result.addKeyValuePairs(filterTagsForResult(labels, cardData, false));
+            extractPan(result);
+        }
+        return result;
+    }
+
+    /**
+     * Look for the PAN in the tags read so far and store it in the result.
+     * The PAN is taken from whichever comes first of the PAN tag (5A) or the
+     * Track 2 Equivalent Data (57), where it is the part before the field
+     * separator 'D' (like {@link #findPan(CardInfo, ResponseApdu)} does).
+     *
+     * @param result
+     * @return <code>true</code> if a valid PAN was found
+     */
+    private boolean extractPan(CardInfo result) {
+        if (result.getPersonalAccounNumber() != null) {
+            return true;
+        }
+        if (!cardData.contains(EMVTags.PAN)
+                && !cardData.contains(EMVTags.TRACK_2_EQV_DATA)) {
+            return false;
+        }
+        String pan = null;
+        for (CardDataIndex.Entry entry : cardData.entries()) {
+            int tagId = entry.getTagId();
+            if (tagId == 0x5A || tagId == 0x57) {
+                pan = panFromValue(entry.getValue(), 0,
+                        entry.getValue().length, tagId == 0x57);
+                if (pan != null) {
+                    break;
                 }
-                result.setPersonalAccounNumber(panString);
-            } else {
-                Log.w(TAG, "NO PAN FOUND!! Raw PAN looks invalid: " + panString);
             }
         }
-        return result;
+        if (pan != null) {
+            result.setPersonalAccounNumber(pan);
+            firePanFound(pan);
+            return true;
+        }
+        return false;
     }
 
+    /**
+     * Look for the PAN directly in a response PDU (without adding its tags to
+     * the tag list) and store it in the result. Parsing stops at the first
+     * valid PAN (5A) or Track 2 Equivalent Data (57).
+     *
+     * @param result
+     * @param resultPdu response including status word
+     * @return <code>true</code> if a valid PAN was found
+     */
+    private boolean findPan(CardInfo result, ResponseApdu resultPdu) {
+        if (result.getPersonalAccounNumber() != null) {
+            return true;
+        }
+        if (!resultPdu.hasData()) {
+            return false;
+        }
+        PanFinder finder = new PanFinder();
+        long start = System.nanoTime();
+        try {
+            walkBerTlv(resultPdu.getBuffer(), resultPdu.dataOffset(),
+                    resultPdu.dataLength(), finder);
+        } catch (TlvParsingException e) {
+            Log.w(TAG, "exception while parsing BER-TLV PDU response\n"
+                    + prettyPrintString(bytesToHex(resultPdu.getBuffer()), 2), e);
+        }
+        metrics.addParseTime(System.nanoTime() - start);
+        if (finder.pan != null) {
+            result.setPersonalAccounNumber(finder.pan);
+            firePanFound(finder.pan);
+            return true;
+        }
+        return false;
+    }
 
     /**
-     * Find PAN tag in list
+     * Get the PAN from the value of tag 5A or 57
      *
-     * @param tags
-     * @return
+     * @param buf
+     * @param offset
+     * @param length
+     * @param track2 <code>true</code> if the value is Track 2 Equivalent Data,
+     *               where the PAN is the part before the field separator 'D'
+     * @return the PAN or <code>null</code> if the value contains no valid PAN
      */
-    private byte[] findPAN(List<TagAndValue> tags) {
-        for (TagAndValue tv : tags) {
-            if (Arrays.equals(EMVTags.PAN.getTagBytes(), tv.getTag().getTagBytes())) {
-                return tv.getValue();
+    private static String panFromValue(byte[] buf, int offset, int length,
+                                       boolean track2) {
+        String panString = bytesToHex(Arrays.copyOfRange(buf, offset, offset
+                + length));
+        if (track2) {
+            int separator = panString.indexOf('D');
+            if (separator < 0) {
+                return null;
             }
+            panString = panString.substring(0, separator);
+        }
+        if (!panString.matches("^[0-9]+F*$")) {
+            Log.w(TAG, "Raw PAN looks invalid: " + panString);
+            return null;
+        }
+        int indexF = panString.indexOf('F');
+        if (indexF > -1) {
+            panString = panString.substring(0, indexF);
+        }
+        return panString;
+    }
+
+    /**
+     * {@link TlvVisitor} stopping at the first valid PAN
+     */
+    private static class PanFinder implements TlvVisitor {
+        private String pan;
+
+        @Override
+        public boolean onPrimitive(int tag, byte[] buf, int offset, int length) {
+            if (tag == 0x5A) {
+                pan = panFromValue(buf, offset, length, false);
+            } else if (tag == 0x57) {
+                pan = panFromValue(buf, offset, length, true);
+            }
+            return pan == null;
+        }
+
+        @Override
+        public boolean onConstructedStart(int tag, byte[] buf, int offset,
+                                          int length) {
+            return true;
+        }
+
+        @Override
+        public boolean onConstructedEnd(int tag) {
+            return true;
         }
-        return null;
     }
 
     /**
@@ -300,11 +682,12 @@ public class EmvCardReader {
      * @throws IOException
      */
     private void tryToReadLogFormat() throws IOException {
-        byte[] resultPdu = localIsoDep
-                .transceive(EMV_COMMAND_GET_DATA_LOG_FORMAT);
-        _logFormatResponse = bytesToHex(resultPdu);
-        logResultPdu(resultPdu);
+        ResponseApdu resultPdu = transceive(CommandApdu.GET_DATA_LOG_FORMAT);
         parseAndSaveBerTlvResponse(resultPdu);
+        logFormat = TransactionLogFormat.fromGetDataResponse(resultPdu.getBuffer());
+        if (BuildConfig.DEBUG) {
+            Log.d(TAG, "log format: " + logFormat);
+        }
     }
 
     /**
@@ -315,14 +698,14 @@ public class EmvCardReader {
      */
     private CardInfo tryToReadPinRetryCounter(CardInfo result)
             throws IOException, TlvParsingException {
-        byte[] resultPdu = localIsoDep
-                .transceive(EMV_COMMAND_GET_DATA_PIN_RETRY_COUNTER);
-        logResultPdu(resultPdu);
+        ResponseApdu resultPdu = transceive(CommandApdu.GET_DATA_PIN_RETRY_COUNTER);
         parseAndSaveBerTlvResponse(resultPdu);
-        if (isStatusSuccess(getLast2Bytes(resultPdu))) {
-            BERTLV tlv = getNextTLV(new ByteArrayInputStream(resultPdu));
-            int pinRetryCounter = tlv.getValueBytes()[0];
-            result.setPinRetryCounter(pinRetryCounter);
+        if (resultPdu.isSuccess()) {
+            TlvCursor cursor = new TlvCursor(resultPdu.getBuffer(),
+                    resultPdu.dataOffset(), resultPdu.dataLength());
+            if (cursor.next() && cursor.getValueLength() > 0) {
+                result.setPinRetryCounter(cursor.getValueByte(0));
+            }
         }
         return result;
     }
@@ -336,33 +719,22 @@ public class EmvCardReader {
      */
     private void tryToReadAdditionalGetDataFields() throws IOException,
             TlvParsingException {
-        byte[] resultPdu = localIsoDep
-                .transceive(EMV_COMMAND_GET_DATA_CRM_CURRENCY);
-        logResultPdu(resultPdu);
+        ResponseApdu resultPdu = transceive(CommandApdu.GET_DATA_CRM_CURRENCY);
         parseAndSaveBerTlvResponse(resultPdu);
 
-        resultPdu = localIsoDep.transceive(EMV_COMMAND_GET_DATA_CRM_COUNTRY);
-        logResultPdu(resultPdu);
+        resultPdu = transceive(CommandApdu.GET_DATA_CRM_COUNTRY);
         parseAndSaveBerTlvResponse(resultPdu);
 
-        resultPdu = localIsoDep
-                .transceive(EMV_COMMAND_GET_DATA_LOWER_CONSECUTIVE_OFFLINE_LIMIT);
-        logResultPdu(resultPdu);
+        resultPdu = transceive(CommandApdu.GET_DATA_LOWER_CONSECUTIVE_OFFLINE_LIMIT);
         parseAndSaveBerTlvResponse(resultPdu);
 
-        resultPdu = localIsoDep
-                .transceive(EMV_COMMAND_GET_DATA_UPPER_CONSECUTIVE_OFFLINE_LIMIT);
-        logResultPdu(resultPdu);
+        resultPdu = transceive(CommandApdu.GET_DATA_UPPER_CONSECUTIVE_OFFLINE_LIMIT);
         parseAndSaveBerTlvResponse(resultPdu);
 
-        resultPdu = localIsoDep
-                .transceive(EMV_COMMAND_GET_DATA_LOWER_CUMULATIVE_TX_AMOUNT);
-        logResultPdu(resultPdu);
+        resultPdu = transceive(CommandApdu.GET_DATA_LOWER_CUMULATIVE_TX_AMOUNT);
         parseAndSaveBerTlvResponse(resultPdu);
 
-        resultPdu = localIsoDep
-                .transceive(EMV_COMMAND_GET_DATA_UPPER_CUMULATIVE_TX_AMOUNT);
-        logResultPdu(resultPdu);
+        resultPdu = transceive(CommandApdu.GET_DATA_UPPER_CUMULATIVE_TX_AMOUNT);
         parseAndSaveBerTlvResponse(resultPdu);
     }
 
@@ -372,9 +744,7 @@ public class EmvCardReader {
      * @throws IOException
      */
     private void tryToReadCurrentAtcValue() throws IOException {
-        byte[] resultPdu = localIsoDep
-                .transceive(EMV_COMMAND_GET_DATA_APP_TX_COUNTER);
-        logResultPdu(resultPdu);
+        ResponseApdu resultPdu = transceive(CommandApdu.GET_DATA_APP_TX_COUNTER);
         parseAndSaveBerTlvResponse(resultPdu);
     }
 
@@ -384,9 +754,7 @@ public class EmvCardReader {
      * @throws IOException
      */
     private void tryToReadLastOnlineAtcRegisterValue() throws IOException {
-        byte[] resultPdu = localIsoDep
-                .transceive(EMV_COMMAND_GET_DATA_LAST_ONLINE_APP_TX_COUNTER);
-        logResultPdu(resultPdu);
+        ResponseApdu resultPdu = transceive(CommandApdu.GET_DATA_LAST_ONLINE_APP_TX_COUNTER);
         parseAndSaveBerTlvResponse(resultPdu);
     }
 
@@ -396,9 +764,7 @@ public class EmvCardReader {
      * @throws IOException
      */
     private void tryToReadAllCommonSimpleTlvTags() throws IOException {
-        byte[] resultPdu = localIsoDep
-                .transceive(EMV_COMMAND_GET_DATA_ALL_COMMON_SIMPLE_TLV);
-        logResultPdu(resultPdu);
+        ResponseApdu resultPdu = transceive(CommandApdu.GET_DATA_ALL_COMMON_SIMPLE_TLV);
         parseAndSaveBerTlvResponse(resultPdu);
     }
 
@@ -408,9 +774,7 @@ public class EmvCardReader {
      * @throws IOException
      */
     private void tryToReadAllCommonBerTlvTags() throws IOException {
-        byte[] resultPdu = localIsoDep
-                .transceive(EMV_COMMAND_GET_DATA_ALL_COMMON_BER_TLV);
-        logResultPdu(resultPdu);
+        ResponseApdu resultPdu = transceive(CommandApdu.GET_DATA_ALL_COMMON_BER_TLV);
         parseAndSaveBerTlvResponse(resultPdu);
     }
 
@@ -432,14 +796,104 @@ public class EmvCardReader {
     private void tryToVerifyPlaintextPin(String pin) throws IOException {
         // this just performs PLAINTEXT pin verification (not supported on
         // modern cards)
-        byte[] resultPdu = localIsoDep.transceive(createApduVerifyPIN(pin,
+        ResponseApdu resultPdu = transceive(createApduVerifyPIN(pin,
                 true));
-        logResultPdu(resultPdu);
         parseAndSaveBerTlvResponse(resultPdu);
     }
 
-    private byte[] transceiveAndLog(byte[] data) throws IOException {
-        return localIsoDep.transceive(data);
+    /**
+     * Send a (shared) command APDU to the card
+     *
+     * @param command
+     * @return the response APDU
+     * @throws IOException
+     */
+    private ResponseApdu transceive(CommandApdu command) throws IOException {
+        return transceive(command.getBuffer());
+    }
+
+    /**
+     * Send a command APDU to the card and count it. If the card answers with
+     * 6Cxx (wrong Le) the command is resent with the correct Le, and if it
+     * answers with 61xx the response data is fetched with GET RESPONSE.
+     *
+     * @param command
+     * @return the response APDU
+     * @throws ReadCancelledException if the read was cancelled
+     * @throws ScanDeadlineException  if the time budget of the scan is used up
+     * @throws IOException
+     */
+    private ResponseApdu transceive(byte[] command) throws IOException {
+        if (cancelled) {
+            throw new ReadCancelledException("reading the card was cancelled");
+        }
+        if (schedule != null) {
+            schedule.checkDeadline();
+        }
+        apduCount++;
+        byte[] response = exchange(command);
+        if (response.length == 2 && response[0] == (byte) 0x6C) {
+            Log.d(TAG, "wrong Le, resending command");
+            apduCount++;
+            if (command.length == 5) {
+                // only Le is sent (READ RECORD, GET DATA, ..)
+                System.arraycopy(command, 0, resendCommand, 0, 4);
+                resendCommand[4] = response[1];
+                response = exchange(resendCommand);
+            } else {
+                response = exchange(createApduWithLe(command, response[1]));
+            }
+        }
+        if (response.length >= 2
+                && response[response.length - 2] == (byte) 0x61) {
+            ByteArrayOutputStream data = new ByteArrayOutputStream();
+            while (response.length >= 2
+                    && response[response.length - 2] == (byte) 0x61) {
+                data.write(response, 0, response.length - 2);
+                apduCount++;
+                response = exchange(encodeGetResponseApdu(getResponseCommand,
+                        response[response.length - 1]));
+            }
+            data.write(response, 0, response.length);
+            response = data.toByteArray();
+        }
+        return new ResponseApdu(response);
+    }
+
+    /**
+     * Send a single command APDU and record its metrics
+     *
+     * @param command
+     * @return the response APDU
+     * @throws IOException
+     */
+    private byte[] exchange(byte[] command) throws IOException {
+        long start = System.nanoTime();
+        byte[] response = null;
+        try {
+            response = transport.transceive(command);
+            return response;
+        } finally {
+            long nanos = System.nanoTime() - start;
+            metrics.recordCommand(command, response, nanos);
+            if (trace != null) {
+                trace.record(command, response, start, nanos);
+            }
+        }
+    }
+
+    /**
+     * @return a snapshot of the metrics of all commands sent so far
+     */
+    public ScanMetrics getScanMetrics() {
+        return metrics.snapshot();
+    }
+
+    /**
+     * @return number of command APDUs sent to the card by this reader
+     */
+    public int getApduCount() {
+        return apduCount;
     }
 
 
@@ -454,12 +908,7 @@ public class EmvCardReader {
      * @return
      */
     private CardInfo lookForLogEntryEmvTag(CardInfo result) {
-        boolean foundLogTag = false;
-        for (TagAndValue tv : tagList) {
-            if ("9F4D".equals(bytesToHex(tv.getTag().getTagBytes()))) {
-                foundLogTag = true;
-            }
-        }
+        boolean foundLogTag = cardData.contains(EMVTags.LOG_ENTRY);
         if (foundLogTag) {
             Log.d(TAG, "YES! EMV Tag 'Log Entry' found! This card *may* "
                     + "store transactions logs.");
@@ -472,6 +921,132 @@ public class EmvCardReader {
         return result;
     }
 
+    /**
+     * Read the records of the currently selected application.<br>
+     * Unless a full file scan is requested, we send GET PROCESSING OPTIONS and
+     * only read the records listed in the Application File Locator (plus the
+     * transaction log). Blindly probing EFs and records is only used if the
+     * card doesn't give us a usable AFL.
+     *
+     * @param selectAidResponse response of the SELECT command
+     * @param result
+     * @param fullFileScan      <code>true</code> if we should try to iterate over all EFs,
+     *                          false if we should follow the AFL
+     * @return
+     * @throws IOException
+     */
+    private CardInfo readRecords(ResponseApdu selectAidResponse, CardInfo result,
+                                 boolean fullFileScan) throws IOException {
+        if (!fullFileScan) {
+            ProcessingOptions processingOptions = tryToGetProcessingOptions(selectAidResponse);
+            if (processingOptions != null
+                    && !processingOptions.getApplicationFileLocator().isEmpty()) {
+                return readFilesFromAfl(result,
+                        processingOptions.getApplicationFileLocator());
+            }
+            Log.d(TAG, "No usable AFL, falling back to probing well-known EFs..");
+        }
+        return searchForFiles(result, fullFileScan, true);
+    }
+
+    /**
+     * Send GET PROCESSING OPTIONS and parse AIP and AFL out of the response
+     *
+     * @param selectAidResponse response of the SELECT command (containing the
+     *                          PDOL)
+     * @return the processing options or <code>null</code> if the PDOL could
+     * not be answered, the card returned an error or the response could not
+     * be parsed
+     * @throws IOException
+     */
+    private ProcessingOptions tryToGetProcessingOptions(ResponseApdu selectAidResponse)
+            throws IOException {
+        startPhase(ScanMetrics.Phase.PROCESSING_OPTIONS);
+        byte[] command;
+        try {
+            command = createGetProcessingOptionsApdu(selectAidResponse.getBuffer(),
+                    terminalData);
+        } catch (IllegalArgumentException e) {
+            // PDOL asks for more data than fits into a short APDU
+            Log.w(TAG, "cannot build GET PROCESSING OPTIONS command", e);
+            return null;
+        }
+        ResponseApdu resultPdu = transceive(command);
+        if (!resultPdu.isSuccess()) {
+            return null;
+        }
+        parseAndSaveBerTlvResponse(resultPdu);
+        try {
+            ProcessingOptions processingOptions = ProcessingOptions.parse(
+                    resultPdu.getBuffer(), resultPdu.dataOffset(),
+                    resultPdu.dataLength());
+            if (BuildConfig.DEBUG) {
+                Log.d(TAG, "AFL: " + processingOptions.getApplicationFileLocator());
+            }
+            return processingOptions;
+        } catch (TlvParsingException e) {
+            Log.w(TAG, "cannot parse GET PROCESSING OPTIONS response", e);
+            return null;
+        }
+    }
+
+    /**
+     * Read exactly the records listed in the AFL. As the transaction log is not
+     * part of the AFL, we additionally read the records given in the
+     * "9F4D Log Entry" tag, or (if the card doesn't tell us) probe the well
+     * known log EF.
+     *
+     * @param result
+     * @param afl    the Application File Locator returned by the card
+     * @return
+     * @throws IOException
+     */
+    private CardInfo readFilesFromAfl(CardInfo result, ApplicationFileLocator afl)
+            throws IOException {
+        startPhase(ScanMetrics.Phase.READ_RECORDS);
+        TransactionLogTable txLog = new TransactionLogTable();
+        // set right away, so that the entries read so far are kept if the
+        // scan is stopped early
+        result.setTransactionLogTable(txLog);
+        RecordPipeline pipeline = startRecordPipeline(txLog);
+        try {
+            for (ApplicationFileLocator.Entry entry : afl.getEntries()) {
+                for (int record = entry.getFirstRecord(); record <= entry
+                        .getLastRecord(); record++) {
+                    ResponseApdu responsePdu = readRecord(entry.getSfi(), record);
+                    if (responsePdu.isSuccess()) {
+                        pipeline.put(responsePdu, entry.getSfi(), record, false);
+                    }
+                }
+            }
+
+            // the "Log Entry" tag is returned in the FCI or in one of the AFL
+            // records and contains the SFI and max. number of log records
+            pipeline.drain();
+            CardDataIndex.Entry logEntryTag = cardData.first(EMVTags.LOG_ENTRY);
+            byte[] logEntry = logEntryTag != null ? logEntryTag.getValue() : null;
+            if (logEntry != null && logEntry.length == 2) {
+                int logSfi = logEntry[0] & 0xFF;
+                int maxLogRecords = logEntry[1] & 0xFF;
+                for (int record = 1; record <= maxLogRecords; record++) {
+                    ResponseApdu responsePdu = readRecord(logSfi, record);
+                    if (!responsePdu.isSuccess()) {
+                        // log records are written from record 1 upwards, so
+                        // the first missing record means we are done
+                        break;
+                    }
+                    pipeline.put(responsePdu, logSfi, record, true);
+                }
+            } else if (!afl.containsSfi(LOG_RECORD_EF)) {
+                probeRecords(LOG_RECORD_EF, 2, pipeline);
+            }
+            pipeline.drain();
+        } finally {
+            finishRecordPipeline(pipeline);
+        }
+        return result;
+    }
+
     /**
      * Just try reading all EF files from 0 to 10 and see if there will be emv
      * data returned.
@@ -485,6 +1060,7 @@ public class EmvCardReader {
      */
     private CardInfo searchForFiles(CardInfo result, boolean fullFileScan,
                                     boolean tryToParse) throws IOException {
+        startPhase(ScanMetrics.Phase.READ_RECORDS);
 
         // we now simply check in 2 loops a lot of files and records if they
         // return BER-TLV encoded data or Transaction Logs
@@ -495,284 +1071,150 @@ public class EmvCardReader {
         // just iterate over everything.
 
         // if we find something looking like a TX log, add it to TX list
-        List<EmvTransactionLogEntry> txList = new ArrayList<EmvTransactionLogEntry>();
-
-        int consecutiveErrorRecords = 0;
-
-        // iterate over EFs
-        for (int shortEfFileIdentifier = 0; shortEfFileIdentifier < 32; shortEfFileIdentifier++) {
+        TransactionLogTable txLog = new TransactionLogTable();
+        result.setTransactionLogTable(txLog);
+        RecordPipeline pipeline = tryToParse ? startRecordPipeline(txLog)
+                : null;
+        try {
+            // iterate over EFs
+            for (int shortEfFileIdentifier = 0; shortEfFileIdentifier < 32; shortEfFileIdentifier++) {
+
+                // ugly and hardcoded, but keep it for now
+                // jump to next if EF not in whitelst
+                if (!fullFileScan) {
+                    if (shortEfFileIdentifier != 1 && shortEfFileIdentifier != 2
+                            && shortEfFileIdentifier != 3
+                            && shortEfFileIdentifier != 4
+                            && shortEfFileIdentifier != LOG_RECORD_EF)
+                        continue;
+                }
 
-            // ugly and hardcoded, but keep it for now
-            // jump to next if EF not in whitelst
-            if (!fullFileScan) {
-                if (shortEfFileIdentifier != 1 && shortEfFileIdentifier != 2
-                        && shortEfFileIdentifier != 3
-                        && shortEfFileIdentifier != 4
-                        && shortEfFileIdentifier != LOG_RECORD_EF)
-                    continue;
+                // if we had 6 errors (or 3 if we do a fast scan) in a row
+                // we assume that no more records will come and just leave this
+                // EF and go to the next
+                probeRecords(shortEfFileIdentifier, fullFileScan ? 6 : 2,
+                        pipeline);
             }
-
-            // for each new EF set the consecutive error counter to 0
-            consecutiveErrorRecords = 0;
-
-            Log.d(TAG, "Trying now to read EF " + shortEfFileIdentifier + "...");
-
-            // iterate over records within EF
-            for (int currentRecord = 0; currentRecord < 256; currentRecord++) {
-                if ((fullFileScan && consecutiveErrorRecords > 6)
-                        || (!fullFileScan && consecutiveErrorRecords > 2)) {
-                    // if we had 6 errors (or 3 if we do a fast scan) in a row
-                    // we assume that no more
-                    // records will come and just leave this EF and go
-                    // to the next
-                    break;
-                }
-                byte[] responsePdu = readRecord(shortEfFileIdentifier,
-                        currentRecord, false);
-                if (isStatusSuccess(getLast2Bytes(responsePdu))) {
-                    // also if we find a record set counter to 0
-                    consecutiveErrorRecords = 0;
-                    if (tryToParse) {
-                        if (shortEfFileIdentifier == LOG_RECORD_EF
-                                && lengthLooksLikeTxLog(responsePdu)) {
-                            EmvTransactionLogEntry txLogEntry = tryToParseLogEntry(responsePdu);
-                            if (txLogEntry != null) {
-                                txList.add(txLogEntry);
-                            }
-                        } else {
-                            // avoid that a single unparsable record may abort
-                            // the whole scan
-                            try {
-                                parseAndSaveBerTlvResponse(responsePdu);
-                            } catch (Exception e) {
-                                Log.w(TAG,
-                                        "Ignored exception while parsing TLV data",
-                                        e);
-                            }
-                        }
-                    } else {
-                        logResultPdu(responsePdu);
-                    }
-                } else {
-                    consecutiveErrorRecords++;
-                    // if card returns error for this record, just try the
-                    // next...
-                    continue;
-                }
+            if (pipeline != null) {
+                pipeline.drain();
+            }
+        } finally {
+            if (pipeline != null) {
+                finishRecordPipeline(pipeline);
             }
-
         }
-        result.setTransactionLog(txList);
         return result;
     }
 
     /**
-     * Very simple test for log record..
+     * Iterate over the records of a single EF until the card returned too many
+     * errors in a row.
      *
-     * @param rawRecord
-     * @return
+     * @param shortEfFileIdentifier      the EF to probe
+     * @param maxConsecutiveErrorRecords give up on this EF after more than this
+     *                                   number of errors in a row
+     * @param pipeline                   found records are queued here for
+     *                                   parsing, <code>null</code> to not
+     *                                   parse them
+     * @throws IOException
      */
-    private boolean lengthLooksLikeTxLog(byte[] rawRecord) {
-        if (LOG_FORMAT_BANKOMAT_AUSTRIA.equals(_logFormatResponse)) {
-            return (rawRecord.length == LOG_LENGTH_BANKOMAT_AUSTRIA);
-        } else if (LOG_FORMAT_MASTERCARD.equals(_logFormatResponse)) {
-            return (rawRecord.length == LOG_LENGTH_MASTERCARD);
-        } else if (LOG_FORMAT_VISA.equals(_logFormatResponse)) {
-            return (rawRecord.length == LOG_LENGTH_VISA);
+    private void probeRecords(int shortEfFileIdentifier,
+                              int maxConsecutiveErrorRecords,
+                              RecordPipeline pipeline) throws IOException {
+        // for each new EF set the consecutive error counter to 0
+        int consecutiveErrorRecords = 0;
+
+        if (BuildConfig.DEBUG) {
+            Log.d(TAG, "Trying now to read EF " + shortEfFileIdentifier + "...");
         }
-        return false;
-    }
 
-    /**
-     * @param rawRecord
-     * @return
-     */
-    private EmvTransactionLogEntry tryToParseLogEntry(byte[] rawRecord) {
-        if (LOG_FORMAT_BANKOMAT_AUSTRIA.equals(_logFormatResponse)) {
-            return parseBankomatTxLogEntryFromByteArray(rawRecord);
-        } else if (LOG_FORMAT_MASTERCARD.equals(_logFormatResponse)) {
-            return parseMastercardTxLogEntryFromByteArray(rawRecord);
-        } else if (LOG_FORMAT_VISA.equals(_logFormatResponse)) {
-            return parseVisaTxLogEntryFromByteArray(rawRecord);
+        // iterate over records within EF
+        for (int currentRecord = 0; currentRecord < 256; currentRecord++) {
+            if (consecutiveErrorRecords > maxConsecutiveErrorRecords) {
+                break;
+            }
+            ResponseApdu responsePdu = readRecord(shortEfFileIdentifier,
+                    currentRecord);
+            if (responsePdu.isSuccess()) {
+                // also if we find a record set counter to 0
+                consecutiveErrorRecords = 0;
+                if (pipeline != null) {
+                    pipeline.put(responsePdu, shortEfFileIdentifier,
+                            currentRecord,
+                            shortEfFileIdentifier == LOG_RECORD_EF);
+                }
+            } else {
+                consecutiveErrorRecords++;
+                // if card returns error for this record, just try the
+                // next...
+            }
         }
-        return null;
     }
 
     /**
-     * Try to parse the raw byte array into an object
+     * Start parsing records on the parser thread. Until the pipeline is
+     * drained, only the parser thread may access {@link #cardData} and the
+     * TX log.
      *
-     * @param rawRecord (without status word
-     * @return the parsed record or <code>null</code> if something could not be
-     * parsed
+     * @param txLog found TX log entries are added here
+     * @return
      */
-    private EmvTransactionLogEntry parseMastercardTxLogEntryFromByteArray(
-            byte[] rawRecord) {
-
-        // hardcoded to log format of Mastercard (2014)
-
-        // 9F 4F - 1A bytes: Log Format
-        // --------------------------------------
-        // 9F 27 (01 bytes) -> Cryptogram Information Data
-        // 9F 02 (06 bytes) -> Amount, Authorised (Numeric)
-        // 5F 2A (02 bytes) -> Transaction Currency Code
-        // 9A (03 bytes) -> Transaction Date
-        // 9F 36 (02 bytes) -> Application Transaction Counter (ATC)
-        // 9F 52 (06 bytes) -> Application Default Action (ADA)
-
-        if (rawRecord.length < LOG_LENGTH_MASTERCARD) {
-            // only continue if record is at least 24(+2 status) bytes long
-            Log.w(TAG,
-                    "parseTxLogEntryFromByteArray: byte array is not long enough for log entry:\n"
-                            + prettyPrintString(bytesToHex(rawRecord), 2));
-            return null;
-        }
-
-        EmvTransactionLogEntry tx = new EmvTransactionLogEntry();
-        try {
-            tx.setCryptogramInformationData(rawRecord[0]);
-            tx.setAmount(getAmountFromBcdBytes(getByteArrayPart(rawRecord, 1, 6)));
-            tx.setCurrency(Iso4217CurrencyCodes
-                    .getCurrencyAsString(getByteArrayPart(rawRecord, 7, 8)));
-            tx.setTransactionTimestamp(
-                    getDateFromBcdBytes(getByteArrayPart(rawRecord, 9, 11)),
-                    false);
-            tx.setAtc(byteArrayToInt(getByteArrayPart(rawRecord, 12, 13)));
-            tx.setApplicationDefaultAction(getByteArrayPart(rawRecord, 14, 19));
-            tx.setRawEntry(rawRecord);
-        } catch (Exception e) {
-            String msg = "Exception while trying to parse transaction entry: "
-                    + e + "\n" + e.getMessage() + "\nraw byte array:\n"
-                    + prettyPrintString(bytesToHex(rawRecord), 2);
-            Log.w(TAG, msg, e);
-            return null;
+    private RecordPipeline startRecordPipeline(final TransactionLogTable txLog) {
+        if (recordPipeline == null) {
+            // one parser thread for all passes of this read
+            recordPipeline = new RecordPipeline();
+            ownsRecordPipeline = true;
         }
-        return tx;
+        recordPipeline.start(new RecordPipeline.Handler() {
+            @Override
+            public void onRecord(ResponseApdu response, int sfi, int record,
+                                 boolean isLogFile) {
+                handleRecord(response, sfi, record, isLogFile, txLog);
+            }
+        });
+        return recordPipeline;
     }
 
     /**
-     * Try to parse the raw byte array into an object
+     * Parse the remaining records, end the pass (the parser thread keeps
+     * running) and add its parse time to the metrics
      *
-     * @param rawRecord (without status word
-     * @return the parsed record or <code>null</code> if something could not be
-     * parsed
+     * @param pipeline
      */
-    private EmvTransactionLogEntry parseVisaTxLogEntryFromByteArray(
-            byte[] rawRecord) {
-
-        // hardcoded to log format of Mastercard (2014)
-
-        // 9F 4F - 1A bytes: Log Format
-        // --------------------------------------
-        // 9F 36 (02 bytes) -> Application Transaction Counter (ATC)
-        // 9F 02 (06 bytes) -> Amount, Authorised (Numeric)
-        // 9F 03 (06 bytes) -> Amount, Other (Numeric)
-        // 9F 1A (02 bytes) -> Terminal Country Code
-        // 95 (05 bytes) -> Terminal Verification Results (TVR)
-        // 5F 2A (02 bytes) -> Transaction Currency Code
-        // 9A (03 bytes) -> Transaction Date
-        // 9C (01 bytes) -> Transaction Type
-        // 9F 80 (04 bytes) -> [UNHANDLED TAG]
-
-        if (rawRecord.length < LOG_LENGTH_VISA) {
-            Log.w(TAG,
-                    "parseTxLogEntryFromByteArray: byte array is not long enough for VISA log entry:\n"
-                            + prettyPrintString(bytesToHex(rawRecord), 2));
-            return null;
-        }
-
-        EmvTransactionLogEntry tx = new EmvTransactionLogEntry();
-        try {
-            tx.setAtc(byteArrayToInt(getByteArrayPart(rawRecord, 0, 1)));
-            tx.setAmount(getAmountFromBcdBytes(getByteArrayPart(rawRecord, 2, 7)));
-            // TODO: currently we ignore "Amount, Other" for VISA logs
-            // 8-13
-            // TODO: include terminal country code (14-15)
-            // TODO: include TVR for VISA (16-20)
-            tx.setCurrency(Iso4217CurrencyCodes
-                    .getCurrencyAsString(getByteArrayPart(rawRecord, 21, 22)));
-            tx.setTransactionTimestamp(
-                    getDateFromBcdBytes(getByteArrayPart(rawRecord, 23, 25)),
-                    false);
-            // TODO: include Transaction Type (26)
-            // TODO: include unknown tag 9f 80 (27-30)
-
-            tx.setRawEntry(rawRecord);
-        } catch (Exception e) {
-            String msg = "Exception while trying to parse transaction entry: "
-                    + e + "\n" + e.getMessage() + "\nraw byte array:\n"
-                    + prettyPrintString(bytesToHex(rawRecord), 2);
-            Log.w(TAG, msg, e);
-            return null;
-        }
-        return tx;
+    private void finishRecordPipeline(RecordPipeline pipeline) {
+        pipeline.finish();
+        metrics.addParseTime(pipeline.getParseNanos());
     }
 
     /**
-     * Try to parse the raw byte array into an object
+     * Handle a successfully read record: either parse it as TX log entry or as
+     * BER-TLV encoded EMV data. Called on the parser thread.
      *
-     * @param rawRecord (without status word
-     * @return the parsed record or <code>null</code> if something could not be
-     * parsed
+     * @param responsePdu the record (including status word)
+     * @param sfi         the EF the record was read from
+     * @param record      the record number
+     * @param isLogFile   <code>true</code> if the record was read from the
+     *                    transaction log EF
+     * @param txLog       found TX log entries are added here
      */
-    private EmvTransactionLogEntry parseBankomatTxLogEntryFromByteArray(
-            byte[] rawRecord) {
-
-        // hardcoded to log format of Austrian cards
-
-        // 9F 4F - 1A bytes: Log Format
-        // --------------------------------------
-        // 9F 27 (01 bytes) -> Cryptogram Information Data
-        // 9F 02 (06 bytes) -> Amount, Authorised (Numeric)
-        // 5F 2A (02 bytes) -> Transaction Currency Code
-        // 9A (03 bytes) -> Transaction Date
-        // 9F 36 (02 bytes) -> Application Transaction Counter (ATC)
-        // 9F 52 (06 bytes) -> Application Default Action (ADA)
-        // DF 3E (01 bytes) -> [UNHANDLED TAG]
-        // 9F 21 (03 bytes) -> Transaction Time (HHMMSS)
-        // 9F 7C (14 bytes) -> Customer Exclusive Data
-
-        if (rawRecord.length < 24) {
-            // only continue if record is at least 24(+2 status) bytes long
-            Log.w(TAG,
-                    "parseTxLogEntryFromByteArray: byte array is not long enough:\n"
-                            + prettyPrintString(bytesToHex(rawRecord), 2));
-            return null;
-        }
-
-        EmvTransactionLogEntry tx = new EmvTransactionLogEntry();
-        try {
-            tx.setCryptogramInformationData(rawRecord[0]);
-            tx.setAmount(getAmountFromBcdBytes(getByteArrayPart(rawRecord, 1, 6)));
-            tx.setCurrency(Iso4217CurrencyCodes
-                    .getCurrencyAsString(getByteArrayPart(rawRecord, 7, 8)));
-            tx.setTransactionTimestamp(
-                    getTimeStampFromBcdBytes(
-                            getByteArrayPart(rawRecord, 9, 11),
-                            getByteArrayPart(rawRecord, 21, 23)), true);
-            tx.setAtc(byteArrayToInt(getByteArrayPart(rawRecord, 12, 13)));
-            tx.setApplicationDefaultAction(getByteArrayPart(rawRecord, 14, 19));
-            tx.setUnknownByte(rawRecord[20]);
-
-            // if record has only 24 bytes then there is no cust excl data
-            // as it starts at byte 25
-            if (rawRecord.length == 24) {
-                tx.setCustomerExclusiveData(new byte[0]);
-            } else {
-                // for being tolerant we parse from byte 25 untiil end (last 2
-                // bytes are status)
-                tx.setCustomerExclusiveData(getByteArrayPart(rawRecord, 24,
-                        rawRecord.length - 3));
-            }
-
-            tx.setRawEntry(rawRecord);
-        } catch (Exception e) {
-            String msg = "Exception while trying to parse transaction entry: "
-                    + e + "\n" + e.getMessage() + "\nraw byte array:\n"
-                    + prettyPrintString(bytesToHex(rawRecord), 2);
-            Log.w(TAG, msg, e);
-            return null;
+    private void handleRecord(ResponseApdu responsePdu, int sfi, int record,
+                              boolean isLogFile, TransactionLogTable txLog) {
+        if (isLogFile && logFormat != null && logFormat.matches(responsePdu.getBuffer())) {
+            if (logFormat.decodeInto(responsePdu.getBuffer(), txLog)) {
+                fireLogEntry(txLog, txLog.size() - 1);
+            }
+        } else {
+            // avoid that a single unparsable record may abort
+            // the whole scan
+            cardData.setRecord(sfi, record);
+            try {
+                saveBerTlvResponse(responsePdu);
+            } catch (Exception e) {
+                Log.w(TAG, "Ignored exception while parsing TLV data", e);
+            } finally {
+                cardData.clearRecord();
+            }
         }
-        return tx;
     }
 
     /**
@@ -780,23 +1222,14 @@ public class EmvCardReader {
      *
      * @param shortEfFileIdentifier
      * @param recordNumber
-     * @param logAlways             if <code>true</code> log always, otherwise log only on
-     *                              successful response
      * @return
      * @throws IOException
      */
-    private byte[] readRecord(int shortEfFileIdentifier, int recordNumber,
-                              boolean logAlways) throws IOException {
-        byte[] readRecordApdu = createReadRecordApdu(shortEfFileIdentifier,
-                recordNumber);
-        byte[] resultPdu = localIsoDep.transceive(readRecordApdu);
-        if (logAlways || isStatusSuccess(getLast2Bytes(resultPdu))) {
-            String msg = "READ RECORD for EF " + shortEfFileIdentifier
-                    + " and RECORD " + recordNumber;
-            Log.d(TAG, msg);
-            logResultPdu(resultPdu);
-        }
-        return resultPdu;
+    private ResponseApdu readRecord(int shortEfFileIdentifier, int recordNumber)
+            throws IOException {
+        byte[] readRecordApdu = encodeReadRecordApdu(readRecordCommand,
+                shortEfFileIdentifier, recordNumber);
+        return transceive(readRecordApdu);
     }
 
     /**
@@ -807,15 +1240,8 @@ public class EmvCardReader {
      * @throws IOException
      */
     @SuppressWarnings("unused")
-    private byte[] selectMasterfile() throws IOException {
-        byte[] readRecordApdu = createSelectMasterFile();
-        byte[] resultPdu = localIsoDep.transceive(readRecordApdu);
-        if (isStatusSuccess(getLast2Bytes(resultPdu))) {
-            String msg = "SELECT MF  (cd / ) ";
-            Log.d(TAG, msg);
-            logResultPdu(resultPdu);
-        }
-        return resultPdu;
+    private ResponseApdu selectMasterfile() throws IOException {
+        return transceive(CommandApdu.SELECT_MASTER_FILE);
     }
 
     /**
@@ -825,15 +1251,8 @@ public class EmvCardReader {
      * @throws IOException
      */
     @SuppressWarnings("unused")
-    private byte[] selectParentDf() throws IOException {
-        byte[] readRecordApdu = createSelectParentDfFile();
-        byte[] resultPdu = localIsoDep.transceive(readRecordApdu);
-        if (isStatusSuccess(getLast2Bytes(resultPdu))) {
-            String msg = "SELECT parent DF  (cd .. ) ";
-            Log.d(TAG, msg);
-            logResultPdu(resultPdu);
-        }
-        return resultPdu;
+    private ResponseApdu selectParentDf() throws IOException {
+        return transceive(CommandApdu.SELECT_PARENT_DF);
     }
 
     /**
@@ -841,17 +1260,15 @@ public class EmvCardReader {
      * @throws IOException
      */
     private long getQuickCardBalance() throws IOException {
-        byte[] resultPdu = localIsoDep
-                .transceive(ISO_COMMAND_QUICK_READ_BALANCE);
-        logResultPdu(resultPdu);
-        if (!isStatusSuccess(getLast2Bytes(resultPdu))) {
+        ResponseApdu resultPdu = transceive(CommandApdu.QUICK_READ_BALANCE);
+        if (!resultPdu.isSuccess()) {
             Log.w(TAG,
                     "getQuickCardBalance: Response status word was not ok! Error: "
-                            + statusToString(getLast2Bytes(resultPdu))
-                            + ". In hex: " + bytesToHex(resultPdu));
+                            + resultPdu.statusToString()
+                            + ". In hex: " + bytesToHex(resultPdu.getBuffer()));
             return -1;
         }
-        long balance = getAmountFromBytes(resultPdu);
+        long balance = getAmountFromBytes(resultPdu.getBuffer());
         return balance;
     }
 
@@ -862,21 +1279,19 @@ public class EmvCardReader {
      */
     private byte[] getQuickCardCurrencyBytes() throws IOException,
             TlvParsingException {
-        byte[] resultPdu = localIsoDep
-                .transceive(ISO_COMMAND_QUICK_READ_CURRENCY);
-        logResultPdu(resultPdu);
-        if (!isStatusSuccess(getLast2Bytes(resultPdu))) {
+        ResponseApdu resultPdu = transceive(CommandApdu.QUICK_READ_CURRENCY);
+        if (!resultPdu.isSuccess()) {
             String msg = "getQuickCardCurrencyBytes: Response status was not 'SUCCESS'! The response was: "
-                    + statusToString(getLast2Bytes(resultPdu))
+                    + resultPdu.statusToString()
                     + ". In hex: "
-                    + bytesToHex(resultPdu)
+                    + bytesToHex(resultPdu.getBuffer())
                     + "\nThe complete response was:\n"
-                    + prettyPrintString(bytesToHex(resultPdu), 2);
+                    + prettyPrintString(bytesToHex(resultPdu.getBuffer()), 2);
             Log.w(TAG, msg);
             throw new TlvParsingException(msg);
         }
         byte[] rawCurrency = new byte[2];
-        System.arraycopy(resultPdu, 0, rawCurrency, 0, 2);
+        System.arraycopy(resultPdu.getBuffer(), 0, rawCurrency, 0, 2);
         return rawCurrency;
     }
 
@@ -888,28 +1303,19 @@ public class EmvCardReader {
      * @return the bytes as returned by the SmartCard
      * @throws IOException
      */
-    private byte[] sendGetCPLC() throws IOException {
+    private ResponseApdu sendGetCPLC() throws IOException {
         Log.d(TAG, "sending GET CPLC command..");
-        byte[] command = EmvUtils.GPCS_GET_CPLC_COMMAND;
-        Log.d(TAG, "will send byte array: " + bytesToHex(command));
-        byte[] resultPdu = localIsoDep.transceive(command);
-        logResultPdu(resultPdu);
-        Log.d(TAG, "received byte array:  " + bytesToHex(resultPdu));
+        ResponseApdu resultPdu = transceive(CommandApdu.GET_CPLC);
 
         // some card don't return CPLC if sent with Le 00
         // retry it with (hardcoded) Le value
         // TODO: better check if SW1 == 6D ("incorrect len, SW2 specifies
         // correct length")
         // and send specified len
-        if (!isStatusSuccess(getLast2Bytes(resultPdu))) {
+        if (!resultPdu.isSuccess()) {
             Log.d(TAG,
                     "sending GET CPLC returned an error, will retry with Le set..");
-            Log.d(TAG, "sending GET CPLC command with Le set..");
-            command = EmvUtils.GPCS_GET_CPLC_COMMAND_WITH_LENGTH;
-            Log.d(TAG, "will send byte array: " + bytesToHex(command));
-            resultPdu = localIsoDep.transceive(command);
-            logResultPdu(resultPdu);
-            Log.d(TAG, "received byte array:  " + bytesToHex(resultPdu));
+            resultPdu = transceive(CommandApdu.GET_CPLC_WITH_LENGTH);
         }
         return resultPdu;
     }
@@ -921,45 +1327,173 @@ public class EmvCardReader {
      * @return the bytes as returned by the SmartCard
      * @throws IOException
      */
-    private byte[] selectApplicationGetBytes(byte[] appId) throws IOException {
-        Log.d(TAG, "sending ISO7816 SELECT command, with AID: "
-                + bytesToHex(appId));
-        byte[] command = createSelectAid(appId);
-        Log.d(TAG, "will send byte array: " + bytesToHex(command));
-        byte[] resultPdu = localIsoDep.transceive(command);
-        logResultPdu(resultPdu);
-        Log.d(TAG, "received byte array:  " + bytesToHex(resultPdu));
+    private ResponseApdu selectApplicationGetBytes(byte[] appId) throws IOException {
+        ResponseApdu resultPdu = transceive(CommandApdu.select(appId));
+        if (resultPdu.isSuccess()) {
+            // a failed SELECT leaves the current application selected
+            cardData.setApplication(appId);
+        }
         return resultPdu;
     }
 
     /**
-     * log result pdu
+     * Try to decode a response PDU as BER TLV encoded data and log it
      *
      * @param resultPdu
      */
-    private void logResultPdu(byte[] resultPdu) {
-        Log.d(TAG, "received: " + bytesToHex(resultPdu));
-        Log.d(TAG,
-                "status: "
-                        + prettyPrintString(
-                        bytesToHex(getLast2Bytes(resultPdu)), 2));
-        Log.d(TAG, "status: " + statusToString(getLast2Bytes(resultPdu)));
+    private void parseAndSaveBerTlvResponse(ResponseApdu resultPdu) {
+        long start = System.nanoTime();
+        saveBerTlvResponse(resultPdu);
+        metrics.addParseTime(System.nanoTime() - start);
     }
 
     /**
-     * Try to decode a response PDU as BER TLV encoded data and log it
+     * Add the BER TLV encoded data of a response PDU to the card data (without
+     * measuring the parse time)
      *
      * @param resultPdu
      */
-    private void parseAndSaveBerTlvResponse(byte[] resultPdu) {
-        if (resultPdu.length > 2) {
+    private void saveBerTlvResponse(ResponseApdu resultPdu) {
+        if (resultPdu.hasData()) {
+            int first = cardData.size();
             try {
-                byte[] data = cutoffLast2Bytes(resultPdu);
-                // and add all found tags to list
-                tagList.addAll(getTagsFromBerTlvAPDUResponse(data));
+                // add all found tags to the index (without the status word)
+                cardData.addAll(resultPdu.getBuffer(), resultPdu.dataOffset(),
+                        resultPdu.dataLength());
             } catch (TlvParsingException e) {
                 Log.w(TAG, "exception while parsing BER-TLV PDU response\n"
-                        + prettyPrintString(bytesToHex(resultPdu), 2), e);
+                        + prettyPrintString(bytesToHex(resultPdu.getBuffer()), 2), e);
+            }
+            if (listener != null && cardData.size() > first) {
+                fireTagsParsed(first);
+            }
+        }
+    }
+
+    /**
+     * Start a new scan phase (ends the current one)
+     *
+     * @param phase
+     */
+    private void startPhase(ScanMetrics.Phase phase) {
+        if (phaseRunning && currentPhase == phase) {
+            return;
+        }
+        metrics.startPhase(phase);
+        if (phaseRunning) {
+            firePhaseTimings();
+        }
+        phaseRunning = true;
+        currentPhase = phase;
+    }
+
+    /**
+     * End the current scan phase
+     */
+    private void endPhase() {
+        metrics.endPhase();
+        if (phaseRunning) {
+            phaseRunning = false;
+            firePhaseTimings();
+        }
+    }
+
+    private void fireApplicationSelected(byte[] aid, String label) {
+        CardReadListener l = listener;
+        if (l == null) {
+            return;
+        }
+        synchronized (listenerLock) {
+            try {
+                l.onApplicationSelected(aid, label);
+            } catch (RuntimeException e) {
+                Log.w(TAG, "Ignored exception in card read listener", e);
+            }
+        }
+    }
+
+    private void firePanFound(String pan) {
+        CardReadListener l = listener;
+        if (l == null) {
+            return;
+        }
+        synchronized (listenerLock) {
+            if (panReported) {
+                return;
+            }
+            panReported = true;
+            try {
+                l.onPanFound(pan);
+            } catch (RuntimeException e) {
+                Log.w(TAG, "Ignored exception in card read listener", e);
+            }
+        }
+    }
+
+    /**
+     * Report the tags added to {@link #cardData} since the given index, and
+     * the PAN if it is among them. Must be called by the thread currently
+     * owning the card data.
+     *
+     * @param first index of the first new entry
+     */
+    private void fireTagsParsed(int first) {
+        CardReadListener l = listener;
+        if (l == null) {
+            return;
+        }
+        List<CardDataIndex.Entry> entries = cardData.entries();
+        List<CardDataIndex.Entry> tags = new ArrayList<CardDataIndex.Entry>(
+                entries.subList(first, entries.size()));
+        synchronized (listenerLock) {
+            try {
+                l.onTagsParsed(tags);
+            } catch (RuntimeException e) {
+                Log.w(TAG, "Ignored exception in card read listener", e);
+            }
+        }
+        for (CardDataIndex.Entry entry : tags) {
+            // same as PanFinder, but on the already parsed values
+            String pan = null;
+            if (entry.getTagId() == 0x5A) {
+                pan = panFromValue(entry.getValue(), 0, entry.getValue().length,
+                        false);
+            } else if (entry.getTagId() == 0x57) {
+                pan = panFromValue(entry.getValue(), 0, entry.getValue().length,
+                        true);
+            }
+            if (pan != null) {
+                firePanFound(pan);
+                break;
+            }
+        }
+    }
+
+    private void fireLogEntry(TransactionLogTable txLog, int row) {
+        CardReadListener l = listener;
+        if (l == null) {
+            return;
+        }
+        synchronized (listenerLock) {
+            try {
+                l.onLogEntry(txLog, row);
+            } catch (RuntimeException e) {
+                Log.w(TAG, "Ignored exception in card read listener", e);
+            }
+        }
+    }
+
+    private void firePhaseTimings() {
+        CardReadListener l = listener;
+        if (l == null) {
+            return;
+        }
+        ScanMetrics snapshot = metrics.snapshot();
+        synchronized (listenerLock) {
+            try {
+                l.onPhaseTimings(snapshot);
+            } catch (RuntimeException e) {
+                Log.w(TAG, "Ignored exception in card read listener", e);
             }
         }
     }
@@ -1,16 +1,12 @@
 package digital.sepa.nfc.iso7816emv;
 
-import android.content.Context;
 import android.util.Log;
 import digital.sepa.nfc.R;
 import digital.sepa.nfc.exceptions.TlvParsingException;
 import digital.sepa.nfc.model.InfoKeyValuePair;
+import digital.sepa.nfc.util.BcdDateCodec;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.text.DateFormat;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.*;
 
 import static digital.sepa.nfc.util.Utils.*;
@@ -47,6 +43,13 @@ public class EmvUtils {
     public static final byte[] ISO_COMMAND_SELECT_FILE = {(byte) 0x00,
             (byte) 0xA4, (byte) 0x00, (byte) 0x00};
 
+    /**
+     * ISO command GET RESPONSE (without Le), used to fetch the response data
+     * after the card answered with 61xx
+     */
+    public static final byte[] ISO_COMMAND_GET_RESPONSE = {(byte) 0x00,
+            (byte) 0xC0, (byte) 0x00, (byte) 0x00};
+
     /**
      * command read QUICK balance: 00B0820000 (in fact this is a READ BINARY
      * command, reading EF 2 starting from offset 00, reading all bytes)
@@ -201,6 +204,21 @@ public class EmvUtils {
     public static final byte[] EMV_COMMAND_GET_DATA_ALL_COMMON_SIMPLE_TLV = {
             (byte) 0x80, (byte) 0xCA, (byte) 0x02, (byte) 0xFF, (byte) 0x00};
 
+    /**
+     * EMV command GET PROCESSING OPTIONS (without Lc, data and Le)
+     */
+    public static final byte[] EMV_COMMAND_GET_PROCESSING_OPTIONS = {
+            (byte) 0x80, (byte) 0xA8, (byte) 0x00, (byte) 0x00};
+
+    /**
+     * DF name of the Proximity Payment System Environment (PPSE):
+     * "2PAY.SYS.DDF01"
+     */
+    public static final byte[] APPLICATION_ID_PPSE = {(byte) 0x32,
+            (byte) 0x50, (byte) 0x41, (byte) 0x59, (byte) 0x2E, (byte) 0x53,
+            (byte) 0x59, (byte) 0x53, (byte) 0x2E, (byte) 0x44, (byte) 0x44,
+            (byte) 0x46, (byte) 0x30, (byte) 0x31};
+
     /**
      * Application ID for Quick (IEP): D040000001000002
      */
@@ -277,6 +295,7 @@ public class EmvUtils {
             (byte) 0x00};
     public static final byte[] SW_COMMAND_NOT_ALLOWED = {(byte) 0x69,
             (byte) 0x86};
+    public static final int SW_NO_ERROR = 0x9000;
     public static final short SW_APPLET_SELECT_FAILED = 0x6999;
     public static final short SW_CLA_NOT_SUPPORTED = 0x6E00;
     public static final short SW_SECURITY_STATUS_NOT_SATISFIED = 0x6982;
@@ -348,6 +367,31 @@ public class EmvUtils {
         return result;
     }
 
+    /**
+     * Creates a copy of the given command APDU with the Le field set (or
+     * replaced) to the given value, as needed for resending a command after
+     * the card answered with 6Cxx
+     *
+     * @param command a short command APDU (case 1, 2, 3 or 4)
+     * @param le      the new Le value
+     * @return
+     */
+    public static byte[] createApduWithLe(byte[] command, byte le) {
+        boolean hasLe;
+        if (command.length <= 4) {
+            hasLe = false;
+        } else if (command.length == 5) {
+            hasLe = true;
+        } else {
+            // case 3 (no Le) or case 4 (with Le)
+            hasLe = command.length != 5 + (command[4] & 0xFF);
+        }
+        byte[] result = Arrays.copyOf(command, hasLe ? command.length
+                : command.length + 1);
+        result[result.length - 1] = le;
+        return result;
+    }
+
     /**
      * Creates a SELECT MF (master file) command PDU (aka: switch to "root dir")
      *
@@ -429,77 +473,192 @@ public class EmvUtils {
      */
     public static byte[] createReadRecordApdu(int shortEfFileIdentifier,
                                               int record) {
-        int sfi = shortEfFileIdentifier;
-        StringBuilder cmd = new StringBuilder();
-        cmd.append("00B2");
+        return encodeReadRecordApdu(new byte[5], shortEfFileIdentifier, record);
+    }
+
+    /**
+     * Encodes a READ RECORD command into the given buffer, so that the same
+     * buffer can be reused when iterating over records
+     *
+     * @param apdu                  buffer of (at least) 5 bytes
+     * @param shortEfFileIdentifier
+     * @param record
+     * @return the given buffer
+     */
+    public static byte[] encodeReadRecordApdu(byte[] apdu,
+                                              int shortEfFileIdentifier, int record) {
+        apdu[0] = (byte) 0x00;
+        apdu[1] = (byte) 0xB2;
         // P1 byte:
-        cmd.append(int2Hex(record));
+        apdu[2] = (byte) record;
         // P2 byte:
         // b8 b7 b6 b5 b4 b3 b2 b1
         // b8-b4 contain the SFI
-        sfi = sfi << 3;
         // and we set the right 3 bits (b1-b3) to 100
-        sfi += 4;
-        cmd.append(int2Hex(sfi));
+        apdu[3] = (byte) ((shortEfFileIdentifier << 3) | 4);
         // and we set the LE field to 00:
-        cmd.append("00");
-        return fromHexString(cmd.toString());
+        apdu[4] = (byte) 0x00;
+        return apdu;
     }
 
     /**
-     * Calculates a (hopefully) correct APDU for the EMV GET PROCESSING OPTIONS
-     * command, based on the result of the select application response of the
-     * card.
+     * Encodes a GET RESPONSE command into the given buffer
+     *
+     * @param apdu buffer of (at least) 5 bytes
+     * @param le   number of bytes to fetch (SW2 of the 61xx response)
+     * @return the given buffer
+     */
+    public static byte[] encodeGetResponseApdu(byte[] apdu, byte le) {
+        System.arraycopy(ISO_COMMAND_GET_RESPONSE, 0, apdu, 0,
+                ISO_COMMAND_GET_RESPONSE.length);
+        apdu[4] = le;
+        return apdu;
+    }
+
+    /**
+     * Calculates the APDU for the EMV GET PROCESSING OPTIONS command, based on
+     * the result of the select application response of the card, using the
+     * default terminal data.
      *
      * @param selectionResponse
      * @return
+     * @see #createGetProcessingOptionsApdu(byte[], TerminalDataProvider)
      */
     public static byte[] createGetProcessingOptionsApdu(byte[] selectionResponse) {
-        // TODO implement createGetProcessingOptionsApdu!!
-
-        // This method currently returns a static value, which I manually
-        // computed based on the data of my test card. May NOT WORK with other
-        // cards which send different PDOL
-        // IMPLEMENT ME!!
-
-        // In short:
-        // ----------
-        // When selecting an application the card includes in its response the
-        // tag 9F38 "Processing Options Data Object List (PDOL)" (see also
-        // http://www.eftlab.co.uk/index.php/site-map/knowledge-base/145-emv-nfc-tags)
-        //
-        // The card declares with the PDOL a number of tags and their expected
-        // lengths which it wants to see in a following GET PROCESSING OPTIONS
-        // command.
-        //
-        // EXAMPLE:
-        // My card returns a PDOL of "9f 5c 08".
-        // This contains only a single tag (9f 5c) with a length value of 08.
-        // "9f 5c" is the tag "Cumulative Total Transaction Amount Upper Limit"
-        // (CTTAUL)". So my card only wants to get 8 bytes in the GET PROCESSING
-        // OPTIONS which represent the CTTAUL value.
-        // EMV cards may also request more than 1 tag, for example terminal's
-        // country or currency code.. or a random number.. etc.
+        return createGetProcessingOptionsApdu(selectionResponse,
+                new DefaultTerminalDataProvider());
+    }
 
-        //
-        // Manually building my GET PROCESSING OPTIONS command:
-        //
+    /**
+     * Calculates the APDU for the EMV GET PROCESSING OPTIONS command, based on
+     * the result of the select application response of the card.<br>
+     * <br>
+     * When selecting an application the card includes in its response the tag
+     * 9F38 "Processing Options Data Object List (PDOL)". With the PDOL the card
+     * declares a number of tags and their expected lengths which it wants to
+     * see in the following GET PROCESSING OPTIONS command (for example the
+     * terminal's country or currency code, or a random number).<br>
+     * <br>
+     * Example: a PDOL of "9F 5C 08" results in:<br>
+     * 80A80000 0A 83 08 xxxxxxxxxxxxxxxx 00<br>
+     * 80A80000 is GET PROCESSING OPTIONS, 0A is the length of the following
+     * data, 83 is the tag "command template" followed by the length and the
+     * concatenated values, 00 is expected response length (unlimited).
+     *
+     * @param selectionResponse response of the SELECT command (including status
+     *                          word)
+     * @param terminalData      supplies the values requested in the PDOL
+     * @return
+     */
+    public static byte[] createGetProcessingOptionsApdu(
+            byte[] selectionResponse, TerminalDataProvider terminalData) {
+        return createGetProcessingOptionsApdu(findPdol(selectionResponse),
+                terminalData);
+    }
+
+    /**
+     * Build the GET PROCESSING OPTIONS APDU for the given PDOL. The values are
+     * written directly into the command buffer.
+     *
+     * @param pdol         the PDOL or <code>null</code> if the card didn't send
+     *                     one
+     * @param terminalData supplies the values requested in the PDOL
+     * @return
+     */
+    public static byte[] createGetProcessingOptionsApdu(DataObjectList pdol,
+                                                        TerminalDataProvider terminalData) {
+        int dataLength = pdol == null ? 0 : pdol.getTotalLength();
+        // command template: tag 83, length (1 or 2 bytes) and data
+        int templateHeaderLength = dataLength > 127 ? 3 : 2;
+        int lc = templateHeaderLength + dataLength;
+        if (lc > 255) {
+            throw new IllegalArgumentException(
+                    "createGetProcessingOptionsApdu: PDOL data too long: "
+                            + dataLength);
+        }
+        byte[] apdu = new byte[EMV_COMMAND_GET_PROCESSING_OPTIONS.length + 1
+                + lc + 1];
+        System.arraycopy(EMV_COMMAND_GET_PROCESSING_OPTIONS, 0, apdu, 0,
+                EMV_COMMAND_GET_PROCESSING_OPTIONS.length);
+        int pos = EMV_COMMAND_GET_PROCESSING_OPTIONS.length;
+        apdu[pos++] = (byte) lc;
+        apdu[pos++] = (byte) 0x83;
+        if (dataLength > 127) {
+            apdu[pos++] = (byte) 0x81;
+        }
+        apdu[pos++] = (byte) dataLength;
+        if (pdol != null) {
+            pos = pdol.fill(terminalData, apdu, pos);
+        }
+        // Le
+        apdu[pos] = 0x00;
+        return apdu;
+    }
 
-        // "9f 5c 08" = PDOL as returned on app selection in Tag 9f38
-
-        // Manually constructed command:
-        // 80A80000 0A 83 08 FFFFFFFFFFFFFFFF 00
-        // In detail:
-        // 80A80000 is GET PROCESSING OPTIONS
-        // 0A is total length of following PDOL (=11 bytes)
-        // 83 is Tag "command template" and "Identifies the data field of a
-        // command message"
-        // 08 is the length of the following data
-        // FFFFFFFFFFFFFFFF is the data (CTTAUL value in my case)
-        // 00 is expected response length (unlimited)
-
-        // return fromHexString("80A800000A8308000000000000000000");
-        return fromHexString("80A800000A8308FFFFFFFFFFFFFFFF00");
+    /**
+     * Looks for the PDOL (tag 9F38) in the response of the SELECT command
+     *
+     * @param selectionResponse response of the SELECT command (including status
+     *                          word)
+     * @return the parsed PDOL or <code>null</code> if the card didn't send one
+     */
+    public static DataObjectList findPdol(byte[] selectionResponse) {
+        if (selectionResponse == null || selectionResponse.length <= 2) {
+            return null;
+        }
+        final int pdolTag = 0x9F38; // EMVTags.PDOL
+        final byte[][] pdol = new byte[1][];
+        try {
+            walkBerTlv(selectionResponse, 0, selectionResponse.length - 2,
+                    new TlvVisitor() {
+                        @Override
+                        public boolean onPrimitive(int tag, byte[] buf,
+                                                   int offset, int length) {
+                            if (tag == pdolTag) {
+                                pdol[0] = Arrays.copyOfRange(buf, offset,
+                                        offset + length);
+                                return false;
+                            }
+                            return true;
+                        }
+
+                        @Override
+                        public boolean onConstructedStart(int tag, byte[] buf,
+                                                          int offset, int length) {
+                            return true;
+                        }
+
+                        @Override
+                        public boolean onConstructedEnd(int tag) {
+                            return true;
+                        }
+                    });
+            if (pdol[0] != null) {
+                return DataObjectList.parse(pdol[0]);
+            }
+        } catch (TlvParsingException e) {
+            Log.w(TAG, "cannot parse PDOL from selection response", e);
+        }
+        return null;
+    }
+
+    /**
+     * Converts a packed tag ID (for example <code>0x9F38</code>) back into its
+     * tag bytes
+     *
+     * @param tagId
+     * @return
+     */
+    public static byte[] tagIdToBytes(int tagId) {
+        int numBytes = 1;
+        while (numBytes < 4 && (tagId >>> (8 * numBytes)) != 0) {
+            numBytes++;
+        }
+        byte[] tagBytes = new byte[numBytes];
+        for (int i = 0; i < numBytes; i++) {
+            tagBytes[i] = (byte) (tagId >>> (8 * (numBytes - i - 1)));
+        }
+        return tagBytes;
     }
 
     /**
@@ -565,6 +724,20 @@ public class EmvUtils {
         return fromHexString(builder.toString());
     }
 
+    /**
+     * @param responsePdu response APDU (including status word)
+     * @return the status word (last 2 bytes) as int, for example 0x9000
+     */
+    public static int getStatusWord(byte[] responsePdu) {
+        if (responsePdu == null || responsePdu.length < 2) {
+            throw new IllegalArgumentException(
+                    "getStatusWord: response was either null or shorter than 2 bytes");
+        }
+        int length = responsePdu.length;
+        return ((responsePdu[length - 2] & 0xFF) << 8)
+                | (responsePdu[length - 1] & 0xFF);
+    }
+
     /**
      * Check if the given 2 bytes status words mean SUCCESS
      *
@@ -576,7 +749,15 @@ public class EmvUtils {
             throw new IllegalArgumentException(
                     "isStatusSuccess: status word was either null or length was != 2");
         }
-        return compare2byteArrays(statusWord, SW_SUCCESS);
+        return isStatusSuccess(getStatusWord(statusWord));
+    }
+
+    /**
+     * @param sw status word, for example 0x9000
+     * @return <code>true</code> if the status word means SUCCESS
+     */
+    public static boolean isStatusSuccess(int sw) {
+        return sw == SW_NO_ERROR;
     }
 
     /**
@@ -588,80 +769,88 @@ public class EmvUtils {
             throw new IllegalArgumentException(
                     "checkStatusWord: status word was either null or length was != 2");
         }
+        return statusToString(getStatusWord(statusWord));
+    }
 
-        if (compare2byteArrays(statusWord, SW_SUCCESS)) {
-            return "success :-)";
-        } else if (statusWord[0] == (byte) 0x61) {
-            return "success :-) response can be fetched by GET RESPONSE!";
-        } else if (compare2byteArrays(statusWord, SW_DATA_FAILURE)) {
-            return "returned data may be not correct";
-        } else if (compare2byteArrays(statusWord, SW_FILEEND_REACHED)) {
-            return "file end reached, could not read LE bytes";
-        } else if (compare2byteArrays(statusWord, SW_FILE_LOCKED)) {
-            return "file is locked";
-        } else if (compare2byteArrays(statusWord, SW_FILEINFO_ISO_FAILURE)) {
-            return "file info FCI is not ISO conform";
-        } else if (statusWord[0] == (byte) 0x62) {
-            return "warning: state of memory not changed";
-        } else if (statusWord[0] == (byte) 0x63) {
-            return "warning: state of memory not changed 2";
-        } else if (statusWord[0] == (byte) 0x64) {
-            return "warning: execution error";
-        } else if (compare2byteArrays(statusWord, SW_MEMORY_ERROR)) {
-            return "memory error";
-        } else if (statusWord[0] == (byte) 0x65) {
-            return "warning: execution error";
-        } else if (compare2byteArrays(statusWord, SW_LENGTH_ERROR)) {
-            return "length error, lc or le incorrect";
-        } else if (compare2byteArrays(statusWord,
-                SW_FUNC_CLASS_BYTE_NOT_SUPPORTED)) {
-            return "function in class byte not supported";
-        } else if (compare2byteArrays(statusWord, SW_LOGIC_CHAN_NOT_SUPPORTED)) {
-            return "logical channels not supported";
-        } else if (compare2byteArrays(statusWord, SW_SEC_MSG_NOT_SUPPORTED)) {
-            return "secure messaging not supported";
-        } else if (compare2byteArrays(statusWord, SW_CMD_NOT_ALLOWED)) {
-            return "command not allowed";
-        } else if (compare2byteArrays(statusWord, SW_CMD_INCOMPATIBLE)) {
-            return "command incompatible with file system structure";
-        } else if (compare2byteArrays(statusWord, SW_SEC_STATE_NOT_FULFILLED)) {
-            return "security state not fulfilled";
-        } else if (compare2byteArrays(statusWord, SW_AUTH_METHOD_LOCKED)) {
-            return "authentication method is locked";
-        } else if (compare2byteArrays(statusWord, SW_REFERENCED_DATA_LOCKED)) {
-            return "referenced data is locked";
-        } else if (compare2byteArrays(statusWord, SW_USAGE_COND_NOT_FULFILLED)) {
-            return "usage conditions are not fulfilled";
-        } else if (compare2byteArrays(statusWord, SW_CMD_NOT_ALLOWED_NO_EF_SEL)) {
-            return "command not allowed (no EF selected)";
-        } else if (compare2byteArrays(statusWord, SW_INCORRECT_PARAMS)) {
-            return "incorrect parameters P1/P2";
-        } else if (compare2byteArrays(statusWord, SW_INCORRECT_DATA)) {
-            return "incorrect data for command";
-        } else if (compare2byteArrays(statusWord, SW_FUNC_NOT_SUPPORTED)) {
-            return "function is not supported";
-        } else if (compare2byteArrays(statusWord, SW_FILE_NOT_FOUND)) {
-            return "file not found";
-        } else if (compare2byteArrays(statusWord, SW_RECORD_NOT_FOUND)) {
-            return "record not found";
-        } else if (compare2byteArrays(statusWord, SW_REFERENCED_DATA_NOT_FOUND)) {
-            return "referenced data (data objects) not found";
-        } else if (compare2byteArrays(statusWord, SW_INCORRECT_PARAMETERS_P1_P2)) {
-            return "incorrect parameters p1/p2";
-        } else if (statusWord[0] == (byte) 0x6C) {
-            return "incorrect length, second byte specifies correct length";
-        } else if (compare2byteArrays(statusWord, SW_DATA_FAILURE)) {
-            return "success";
-        } else if (compare2byteArrays(statusWord, SW_CMD_CLASS_NOT_SUPPORTED)) {
-            return "this command class (CLA) is not supported";
-        } else if (compare2byteArrays(statusWord, SW_CMD_ABORTED_UNKNOWN_ERR)) {
-            return "command aborted with unknown errors";
-        } else if (compare2byteArrays(statusWord, SW_INS_NOT_SUPPORTED)) {
-            return "instruction not supported";
-        } else if (compare2byteArrays(statusWord, SW_CMD_NOT_ALLOWED)) {
-            return "command not allowed";
+    /**
+     * @param sw status word, for example 0x9000
+     * @return string representation of the statusword
+     */
+    public static String statusToString(int sw) {
+        switch (sw) {
+            case 0x9000:
+                return "success :-)";
+            case 0x6281:
+                return "returned data may be not correct";
+            case 0x6282:
+                return "file end reached, could not read LE bytes";
+            case 0x6283:
+                return "file is locked";
+            case 0x6284:
+                return "file info FCI is not ISO conform";
+            case 0x6581:
+                return "memory error";
+            case 0x6700:
+                return "length error, lc or le incorrect";
+            case 0x6800:
+                return "function in class byte not supported";
+            case 0x6881:
+                return "logical channels not supported";
+            case 0x6882:
+                return "secure messaging not supported";
+            case 0x6900:
+                return "command not allowed";
+            case 0x6981:
+                return "command incompatible with file system structure";
+            case 0x6982:
+                return "security state not fulfilled";
+            case 0x6983:
+                return "authentication method is locked";
+            case 0x6984:
+                return "referenced data is locked";
+            case 0x6985:
+                return "usage conditions are not fulfilled";
+            case 0x6986:
+                return "command not allowed (no EF selected)";
+            case 0x6A00:
+                return "incorrect parameters P1/P2";
+            case 0x6A80:
+                return "incorrect data for command";
+            case 0x6A81:
+                return "function is not supported";
+            case 0x6A82:
+                return "file not found";
+            case 0x6A83:
+                return "record not found";
+            case 0x6A88:
+                return "referenced data (data objects) not found";
+            case 0x6A86:
+                return "incorrect parameters p1/p2";
+            case 0x6E00:
+                return "this command class (CLA) is not supported";
+            case 0x6F00:
+                return "command aborted with unknown errors";
+            case 0x6D00:
+                return "instruction not supported";
+            default:
+                break;
+        }
+        // status words where only SW1 is defined
+        switch (sw >>> 8) {
+            case 0x61:
+                return "success :-) response can be fetched by GET RESPONSE!";
+            case 0x62:
+                return "warning: state of memory not changed";
+            case 0x63:
+                return "warning: state of memory not changed 2";
+            case 0x64:
+            case 0x65:
+                return "warning: execution error";
+            case 0x6C:
+                return "incorrect length, second byte specifies correct length";
+            default:
+                return "----- UNKNOWN RETURN CODE!!! ------";
         }
-        return "----- UNKNOWN RETURN CODE!!! ------";
     }
 
     /**
@@ -687,9 +876,15 @@ public class EmvUtils {
             throw new IllegalArgumentException(
                     "getTimeStampFromBytes: time must be exactly 3 bytes long");
         }
-        DateFormat df = new SimpleDateFormat("yy MM dd  HH mm ss", Locale.US);
-        return df.parse(prettyPrintString(bytesToHex(date), 2) + "  "
-                + prettyPrintString(bytesToHex(time), 2));
+        int epochDay = BcdDateCodec.decodeDate(date, 0);
+        int secondOfDay = BcdDateCodec.decodeTime(time, 0);
+        if (epochDay == BcdDateCodec.INVALID) {
+            throw new ParseException("invalid date: " + bytesToHex(date), 0);
+        }
+        if (secondOfDay == BcdDateCodec.INVALID) {
+            throw new ParseException("invalid time: " + bytesToHex(time), 0);
+        }
+        return new Date(BcdDateCodec.toMillis(epochDay, secondOfDay));
     }
 
     /**
@@ -708,12 +903,14 @@ public class EmvUtils {
             throw new IllegalArgumentException(
                     "getDateFromBcdBytes: date must be exactly 3 bytes long");
         }
-        String s = prettyPrintString(bytesToHex(date), 2);
-        if ("00 00 00".equals(s)) {
+        if (date[0] == 0 && date[1] == 0 && date[2] == 0) {
             return null;
         }
-        DateFormat df = new SimpleDateFormat("yy MM dd", Locale.US);
-        return df.parse(s);
+        int epochDay = BcdDateCodec.decodeDate(date, 0);
+        if (epochDay == BcdDateCodec.INVALID) {
+            throw new ParseException("invalid date: " + bytesToHex(date), 0);
+        }
+        return new Date(BcdDateCodec.toMillis(epochDay, 0));
     }
 
     /**
@@ -732,25 +929,13 @@ public class EmvUtils {
             throw new IllegalArgumentException(
                     "getTimeStampFromQuickLog: time must be exactly 3 bytes long");
         }
-        Calendar logDate = getDayFromQuickLogEntry(days);
-        logDate.set(Calendar.HOUR_OF_DAY, Integer.parseInt(byte2Hex(time[0])));
-        logDate.set(Calendar.MINUTE, Integer.parseInt(byte2Hex(time[1])));
-        logDate.set(Calendar.SECOND, Integer.parseInt(byte2Hex(time[2])));
-        return logDate.getTime();
-    }
-
-    /**
-     * @param days number of days after September 02, 1975 (what happened on this
-     *             day?)
-     * @return
-     */
-    public static Calendar getDayFromQuickLogEntry(int days) {
-        Calendar logDay = GregorianCalendar.getInstance();
-        logDay.set(Calendar.DAY_OF_MONTH, 2);
-        logDay.set(Calendar.MONTH, Calendar.SEPTEMBER);
-        logDay.set(Calendar.YEAR, 1975);
-        logDay.add(Calendar.DAY_OF_YEAR, days);
-        return logDay;
+        int secondOfDay = BcdDateCodec.decodeTime(time, 0);
+        if (secondOfDay == BcdDateCodec.INVALID) {
+            throw new IllegalArgumentException(
+                    "getTimeStampFromQuickLog: invalid time " + bytesToHex(time));
+        }
+        return new Date(BcdDateCodec.toMillis(
+                BcdDateCodec.quickLogEpochDay(days), secondOfDay));
     }
 
     /**
@@ -784,167 +969,58 @@ public class EmvUtils {
     }
 
     /**
+     * Tries to parse a byte array as EMV BER-TLV encoded data and returns a
+     * pretty formatted string (useful for logging and debugging output)<br>
+     *
      * source: https://code.google.com/p/javaemvreader/
      *
-     * @param stream
+     * @param data
+     * @param indentLength
      * @return
      * @throws TlvParsingException
      */
-    public static BERTLV getNextTLV(ByteArrayInputStream stream)
-            throws TlvParsingException {
-        if (stream.available() < 2) {
-            throw new TlvParsingException(
-                    "Error parsing data. Available bytes < 2 . Length="
-                            + stream.available());
-        }
-
-        // ISO/IEC 7816 uses neither '00' nor 'FF' as tag value.
-        // Before, between, or after TLV-coded data objects,
-        // '00' or 'FF' bytes without any meaning may occur
-        // (for example, due to erased or modified TLV-coded data objects).
-
-        stream.mark(0);
-        int peekInt = stream.read();
-        byte peekByte = (byte) peekInt;
-        // peekInt == 0xffffffff indicates EOS
-        while (peekInt != -1
-                && (peekByte == (byte) 0xFF || peekByte == (byte) 0x00)) {
-            stream.mark(0); // Current position
-            peekInt = stream.read();
-            peekByte = (byte) peekInt;
-        }
-        stream.reset(); // Reset back to the last known position without 0x00 or
-        // 0xFF
-
-        if (stream.available() < 2) {
-            throw new TlvParsingException(
-                    "Error parsing data. Available bytes < 2 . Length="
-                            + stream.available());
-        }
-
-        byte[] tagIdBytes = readTagIdBytes(stream);
-
-        // We need to get the raw length bytes.
-        // Use quick and dirty workaround
-        stream.mark(0);
-        int posBefore = stream.available();
-        // Now parse the lengthbyte(s)
-        // This method will read all length bytes. We can then find out how many
-        // bytes was read.
-        int length = readTagLength(stream);
-        // Now find the raw length bytes
-        int posAfter = stream.available();
-        stream.reset();
-        byte[] lengthBytes = new byte[posBefore - posAfter];
-        stream.read(lengthBytes, 0, lengthBytes.length);
-
-        int rawLength = byteArrayToInt(lengthBytes);
-
-        byte[] valueBytes = null;
-
-        EmvTag tag = EMVTags.getNotNull(tagIdBytes);
-
-        // Find VALUE bytes
-        if (rawLength == 128) { // 1000 0000
-            // indefinite form
-            stream.mark(0);
-            int prevOctet = 1;
-            int curOctet = 0;
-            int len = 0;
-            while (true) {
-                len++;
-                curOctet = stream.read();
-                if (curOctet < 0) {
-                    throw new TlvParsingException(
-                            "Error parsing data. TLV "
-                                    + "length byte indicated indefinite length, but EOS "
-                                    + "was reached before 0x0000 was found"
-                                    + stream.available());
-                }
-                if (prevOctet == 0 && curOctet == 0) {
-                    break;
-                }
-                prevOctet = curOctet;
-            }
-            len -= 2;
-            valueBytes = new byte[len];
-            stream.reset();
-            stream.read(valueBytes, 0, len);
-            length = len;
-        } else {
-            // definite form
-            valueBytes = new byte[length];
-            stream.read(valueBytes, 0, length);
-        }
-
-        // Remove any trailing 0x00 and 0xFF
-        stream.mark(0);
-        peekInt = stream.read();
-        peekByte = (byte) peekInt;
-        while (peekInt != -1
-                && (peekByte == (byte) 0xFF || peekByte == (byte) 0x00)) {
-            stream.mark(0);
-            peekInt = stream.read();
-            peekByte = (byte) peekInt;
-        }
-        stream.reset(); // Reset back to the last known position without 0x00 or
-        // 0xFF
-
-        BERTLV tlv = new BERTLV(tag, length, lengthBytes, valueBytes);
-        return tlv;
+    public static String prettyPrintBerTlvAPDUResponse(byte[] data,
+                                                       int indentLength) throws TlvParsingException {
+        return prettyPrintBerTlv(new TlvCursor(data), indentLength);
     }
 
     /**
-     * Tries to parse a byte array as EMV BER-TLV encoded data and returns a
-     * pretty formatted string (useful for logging and debugging output)<br>
+     * Pretty prints all data objects of the given cursor
      *
-     * source: https://code.google.com/p/javaemvreader/
-     *
-     * @param data
+     * @param cursor
      * @param indentLength
      * @return
      * @throws TlvParsingException
      */
-    public static String prettyPrintBerTlvAPDUResponse(byte[] data,
-                                                       int indentLength) throws TlvParsingException {
+    private static String prettyPrintBerTlv(TlvCursor cursor, int indentLength)
+            throws TlvParsingException {
         StringBuilder buf = new StringBuilder();
 
-        ByteArrayInputStream stream = new ByteArrayInputStream(data);
-
-        while (stream.available() > 0) {
+        while (cursor.next()) {
             buf.append("\n");
 
             buf.append(getSpaces(indentLength));
 
-            BERTLV tlv = getNextTLV(stream);
-
-            // Log.debug(tlv.toString());
-
-            byte[] tagBytes = tlv.getTagBytes();
-            byte[] lengthBytes = tlv.getRawEncodedLengthBytes();
-            byte[] valueBytes = tlv.getValueBytes();
-
-            EmvTag tag = tlv.getTag();
+            EmvTag tag = cursor.getTag();
 
             // buf.append(" TAG: ");
-            buf.append(prettyPrintString(bytesToHex(tagBytes), 2));
+            buf.append(prettyPrintString(bytesToHex(tag.getTagBytes()), 2));
             buf.append("  -  ");
-            buf.append(prettyPrintString(bytesToHex(lengthBytes), 2));
+            buf.append(prettyPrintString(
+                    bytesToHex(cursor.copyLengthBytes()), 2));
             buf.append(" bytes: ");
             buf.append(tag.getName());
 
-            // int extraIndent = (lengthBytes.length * 3) + (tagBytes.length *
-            // 3);
-            int extraIndent = (lengthBytes.length * 2) + (tagBytes.length * 2);
-            // int extraIndent = 2;
+            int extraIndent = (cursor.getLengthLength() * 2)
+                    + (cursor.getTagLength() * 2);
 
-            if (tag.isConstructed()) {
-                // indentLength += extraIndent;
+            if (cursor.isConstructed()) {
                 // Recursion
-                buf.append(prettyPrintBerTlvAPDUResponse(valueBytes,
-                        indentLength + extraIndent));
+                buf.append(prettyPrintBerTlv(cursor.enter(), indentLength
+                        + extraIndent));
             } else {
                 buf.append("\n");
+                byte[] valueBytes = cursor.copyValue();
                 if (tag.getTagValueType() == TagValueType.DOL) {
                     buf.append(getFormattedTagAndLength(valueBytes,
                             indentLength + extraIndent));
@@ -976,171 +1052,136 @@ public class EmvUtils {
     public static List<TagAndValue> getTagsFromBerTlvAPDUResponse(byte[] data)
             throws TlvParsingException {
         List<TagAndValue> tagList = new ArrayList<TagAndValue>();
-        ByteArrayInputStream stream = new ByteArrayInputStream(data);
-        while (stream.available() > 0) {
-            BERTLV tlv = getNextTLV(stream);
-            EmvTag tag = tlv.getTag();
-            byte[] valueBytes = tlv.getValueBytes();
-
-            if (tag.isConstructed()) {
-                // Recursion:
-                tagList.addAll(getTagsFromBerTlvAPDUResponse(tlv
-                        .getValueBytes()));
-            } else {
-                tagList.add(new TagAndValue(tag, valueBytes));
-            }
-        }
+        collectTags(data, 0, data.length, tagList);
         return tagList;
     }
 
     /**
-     * Filters interesting tags to be displayed in the result view
+     * Parses BER-TLV encoded data and adds all primitive data objects
+     * (including the nested ones) to the given list
      *
-     * @param tagList
-     * @return
+     * @param data
+     * @param offset start of the BER-TLV data
+     * @param length length of the BER-TLV data
+     * @param target the found tags are added to this list
+     * @throws TlvParsingException
      */
-    public static List<InfoKeyValuePair> filterTagsForResult(Context ctx,
-                                                             List<TagAndValue> tagList, boolean cutOffLastAccountnumberDigit) {
-        List<InfoKeyValuePair> resultList = new ArrayList<InfoKeyValuePair>();
-        String tagBytesHexString;
-
-        for (TagAndValue tagAndValue : tagList) {
-            tagBytesHexString = bytesToHex(tagAndValue.getTag().getTagBytes());
-
-            // Expiration date
-            if ("5F24".equalsIgnoreCase(tagBytesHexString)) {
-                try {
-                    InfoKeyValuePair expirationDate = new InfoKeyValuePair(ctx
-                            .getResources().getString(
-                                    R.string.lbl_expiration_date), "5F24",
-                            formatDateOnly(getDateFromBcdBytes(tagAndValue
-                                    .getValue())));
-                    resultList.add(expirationDate);
-                } catch (ParseException e) {
-                    // dont add in case we cannot parse
-                    Log.w(TAG, "cannot parse expiration date!", e);
-                }
-            }
-            // Effective date
-            else if ("5F25".equalsIgnoreCase(tagBytesHexString)) {
-                try {
-                    InfoKeyValuePair expirationDate = new InfoKeyValuePair(ctx
-                            .getResources().getString(
-                                    R.string.lbl_effective_date), "5F25",
-                            formatDateOnly(getDateFromBcdBytes(tagAndValue
-                                    .getValue())));
-                    resultList.add(expirationDate);
-                } catch (ParseException e) {
-                    // dont add in case we cannot parse
-                    Log.w(TAG, "cannot parse effective date!", e);
-                }
-            }
-            // Account Number
-            else if ("5A".equalsIgnoreCase(tagBytesHexString)) {
-                if (tagAndValue.getValue() != null
-                        && tagAndValue.getValue().length > 1) {
-                    String primaryAccountNumber = bytesToHex(tagAndValue
-                            .getValue());
-                    if (cutOffLastAccountnumberDigit) {
-                        // last character is always F: cut it off:
-                        primaryAccountNumber = primaryAccountNumber.substring(
-                                0, primaryAccountNumber.length() - 1);
-                    }
-                    resultList.add(new InfoKeyValuePair(ctx.getResources()
-                            .getString(R.string.lbl_primary_account_number), "5A",
-                            prettyPrintString(primaryAccountNumber, 4)));
-                }
+    public static void collectTags(byte[] data, int offset, int length,
+                                   final List<TagAndValue> target) throws TlvParsingException {
+        walkBerTlv(data, offset, length, new TlvVisitor() {
+            @Override
+            public boolean onPrimitive(int tag, byte[] buf, int offset,
+                                       int length) {
+                target.add(new TagAndValue(EMVTags.getNotNull(tag),
+                        Arrays.copyOfRange(buf, offset, offset + length)));
+                return true;
             }
 
-            // Current ATC (application transaction counter) value
-            else if ("9F36".equalsIgnoreCase(tagBytesHexString)) {
-                if (tagAndValue.getValue() != null
-                        && tagAndValue.getValue().length > 1) {
-                    int currentTransactionCounter = byteArrayToInt(tagAndValue
-                            .getValue());
-                    resultList
-                            .add(new InfoKeyValuePair(
-                                    ctx.getResources()
-                                            .getString(
-                                                    R.string.lbl_application_transaction_counter), "9F36",
-                                    Integer.toString(currentTransactionCounter)));
-                }
+            @Override
+            public boolean onConstructedStart(int tag, byte[] buf, int offset,
+                                              int length) {
+                return true;
             }
 
-            //
-            // display mastercard specific(??) stuff
-            //
-
-            // Card risk management currency ?
-            if ("C9".equalsIgnoreCase(tagBytesHexString)) {
-                InfoKeyValuePair crmCurrency = new InfoKeyValuePair(ctx
-                        .getResources().getString(
-                                R.string.lbl_card_risk_management_currency), "C9",
-                        Iso4217CurrencyCodes.getCurrencyAsString(tagAndValue
-                                .getValue()));
-                resultList.add(crmCurrency);
+            @Override
+            public boolean onConstructedEnd(int tag) {
+                return true;
             }
+        });
+    }
 
-            // country code for card risk management ?
-            if ("C8".equalsIgnoreCase(tagBytesHexString)) {
-                InfoKeyValuePair crmCountry = new InfoKeyValuePair(ctx
-                        .getResources().getString(
-                                R.string.lbl_card_risk_management_country), "C8",
-                        Iso3166CountryCodes.getCountryAsString(tagAndValue
-                                .getValue()));
-                resultList.add(crmCountry);
-            }
+    /**
+     * Walks through BER-TLV encoded data (depth first) and reports each data
+     * object to the visitor, without copying any data
+     *
+     * @param data
+     * @param offset  start of the BER-TLV data
+     * @param length  length of the BER-TLV data
+     * @param visitor
+     * @return <code>true</code> if all data was visited, <code>false</code> if
+     * the visitor stopped the walk
+     * @throws TlvParsingException if the data is no valid BER-TLV or contains
+     *                             a tag longer than 4 bytes
+     */
+    public static boolean walkBerTlv(byte[] data, int offset, int length,
+                                     TlvVisitor visitor) throws TlvParsingException {
+        return walkBerTlv(new TlvCursor(data, offset, length), visitor);
+    }
 
-            // lower consecutive offline limit
-            if ("9F14".equalsIgnoreCase(tagBytesHexString)) {
-                InfoKeyValuePair kvPair = new InfoKeyValuePair(
-                        ctx.getResources().getString(
-                                R.string.lbl_lower_consecutive_offline_limit), "9F14",
-                        Integer.toString(byteArrayToInt(tagAndValue.getValue())));
-                resultList.add(kvPair);
+    private static boolean walkBerTlv(TlvCursor cursor, TlvVisitor visitor)
+            throws TlvParsingException {
+        while (cursor.next()) {
+            int tag = cursor.getTagId();
+            if (tag == -1) {
+                throw new TlvParsingException("Tag longer than 4 bytes at offset "
+                        + cursor.getTagOffset());
             }
-
-            // upper consecutive offline limit
-            if ("9F23".equalsIgnoreCase(tagBytesHexString)) {
-                InfoKeyValuePair kvPair = new InfoKeyValuePair(
-                        ctx.getResources().getString(
-                                R.string.lbl_upper_consecutive_offline_limit), "9F23",
-                        Integer.toString(byteArrayToInt(tagAndValue.getValue())));
-                resultList.add(kvPair);
+            if (cursor.isConstructed()) {
+                if (!visitor.onConstructedStart(tag, cursor.getBuffer(),
+                        cursor.getValueOffset(), cursor.getValueLength())
+                        || !walkBerTlv(cursor.enter(), visitor)
+                        || !visitor.onConstructedEnd(tag)) {
+                    return false;
+                }
+            } else if (!visitor.onPrimitive(tag, cursor.getBuffer(),
+                    cursor.getValueOffset(), cursor.getValueLength())) {
+                return false;
             }
+        }
+        return true;
+    }
 
-            // lower consecutive tx amount
-            if ("CA".equalsIgnoreCase(tagBytesHexString)) {
-                InfoKeyValuePair kvPair = new InfoKeyValuePair(
-                        ctx.getResources()
-                                .getString(
-                                        R.string.lbl_lower_consecutive_offline_tx_amount), "CA",
-                        formatBalance(getAmountFromBcdBytes(tagAndValue
-                                .getValue())));
+    /**
+     * Filters interesting tags to be displayed in the result view
+     *
+     * @param labels resolves the labels of the tags
+     * @param cardData
+     * @return
+     */
+    public static List<InfoKeyValuePair> filterTagsForResult(LabelProvider labels,
+                                                             CardDataIndex cardData, boolean cutOffLastAccountnumberDigit) {
+        List<InfoKeyValuePair> resultList = new ArrayList<InfoKeyValuePair>();
+        TagFormatters formatters = TagFormatters.getInstance(labels);
+        for (CardDataIndex.Entry tagAndValue : cardData.entries()) {
+            int tagId = tagAndValue.getTagId();
+            // the risk management amounts are in the currency of tag C9
+            int currency = tagId == 0xCA || tagId == 0xCB
+                    ? getRiskManagementCurrency(cardData, tagAndValue) : -1;
+            InfoKeyValuePair kvPair = formatters.format(tagId,
+                    tagAndValue.getValue(), cutOffLastAccountnumberDigit,
+                    currency);
+            if (kvPair != null) {
                 resultList.add(kvPair);
             }
+        }
+        return resultList;
+    }
 
-            // upper consecutive tx amount
-            if ("CB".equalsIgnoreCase(tagBytesHexString)) {
-                InfoKeyValuePair kvPair = new InfoKeyValuePair(
-                        ctx.getResources()
-                                .getString(
-                                        R.string.lbl_upper_consecutive_offline_tx_amount), "CB",
-                        formatBalance(getAmountFromBcdBytes(tagAndValue
-                                .getValue())));
-                resultList.add(kvPair);
+    /**
+     * @param cardData
+     * @param entry    a value read from the card
+     * @return numeric ISO 4217 code of the card risk management currency (tag
+     * C9), preferably of the same application as the given entry, or -1 if
+     * the card didn't send a (valid) one
+     */
+    private static int getRiskManagementCurrency(CardDataIndex cardData,
+                                                 CardDataIndex.Entry entry) {
+        int currency = -1;
+        for (CardDataIndex.Entry c9 : cardData.all(0xC9)) {
+            byte[] value = c9.getValue();
+            int code = value.length == 2 ? Iso4217CurrencyCodes.toNumericCode(
+                    value, 0) : -1;
+            if (code < 0) {
+                continue;
+            }
+            if (Arrays.equals(c9.getAid(), entry.getAid())) {
+                return code;
+            }
+            if (currency < 0) {
+                currency = code;
             }
-
-            // Log.d(TAG, "  name: " + tagAndValue.getTag().getName());
-            // Log.d(TAG, "   tag: "
-            // + bytesToHex(tagAndValue.getTag().getTagBytes()));
-            // Log.d(TAG,
-            // "   val: "
-            // + getTagValueAsString(tagAndValue.getTag(),
-            // tagAndValue.getValue()));
-
         }
-        return resultList;
+        return currency;
     }
 
     /**
@@ -1155,29 +1196,13 @@ public class EmvUtils {
             throw new IllegalArgumentException(
                     "Error! CLCP Date values consist always of exactly 2 bytes");
         }
-        // current time
-        Calendar now = Calendar.getInstance();
-
-        int year = now.get(Calendar.YEAR);
-        int startYearOfCurrentDecade = year - (year % 10);
-
-        int days = 100 * (dateBytes[0] & 0xF) + 10 * (0xF & dateBytes[1] >>> 4)
-                + (dateBytes[1] & 0xF);
-
-        if (days > 366) {
+        int epochDay = BcdDateCodec.decodeCplcDate(dateBytes, 0,
+                BcdDateCodec.currentEpochDay());
+        if (epochDay == BcdDateCodec.INVALID) {
             throw new IllegalArgumentException(
                     "Invalid date (or are we parsing it wrong??)");
         }
-
-        Calendar calculatedDate = Calendar.getInstance();
-        calculatedDate.clear();
-        calculatedDate.set(Calendar.YEAR, startYearOfCurrentDecade
-                + (0xF & dateBytes[0] >>> 4));
-        calculatedDate.set(Calendar.DAY_OF_YEAR, days);
-        while (calculatedDate.after(now)) {
-            calculatedDate.add(Calendar.YEAR, -10);
-        }
-        return calculatedDate.getTime();
+        return new Date(BcdDateCodec.toMillis(epochDay, 0));
     }
 
     /**
@@ -1247,74 +1272,6 @@ public class EmvUtils {
         return true;
     }
 
-    /**
-     * read tag id bytes from EMV tag bytestream
-     *
-     * source: https://code.google.com/p/javaemvreader/
-     *
-     * @param stream
-     * @return
-     */
-    private static byte[] readTagIdBytes(ByteArrayInputStream stream) {
-        ByteArrayOutputStream tagBAOS = new ByteArrayOutputStream();
-        byte tagFirstOctet = (byte) stream.read();
-        tagBAOS.write(tagFirstOctet);
-
-        // Find TAG bytes
-        byte MASK = (byte) 0x1F;
-        if ((tagFirstOctet & MASK) == MASK) { // EMV book 3, Page 178 or Annex
-            // B1 (EMV4.3)
-            // Tag field is longer than 1 byte
-            do {
-                int nextOctet = stream.read();
-                if (nextOctet < 0) {
-                    break;
-                }
-                byte tlvIdNextOctet = (byte) nextOctet;
-
-                tagBAOS.write(tlvIdNextOctet);
-
-                if (!isBitSet(tlvIdNextOctet, 8)) {
-                    break;
-                }
-            } while (true);
-        }
-        return tagBAOS.toByteArray();
-    }
-
-    /**
-     * read length value from EMV tag bytestream
-     *
-     * source: https://code.google.com/p/javaemvreader/
-     *
-     * @param stream
-     * @return
-     */
-    private static int readTagLength(ByteArrayInputStream stream) {
-        // Find LENGTH bytes
-        int length;
-        int tmpLength = stream.read();
-
-        if (tmpLength <= 127) { // 0111 1111
-            // short length form
-            length = tmpLength;
-        } else if (tmpLength == 128) { // 1000 0000
-            // length identifies indefinite form, will be set later
-            length = tmpLength;
-        } else {
-            // long length form
-            int numberOfLengthOctets = tmpLength & 127; // turn off 8th bit
-            tmpLength = 0;
-            for (int i = 0; i < numberOfLengthOctets; i++) {
-                int nextLengthOctet = stream.read();
-                tmpLength <<= 8;
-                tmpLength |= nextLengthOctet;
-            }
-            length = tmpLength;
-        }
-        return length;
-    }
-
     /**
      * Returns a string representation of a list of Tag and Lengths (eg DOLs)<br>
      *
@@ -1324,26 +1281,23 @@ public class EmvUtils {
      * @param indentLength
      * @return
      */
-    private static String getFormattedTagAndLength(byte[] data, int indentLength) {
+    private static String getFormattedTagAndLength(byte[] data, int indentLength)
+            throws TlvParsingException {
         StringBuilder buf = new StringBuilder();
         String indent = getSpaces(indentLength);
-        ByteArrayInputStream stream = new ByteArrayInputStream(data);
+        DataObjectList dol = DataObjectList.parse(data);
 
-        boolean firstLine = true;
-        while (stream.available() > 0) {
-            if (firstLine) {
-                firstLine = false;
-            } else {
+        for (int i = 0; i < dol.size(); i++) {
+            if (i > 0) {
                 buf.append("\n");
             }
             buf.append(indent);
 
-            EmvTag tag = EMVTags.getNotNull(readTagIdBytes(stream));
-            int length = readTagLength(stream);
+            EmvTag tag = EMVTags.getNotNull(dol.getTagId(i));
 
             buf.append(prettyPrintString(bytesToHex(tag.getTagBytes()), 2));
             buf.append(" (");
-            buf.append(bytesToHex(intToByteArray(length)));
+            buf.append(bytesToHex(intToByteArray(dol.getLength(i))));
             buf.append(" bytes) -> ");
             buf.append(tag.getName());
         }
@@ -2,90 +2,72 @@ package digital.sepa.nfc.iso7816emv;
 
 import static digital.sepa.nfc.util.Utils.bytesToHex;
 
+/**
+ * Country codes defined in ISO 3166-1 numeric<br>
+ * https://en.wikipedia.org/wiki/ISO_3166-1<br>
+ * <br>
+ * On the card the numeric code is stored BCD encoded in 2 bytes (for example
+ * <code>00 40</code> for Austria). The lookups use the generated
+ * {@link CountryTable}, which is indexed directly by the numeric code.
+ */
 public class Iso3166CountryCodes {
 
     /**
-     * Returns ISO3166 country codes as string (not all countries listed here)
-     * TODO: add more country codes
+     * @param buf
+     * @param offset offset of the 2 BCD encoded bytes
+     * @return the numeric code (0..999) or -1 if the bytes are not a valid
+     * BCD encoded code
+     */
+    public static int toNumericCode(byte[] buf, int offset) {
+        // same encoding as currency codes
+        return Iso4217CurrencyCodes.toNumericCode(buf, offset);
+    }
+
+    /**
+     * Returns ISO3166 country name as string
      *
-     * @param countryCode
+     * @param countryCode 2-byte representation of the country
      * @return
      */
     public static String getCountryAsString(byte[] countryCode) {
-        String byteString = bytesToHex(countryCode);
-        if ("0040".equals(byteString)) {
-            return "Austria";
-        }
-        if ("0070".equals(byteString)) {
-            return "Bosnia and Herzegovina";
-        }
-        if ("0124".equals(byteString)) {
-            return "Canada";
-        }
-        if ("0191".equals(byteString)) {
-            return "Hrvatska (Croatia)";
-        }
-        if ("0196".equals(byteString)) {
-            return "Cyprus, Republic of";
-        }
-        if ("0203".equals(byteString)) {
-            return "Czech Republic";
-        }
-        if ("0208".equals(byteString)) {
-            return "Denmark";
-        }
-        if ("0233".equals(byteString)) {
-            return "Estonia";
-        }
-        if ("0246".equals(byteString)) {
-            return "Finland";
-        }
-        if ("0250".equals(byteString)) {
-            return "France";
-        }
-        if ("0276".equals(byteString)) {
-            return "Germany";
-        }
-        if ("0300".equals(byteString)) {
-            return "Greece";
-        }
-        if ("0348".equals(byteString)) {
-            return "Hungary";
-        }
-        if ("0380".equals(byteString)) {
-            return "Italy";
-        }
-        if ("0528".equals(byteString)) {
-            return "Netherlands";
-        }
-        if ("0578".equals(byteString)) {
-            return "Norway";
-        }
-        if ("0642".equals(byteString)) {
-            return "Romania";
-        }
-        if ("0703".equals(byteString)) {
-            return "Slovakia";
+        int numericCode = countryCode != null && countryCode.length == 2 ? toNumericCode(
+                countryCode, 0) : -1;
+        String name = getName(numericCode);
+        if (name == null) {
+            return "Country Code: " + bytesToHex(countryCode) + " (ISO 3166)";
         }
-        if ("0705".equals(byteString)) {
-            return "Slovenia";
-        }
-        if ("0724".equals(byteString)) {
-            return "Spain";
-        }
-        if ("0752".equals(byteString)) {
-            return "Sweden";
-        }
-        if ("0756".equals(byteString)) {
-            return "Switzerland";
-        }
-        if ("0840".equals(byteString)) {
-            return "USA";
-        }
-        if ("0891".equals(byteString)) {
-            return "Serbia and Montenegro";
-        }
-        return "Country Code: " + byteString + " (ISO 3166)";
+        return name;
+    }
+
+    /**
+     * @param numericCode
+     * @return the country name or <code>null</code> if the code is unknown
+     */
+    public static String getName(int numericCode) {
+        return isKnown(numericCode) ? CountryTable.NAMES[numericCode] : null;
+    }
+
+    /**
+     * @param numericCode
+     * @return the alpha-2 code (for example "AT") or <code>null</code> if the
+     * code is unknown
+     */
+    public static String getAlpha2Code(int numericCode) {
+        return isKnown(numericCode) ? CountryTable.ALPHA2[numericCode] : null;
+    }
+
+    /**
+     * @param numericCode
+     * @return the alpha-3 code (for example "AUT") or <code>null</code> if
+     * the code is unknown
+     */
+    public static String getAlpha3Code(int numericCode) {
+        return isKnown(numericCode) ? CountryTable.ALPHA3[numericCode] : null;
+    }
+
+    private static boolean isKnown(int numericCode) {
+        return numericCode >= 0 && numericCode < CountryTable.SIZE
+                && CountryTable.NAMES[numericCode] != null;
     }
 
 }
@@ -1,83 +1,139 @@
 package digital.sepa.nfc.iso7816emv;
 
 import static digital.sepa.nfc.util.Utils.bytesToHex;
+import static digital.sepa.nfc.util.Utils.formatAmount;
 
 /**
  * Currency values<br>
  * <br>
  * currencies defined in ISO4217 numeric<br>
- * https://en.wikipedia.org/wiki/ISO_4217
+ * https://en.wikipedia.org/wiki/ISO_4217<br>
+ * <br>
+ * On the card the numeric code is stored BCD encoded in 2 bytes (for example
+ * <code>09 78</code> for EUR). The lookups use the generated
+ * {@link CurrencyTable}, which is indexed directly by the numeric code.
  */
 public class Iso4217CurrencyCodes {
 
     /**
-     * @param currencyByte 2-byte representation of currency
-     * @return String representation of currency
+     * numeric code of EUR
      */
-    public static String getCurrencyAsString(byte[] currencyCode) {
-        String byteString = bytesToHex(currencyCode);
-        if ("0040".equals(byteString)) {
-            return "ATS";
-        }
-        if ("0124".equals(byteString)) {
-            return "CAD";
-        }
-        if ("0156".equals(byteString)) {
-            return "CNY";
-        }
-        if ("0348".equals(byteString)) {
-            return "HUF";
-        }
-        if ("0643".equals(byteString)) {
-            return "RUB";
-        }
-        if ("0752".equals(byteString)) {
-            return "SEK";
-        }
-        if ("0756".equals(byteString)) {
-            return "CHF";
-        }
-        if ("0784".equals(byteString)) {
-            return "AED";
-        }
-        if ("0826".equals(byteString)) {
-            return "GBP";
-        }
-        if ("0840".equals(byteString)) {
-            return "USD";
-        }
-        if ("0941".equals(byteString)) {
-            return "RSD";
-        }
-        if ("0946".equals(byteString)) {
-            return "RON";
-        }
-        if ("0975".equals(byteString)) {
-            return "BGN";
-        }
-        if ("0977".equals(byteString)) {
-            return "BAM";
-        }
-        if ("0978".equals(byteString)) {
-            return "€";
+    public static final int EUR = 978;
+
+    // special codes for "not set" or "undefined"
+    private static final int NOT_SET = 999;
+    private static final int UNDEFINED = 0;
+
+    /**
+     * @param buf
+     * @param offset offset of the 2 BCD encoded bytes
+     * @return the numeric code (0..999) or -1 if the bytes are not a valid
+     * BCD encoded code
+     */
+    public static int toNumericCode(byte[] buf, int offset) {
+        return toNumericCode(((buf[offset] & 0xFF) << 8)
+                | (buf[offset + 1] & 0xFF));
+    }
+
+    /**
+     * @param bcd the 2 BCD encoded bytes as int (for example
+     *            <code>0x0978</code>)
+     * @return the numeric code (0..999) or -1 if the value is not a valid
+     * BCD encoded code
+     */
+    public static int toNumericCode(int bcd) {
+        if ((bcd & 0xF000) != 0) {
+            return -1;
         }
-        if ("0980".equals(byteString)) {
-            return "UAH";
+        int hundreds = (bcd >> 8) & 0x0F;
+        int tens = (bcd >> 4) & 0x0F;
+        int ones = bcd & 0x0F;
+        if (hundreds > 9 || tens > 9 || ones > 9) {
+            return -1;
         }
-        if ("0985".equals(byteString)) {
-            return "PLN";
+        return hundreds * 100 + tens * 10 + ones;
+    }
+
+    /**
+     * @param currencyCode 2-byte representation of currency
+     * @return String representation of currency
+     */
+    public static String getCurrencyAsString(byte[] currencyCode) {
+        int numericCode = currencyCode != null && currencyCode.length == 2 ? toNumericCode(
+                currencyCode, 0) : -1;
+        if (numericCode < 0) {
+            return "ISO 4217 Currency Code " + bytesToHex(currencyCode);
         }
+        return getCurrencyAsString(numericCode);
+    }
 
-        // special code for "not set" or "undefined"
-        if ("0999".equals(byteString)) {
-            // TODO localization
-            return "<currency not set>";
+    /**
+     * @param numericCode
+     * @return String representation of currency (alpha code, or the symbol
+     * for EUR)
+     */
+    public static String getCurrencyAsString(int numericCode) {
+        switch (numericCode) {
+            case EUR:
+                return "€";
+            case NOT_SET:
+                // TODO localization
+                return "<currency not set>";
+            case UNDEFINED:
+                return "?";
+            default:
+                String alpha = getAlphaCode(numericCode);
+                if (alpha != null) {
+                    return alpha;
+                }
+                return "ISO 4217 Currency Code " + (numericCode < 10 ? "000"
+                        : (numericCode < 100 ? "00" : "0")) + numericCode;
         }
-        if ("0000".equals(byteString)) {
-            return "?";
+    }
+
+    /**
+     * @param numericCode
+     * @return the alpha code (for example "EUR") or <code>null</code> if the
+     * code is unknown
+     */
+    public static String getAlphaCode(int numericCode) {
+        return isKnown(numericCode) ? CurrencyTable.ALPHA[numericCode] : null;
+    }
+
+    /**
+     * @param numericCode
+     * @return the name (for example "Euro") or <code>null</code> if the code
+     * is unknown
+     */
+    public static String getName(int numericCode) {
+        return isKnown(numericCode) ? CurrencyTable.NAMES[numericCode] : null;
+    }
+
+    /**
+     * @param numericCode
+     * @return number of decimal places of the currency (2 if the code is
+     * unknown, 0 if not applicable)
+     */
+    public static int getMinorUnits(int numericCode) {
+        if (!isKnown(numericCode)) {
+            return 2;
         }
+        return Math.max(CurrencyTable.MINOR_UNITS[numericCode], 0);
+    }
+
+    /**
+     * @param amount      amount in the minor unit of the currency
+     * @param numericCode
+     * @return the formatted amount (for example "1.234,56" for EUR or "1.234"
+     * for JPY)
+     */
+    public static String formatCurrencyAmount(long amount, int numericCode) {
+        return formatAmount(amount, getMinorUnits(numericCode));
+    }
 
-        return "ISO 4217 Currency Code " + byteString;
+    private static boolean isKnown(int numericCode) {
+        return numericCode >= 0 && numericCode < CurrencyTable.SIZE
+                && CurrencyTable.ALPHA[numericCode] != null;
     }
 
 }
@@ -0,0 +1,29 @@
+package digital.sepa.nfc.iso7816emv;
+
+/**
+ * Resolves the labels of the card infos (section headers and tag labels)
+ * from their string resource IDs. The reader only needs this instead of an
+ * Android context, so it can also run outside of an app (e.g. in JVM unit
+ * tests).
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public interface LabelProvider {
+
+    /**
+     * Labels made of the resource ID only (like <code>@7f0a0027</code>), for
+     * running without Android resources
+     */
+    LabelProvider RESOURCE_IDS = new LabelProvider() {
+        @Override
+        public String getLabel(int resId) {
+            return "@" + Integer.toHexString(resId);
+        }
+    };
+
+    /**
+     * @param resId string resource ID (<code>R.string.*</code>)
+     * @return the label
+     */
+    String getLabel(int resId);
+}
@@ -0,0 +1,110 @@
+package digital.sepa.nfc.iso7816emv;
+
+import digital.sepa.nfc.exceptions.TlvParsingException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static digital.sepa.nfc.iso7816emv.EmvUtils.collectTags;
+
+/**
+ * Parsed response of the EMV GET PROCESSING OPTIONS command: the Application
+ * Interchange Profile (AIP, tag 82) and the Application File Locator (AFL, tag
+ * 94).<br>
+ * <br>
+ * The card may answer in 2 formats (see EMV Book 3, 6.5.8.4):
+ * <ul>
+ * <li>Format 1: tag 80, value is AIP (2 bytes) directly followed by the AFL
+ * (without tags and lengths)</li>
+ * <li>Format 2: constructed tag 77, containing tags 82 and 94 (and maybe some
+ * more)</li>
+ * </ul>
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public class ProcessingOptions {
+
+    private final byte[] applicationInterchangeProfile;
+    private final ApplicationFileLocator applicationFileLocator;
+
+    private ProcessingOptions(byte[] aip, ApplicationFileLocator afl) {
+        this.applicationInterchangeProfile = aip;
+        this.applicationFileLocator = afl;
+    }
+
+    /**
+     * Parse the GET PROCESSING OPTIONS response data
+     *
+     * @param responseData response data (without status word)
+     * @return parsed processing options
+     * @throws TlvParsingException if the response is neither format 1 nor
+     *                             format 2 or does not contain AIP and AFL
+     */
+    public static ProcessingOptions parse(byte[] responseData)
+            throws TlvParsingException {
+        if (responseData == null) {
+            throw new TlvParsingException(
+                    "GET PROCESSING OPTIONS response is too short");
+        }
+        return parse(responseData, 0, responseData.length);
+    }
+
+    /**
+     * Parse the GET PROCESSING OPTIONS response data
+     *
+     * @param buf    the buffer
+     * @param offset start of the response data within the buffer
+     * @param length length of the response data (without status word)
+     * @return parsed processing options
+     * @throws TlvParsingException if the response is neither format 1 nor
+     *                             format 2 or does not contain AIP and AFL
+     */
+    public static ProcessingOptions parse(byte[] buf, int offset, int length)
+            throws TlvParsingException {
+        if (length < 2) {
+            throw new TlvParsingException(
+                    "GET PROCESSING OPTIONS response is too short");
+        }
+        byte[] aip = null;
+        byte[] afl = null;
+        List<TagAndValue> tags = new ArrayList<TagAndValue>();
+        collectTags(buf, offset, length, tags);
+        for (TagAndValue tv : tags) {
+            EmvTag tag = tv.getTag();
+            if (tag.equals(EMVTags.RESPONSE_MESSAGE_TEMPLATE_1)) {
+                // format 1: AIP || AFL
+                byte[] value = tv.getValue();
+                if (value.length < 2) {
+                    throw new TlvParsingException(
+                            "Response message template format 1 is too short");
+                }
+                aip = Arrays.copyOfRange(value, 0, 2);
+                afl = Arrays.copyOfRange(value, 2, value.length);
+            } else if (tag.equals(EMVTags.APPLICATION_INTERCHANGE_PROFILE)) {
+                aip = tv.getValue();
+            } else if (tag.equals(EMVTags.APPLICATION_FILE_LOCATOR)) {
+                afl = tv.getValue();
+            }
+        }
+        if (aip == null || afl == null) {
+            throw new TlvParsingException(
+                    "GET PROCESSING OPTIONS response contains no AIP or AFL");
+        }
+        return new ProcessingOptions(aip, ApplicationFileLocator.parse(afl));
+    }
+
+    /**
+     * @return the 2 bytes Application Interchange Profile (AIP)
+     */
+    public byte[] getApplicationInterchangeProfile() {
+        return applicationInterchangeProfile;
+    }
+
+    /**
+     * @return the Application File Locator (AFL)
+     */
+    public ApplicationFileLocator getApplicationFileLocator() {
+        return applicationFileLocator;
+    }
+}
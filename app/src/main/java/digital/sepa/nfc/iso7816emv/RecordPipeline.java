@@ -0,0 +1,288 @@
+package digital.sepa.nfc.iso7816emv;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Parses records on a separate thread while the reader already sends the next
+ * READ RECORD commands, so that parsing doesn't add to the time the card has
+ * to stay in the field.<br>
+ * <br>
+ * The parser thread is started once and reused for all passes (and, if the
+ * pipeline is shared, for all reads) until {@link #close()} is called. Each
+ * pass over a set of records is started with {@link #start(Handler)} and
+ * ended with {@link #finish()}. Within a pass the reading thread (the only
+ * producer) puts the raw responses into a bounded
+ * single-producer/single-consumer ring, and the parser thread (the only
+ * consumer) hands them to the {@link Handler} in the same order. If the ring
+ * is full, the reading thread waits for the parser.<br>
+ * <br>
+ * Everything the handler writes is visible to the reading thread after
+ * {@link #drain()} or {@link #finish()} returned, so the reading thread must
+ * not touch the parsed data (e.g. the {@link CardDataIndex}) between starting
+ * the pass and calling {@link #drain()}. Only one pass may run at a time.
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public final class RecordPipeline {
+
+    /**
+     * Called on the parser thread for each record
+     */
+    interface Handler {
+        /**
+         * @param response  the record (including status word)
+         * @param sfi       the EF the record was read from
+         * @param record    the record number
+         * @param isLogFile <code>true</code> if the record was read from the
+         *                  transaction log EF
+         */
+        void onRecord(ResponseApdu response, int sfi, int record,
+                      boolean isLogFile);
+    }
+
+    // records which may be read ahead of the parser thread
+    private static final int DEFAULT_CAPACITY = 32;
+
+    // upper bound for waiting, in case a wake-up gets lost
+    private static final long PARK_NANOS = 1000000L;
+
+    private final Thread consumer;
+
+    // the ring
+    private final ResponseApdu[] responses;
+    private final int[] sfis;
+    private final int[] records;
+    private final boolean[] logFiles;
+    private final int mask;
+
+    // next slot to consume, only written by the consumer (after the record
+    // was handled)
+    private volatile long head;
+    // next slot to produce, only written by the producer
+    private volatile long tail;
+    private volatile boolean producerWaiting;
+    private volatile boolean consumerWaiting;
+    private volatile boolean closed;
+    private volatile Throwable failure;
+
+    // set by start(), the consumer only reads them after a slot was
+    // published
+    private volatile Thread producer;
+    private volatile Handler handler;
+    private volatile boolean passRunning;
+
+    // only written by the consumer during a pass, read after drain()
+    private long parseNanos;
+
+    /**
+     * Constructor, starts the parser thread with room for 32 queued records
+     */
+    public RecordPipeline() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructor, starts the parser thread
+     *
+     * @param capacity number of records which may be queued (power of 2)
+     */
+    RecordPipeline(int capacity) {
+        if (capacity <= 0 || (capacity & (capacity - 1)) != 0) {
+            throw new IllegalArgumentException(
+                    "RecordPipeline: capacity must be a power of 2: "
+                            + capacity);
+        }
+        this.responses = new ResponseApdu[capacity];
+        this.sfis = new int[capacity];
+        this.records = new int[capacity];
+        this.logFiles = new boolean[capacity];
+        this.mask = capacity - 1;
+        this.consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                consume();
+            }
+        }, "RecordParser");
+        consumer.setDaemon(true);
+        consumer.start();
+    }
+
+    /**
+     * Start a pass. Must be called on the reading thread, which is then the
+     * only one allowed to put records until {@link #finish()}.
+     *
+     * @param handler called on the parser thread for each record of this pass
+     */
+    void start(Handler handler) {
+        if (closed) {
+            throw new IllegalStateException("RecordPipeline: closed");
+        }
+        if (passRunning) {
+            throw new IllegalStateException(
+                    "RecordPipeline: pass already running");
+        }
+        // the ring is empty and the parser idle, so these are published to
+        // it with the first record
+        this.producer = Thread.currentThread();
+        this.handler = handler;
+        failure = null;
+        parseNanos = 0;
+        passRunning = true;
+    }
+
+    /**
+     * Queue a record for parsing (waits if the ring is full)
+     *
+     * @param response  the record (including status word)
+     * @param sfi       the EF the record was read from
+     * @param record    the record number
+     * @param isLogFile <code>true</code> if the record was read from the
+     *                  transaction log EF
+     */
+    void put(ResponseApdu response, int sfi, int record, boolean isLogFile) {
+        if (!passRunning) {
+            throw new IllegalStateException("RecordPipeline: no pass running");
+        }
+        rethrowFailure();
+        long t = tail;
+        while (t - head == responses.length) {
+            waitForConsumer(t - responses.length);
+        }
+        int slot = (int) t & mask;
+        responses[slot] = response;
+        sfis[slot] = sfi;
+        records[slot] = record;
+        logFiles[slot] = isLogFile;
+        // publishes the slot to the consumer
+        tail = t + 1;
+        if (consumerWaiting) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    /**
+     * Wait until all queued records are parsed
+     *
+     * @throws RuntimeException if the handler threw an exception
+     */
+    void drain() {
+        waitUntilParsed();
+        rethrowFailure();
+    }
+
+    /**
+     * Parse the remaining records and end the pass. The parser thread keeps
+     * running for the next pass. Other than {@link #drain()} this doesn't
+     * throw, so it can be used in a <code>finally</code> block.
+     */
+    void finish() {
+        waitUntilParsed();
+        handler = null;
+        passRunning = false;
+    }
+
+    /**
+     * Parse the remaining records and stop the parser thread. Must not be
+     * called while another thread runs a pass.
+     */
+    public void close() {
+        closed = true;
+        LockSupport.unpark(consumer);
+        boolean interrupted = false;
+        while (consumer.isAlive()) {
+            try {
+                consumer.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        handler = null;
+        passRunning = false;
+    }
+
+    /**
+     * @return <code>true</code> if {@link #close()} was called
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * @return time spent in the handler during the current (or last) pass
+     * (valid after {@link #drain()} or {@link #finish()})
+     */
+    long getParseNanos() {
+        return parseNanos;
+    }
+
+    private void waitUntilParsed() {
+        long t = tail;
+        while (head != t) {
+            waitForConsumer(head);
+        }
+    }
+
+    /**
+     * Park the producer until the consumer moved past the given slot
+     */
+    private void waitForConsumer(long slot) {
+        producerWaiting = true;
+        if (head == slot) {
+            LockSupport.parkNanos(this, PARK_NANOS);
+        }
+        producerWaiting = false;
+    }
+
+    private void consume() {
+        long h = head;
+        while (true) {
+            while (h == tail) {
+                if (closed) {
+                    return;
+                }
+                consumerWaiting = true;
+                if (h == tail && !closed) {
+                    LockSupport.park(this);
+                }
+                consumerWaiting = false;
+            }
+            int slot = (int) h & mask;
+            ResponseApdu response = responses[slot];
+            responses[slot] = null;
+            long start = System.nanoTime();
+            try {
+                handler.onRecord(response, sfis[slot], records[slot],
+                        logFiles[slot]);
+            } catch (Throwable t) {
+                if (failure == null) {
+                    failure = t;
+                }
+            }
+            parseNanos += System.nanoTime() - start;
+            h++;
+            // publishes the parsed data to the producer
+            head = h;
+            Thread p = producer;
+            if (producerWaiting && p != null) {
+                LockSupport.unpark(p);
+            }
+        }
+    }
+
+    private void rethrowFailure() {
+        Throwable t = failure;
+        if (t == null) {
+            return;
+        }
+        if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        }
+        if (t instanceof Error) {
+            throw (Error) t;
+        }
+        throw new RuntimeException(t);
+    }
+}
@@ -0,0 +1,117 @@
+package digital.sepa.nfc.iso7816emv;
+
+import java.util.Arrays;
+
+import static digital.sepa.nfc.util.Utils.bytesToHex;
+
+/**
+ * View over a response APDU as returned by the card: the response data
+ * followed by the 2 bytes status word (SW1 SW2). The status word is decoded
+ * once into an int, and the response data is exposed as offset/length view
+ * into the original buffer, so nothing is copied unless explicitly requested
+ * (see {@link #copyData()}).
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public final class ResponseApdu {
+
+    private final byte[] buf;
+    private final int sw;
+
+    /**
+     * Constructor
+     *
+     * @param buf the response APDU (including status word)
+     */
+    public ResponseApdu(byte[] buf) {
+        if (buf == null || buf.length < 2) {
+            throw new IllegalArgumentException(
+                    "ResponseApdu: response was either null or shorter than 2 bytes");
+        }
+        this.buf = buf;
+        this.sw = EmvUtils.getStatusWord(buf);
+    }
+
+    /**
+     * @return the status word (SW1 SW2), for example 0x9000
+     */
+    public int sw() {
+        return sw;
+    }
+
+    /**
+     * @return SW1 (0..255)
+     */
+    public int sw1() {
+        return sw >>> 8;
+    }
+
+    /**
+     * @return SW2 (0..255)
+     */
+    public int sw2() {
+        return sw & 0xFF;
+    }
+
+    /**
+     * @return <code>true</code> if the status word is 9000
+     */
+    public boolean isSuccess() {
+        return sw == EmvUtils.SW_NO_ERROR;
+    }
+
+    /**
+     * @return <code>true</code> if the response contains data besides the
+     * status word
+     */
+    public boolean hasData() {
+        return buf.length > 2;
+    }
+
+    /**
+     * @return the underlying buffer (including status word), not copied
+     */
+    public byte[] getBuffer() {
+        return buf;
+    }
+
+    /**
+     * @return offset of the response data within {@link #getBuffer()}
+     */
+    public int dataOffset() {
+        return 0;
+    }
+
+    /**
+     * @return length of the response data (without status word)
+     */
+    public int dataLength() {
+        return buf.length - 2;
+    }
+
+    /**
+     * @return length of the whole response (including status word)
+     */
+    public int length() {
+        return buf.length;
+    }
+
+    /**
+     * @return a copy of the response data (without status word)
+     */
+    public byte[] copyData() {
+        return Arrays.copyOfRange(buf, 0, buf.length - 2);
+    }
+
+    /**
+     * @return description of the status word
+     */
+    public String statusToString() {
+        return EmvUtils.statusToString(sw);
+    }
+
+    @Override
+    public String toString() {
+        return bytesToHex(buf);
+    }
+}
@@ -0,0 +1,392 @@
+package digital.sepa.nfc.iso7816emv;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Instrumentation of a card scan: latency histograms per command (INS),
+ * counts per status word, bytes sent and received, time spent in I/O versus
+ * TLV parsing, and the field time per scan phase.<br>
+ * <br>
+ * All counters are preallocated, so recording does not allocate any objects.
+ * Latencies are counted in buckets with upper bounds of 2^i microseconds
+ * (1 µs .. ~0.5 s), slower commands are counted in an overflow bucket.
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public class ScanMetrics {
+
+    /**
+     * The phases of a scan
+     */
+    public enum Phase {
+        DISCOVERY, SELECT, GET_DATA, PROCESSING_OPTIONS, READ_RECORDS
+    }
+
+    /**
+     * number of latency buckets (without the overflow bucket)
+     */
+    public static final int LATENCY_BUCKETS = 20;
+
+    // commands with their own histogram, all others are counted as "other"
+    private static final int[] INS_CODES = {0xA4, 0xA8, 0xB2, 0xCA, 0xC0,
+            0xB0, 0x20};
+    private static final String[] INS_NAMES = {"SELECT",
+            "GET_PROCESSING_OPTIONS", "READ_RECORD", "GET_DATA", "GET_RESPONSE",
+            "READ_BINARY", "VERIFY", "OTHER"};
+    private static final int INS_SLOTS = INS_CODES.length + 1;
+
+    private static final int SW_TABLE_SIZE = 64;
+
+    private final long[] latencyBuckets = new long[INS_SLOTS
+            * (LATENCY_BUCKETS + 1)];
+    private final long[] commandCounts = new long[INS_SLOTS];
+    private final long[] commandNanos = new long[INS_SLOTS];
+    // open addressing: key is status word + 1, 0 means empty
+    private final int[] statusWords = new int[SW_TABLE_SIZE];
+    private final long[] statusWordCounts = new long[SW_TABLE_SIZE];
+    private long otherStatusWordCount;
+    private long bytesSent;
+    private long bytesReceived;
+    private long ioNanos;
+    private long parseNanos;
+    private final long[] phaseNanos = new long[Phase.values().length];
+    private int currentPhase = -1;
+    private long currentPhaseStart;
+
+    /**
+     * Record a command/response pair
+     *
+     * @param command  the command APDU
+     * @param response the response APDU, <code>null</code> if the card was
+     *                 lost
+     * @param nanos    round trip time
+     */
+    public void recordCommand(byte[] command, byte[] response, long nanos) {
+        int slot = insSlot(command.length > 1 ? command[1] & 0xFF : -1);
+        commandCounts[slot]++;
+        commandNanos[slot] += nanos;
+        latencyBuckets[slot * (LATENCY_BUCKETS + 1) + latencyBucket(nanos)]++;
+        bytesSent += command.length;
+        ioNanos += nanos;
+        if (response != null) {
+            bytesReceived += response.length;
+            if (response.length >= 2) {
+                countStatusWord(((response[response.length - 2] & 0xFF) << 8)
+                        | (response[response.length - 1] & 0xFF));
+            }
+        }
+    }
+
+    /**
+     * @param nanos time spent in parsing card data
+     */
+    public void addParseTime(long nanos) {
+        parseNanos += nanos;
+    }
+
+    /**
+     * Start a new phase (ends the current one)
+     *
+     * @param phase
+     */
+    public void startPhase(Phase phase) {
+        long now = System.nanoTime();
+        endPhase(now);
+        currentPhase = phase.ordinal();
+        currentPhaseStart = now;
+    }
+
+    /**
+     * End the current phase
+     */
+    public void endPhase() {
+        endPhase(System.nanoTime());
+    }
+
+    private void endPhase(long now) {
+        if (currentPhase >= 0) {
+            phaseNanos[currentPhase] += now - currentPhaseStart;
+            currentPhase = -1;
+        }
+    }
+
+    /**
+     * @return a copy of the current values
+     */
+    public ScanMetrics snapshot() {
+        ScanMetrics copy = new ScanMetrics();
+        System.arraycopy(latencyBuckets, 0, copy.latencyBuckets, 0,
+                latencyBuckets.length);
+        System.arraycopy(commandCounts, 0, copy.commandCounts, 0,
+                commandCounts.length);
+        System.arraycopy(commandNanos, 0, copy.commandNanos, 0,
+                commandNanos.length);
+        System.arraycopy(statusWords, 0, copy.statusWords, 0,
+                statusWords.length);
+        System.arraycopy(statusWordCounts, 0, copy.statusWordCounts, 0,
+                statusWordCounts.length);
+        System.arraycopy(phaseNanos, 0, copy.phaseNanos, 0, phaseNanos.length);
+        copy.otherStatusWordCount = otherStatusWordCount;
+        copy.bytesSent = bytesSent;
+        copy.bytesReceived = bytesReceived;
+        copy.ioNanos = ioNanos;
+        copy.parseNanos = parseNanos;
+        return copy;
+    }
+
+    /**
+     * @return number of commands sent
+     */
+    public long getCommandCount() {
+        long count = 0;
+        for (long c : commandCounts) {
+            count += c;
+        }
+        return count;
+    }
+
+    /**
+     * @param ins instruction byte (for example <code>0xB2</code>)
+     * @return number of commands sent with this INS (all not separately
+     * tracked instructions are counted together)
+     */
+    public long getCommandCount(int ins) {
+        return commandCounts[insSlot(ins)];
+    }
+
+    /**
+     * @param ins instruction byte
+     * @return copy of the latency histogram, bucket i counts the commands
+     * taking up to 2^i µs, the last bucket all slower ones
+     */
+    public long[] getLatencyHistogram(int ins) {
+        int offset = insSlot(ins) * (LATENCY_BUCKETS + 1);
+        return Arrays.copyOfRange(latencyBuckets, offset, offset
+                + LATENCY_BUCKETS + 1);
+    }
+
+    /**
+     * @param sw status word (for example <code>0x9000</code>)
+     * @return number of responses with this status word
+     */
+    public long getStatusWordCount(int sw) {
+        for (int i = 0; i < SW_TABLE_SIZE; i++) {
+            int index = (swHash(sw) + i) & (SW_TABLE_SIZE - 1);
+            if (statusWords[index] == 0) {
+                return 0;
+            }
+            if (statusWords[index] == sw + 1) {
+                return statusWordCounts[index];
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return bytes sent to the card
+     */
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    /**
+     * @return bytes received from the card
+     */
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    /**
+     * @return time spent waiting for the card in nanoseconds
+     */
+    public long getIoNanos() {
+        return ioNanos;
+    }
+
+    /**
+     * @return time spent parsing card data in nanoseconds
+     */
+    public long getParseNanos() {
+        return parseNanos;
+    }
+
+    /**
+     * @param phase
+     * @return field time spent in the phase in nanoseconds
+     */
+    public long getPhaseNanos(Phase phase) {
+        return phaseNanos[phase.ordinal()];
+    }
+
+    /**
+     * @return the metrics as JSON object
+     */
+    public String toJson() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"commands\":{");
+        boolean first = true;
+        for (int slot = 0; slot < INS_SLOTS; slot++) {
+            if (commandCounts[slot] == 0) {
+                continue;
+            }
+            if (!first) {
+                sb.append(',');
+            }
+            first = false;
+            sb.append('"').append(INS_NAMES[slot]).append("\":{\"count\":")
+                    .append(commandCounts[slot]).append(",\"totalMicros\":")
+                    .append(commandNanos[slot] / 1000).append(",\"histogram\":[");
+            int offset = slot * (LATENCY_BUCKETS + 1);
+            for (int b = 0; b <= LATENCY_BUCKETS; b++) {
+                if (b > 0) {
+                    sb.append(',');
+                }
+                sb.append(latencyBuckets[offset + b]);
+            }
+            sb.append("]}");
+        }
+        sb.append("},\"statusWords\":{");
+        first = true;
+        for (int i = 0; i < SW_TABLE_SIZE; i++) {
+            if (statusWords[i] == 0) {
+                continue;
+            }
+            if (!first) {
+                sb.append(',');
+            }
+            first = false;
+            sb.append('"').append(swToHex(statusWords[i] - 1)).append("\":")
+                    .append(statusWordCounts[i]);
+        }
+        if (otherStatusWordCount > 0) {
+            if (!first) {
+                sb.append(',');
+            }
+            sb.append("\"other\":").append(otherStatusWordCount);
+        }
+        sb.append("},\"bytesSent\":").append(bytesSent);
+        sb.append(",\"bytesReceived\":").append(bytesReceived);
+        sb.append(",\"ioMicros\":").append(ioNanos / 1000);
+        sb.append(",\"parseMicros\":").append(parseNanos / 1000);
+        sb.append(",\"phases\":{");
+        Phase[] phases = Phase.values();
+        for (int i = 0; i < phases.length; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append('"').append(phases[i].name().toLowerCase(Locale.US))
+                    .append("\":").append(phaseNanos[i] / 1000);
+        }
+        sb.append("}}");
+        return sb.toString();
+    }
+
+    /**
+     * @return the metrics in OpenMetrics text format
+     */
+    public String toOpenMetrics() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("# TYPE emv_command_latency_seconds histogram\n");
+        sb.append("# UNIT emv_command_latency_seconds seconds\n");
+        for (int slot = 0; slot < INS_SLOTS; slot++) {
+            if (commandCounts[slot] == 0) {
+                continue;
+            }
+            String labels = "ins=\"" + INS_NAMES[slot] + "\"";
+            int offset = slot * (LATENCY_BUCKETS + 1);
+            long cumulative = 0;
+            for (int b = 0; b < LATENCY_BUCKETS; b++) {
+                cumulative += latencyBuckets[offset + b];
+                sb.append("emv_command_latency_seconds_bucket{").append(labels)
+                        .append(",le=\"").append(seconds((1L << b) * 1000))
+                        .append("\"} ").append(cumulative).append('\n');
+            }
+            sb.append("emv_command_latency_seconds_bucket{").append(labels)
+                    .append(",le=\"+Inf\"} ").append(commandCounts[slot])
+                    .append('\n');
+            sb.append("emv_command_latency_seconds_sum{").append(labels)
+                    .append("} ").append(seconds(commandNanos[slot]))
+                    .append('\n');
+            sb.append("emv_command_latency_seconds_count{").append(labels)
+                    .append("} ").append(commandCounts[slot]).append('\n');
+        }
+        sb.append("# TYPE emv_status_words counter\n");
+        for (int i = 0; i < SW_TABLE_SIZE; i++) {
+            if (statusWords[i] != 0) {
+                sb.append("emv_status_words_total{sw=\"")
+                        .append(swToHex(statusWords[i] - 1)).append("\"} ")
+                        .append(statusWordCounts[i]).append('\n');
+            }
+        }
+        if (otherStatusWordCount > 0) {
+            sb.append("emv_status_words_total{sw=\"other\"} ")
+                    .append(otherStatusWordCount).append('\n');
+        }
+        sb.append("# TYPE emv_bytes_sent counter\n");
+        sb.append("emv_bytes_sent_total ").append(bytesSent).append('\n');
+        sb.append("# TYPE emv_bytes_received counter\n");
+        sb.append("emv_bytes_received_total ").append(bytesReceived)
+                .append('\n');
+        sb.append("# TYPE emv_io_seconds gauge\n");
+        sb.append("emv_io_seconds ").append(seconds(ioNanos)).append('\n');
+        sb.append("# TYPE emv_parse_seconds gauge\n");
+        sb.append("emv_parse_seconds ").append(seconds(parseNanos))
+                .append('\n');
+        sb.append("# TYPE emv_phase_seconds gauge\n");
+        Phase[] phases = Phase.values();
+        for (int i = 0; i < phases.length; i++) {
+            sb.append("emv_phase_seconds{phase=\"")
+                    .append(phases[i].name().toLowerCase(Locale.US))
+                    .append("\"} ").append(seconds(phaseNanos[i])).append('\n');
+        }
+        sb.append("# EOF\n");
+        return sb.toString();
+    }
+
+    private void countStatusWord(int sw) {
+        for (int i = 0; i < SW_TABLE_SIZE; i++) {
+            int index = (swHash(sw) + i) & (SW_TABLE_SIZE - 1);
+            if (statusWords[index] == sw + 1) {
+                statusWordCounts[index]++;
+                return;
+            }
+            if (statusWords[index] == 0) {
+                statusWords[index] = sw + 1;
+                statusWordCounts[index] = 1;
+                return;
+            }
+        }
+        otherStatusWordCount++;
+    }
+
+    private static int swHash(int sw) {
+        return (sw ^ (sw >>> 7)) & (SW_TABLE_SIZE - 1);
+    }
+
+    private static int insSlot(int ins) {
+        for (int i = 0; i < INS_CODES.length; i++) {
+            if (INS_CODES[i] == ins) {
+                return i;
+            }
+        }
+        return INS_CODES.length;
+    }
+
+    private static int latencyBucket(long nanos) {
+        long micros = nanos / 1000;
+        if (micros <= 1) {
+            return 0;
+        }
+        int bucket = 64 - Long.numberOfLeadingZeros(micros - 1);
+        return Math.min(bucket, LATENCY_BUCKETS);
+    }
+
+    private static String seconds(long nanos) {
+        return String.format(Locale.US, "%.6f", nanos / 1e9);
+    }
+
+    private static String swToHex(int sw) {
+        return String.format("%04X", sw);
+    }
+}
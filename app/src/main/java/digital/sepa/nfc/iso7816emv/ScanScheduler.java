@@ -0,0 +1,132 @@
+package digital.sepa.nfc.iso7816emv;
+
+import android.util.Log;
+import digital.sepa.nfc.exceptions.ScanDeadlineException;
+import digital.sepa.nfc.exceptions.TlvParsingException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import static digital.sepa.nfc.util.Utils.TAG;
+
+/**
+ * Runs the probes of a scan (GET DATA commands, record reads, ..) ordered by
+ * priority against a time budget. The most valuable data (PAN, expiry date,
+ * transaction log) is read first, so that if the card is removed or the
+ * budget is used up, the scan has already collected what matters most.<br>
+ * <br>
+ * The deadline is checked before each probe and (through
+ * {@link #checkDeadline()}) before each command sent by the reader, which
+ * aborts the scan with a {@link ScanDeadlineException}.
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+final class ScanScheduler {
+
+    /**
+     * A single probe of the scan
+     */
+    interface Probe {
+        void run() throws IOException, TlvParsingException;
+    }
+
+    // lower values run first
+    static final int PRIORITY_PAN = 0;
+    static final int PRIORITY_LOG_FORMAT = 5;
+    static final int PRIORITY_RECORDS = 10;
+    static final int PRIORITY_PIN_RETRY_COUNTER = 20;
+    static final int PRIORITY_COUNTERS = 30;
+    static final int PRIORITY_RISK_LIMITS = 40;
+    static final int PRIORITY_COMMON_TLV = 50;
+
+    private static final Comparator<Task> BY_PRIORITY = new Comparator<Task>() {
+        @Override
+        public int compare(Task t1, Task t2) {
+            return t1.priority < t2.priority ? -1
+                    : (t1.priority == t2.priority ? 0 : 1);
+        }
+    };
+
+    private static class Task {
+        final int priority;
+        final String name;
+        final Probe probe;
+
+        Task(int priority, String name, Probe probe) {
+            this.priority = priority;
+            this.name = name;
+            this.probe = probe;
+        }
+    }
+
+    private final long budgetMillis;
+    private final long deadline;
+    private final List<Task> tasks = new ArrayList<Task>();
+
+    /**
+     * Constructor, the budget starts now
+     *
+     * @param budgetMillis time budget of the scan, 0 for no limit
+     */
+    ScanScheduler(long budgetMillis) {
+        this.budgetMillis = budgetMillis;
+        this.deadline = System.nanoTime() + budgetMillis * 1000000L;
+    }
+
+    /**
+     * @return <code>true</code> if the time budget is used up
+     */
+    boolean isExpired() {
+        return budgetMillis > 0 && System.nanoTime() - deadline >= 0;
+    }
+
+    /**
+     * @throws ScanDeadlineException if the time budget is used up
+     */
+    void checkDeadline() throws ScanDeadlineException {
+        if (isExpired()) {
+            throw new ScanDeadlineException("time budget of " + budgetMillis
+                    + " ms used up");
+        }
+    }
+
+    /**
+     * Add a probe to be run by the next call of {@link #runAll()}
+     *
+     * @param priority lower values run first, probes with the same priority
+     *                 run in the order they were added
+     * @param name     for logging
+     * @param probe
+     */
+    void add(int priority, String name, Probe probe) {
+        tasks.add(new Task(priority, name, probe));
+    }
+
+    /**
+     * Run all added probes ordered by priority (and remove them)
+     *
+     * @throws ScanDeadlineException if the time budget was used up (the
+     *                               remaining probes are skipped)
+     * @throws IOException           if a probe failed, e.g. because the card
+     *                               was lost (the remaining probes are
+     *                               skipped)
+     * @throws TlvParsingException
+     */
+    void runAll() throws IOException, TlvParsingException {
+        List<Task> queue = new ArrayList<Task>(tasks);
+        tasks.clear();
+        Collections.sort(queue, BY_PRIORITY);
+        for (int i = 0; i < queue.size(); i++) {
+            if (isExpired()) {
+                Log.d(TAG, "time budget used up, skipping "
+                        + (queue.size() - i) + " probes, starting with "
+                        + queue.get(i).name);
+                checkDeadline();
+            }
+            queue.get(i).probe.run();
+        }
+    }
+}
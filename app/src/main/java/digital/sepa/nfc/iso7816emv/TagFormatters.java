@@ -0,0 +1,291 @@
+package digital.sepa.nfc.iso7816emv;
+
+import android.util.Log;
+import digital.sepa.nfc.R;
+import digital.sepa.nfc.model.InfoKeyValuePair;
+import digital.sepa.nfc.util.BcdDateCodec;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+import static digital.sepa.nfc.util.Utils.*;
+
+/**
+ * Registry of the tags shown in the result view, keyed by the packed tag ID.
+ * For each tag it knows the label (string resource) and how to decode and
+ * format the value. The labels are resolved only once and cached.
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public class TagFormatters {
+
+    private final static String TAG = "TagFormatters";
+
+    /**
+     * Decodes a tag value and formats it for display
+     */
+    public interface ValueFormatter {
+        /**
+         * @param value the value bytes
+         * @return the formatted value or <code>null</code> if the value
+         * cannot be displayed
+         */
+        String format(byte[] value);
+    }
+
+    /**
+     * A tag shown in the result view
+     */
+    private static class Registration {
+        final int tagId;
+        final int labelResId;
+        final ValueFormatter formatter;
+
+        Registration(int tagId, int labelResId, ValueFormatter formatter) {
+            this.tagId = tagId;
+            this.labelResId = labelResId;
+            this.formatter = formatter;
+        }
+    }
+
+    private static final Comparator<Registration> BY_TAG_ID = new Comparator<Registration>() {
+        @Override
+        public int compare(Registration r1, Registration r2) {
+            return r1.tagId < r2.tagId ? -1 : (r1.tagId == r2.tagId ? 0 : 1);
+        }
+    };
+
+    // built once from the registrations below, sorted by tag ID (binary
+    // search)
+    private static final int[] tagIds;
+    private static final String[] tagNames;
+    private static final int[] labelResIds;
+    private static final ValueFormatter[] formatters;
+
+    // primary account number without the trailing 'F' (see
+    // filterTagsForResult)
+    private static final ValueFormatter PAN_WITHOUT_LAST_DIGIT = new ValueFormatter() {
+        @Override
+        public String format(byte[] value) {
+            if (value == null || value.length <= 1) {
+                return null;
+            }
+            String pan = bytesToHex(value);
+            return prettyPrintString(pan.substring(0, pan.length() - 1), 4);
+        }
+    };
+
+    // amount in the card risk management currency (tag C9), see
+    // format(int, byte[], boolean, int). Without the currency we assume 2
+    // decimal places.
+    private static final ValueFormatter RISK_MANAGEMENT_AMOUNT = new ValueFormatter() {
+        @Override
+        public String format(byte[] value) {
+            return formatRiskManagementAmount(value, -1);
+        }
+    };
+
+    static {
+        List<Registration> registrations = new ArrayList<Registration>();
+        registrations.add(new Registration(0x5F24,
+                R.string.lbl_expiration_date,
+                dateFormatter("cannot parse expiration date!")));
+        registrations.add(new Registration(0x5F25,
+                R.string.lbl_effective_date,
+                dateFormatter("cannot parse effective date!")));
+        registrations.add(new Registration(0x5A,
+                R.string.lbl_primary_account_number,
+                new ValueFormatter() {
+                    @Override
+                    public String format(byte[] value) {
+                        if (value == null || value.length <= 1) {
+                            return null;
+                        }
+                        return prettyPrintString(bytesToHex(value), 4);
+                    }
+                }));
+        registrations.add(new Registration(0x9F36,
+                R.string.lbl_application_transaction_counter,
+                new ValueFormatter() {
+                    @Override
+                    public String format(byte[] value) {
+                        if (value == null || value.length <= 1) {
+                            return null;
+                        }
+                        return Integer.toString(byteArrayToInt(value));
+                    }
+                }));
+        // mastercard specific(??) stuff
+        registrations.add(new Registration(0xC9,
+                R.string.lbl_card_risk_management_currency,
+                new ValueFormatter() {
+                    @Override
+                    public String format(byte[] value) {
+                        return Iso4217CurrencyCodes.getCurrencyAsString(value);
+                    }
+                }));
+        registrations.add(new Registration(0xC8,
+                R.string.lbl_card_risk_management_country,
+                new ValueFormatter() {
+                    @Override
+                    public String format(byte[] value) {
+                        return Iso3166CountryCodes.getCountryAsString(value);
+                    }
+                }));
+        ValueFormatter intFormatter = new ValueFormatter() {
+            @Override
+            public String format(byte[] value) {
+                return Integer.toString(byteArrayToInt(value));
+            }
+        };
+        registrations.add(new Registration(0x9F14,
+                R.string.lbl_lower_consecutive_offline_limit,
+                intFormatter));
+        registrations.add(new Registration(0x9F23,
+                R.string.lbl_upper_consecutive_offline_limit,
+                intFormatter));
+        registrations.add(new Registration(0xCA,
+                R.string.lbl_lower_consecutive_offline_tx_amount,
+                RISK_MANAGEMENT_AMOUNT));
+        registrations.add(new Registration(0xCB,
+                R.string.lbl_upper_consecutive_offline_tx_amount,
+                RISK_MANAGEMENT_AMOUNT));
+
+        Registration[] sorted = registrations.toArray(
+                new Registration[registrations.size()]);
+        Arrays.sort(sorted, BY_TAG_ID);
+        tagIds = new int[sorted.length];
+        tagNames = new String[sorted.length];
+        labelResIds = new int[sorted.length];
+        formatters = new ValueFormatter[sorted.length];
+        for (int i = 0; i < sorted.length; i++) {
+            if (i > 0 && sorted[i].tagId == sorted[i - 1].tagId) {
+                throw new IllegalArgumentException("TagFormatters: tag "
+                        + Integer.toHexString(sorted[i].tagId)
+                        + " registered twice");
+            }
+            tagIds[i] = sorted[i].tagId;
+            tagNames[i] = bytesToHex(EmvUtils.tagIdToBytes(sorted[i].tagId));
+            labelResIds[i] = sorted[i].labelResId;
+            formatters[i] = sorted[i].formatter;
+        }
+    }
+
+    private static TagFormatters instance;
+
+    private final LabelProvider labelProvider;
+    private final Locale locale;
+    private final String[] labels = new String[tagIds.length];
+
+    private TagFormatters(LabelProvider labelProvider, Locale locale) {
+        this.labelProvider = labelProvider;
+        this.locale = locale;
+    }
+
+    /**
+     * @param labelProvider resolves the labels of the tags
+     * @return the shared instance (labels are resolved again when the locale
+     * or the label provider changed)
+     */
+    public static synchronized TagFormatters getInstance(
+            LabelProvider labelProvider) {
+        Locale locale = Locale.getDefault();
+        if (instance == null || instance.labelProvider != labelProvider
+                || !instance.locale.equals(locale)) {
+            instance = new TagFormatters(labelProvider, locale);
+        }
+        return instance;
+    }
+
+    /**
+     * Format a tag for the result view
+     *
+     * @param tagId                        the tag packed into an int
+     * @param value
+     * @param cutOffLastAccountnumberDigit if <code>true</code> the last digit
+     *                                     of the PAN (always 'F') is removed
+     * @return the key value pair or <code>null</code> if the tag is not
+     * displayed or its value cannot be formatted
+     */
+    public InfoKeyValuePair format(int tagId, byte[] value,
+                                   boolean cutOffLastAccountnumberDigit) {
+        return format(tagId, value, cutOffLastAccountnumberDigit, -1);
+    }
+
+    /**
+     * Format a tag for the result view
+     *
+     * @param tagId                        the tag packed into an int
+     * @param value
+     * @param cutOffLastAccountnumberDigit if <code>true</code> the last digit
+     *                                     of the PAN (always 'F') is removed
+     * @param riskManagementCurrency       numeric ISO 4217 code of the card
+     *                                     risk management currency (tag C9),
+     *                                     used for the amounts CA and CB, or
+     *                                     -1 if unknown
+     * @return the key value pair or <code>null</code> if the tag is not
+     * displayed or its value cannot be formatted
+     */
+    public InfoKeyValuePair format(int tagId, byte[] value,
+                                   boolean cutOffLastAccountnumberDigit,
+                                   int riskManagementCurrency) {
+        int index = Arrays.binarySearch(tagIds, tagId);
+        if (index < 0) {
+            return null;
+        }
+        ValueFormatter formatter = formatters[index];
+        if (cutOffLastAccountnumberDigit && tagId == 0x5A) {
+            formatter = PAN_WITHOUT_LAST_DIGIT;
+        }
+        String formatted = formatter == RISK_MANAGEMENT_AMOUNT
+                ? formatRiskManagementAmount(value, riskManagementCurrency)
+                : formatter.format(value);
+        if (formatted == null) {
+            return null;
+        }
+        return new InfoKeyValuePair(getLabel(index), tagNames[index], formatted);
+    }
+
+    private String getLabel(int index) {
+        String label = labels[index];
+        if (label == null) {
+            label = labelProvider.getLabel(labelResIds[index]);
+            labels[index] = label;
+        }
+        return label;
+    }
+
+    private static String formatRiskManagementAmount(byte[] value,
+                                                     int currency) {
+        if (value == null || value.length != 6) {
+            return null;
+        }
+        return Iso4217CurrencyCodes.formatCurrencyAmount(
+                EmvUtils.getAmountFromBcdBytes(value), currency);
+    }
+
+    private static ValueFormatter dateFormatter(final String errorMessage) {
+        return new ValueFormatter() {
+            @Override
+            public String format(byte[] value) {
+                if (value == null || value.length != 3) {
+                    Log.w(TAG, errorMessage);
+                    return null;
+                }
+                if (value[0] == 0 && value[1] == 0 && value[2] == 0) {
+                    return formatDateOnly(null);
+                }
+                int epochDay = BcdDateCodec.decodeDate(value, 0);
+                if (epochDay == BcdDateCodec.INVALID) {
+                    // dont show in case we cannot parse
+                    Log.w(TAG, errorMessage + " " + bytesToHex(value));
+                    return null;
+                }
+                return BcdDateCodec.formatDate(epochDay);
+            }
+        };
+    }
+}
@@ -0,0 +1,174 @@
+package digital.sepa.nfc.iso7816emv;
+
+/**
+ * Lookup table for EMV tags, keyed by the tag packed into an int (for example
+ * <code>0x9F36</code>, tags of up to 4 bytes). The table uses open addressing
+ * with linear probing on primitive arrays, so lookups neither allocate nor
+ * hash byte arrays.<br>
+ * <br>
+ * The table itself is not synchronized, callers have to take care of
+ * concurrent modifications.
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public class TagRegistry {
+
+    // 0 is no valid tag (it's used as padding byte), so it marks empty slots
+    private static final int EMPTY = 0;
+
+    private int[] keys;
+    private EmvTag[] values;
+    private int size;
+
+    /**
+     * Constructor
+     *
+     * @param expectedSize number of tags expected to be stored
+     */
+    public TagRegistry(int expectedSize) {
+        int capacity = 16;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        keys = new int[capacity];
+        values = new EmvTag[capacity];
+    }
+
+    /**
+     * Constructor for a precomputed table (see codegen.gradle). The slot
+     * layout must have been computed with the same hash function as used by
+     * this class.
+     *
+     * @param slotKeys  packed tag of each slot, 0 for empty slots
+     * @param slotIndex index of the tag of each slot into <code>tags</code>,
+     *                  -1 for empty slots
+     * @param tags
+     */
+    TagRegistry(int[] slotKeys, short[] slotIndex, EmvTag[] tags) {
+        if (slotKeys.length != slotIndex.length
+                || Integer.bitCount(slotKeys.length) != 1) {
+            throw new IllegalArgumentException("TagRegistry: invalid table");
+        }
+        keys = slotKeys.clone();
+        values = new EmvTag[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            if (slotIndex[i] >= 0) {
+                values[i] = tags[slotIndex[i]];
+                size++;
+            }
+        }
+    }
+
+    /**
+     * Pack tag bytes into an int
+     *
+     * @param buf
+     * @param offset offset of the tag
+     * @param length number of tag bytes
+     * @return the packed tag or -1 if the tag is empty or longer than 4
+     * bytes
+     */
+    public static int packTagId(byte[] buf, int offset, int length) {
+        if (length < 1 || length > 4) {
+            return -1;
+        }
+        int tagId = 0;
+        for (int i = offset; i < offset + length; i++) {
+            tagId = (tagId << 8) | (buf[i] & 0xFF);
+        }
+        return tagId;
+    }
+
+    /**
+     * @param tagId packed tag
+     * @return the tag or <code>null</code> if not registered
+     */
+    public EmvTag get(int tagId) {
+        if (tagId == EMPTY) {
+            return null;
+        }
+        int mask = keys.length - 1;
+        for (int slot = hash(tagId) & mask; ; slot = (slot + 1) & mask) {
+            int key = keys[slot];
+            if (key == tagId) {
+                return values[slot];
+            }
+            if (key == EMPTY) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Look up a tag directly in a buffer (for example the current tag of a
+     * {@link TlvCursor})
+     *
+     * @param buf
+     * @param offset offset of the tag
+     * @param length number of tag bytes
+     * @return the tag or <code>null</code> if not registered
+     */
+    public EmvTag lookup(byte[] buf, int offset, int length) {
+        int tagId = packTagId(buf, offset, length);
+        return tagId == -1 ? null : get(tagId);
+    }
+
+    /**
+     * Register a tag
+     *
+     * @param tag
+     * @throws IllegalArgumentException if the tag is already registered or
+     *                                  longer than 4 bytes
+     */
+    public void put(EmvTag tag) {
+        byte[] tagBytes = tag.getTagBytes();
+        int tagId = packTagId(tagBytes, 0, tagBytes.length);
+        if (tagId == -1 || tagId == EMPTY) {
+            throw new IllegalArgumentException("put: invalid tag " + tag);
+        }
+        if (get(tagId) != null) {
+            throw new IllegalArgumentException("Tag already added " + tag);
+        }
+        if ((size + 1) * 2 > keys.length) {
+            resize(keys.length * 2);
+        }
+        insert(tagId, tag);
+        size++;
+    }
+
+    /**
+     * @return number of registered tags
+     */
+    public int size() {
+        return size;
+    }
+
+    private void insert(int tagId, EmvTag tag) {
+        int mask = keys.length - 1;
+        int slot = hash(tagId) & mask;
+        while (keys[slot] != EMPTY) {
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = tagId;
+        values[slot] = tag;
+    }
+
+    private void resize(int capacity) {
+        int[] oldKeys = keys;
+        EmvTag[] oldValues = values;
+        keys = new int[capacity];
+        values = new EmvTag[capacity];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                insert(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+
+    static int hash(int tagId) {
+        // most tags differ only in the last byte, so spread the bits
+        // (codegen.gradle precomputes tables with the same function)
+        int h = tagId * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,27 @@
+package digital.sepa.nfc.iso7816emv;
+
+/**
+ * Supplies the terminal resident data objects which a card requests in a Data
+ * Object List (PDOL, CDOL1, CDOL2, ..).
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public interface TerminalDataProvider {
+
+    /**
+     * Write the value of the requested data object into the given buffer.
+     * Implementations must write exactly <code>length</code> bytes, so they
+     * are responsible for padding or truncating their values according to the
+     * rules of EMV Book 3, 5.4.<br>
+     * The buffer region is zero-filled before this method is called.
+     *
+     * @param tagId  the requested tag, packed into an int (for example
+     *               <code>0x9F66</code>)
+     * @param out    the buffer to write into
+     * @param offset where to start writing
+     * @param length the number of bytes the card expects
+     * @return <code>true</code> if the tag is known to this provider,
+     * <code>false</code> if the engine should leave the value zero-filled
+     */
+    boolean fill(int tagId, byte[] out, int offset, int length);
+}
@@ -0,0 +1,322 @@
+package digital.sepa.nfc.iso7816emv;
+
+import digital.sepa.nfc.exceptions.TlvParsingException;
+
+import java.util.Arrays;
+
+/**
+ * Cursor over BER-TLV encoded data. The cursor walks the given byte array with
+ * integer offsets and exposes tag, length and value of the current data object
+ * as offset/length views into the original array, so nothing is copied unless
+ * explicitly requested (see {@link #copyValue()} and {@link #getTag()}).<br>
+ * <br>
+ * Typical usage:
+ * <pre>
+ * TlvCursor cursor = new TlvCursor(data);
+ * while (cursor.next()) {
+ *     if (cursor.isConstructed()) {
+ *         TlvCursor children = cursor.enter();
+ *         ...
+ *     }
+ * }
+ * </pre>
+ * Padding bytes ('00' or 'FF') before, between and after data objects are
+ * skipped (ISO/IEC 7816 uses neither '00' nor 'FF' as tag value).
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public class TlvCursor {
+
+    private final byte[] buf;
+    private final int end;
+    private int pos;
+
+    // the current data object
+    private int tagOffset = -1;
+    private int tagLength;
+    private int lengthOffset;
+    private int lengthLength;
+    private int valueOffset;
+    private int valueLength;
+
+    /**
+     * Constructor
+     *
+     * @param buf the BER-TLV encoded data
+     */
+    public TlvCursor(byte[] buf) {
+        this(buf, 0, buf.length);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param buf    the buffer
+     * @param offset start of the BER-TLV encoded data within the buffer
+     * @param length length of the data
+     */
+    public TlvCursor(byte[] buf, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > buf.length) {
+            throw new IllegalArgumentException("TlvCursor: invalid range "
+                    + offset + "+" + length + " for buffer of length "
+                    + buf.length);
+        }
+        this.buf = buf;
+        this.pos = offset;
+        this.end = offset + length;
+    }
+
+    /**
+     * Move to the next data object
+     *
+     * @return <code>false</code> if there are no more data objects
+     * @throws TlvParsingException if the data is not valid BER-TLV
+     */
+    public boolean next() throws TlvParsingException {
+        skipPadding();
+        if (pos >= end) {
+            tagOffset = -1;
+            return false;
+        }
+        if (end - pos < 2) {
+            throw new TlvParsingException(
+                    "Error parsing data. Available bytes < 2 . Length="
+                            + (end - pos));
+        }
+
+        // tag, EMV book 3, Annex B1
+        tagOffset = pos;
+        if ((buf[pos++] & 0x1F) == 0x1F) {
+            // tag field is longer than 1 byte
+            do {
+                if (pos >= end) {
+                    throw new TlvParsingException(
+                            "Error parsing data. Truncated tag at offset "
+                                    + tagOffset);
+                }
+            } while ((buf[pos++] & 0x80) != 0);
+        }
+        tagLength = pos - tagOffset;
+
+        // length
+        if (pos >= end) {
+            throw new TlvParsingException(
+                    "Error parsing data. Missing length at offset " + pos);
+        }
+        lengthOffset = pos;
+        int firstLengthOctet = buf[pos++] & 0xFF;
+        boolean indefinite = false;
+        if (firstLengthOctet <= 0x7F) {
+            // short length form
+            valueLength = firstLengthOctet;
+        } else if (firstLengthOctet == 0x80) {
+            // indefinite form, value ends with 00 00
+            indefinite = true;
+            valueLength = 0;
+        } else {
+            // long length form
+            int numberOfLengthOctets = firstLengthOctet & 0x7F;
+            if (numberOfLengthOctets > 3 || pos + numberOfLengthOctets > end) {
+                throw new TlvParsingException(
+                        "Error parsing data. Invalid length at offset "
+                                + lengthOffset);
+            }
+            valueLength = 0;
+            for (int i = 0; i < numberOfLengthOctets; i++) {
+                valueLength = (valueLength << 8) | (buf[pos++] & 0xFF);
+            }
+        }
+        lengthLength = pos - lengthOffset;
+
+        // value
+        valueOffset = pos;
+        if (indefinite) {
+            int endOfContents = -1;
+            for (int i = pos; i + 1 < end; i++) {
+                if (buf[i] == 0x00 && buf[i + 1] == 0x00) {
+                    endOfContents = i;
+                    break;
+                }
+            }
+            if (endOfContents < 0) {
+                throw new TlvParsingException("Error parsing data. TLV "
+                        + "length byte indicated indefinite length, but end "
+                        + "was reached before 0x0000 was found");
+            }
+            valueLength = endOfContents - pos;
+            pos = endOfContents + 2;
+        } else {
+            if (valueLength > end - pos) {
+                throw new TlvParsingException("Error parsing data. Value of "
+                        + valueLength + " bytes at offset " + pos
+                        + " exceeds the available " + (end - pos) + " bytes");
+            }
+            pos += valueLength;
+        }
+        return true;
+    }
+
+    private void skipPadding() {
+        while (pos < end && (buf[pos] == 0x00 || buf[pos] == (byte) 0xFF)) {
+            pos++;
+        }
+    }
+
+    private void checkCurrent() {
+        if (tagOffset < 0) {
+            throw new IllegalStateException("TlvCursor: no current data object");
+        }
+    }
+
+    /**
+     * @return a cursor over the value of the current (constructed) data
+     * object, sharing the same buffer
+     */
+    public TlvCursor enter() {
+        checkCurrent();
+        return new TlvCursor(buf, valueOffset, valueLength);
+    }
+
+    /**
+     * @return the underlying buffer
+     */
+    public byte[] getBuffer() {
+        return buf;
+    }
+
+    /**
+     * @return offset of the current tag within the buffer
+     */
+    public int getTagOffset() {
+        checkCurrent();
+        return tagOffset;
+    }
+
+    /**
+     * @return number of tag bytes
+     */
+    public int getTagLength() {
+        checkCurrent();
+        return tagLength;
+    }
+
+    /**
+     * @return the tag packed into an int (for example <code>0x9F36</code>),
+     * or -1 if the tag is longer than 4 bytes
+     */
+    public int getTagId() {
+        checkCurrent();
+        if (tagLength > 4) {
+            return -1;
+        }
+        int tagId = 0;
+        for (int i = tagOffset; i < tagOffset + tagLength; i++) {
+            tagId = (tagId << 8) | (buf[i] & 0xFF);
+        }
+        return tagId;
+    }
+
+    /**
+     * @return <code>true</code> if the current data object is constructed
+     * (bit 6 of the first tag byte is set)
+     */
+    public boolean isConstructed() {
+        checkCurrent();
+        return (buf[tagOffset] & 0x20) != 0;
+    }
+
+    /**
+     * @return offset of the raw encoded length bytes within the buffer
+     */
+    public int getLengthOffset() {
+        checkCurrent();
+        return lengthOffset;
+    }
+
+    /**
+     * @return number of raw encoded length bytes
+     */
+    public int getLengthLength() {
+        checkCurrent();
+        return lengthLength;
+    }
+
+    /**
+     * @return offset of the value within the buffer
+     */
+    public int getValueOffset() {
+        checkCurrent();
+        return valueOffset;
+    }
+
+    /**
+     * @return number of value bytes
+     */
+    public int getValueLength() {
+        checkCurrent();
+        return valueLength;
+    }
+
+    /**
+     * @param index
+     * @return the value byte at the given index (unsigned)
+     */
+    public int getValueByte(int index) {
+        checkCurrent();
+        if (index < 0 || index >= valueLength) {
+            throw new IndexOutOfBoundsException("getValueByte: " + index);
+        }
+        return buf[valueOffset + index] & 0xFF;
+    }
+
+    /**
+     * @param tag
+     * @return <code>true</code> if the current tag equals the given tag
+     */
+    public boolean isTag(EmvTag tag) {
+        checkCurrent();
+        byte[] tagBytes = tag.getTagBytes();
+        if (tagBytes.length != tagLength) {
+            return false;
+        }
+        for (int i = 0; i < tagLength; i++) {
+            if (tagBytes[i] != buf[tagOffset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the (known or unknown) EMV tag of the current data object
+     */
+    public EmvTag getTag() {
+        checkCurrent();
+        return EMVTags.getNotNull(buf, tagOffset, tagLength);
+    }
+
+    /**
+     * @return a copy of the tag bytes
+     */
+    public byte[] copyTagBytes() {
+        checkCurrent();
+        return Arrays.copyOfRange(buf, tagOffset, tagOffset + tagLength);
+    }
+
+    /**
+     * @return a copy of the raw encoded length bytes
+     */
+    public byte[] copyLengthBytes() {
+        checkCurrent();
+        return Arrays.copyOfRange(buf, lengthOffset, lengthOffset
+                + lengthLength);
+    }
+
+    /**
+     * @return a copy of the value bytes
+     */
+    public byte[] copyValue() {
+        checkCurrent();
+        return Arrays.copyOfRange(buf, valueOffset, valueOffset + valueLength);
+    }
+}
@@ -0,0 +1,47 @@
+package digital.sepa.nfc.iso7816emv;
+
+/**
+ * Callback interface for walking through BER-TLV encoded data without
+ * building any intermediate lists (see
+ * {@link EmvUtils#walkBerTlv(byte[], int, int, TlvVisitor)}). Values are
+ * passed as offset/length views into the original buffer, so implementations
+ * must copy them if they want to keep them.<br>
+ * <br>
+ * All methods return <code>true</code> to continue and <code>false</code> to
+ * stop the walk immediately.
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public interface TlvVisitor {
+
+    /**
+     * Called for each primitive data object
+     *
+     * @param tag    the tag packed into an int (for example
+     *               <code>0x9F36</code>)
+     * @param buf    the buffer
+     * @param offset offset of the value within the buffer
+     * @param length length of the value
+     * @return <code>false</code> to stop the walk
+     */
+    boolean onPrimitive(int tag, byte[] buf, int offset, int length);
+
+    /**
+     * Called before the children of a constructed data object are visited
+     *
+     * @param tag    the tag packed into an int
+     * @param buf    the buffer
+     * @param offset offset of the value (the encoded children)
+     * @param length length of the value
+     * @return <code>false</code> to stop the walk
+     */
+    boolean onConstructedStart(int tag, byte[] buf, int offset, int length);
+
+    /**
+     * Called after all children of a constructed data object were visited
+     *
+     * @param tag the tag packed into an int
+     * @return <code>false</code> to stop the walk
+     */
+    boolean onConstructedEnd(int tag);
+}
@@ -0,0 +1,288 @@
+package digital.sepa.nfc.iso7816emv;
+
+import android.util.Log;
+import digital.sepa.nfc.exceptions.TlvParsingException;
+import digital.sepa.nfc.model.TransactionLogTable;
+import digital.sepa.nfc.util.BcdDateCodec;
+
+import java.util.Arrays;
+
+import static digital.sepa.nfc.iso7816emv.EmvUtils.*;
+import static digital.sepa.nfc.util.Utils.*;
+
+/**
+ * Decoder for transaction log records, compiled from the card's Log Format
+ * (tag 9F4F). The Log Format is a DOL describing the fixed layout of each log
+ * record, for example:
+ * <pre>
+ * Austrian Bankomat: 9F27 01, 9F02 06, 5F2A 02, 9A 03, 9F36 02, 9F52 06,
+ *                    DF3E 01, 9F21 03, 9F7C 14
+ * Mastercard:        9F27 01, 9F02 06, 5F2A 02, 9A 03, 9F36 02, 9F52 06
+ * VISA:              9F36 02, 9F02 06, 9F03 06, 9F1A 02, 95 05, 5F2A 02,
+ *                    9A 03, 9C 01, 9F80 04
+ * </pre>
+ * When compiling, each known field gets its offset, length and decoder, so
+ * that records can be decoded in a single pass directly into the columns of a
+ * {@link TransactionLogTable}. Unknown fields, and known fields with a length
+ * we cannot decode, are skipped (but are still part of the raw entry).
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public class TransactionLogFormat {
+
+    private final static String TAG = "TransactionLogFormat";
+
+    // field decoders
+    private static final int CRYPTOGRAM_INFORMATION_DATA = 1;
+    private static final int AMOUNT_AUTHORISED = 2;
+    private static final int CURRENCY = 3;
+    private static final int DATE = 4;
+    private static final int TIME = 5;
+    private static final int ATC = 6;
+    private static final int APPLICATION_DEFAULT_ACTION = 7;
+    private static final int UNKNOWN_BYTE = 8;
+    private static final int CUSTOMER_EXCLUSIVE_DATA = 9;
+    private static final int COUNTRY = 10;
+
+    private final DataObjectList logFormat;
+    // the known fields only
+    private final int[] decoders;
+    private final int[] offsets;
+    private final int[] lengths;
+
+    private TransactionLogFormat(DataObjectList logFormat, int[] decoders,
+                                 int[] offsets, int[] lengths) {
+        this.logFormat = logFormat;
+        this.decoders = decoders;
+        this.offsets = offsets;
+        this.lengths = lengths;
+    }
+
+    /**
+     * Compile the response to GET DATA 9F4F
+     *
+     * @param resultPdu response including status word
+     * @return the compiled format or <code>null</code> if the response contains
+     * no valid Log Format
+     */
+    public static TransactionLogFormat fromGetDataResponse(byte[] resultPdu) {
+        if (resultPdu == null || resultPdu.length <= 2
+                || !isStatusSuccess(getStatusWord(resultPdu))) {
+            return null;
+        }
+        try {
+            TlvCursor cursor = new TlvCursor(resultPdu, 0, resultPdu.length - 2);
+            if (!cursor.next() || !cursor.isTag(EMVTags.LOG_FORMAT)) {
+                return null;
+            }
+            return compile(DataObjectList.parse(cursor.getBuffer(),
+                    cursor.getValueOffset(), cursor.getValueLength()));
+        } catch (TlvParsingException e) {
+            Log.w(TAG, "cannot parse log format", e);
+            return null;
+        }
+    }
+
+    /**
+     * Compile a Log Format
+     *
+     * @param logFormat
+     * @return
+     */
+    public static TransactionLogFormat compile(DataObjectList logFormat) {
+        int[] decoders = new int[logFormat.size()];
+        int[] offsets = new int[logFormat.size()];
+        int[] lengths = new int[logFormat.size()];
+        int count = 0;
+        for (int i = 0; i < logFormat.size(); i++) {
+            int decoder = decoderFor(logFormat.getTagId(i),
+                    logFormat.getLength(i));
+            if (decoder != 0) {
+                decoders[count] = decoder;
+                offsets[count] = logFormat.getOffset(i);
+                lengths[count] = logFormat.getLength(i);
+                count++;
+            }
+        }
+        return new TransactionLogFormat(logFormat, Arrays.copyOf(decoders,
+                count), Arrays.copyOf(offsets, count), Arrays.copyOf(lengths,
+                count));
+    }
+
+    /**
+     * @return the decoder for the field, 0 if the field is unknown or has a
+     * length we cannot decode (it is skipped then)
+     */
+    private static int decoderFor(int tagId, int length) {
+        if (length == 0) {
+            return 0;
+        }
+        switch (tagId) {
+            case 0x9F27:
+                return length == 1 ? CRYPTOGRAM_INFORMATION_DATA : 0;
+            case 0x9F02:
+                // n12 are 6 bytes, fewer digits still fit into a long
+                return length <= 6 ? AMOUNT_AUTHORISED : 0;
+            case 0x5F2A:
+                return length == 2 ? CURRENCY : 0;
+            case 0x9F1A:
+                return length == 2 ? COUNTRY : 0;
+            case 0x9A:
+                return length == 3 ? DATE : 0;
+            case 0x9F21:
+                return length == 3 ? TIME : 0;
+            case 0x9F36:
+                return length <= 4 ? ATC : 0;
+            case 0x9F52:
+                return APPLICATION_DEFAULT_ACTION;
+            case 0xDF3E:
+                return length == 1 ? UNKNOWN_BYTE : 0;
+            case 0x9F7C:
+                return CUSTOMER_EXCLUSIVE_DATA;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * @return the Log Format this decoder was compiled from
+     */
+    public DataObjectList getLogFormat() {
+        return logFormat;
+    }
+
+    /**
+     * @return length of a log record (without status word)
+     */
+    public int getRecordLength() {
+        return logFormat.getTotalLength();
+    }
+
+    /**
+     * @param responsePdu a record including status word
+     * @return <code>true</code> if the record has the length of a log record
+     */
+    public boolean matches(byte[] responsePdu) {
+        return responsePdu.length == getRecordLength() + 2;
+    }
+
+    /**
+     * Decode a log record and append it to the given table
+     *
+     * @param responsePdu the record including status word
+     * @param table       the decoded record is added here
+     * @return <code>false</code> if something could not be parsed (nothing is
+     * added in this case)
+     */
+    public boolean decodeInto(byte[] responsePdu, TransactionLogTable table) {
+        if (responsePdu.length < getRecordLength()) {
+            Log.w(TAG, "decode: byte array is not long enough for log entry:\n"
+                    + prettyPrintString(bytesToHex(responsePdu), 2));
+            return false;
+        }
+        int row = table.addRow(responsePdu, 0, responsePdu.length);
+        try {
+            int date = BcdDateCodec.INVALID;
+            int time = -1;
+            for (int i = 0; i < decoders.length; i++) {
+                int from = offsets[i];
+                int length = lengths[i];
+                switch (decoders[i]) {
+                    case CRYPTOGRAM_INFORMATION_DATA:
+                        table.setCryptogramInformationData(row,
+                                responsePdu[from]);
+                        break;
+                    case AMOUNT_AUTHORISED:
+                        table.setAmount(row, decodeBcd(responsePdu, from,
+                                length));
+                        break;
+                    case CURRENCY:
+                        table.setCurrencyCode(row, decodeInt(responsePdu,
+                                from, length));
+                        break;
+                    case COUNTRY:
+                        table.setCountryCode(row, decodeInt(responsePdu,
+                                from, length));
+                        break;
+                    case DATE:
+                        // all zero means "no date"
+                        if (decodeInt(responsePdu, from, length) != 0) {
+                            date = BcdDateCodec.decodeDate(responsePdu, from);
+                            if (date == BcdDateCodec.INVALID) {
+                                throw new IllegalArgumentException(
+                                        "decodeInto: invalid date");
+                            }
+                        }
+                        break;
+                    case TIME:
+                        time = BcdDateCodec.decodeTime(responsePdu, from);
+                        if (time == BcdDateCodec.INVALID) {
+                            throw new IllegalArgumentException(
+                                    "decodeInto: invalid time");
+                        }
+                        break;
+                    case ATC:
+                        table.setAtc(row, decodeInt(responsePdu, from, length));
+                        break;
+                    case APPLICATION_DEFAULT_ACTION:
+                        table.setApplicationDefaultAction(row, from, length);
+                        break;
+                    case UNKNOWN_BYTE:
+                        table.setUnknownByte(row, responsePdu[from]);
+                        break;
+                    case CUSTOMER_EXCLUSIVE_DATA:
+                        table.setCustomerExclusiveData(row, from, length);
+                        break;
+                    default:
+                        break;
+                }
+            }
+            if (date != BcdDateCodec.INVALID) {
+                table.setDateTime(row, date, time);
+            }
+        } catch (Exception e) {
+            table.removeLastRow();
+            String msg = "Exception while trying to parse transaction entry: "
+                    + e + "\n" + e.getMessage() + "\nraw byte array:\n"
+                    + prettyPrintString(bytesToHex(responsePdu), 2);
+            Log.w(TAG, msg, e);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Big endian unsigned value (at most 4 bytes)
+     */
+    private static int decodeInt(byte[] buf, int from, int length) {
+        int value = 0;
+        for (int i = from; i < from + length; i++) {
+            value = (value << 8) | (buf[i] & 0xFF);
+        }
+        return value;
+    }
+
+    /**
+     * BCD encoded value, for example 00 00 00 01 23 45 -> 12345
+     *
+     * @throws IllegalArgumentException if a nibble is not a decimal digit
+     */
+    private static long decodeBcd(byte[] buf, int from, int length) {
+        long value = 0;
+        for (int i = from; i < from + length; i++) {
+            int high = (buf[i] >> 4) & 0x0F;
+            int low = buf[i] & 0x0F;
+            if (high > 9 || low > 9) {
+                throw new IllegalArgumentException("decodeBcd: invalid BCD "
+                        + "byte " + byte2Hex(buf[i]) + " at offset " + i);
+            }
+            value = value * 100 + high * 10 + low;
+        }
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return "TransactionLogFormat[" + logFormat + "]";
+    }
+}
@@ -2,6 +2,8 @@ package digital.sepa.nfc.model;
 
 import java.util.Date;
 
+import static digital.sepa.nfc.util.Utils.formatAmount;
+
 /**
  * base class for transaction log entries
  *
@@ -13,6 +15,7 @@ public abstract class AbstractTransactionLogEntry {
     protected long _amount;
     protected int _atc;
     protected String _currency;
+    protected int _minorUnits = 2;
     private byte[] _rawEntry;
     protected boolean _hasTime;
 
@@ -61,6 +64,27 @@ public abstract class AbstractTransactionLogEntry {
         this._currency = currency;
     }
 
+    /**
+     * @return number of decimal places of the currency
+     */
+    public int getMinorUnits() {
+        return _minorUnits;
+    }
+
+    /**
+     * @param minorUnits number of decimal places of the currency
+     */
+    public void setMinorUnits(int minorUnits) {
+        this._minorUnits = minorUnits;
+    }
+
+    /**
+     * @return the amount formatted with the decimal places of the currency
+     */
+    public String getFormattedAmount() {
+        return formatAmount(_amount, _minorUnits);
+    }
+
     /**
      * @return the _atc (application transaction counter)
      */
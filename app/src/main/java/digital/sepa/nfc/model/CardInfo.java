@@ -1,6 +1,6 @@
 package digital.sepa.nfc.model;
 
-import android.content.Context;
+import digital.sepa.nfc.iso7816emv.ScanMetrics;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -20,14 +20,16 @@ public class CardInfo {
     private boolean containsTxLogs;
     private boolean visaCard;
     private boolean masterCard;
+    private boolean otherEmvCard;
     private int pinRetryCounter;
     private String personalAccounNumber;
     private String cardType = "<unknown>";
     private String quickCurrency;
-    private Context ctx;
+    private ScanMetrics scanMetrics;
+    private boolean partialScan;
 
     private List<QuickTransactionLogEntry> quickLog;
-    private List<EmvTransactionLogEntry> transactionLog;
+    private TransactionLogTable transactionLog;
     private List<InfoKeyValuePair> infoKeyValuePairs;
 
     private final static String MAESTRO = "Maestro";
@@ -37,14 +39,13 @@ public class CardInfo {
     /**
      * Constructor
      */
-    public CardInfo(Context ctx) {
+    public CardInfo() {
         // create empty list
-        this.transactionLog = new ArrayList<EmvTransactionLogEntry>();
+        this.transactionLog = new TransactionLogTable();
         this.quickLog = new ArrayList<QuickTransactionLogEntry>();
         this.infoKeyValuePairs = new ArrayList<InfoKeyValuePair>();
         this.pinRetryCounter = -1;
         this.quickCurrency = "<unknown, or parsing error>";
-        this.ctx = ctx;
     }
 
     /**
@@ -76,16 +77,24 @@ public class CardInfo {
     }
 
     /**
-     * @return the transactionLog
+     * @return the transactionLog (read only view on the transaction log
+     * table, the entries are created on access)
      */
     public List<EmvTransactionLogEntry> getTransactionLog() {
+        return transactionLog.asList();
+    }
+
+    /**
+     * @return the transaction log table
+     */
+    public TransactionLogTable getTransactionLogTable() {
         return transactionLog;
     }
 
     /**
-     * @param transactionLog the transactionLog to set
+     * @param transactionLog the transaction log table to set
      */
-    public void setTransactionLog(List<EmvTransactionLogEntry> transactionLog) {
+    public void setTransactionLogTable(TransactionLogTable transactionLog) {
         this.transactionLog = transactionLog;
     }
 
@@ -160,14 +169,15 @@ public class CardInfo {
      * @return true if is one of the supported card types
      */
     public boolean isSupportedCard() {
-        return quickCard || maestroCard || masterCard || visaCard;
+        return quickCard || maestroCard || masterCard || visaCard
+                || otherEmvCard;
     }
 
     /**
      * @return true if is (one of the supported) EMV cards (not quick)
      */
     public boolean isEmvCard() {
-        return maestroCard || masterCard || visaCard;
+        return maestroCard || masterCard || visaCard || otherEmvCard;
     }
 
     /**
@@ -189,7 +199,9 @@ public class CardInfo {
      */
     public void setMaestroCard(boolean maestroCard) {
         this.maestroCard = maestroCard;
-        this.cardType = MAESTRO;
+        if (maestroCard) {
+            this.cardType = MAESTRO;
+        }
     }
 
     /**
@@ -197,7 +209,9 @@ public class CardInfo {
      */
     public void setVisaCreditCard(boolean visaCard) {
         this.visaCard = visaCard;
-        this.cardType=VISA_CREDIT;
+        if (visaCard) {
+            this.cardType = VISA_CREDIT;
+        }
     }
 
     /**
@@ -205,7 +219,28 @@ public class CardInfo {
      */
     public void setMasterCard(boolean masterCarrd) {
         this.masterCard = masterCarrd;
-        this.cardType = MASTERCARD_CREDIT;
+        if (masterCarrd) {
+            this.cardType = MASTERCARD_CREDIT;
+        }
+    }
+
+    /**
+     * @return true if the card contains an EMV application other than Maestro,
+     * VISA or Mastercard (for example V PAY or Girocard)
+     */
+    public boolean isOtherEmvCard() {
+        return otherEmvCard;
+    }
+
+    /**
+     * Mark the card as containing an EMV application other than Maestro, VISA
+     * or Mastercard
+     *
+     * @param applicationName label of the application (or its AID)
+     */
+    public void setOtherEmvCard(String applicationName) {
+        this.otherEmvCard = true;
+        this.cardType = applicationName;
     }
 
 
@@ -232,12 +267,12 @@ public class CardInfo {
                 ", containsTxLogs=" + containsTxLogs +
                 ", visaCard=" + visaCard +
                 ", masterCard=" + masterCard +
+                ", otherEmvCard=" + otherEmvCard +
                 ", pinRetryCounter=" + pinRetryCounter +
                 ", personalAccounNumber='" + personalAccounNumber + '\'' +
                 ", quickCurrency='" + quickCurrency + '\'' +
-                ", ctx=" + ctx +
                 ", quickLog=" + quickLog +
-                ", transactionLog=" + transactionLog +
+                ", transactionLog=" + getTransactionLog() +
                 ", infoKeyValuePairs=" + infoKeyValuePairs +
                 '}';
     }
@@ -253,4 +288,35 @@ public class CardInfo {
     public String getCardType() {
         return cardType;
     }
+
+    /**
+     * @return metrics of the scan which produced these infos (may be
+     * <code>null</code>)
+     */
+    public ScanMetrics getScanMetrics() {
+        return scanMetrics;
+    }
+
+    /**
+     * @param scanMetrics metrics of the scan which produced these infos
+     */
+    public void setScanMetrics(ScanMetrics scanMetrics) {
+        this.scanMetrics = scanMetrics;
+    }
+
+    /**
+     * @return <code>true</code> if the scan was stopped early (card lost or
+     * time budget used up), so these infos contain only what was read until
+     * then
+     */
+    public boolean isPartialScan() {
+        return partialScan;
+    }
+
+    /**
+     * @param partialScan <code>true</code> if the scan was stopped early
+     */
+    public void setPartialScan(boolean partialScan) {
+        this.partialScan = partialScan;
+    }
 }
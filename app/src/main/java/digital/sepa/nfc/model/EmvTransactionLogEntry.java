@@ -84,7 +84,7 @@ public class EmvTransactionLogEntry extends AbstractTransactionLogEntry {
         sb.append(formatDateWithTime(transactionTimestamp));
         sb.append("\n  - includes time: " + _hasTime);
         sb.append("\n  - amount: ");
-        sb.append(formatBalance(_amount) + "\n  - atc: " + _atc);
+        sb.append(getFormattedAmount() + "\n  - atc: " + _atc);
         sb.append("\n  - currency: " + _currency);
         sb.append("\n  - cryptogramInformationData: ");
         if (cryptogramInformation != null) {
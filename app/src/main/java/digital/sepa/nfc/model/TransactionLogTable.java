@@ -0,0 +1,796 @@
+package digital.sepa.nfc.model;
+
+import digital.sepa.nfc.iso7816emv.Iso4217CurrencyCodes;
+import digital.sepa.nfc.util.BcdDateCodec;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Transaction log stored column by column in parallel primitive arrays (one
+ * array per field, one index per log record), instead of one
+ * {@link EmvTransactionLogEntry} object per record. The raw records of all
+ * rows share a single byte buffer.<br>
+ * <br>
+ * Date and time are kept packed as local epoch second (see
+ * {@link BcdDateCodec}) and are only converted into a {@link Date} when
+ * requested. Currency and country codes are kept as the 2 byte BCD value
+ * (for example <code>0x0978</code> for EUR).<br>
+ * <br>
+ * Rows are read with a {@link Cursor}. Callers still working with entry
+ * objects can use {@link #asList()}.
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public class TransactionLogTable {
+
+    /**
+     * value of absent 2 byte codes (not valid BCD)
+     */
+    public static final int NO_CODE = 0xFFFF;
+
+    // row flags
+    private static final int HAS_DATE = 0x01;
+    private static final int HAS_TIME = 0x02;
+    private static final int HAS_CID = 0x04;
+    private static final int HAS_UNKNOWN_BYTE = 0x08;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private int size;
+    private long[] amounts;
+    private int[] atcs;
+    private short[] currencyCodes;
+    private short[] countryCodes;
+    // epoch day * SECONDS_PER_DAY + second of day (local time)
+    private long[] timestamps;
+    private byte[] cids;
+    private byte[] unknownBytes;
+    private byte[] flags;
+    // fields inside the raw record: (offset << 16) | length, or -1
+    private int[] applicationDefaultActions;
+    private int[] customerExclusiveData;
+    private int[] rawOffsets;
+    private int[] rawLengths;
+
+    private byte[] rawData;
+    private int rawDataLength;
+
+    // entry objects handed out by asList(), created on first access and
+    // dropped whenever the table is modified
+    private EmvTransactionLogEntry[] entries;
+
+    /**
+     * Filter for {@link #filter(RowFilter)}
+     */
+    public interface RowFilter {
+        /**
+         * @param row cursor positioned on the row to check
+         * @return <code>true</code> if the row should be kept
+         */
+        boolean accept(Cursor row);
+    }
+
+    private interface RowComparator {
+        int compare(int row1, int row2);
+    }
+
+    /**
+     * Constructor
+     */
+    public TransactionLogTable() {
+        this(INITIAL_CAPACITY, INITIAL_CAPACITY * 32);
+    }
+
+    private TransactionLogTable(int capacity, int rawCapacity) {
+        amounts = new long[capacity];
+        atcs = new int[capacity];
+        currencyCodes = new short[capacity];
+        countryCodes = new short[capacity];
+        timestamps = new long[capacity];
+        cids = new byte[capacity];
+        unknownBytes = new byte[capacity];
+        flags = new byte[capacity];
+        applicationDefaultActions = new int[capacity];
+        customerExclusiveData = new int[capacity];
+        rawOffsets = new int[capacity];
+        rawLengths = new int[capacity];
+        rawData = new byte[rawCapacity];
+    }
+
+    /**
+     * @return number of rows
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return <code>true</code> if the table has no rows
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Append a new row. All fields are absent until they are set.
+     *
+     * @param raw    buffer containing the raw record
+     * @param offset start of the record within the buffer
+     * @param length length of the record
+     * @return index of the new row
+     */
+    public int addRow(byte[] raw, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > raw.length) {
+            throw new IllegalArgumentException("addRow: invalid range "
+                    + offset + "+" + length + " for buffer of length "
+                    + raw.length);
+        }
+        ensureCapacity(size + 1);
+        ensureRawCapacity(rawDataLength + length);
+        System.arraycopy(raw, offset, rawData, rawDataLength, length);
+        entries = null;
+        int row = size++;
+        amounts[row] = 0;
+        atcs[row] = 0;
+        currencyCodes[row] = (short) NO_CODE;
+        countryCodes[row] = (short) NO_CODE;
+        timestamps[row] = Long.MIN_VALUE;
+        cids[row] = 0;
+        unknownBytes[row] = 0;
+        flags[row] = 0;
+        applicationDefaultActions[row] = -1;
+        customerExclusiveData[row] = -1;
+        rawOffsets[row] = rawDataLength;
+        rawLengths[row] = length;
+        rawDataLength += length;
+        return row;
+    }
+
+    /**
+     * Remove the last row again (for example if one of its fields could not
+     * be decoded)
+     */
+    public void removeLastRow() {
+        if (size == 0) {
+            throw new IllegalStateException("removeLastRow: table is empty");
+        }
+        entries = null;
+        size--;
+        if (rawOffsets[size] + rawLengths[size] == rawDataLength) {
+            rawDataLength = rawOffsets[size];
+        }
+    }
+
+    /**
+     * @param row
+     * @param amount amount in the minor unit of the row's currency (for
+     *               example cents for EUR, see {@link Cursor#getMinorUnits()})
+     */
+    public void setAmount(int row, long amount) {
+        checkModify(row);
+        amounts[row] = amount;
+    }
+
+    /**
+     * @param row
+     * @param atc application transaction counter
+     */
+    public void setAtc(int row, int atc) {
+        checkModify(row);
+        atcs[row] = atc;
+    }
+
+    /**
+     * @param row
+     * @param currencyCode 2 byte BCD ISO 4217 code (for example 0x0978)
+     */
+    public void setCurrencyCode(int row, int currencyCode) {
+        checkModify(row);
+        currencyCodes[row] = (short) currencyCode;
+    }
+
+    /**
+     * @param row
+     * @param countryCode 2 byte BCD ISO 3166 code (for example 0x0040)
+     */
+    public void setCountryCode(int row, int countryCode) {
+        checkModify(row);
+        countryCodes[row] = (short) countryCode;
+    }
+
+    /**
+     * @param row
+     * @param epochDay    the date (days since 1970-01-01)
+     * @param secondOfDay the time or -1 if the record contains no time
+     */
+    public void setDateTime(int row, int epochDay, int secondOfDay) {
+        checkModify(row);
+        timestamps[row] = (long) epochDay * BcdDateCodec.SECONDS_PER_DAY
+                + (secondOfDay >= 0 ? secondOfDay : 0);
+        flags[row] = (byte) ((flags[row] & ~(HAS_DATE | HAS_TIME)) | HAS_DATE
+                | (secondOfDay >= 0 ? HAS_TIME : 0));
+    }
+
+    /**
+     * @param row
+     * @param cid cryptogram information data
+     */
+    public void setCryptogramInformationData(int row, byte cid) {
+        checkModify(row);
+        cids[row] = cid;
+        flags[row] |= HAS_CID;
+    }
+
+    /**
+     * @param row
+     * @param unknownByte value of tag DF3E
+     */
+    public void setUnknownByte(int row, byte unknownByte) {
+        checkModify(row);
+        unknownBytes[row] = unknownByte;
+        flags[row] |= HAS_UNKNOWN_BYTE;
+    }
+
+    /**
+     * @param row
+     * @param offset offset of the field within the raw record
+     * @param length
+     */
+    public void setApplicationDefaultAction(int row, int offset, int length) {
+        checkModify(row);
+        applicationDefaultActions[row] = packField(row, offset, length);
+    }
+
+    /**
+     * @param row
+     * @param offset offset of the field within the raw record
+     * @param length
+     */
+    public void setCustomerExclusiveData(int row, int offset, int length) {
+        checkModify(row);
+        customerExclusiveData[row] = packField(row, offset, length);
+    }
+
+    private int packField(int row, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > rawLengths[row]
+                || offset > 0xFFFF || length > 0xFFFF) {
+            throw new IllegalArgumentException("packField: invalid range "
+                    + offset + "+" + length + " for record of length "
+                    + rawLengths[row]);
+        }
+        return (offset << 16) | length;
+    }
+
+    /**
+     * Check the row before changing one of its fields
+     */
+    private void checkModify(int row) {
+        checkRow(row);
+        entries = null;
+    }
+
+    private void checkRow(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("row " + row + ", size "
+                    + size);
+        }
+    }
+
+    /**
+     * @return a new cursor, positioned before the first row
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Sort the rows by transaction date and time (rows without date first)
+     *
+     * @param ascending
+     */
+    public void sortByTimestamp(final boolean ascending) {
+        sort(new RowComparator() {
+            @Override
+            public int compare(int row1, int row2) {
+                int result = compareLong(timestamps[row1], timestamps[row2]);
+                return ascending ? result : -result;
+            }
+        });
+    }
+
+    /**
+     * Sort the rows by amount
+     *
+     * @param ascending
+     */
+    public void sortByAmount(final boolean ascending) {
+        sort(new RowComparator() {
+            @Override
+            public int compare(int row1, int row2) {
+                int result = compareLong(amounts[row1], amounts[row2]);
+                return ascending ? result : -result;
+            }
+        });
+    }
+
+    /**
+     * Sort the rows by application transaction counter
+     *
+     * @param ascending
+     */
+    public void sortByAtc(final boolean ascending) {
+        sort(new RowComparator() {
+            @Override
+            public int compare(int row1, int row2) {
+                int result = compareLong(atcs[row1], atcs[row2]);
+                return ascending ? result : -result;
+            }
+        });
+    }
+
+    private static int compareLong(long a, long b) {
+        return a < b ? -1 : (a == b ? 0 : 1);
+    }
+
+    /**
+     * Stable sort: sort the row indices and then reorder all columns (the raw
+     * data stays where it is, only the offsets move)
+     */
+    private void sort(RowComparator comparator) {
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        mergeSort(order, new int[size], 0, size, comparator);
+        entries = null;
+
+        amounts = permute(amounts, order);
+        atcs = permute(atcs, order);
+        currencyCodes = permute(currencyCodes, order);
+        countryCodes = permute(countryCodes, order);
+        timestamps = permute(timestamps, order);
+        cids = permute(cids, order);
+        unknownBytes = permute(unknownBytes, order);
+        flags = permute(flags, order);
+        applicationDefaultActions = permute(applicationDefaultActions, order);
+        customerExclusiveData = permute(customerExclusiveData, order);
+        rawOffsets = permute(rawOffsets, order);
+        rawLengths = permute(rawLengths, order);
+    }
+
+    private static void mergeSort(int[] rows, int[] tmp, int from, int to,
+                                  RowComparator comparator) {
+        if (to - from < 2) {
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        mergeSort(rows, tmp, from, middle, comparator);
+        mergeSort(rows, tmp, middle, to, comparator);
+        if (comparator.compare(rows[middle - 1], rows[middle]) <= 0) {
+            // already in order
+            return;
+        }
+        System.arraycopy(rows, from, tmp, from, to - from);
+        int left = from;
+        int right = middle;
+        for (int i = from; i < to; i++) {
+            if (right >= to || (left < middle
+                    && comparator.compare(tmp[left], tmp[right]) <= 0)) {
+                rows[i] = tmp[left++];
+            } else {
+                rows[i] = tmp[right++];
+            }
+        }
+    }
+
+    private static long[] permute(long[] column, int[] order) {
+        long[] result = new long[column.length];
+        for (int i = 0; i < order.length; i++) {
+            result[i] = column[order[i]];
+        }
+        return result;
+    }
+
+    private static int[] permute(int[] column, int[] order) {
+        int[] result = new int[column.length];
+        for (int i = 0; i < order.length; i++) {
+            result[i] = column[order[i]];
+        }
+        return result;
+    }
+
+    private static short[] permute(short[] column, int[] order) {
+        short[] result = new short[column.length];
+        for (int i = 0; i < order.length; i++) {
+            result[i] = column[order[i]];
+        }
+        return result;
+    }
+
+    private static byte[] permute(byte[] column, int[] order) {
+        byte[] result = new byte[column.length];
+        for (int i = 0; i < order.length; i++) {
+            result[i] = column[order[i]];
+        }
+        return result;
+    }
+
+    /**
+     * @param filter
+     * @return a new table containing only the rows accepted by the filter
+     * (in the same order)
+     */
+    public TransactionLogTable filter(RowFilter filter) {
+        TransactionLogTable result = new TransactionLogTable(
+                Math.max(size, 1), Math.max(rawDataLength, 1));
+        Cursor cursor = cursor();
+        while (cursor.moveToNext()) {
+            if (filter.accept(cursor)) {
+                result.copyRow(this, cursor.getPosition());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Append all rows of another table (for example to collect the logs of
+     * several cards in one table)
+     *
+     * @param other
+     */
+    public void addAll(TransactionLogTable other) {
+        // other may be this table, which grows while copying
+        int count = other.size;
+        ensureCapacity(size + count);
+        ensureRawCapacity(rawDataLength + other.rawDataLength);
+        for (int row = 0; row < count; row++) {
+            copyRow(other, row);
+        }
+    }
+
+    private void copyRow(TransactionLogTable source, int sourceRow) {
+        int row = addRow(source.rawData, source.rawOffsets[sourceRow],
+                source.rawLengths[sourceRow]);
+        amounts[row] = source.amounts[sourceRow];
+        atcs[row] = source.atcs[sourceRow];
+        currencyCodes[row] = source.currencyCodes[sourceRow];
+        countryCodes[row] = source.countryCodes[sourceRow];
+        timestamps[row] = source.timestamps[sourceRow];
+        cids[row] = source.cids[sourceRow];
+        unknownBytes[row] = source.unknownBytes[sourceRow];
+        flags[row] = source.flags[sourceRow];
+        applicationDefaultActions[row] = source.applicationDefaultActions[sourceRow];
+        customerExclusiveData[row] = source.customerExclusiveData[sourceRow];
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= amounts.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, amounts.length * 2);
+        amounts = Arrays.copyOf(amounts, newCapacity);
+        atcs = Arrays.copyOf(atcs, newCapacity);
+        currencyCodes = Arrays.copyOf(currencyCodes, newCapacity);
+        countryCodes = Arrays.copyOf(countryCodes, newCapacity);
+        timestamps = Arrays.copyOf(timestamps, newCapacity);
+        cids = Arrays.copyOf(cids, newCapacity);
+        unknownBytes = Arrays.copyOf(unknownBytes, newCapacity);
+        flags = Arrays.copyOf(flags, newCapacity);
+        applicationDefaultActions = Arrays.copyOf(applicationDefaultActions,
+                newCapacity);
+        customerExclusiveData = Arrays.copyOf(customerExclusiveData,
+                newCapacity);
+        rawOffsets = Arrays.copyOf(rawOffsets, newCapacity);
+        rawLengths = Arrays.copyOf(rawLengths, newCapacity);
+    }
+
+    private void ensureRawCapacity(int capacity) {
+        if (capacity > rawData.length) {
+            rawData = Arrays.copyOf(rawData,
+                    Math.max(capacity, rawData.length * 2));
+        }
+    }
+
+    /**
+     * @return read only view of the rows as {@link EmvTransactionLogEntry}
+     * objects (for existing callers). Each entry is created on its first
+     * access and then returned again, until the table is modified.
+     */
+    public List<EmvTransactionLogEntry> asList() {
+        return new AbstractList<EmvTransactionLogEntry>() {
+            private final Cursor cursor = new Cursor();
+
+            @Override
+            public EmvTransactionLogEntry get(int index) {
+                checkRow(index);
+                if (entries == null) {
+                    entries = new EmvTransactionLogEntry[size];
+                }
+                EmvTransactionLogEntry entry = entries[index];
+                if (entry == null) {
+                    cursor.moveToPosition(index);
+                    entry = cursor.toEntry();
+                    entries[index] = entry;
+                }
+                return entry;
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    /**
+     * Cursor over the rows of the table. The getters read directly from the
+     * columns of the current row.
+     */
+    public class Cursor {
+
+        private int row = -1;
+
+        private Cursor() {
+        }
+
+        /**
+         * @return <code>false</code> if there are no more rows
+         */
+        public boolean moveToNext() {
+            if (row + 1 >= size) {
+                row = size;
+                return false;
+            }
+            row++;
+            return true;
+        }
+
+        /**
+         * @param position
+         * @return <code>false</code> if the position is out of range
+         */
+        public boolean moveToPosition(int position) {
+            if (position < 0 || position >= size) {
+                return false;
+            }
+            row = position;
+            return true;
+        }
+
+        /**
+         * @return index of the current row
+         */
+        public int getPosition() {
+            return row;
+        }
+
+        /**
+         * @return the amount in the minor unit of the currency (for example
+         * cents for EUR, see {@link #getMinorUnits()})
+         */
+        public long getAmount() {
+            checkRow(row);
+            return amounts[row];
+        }
+
+        /**
+         * @return the application transaction counter
+         */
+        public int getAtc() {
+            checkRow(row);
+            return atcs[row];
+        }
+
+        /**
+         * @return the BCD encoded currency code or {@link #NO_CODE}
+         */
+        public int getCurrencyCode() {
+            checkRow(row);
+            return currencyCodes[row] & 0xFFFF;
+        }
+
+        /**
+         * @return the numeric ISO 4217 currency code or -1 if the record
+         * contains no (valid) currency
+         */
+        public int getCurrencyNumericCode() {
+            int code = getCurrencyCode();
+            return code == NO_CODE ? -1 : Iso4217CurrencyCodes
+                    .toNumericCode(code);
+        }
+
+        /**
+         * @return 3 letter currency code or <code>null</code> if the record
+         * contains no currency
+         */
+        public String getCurrency() {
+            int code = getCurrencyCode();
+            if (code == NO_CODE) {
+                return null;
+            }
+            int numericCode = Iso4217CurrencyCodes.toNumericCode(code);
+            if (numericCode < 0) {
+                return Iso4217CurrencyCodes.getCurrencyAsString(new byte[]{
+                        (byte) (code >> 8), (byte) code});
+            }
+            return Iso4217CurrencyCodes.getCurrencyAsString(numericCode);
+        }
+
+        /**
+         * @return number of decimal places of the currency
+         */
+        public int getMinorUnits() {
+            return Iso4217CurrencyCodes.getMinorUnits(getCurrencyNumericCode());
+        }
+
+        /**
+         * @return the amount formatted with the decimal places of the
+         * currency
+         */
+        public String getFormattedAmount() {
+            return Iso4217CurrencyCodes.formatCurrencyAmount(getAmount(),
+                    getCurrencyNumericCode());
+        }
+
+        /**
+         * @return the BCD encoded country code or {@link #NO_CODE}
+         */
+        public int getCountryCode() {
+            checkRow(row);
+            return countryCodes[row] & 0xFFFF;
+        }
+
+        /**
+         * @return <code>true</code> if the record contains a date
+         */
+        public boolean hasDate() {
+            checkRow(row);
+            return (flags[row] & HAS_DATE) != 0;
+        }
+
+        /**
+         * @return <code>true</code> if the record contains a time
+         */
+        public boolean hasTime() {
+            checkRow(row);
+            return (flags[row] & HAS_TIME) != 0;
+        }
+
+        /**
+         * @return the date (days since 1970-01-01) or
+         * {@link BcdDateCodec#INVALID}
+         */
+        public int getEpochDay() {
+            if (!hasDate()) {
+                return BcdDateCodec.INVALID;
+            }
+            return (int) Math.floor((double) timestamps[row]
+                    / BcdDateCodec.SECONDS_PER_DAY);
+        }
+
+        /**
+         * @return the time (second of day) or -1
+         */
+        public int getSecondOfDay() {
+            if (!hasTime()) {
+                return -1;
+            }
+            return (int) (timestamps[row] - (long) getEpochDay()
+                    * BcdDateCodec.SECONDS_PER_DAY);
+        }
+
+        /**
+         * @return the transaction timestamp or <code>null</code> if the record
+         * contains no date
+         */
+        public Date getTransactionTimestamp() {
+            if (!hasDate()) {
+                return null;
+            }
+            return new Date(BcdDateCodec.toMillis(getEpochDay(),
+                    hasTime() ? getSecondOfDay() : 0));
+        }
+
+        /**
+         * @return <code>true</code> if the record contains the cryptogram
+         * information data
+         */
+        public boolean hasCryptogramInformationData() {
+            checkRow(row);
+            return (flags[row] & HAS_CID) != 0;
+        }
+
+        /**
+         * @return the cryptogram information data
+         */
+        public byte getCryptogramInformationData() {
+            checkRow(row);
+            return cids[row];
+        }
+
+        /**
+         * @return <code>true</code> if the record contains tag DF3E
+         */
+        public boolean hasUnknownByte() {
+            checkRow(row);
+            return (flags[row] & HAS_UNKNOWN_BYTE) != 0;
+        }
+
+        /**
+         * @return value of tag DF3E
+         */
+        public byte getUnknownByte() {
+            checkRow(row);
+            return unknownBytes[row];
+        }
+
+        /**
+         * @return a copy of the application default action or
+         * <code>null</code>
+         */
+        public byte[] copyApplicationDefaultAction() {
+            checkRow(row);
+            return copyField(applicationDefaultActions[row]);
+        }
+
+        /**
+         * @return a copy of the customer exclusive data or <code>null</code>
+         */
+        public byte[] copyCustomerExclusiveData() {
+            checkRow(row);
+            return copyField(customerExclusiveData[row]);
+        }
+
+        /**
+         * @return length of the raw record
+         */
+        public int getRawEntryLength() {
+            checkRow(row);
+            return rawLengths[row];
+        }
+
+        /**
+         * @return a copy of the raw record
+         */
+        public byte[] copyRawEntry() {
+            checkRow(row);
+            return Arrays.copyOfRange(rawData, rawOffsets[row], rawOffsets[row]
+                    + rawLengths[row]);
+        }
+
+        private byte[] copyField(int field) {
+            if (field < 0) {
+                return null;
+            }
+            int from = rawOffsets[row] + (field >>> 16);
+            return Arrays.copyOfRange(rawData, from, from + (field & 0xFFFF));
+        }
+
+        /**
+         * @return the current row as (newly created) entry object
+         */
+        public EmvTransactionLogEntry toEntry() {
+            EmvTransactionLogEntry tx = new EmvTransactionLogEntry();
+            if (hasCryptogramInformationData()) {
+                tx.setCryptogramInformationData(getCryptogramInformationData());
+            }
+            tx.setAmount(getAmount());
+            tx.setCurrency(getCurrency());
+            tx.setMinorUnits(getMinorUnits());
+            tx.setAtc(getAtc());
+            tx.setApplicationDefaultAction(copyApplicationDefaultAction());
+            if (hasUnknownByte()) {
+                tx.setUnknownByte(getUnknownByte());
+            }
+            tx.setCustomerExclusiveData(copyCustomerExclusiveData());
+            if (hasDate()) {
+                tx.setTransactionTimestamp(getTransactionTimestamp(), hasTime());
+            }
+            tx.setRawEntry(copyRawEntry());
+            return tx;
+        }
+    }
+}
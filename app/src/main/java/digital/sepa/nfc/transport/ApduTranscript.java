@@ -0,0 +1,274 @@
+package digital.sepa.nfc.transport;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A recorded card session: all command/response pairs in the order they were
+ * exchanged, with their start time (relative to the first command) and round
+ * trip time.<br>
+ * <br>
+ * Binary format (all numbers are unsigned LEB128 varints):
+ * <pre>
+ * "APDT" version(1) idLength id count
+ * count times: flags startDeltaMicros durationMicros
+ *              commandLength command responseLength response
+ * </pre>
+ * <code>startDeltaMicros</code> is relative to the start of the previous
+ * exchange. If bit 0 of <code>flags</code> is set the card was lost during this
+ * command, if bit 1 is set the command failed with another I/O error. In both
+ * cases there is no response.
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public class ApduTranscript {
+
+    private static final byte[] MAGIC = {'A', 'P', 'D', 'T'};
+    private static final int VERSION = 1;
+    private static final int FLAG_TAG_LOST = 0x01;
+    private static final int FLAG_IO_ERROR = 0x02;
+
+    private final byte[] id;
+    private final List<Exchange> exchanges = new ArrayList<Exchange>();
+
+    /**
+     * A single command/response pair
+     */
+    public static class Exchange {
+        private final byte[] command;
+        private final byte[] response;
+        private final long startNanos;
+        private final long durationNanos;
+        private final boolean tagLost;
+
+        /**
+         * @param command       the command APDU
+         * @param response      the response APDU, <code>null</code> if the card
+         *                      was lost
+         * @param startNanos    start time relative to the first exchange
+         * @param durationNanos round trip time
+         */
+        public Exchange(byte[] command, byte[] response, long startNanos,
+                        long durationNanos) {
+            this(command, response, startNanos, durationNanos,
+                    response == null);
+        }
+
+        /**
+         * @param command       the command APDU
+         * @param response      the response APDU, <code>null</code> if the
+         *                      command failed
+         * @param startNanos    start time relative to the first exchange
+         * @param durationNanos round trip time
+         * @param tagLost       <code>true</code> if the command failed because
+         *                      the card was lost (only if there is no response)
+         */
+        public Exchange(byte[] command, byte[] response, long startNanos,
+                        long durationNanos, boolean tagLost) {
+            this.command = command;
+            this.response = response;
+            this.startNanos = startNanos;
+            this.durationNanos = durationNanos;
+            this.tagLost = response == null && tagLost;
+        }
+
+        /**
+         * @return the command APDU
+         */
+        public byte[] getCommand() {
+            return command;
+        }
+
+        /**
+         * @return the response APDU or <code>null</code> if the command failed
+         */
+        public byte[] getResponse() {
+            return response;
+        }
+
+        /**
+         * @return <code>true</code> if the command failed (the card was lost
+         * or another I/O error occurred)
+         */
+        public boolean isFailed() {
+            return response == null;
+        }
+
+        /**
+         * @return <code>true</code> if the card was lost during this command
+         */
+        public boolean isTagLost() {
+            return tagLost;
+        }
+
+        /**
+         * @return start time relative to the first exchange in nanoseconds
+         */
+        public long getStartNanos() {
+            return startNanos;
+        }
+
+        /**
+         * @return round trip time in nanoseconds
+         */
+        public long getDurationNanos() {
+            return durationNanos;
+        }
+    }
+
+    /**
+     * Constructor
+     *
+     * @param id the card UID
+     */
+    public ApduTranscript(byte[] id) {
+        this.id = id != null ? id : new byte[0];
+    }
+
+    /**
+     * @param exchange
+     */
+    public void add(Exchange exchange) {
+        exchanges.add(exchange);
+    }
+
+    /**
+     * @return the card UID
+     */
+    public byte[] getId() {
+        return id;
+    }
+
+    /**
+     * @return all exchanges (unmodifiable)
+     */
+    public List<Exchange> getExchanges() {
+        return Collections.unmodifiableList(exchanges);
+    }
+
+    /**
+     * @return number of exchanges
+     */
+    public int size() {
+        return exchanges.size();
+    }
+
+    /**
+     * Write the transcript in binary format
+     *
+     * @param out
+     * @throws IOException
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.write(MAGIC);
+        writeVarint(data, VERSION);
+        writeBytes(data, id);
+        writeVarint(data, exchanges.size());
+        long previousStart = 0;
+        for (Exchange exchange : exchanges) {
+            int flags = 0;
+            if (exchange.isFailed()) {
+                flags = exchange.isTagLost() ? FLAG_TAG_LOST : FLAG_IO_ERROR;
+            }
+            writeVarint(data, flags);
+            writeVarint(data, (exchange.getStartNanos() - previousStart) / 1000);
+            writeVarint(data, exchange.getDurationNanos() / 1000);
+            writeBytes(data, exchange.getCommand());
+            writeBytes(data, exchange.isFailed() ? new byte[0]
+                    : exchange.getResponse());
+            previousStart = exchange.getStartNanos();
+        }
+        data.flush();
+    }
+
+    /**
+     * Read a transcript in binary format
+     *
+     * @param in
+     * @return
+     * @throws IOException if the data is no valid transcript
+     */
+    public static ApduTranscript readFrom(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        byte[] magic = new byte[MAGIC.length];
+        data.readFully(magic);
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (magic[i] != MAGIC[i]) {
+                throw new IOException("readFrom: no APDU transcript");
+            }
+        }
+        long version = readVarint(data);
+        if (version != VERSION) {
+            throw new IOException("readFrom: unsupported version " + version);
+        }
+        ApduTranscript transcript = new ApduTranscript(readBytes(data));
+        long count = readVarint(data);
+        long start = 0;
+        for (long i = 0; i < count; i++) {
+            long flags = readVarint(data);
+            start += readVarint(data) * 1000;
+            long duration = readVarint(data) * 1000;
+            byte[] command = readBytes(data);
+            byte[] response = readBytes(data);
+            boolean tagLost = (flags & FLAG_TAG_LOST) != 0;
+            if (tagLost || (flags & FLAG_IO_ERROR) != 0) {
+                response = null;
+            }
+            transcript.add(new Exchange(command, response, start, duration,
+                    tagLost));
+        }
+        return transcript;
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] value)
+            throws IOException {
+        writeVarint(out, value.length);
+        out.write(value);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        long length = readVarint(in);
+        if (length > 0xFFFF) {
+            throw new IOException("readBytes: invalid length " + length);
+        }
+        byte[] value = new byte[(int) length];
+        in.readFully(value);
+        return value;
+    }
+
+    private static void writeVarint(DataOutputStream out, long value)
+            throws IOException {
+        if (value < 0) {
+            throw new IllegalArgumentException(
+                    "writeVarint: negative value " + value);
+        }
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarint(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException("readVarint: truncated transcript");
+            }
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("readVarint: varint too long");
+    }
+}
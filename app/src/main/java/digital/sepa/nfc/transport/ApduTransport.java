@@ -0,0 +1,46 @@
+package digital.sepa.nfc.transport;
+
+import digital.sepa.nfc.exceptions.NoSmartCardException;
+
+import java.io.IOException;
+
+/**
+ * A channel for exchanging ISO 7816 APDUs with a smartcard. The reading logic
+ * only depends on this interface, so that it can also run without a phone and
+ * a physical card (e.g. against a recorded or simulated card).
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public interface ApduTransport {
+
+    /**
+     * Open the connection to the card
+     *
+     * @throws IOException
+     * @throws NoSmartCardException if the card does not support ISO 7816
+     */
+    void connect() throws IOException, NoSmartCardException;
+
+    /**
+     * Send a command APDU and wait for the response
+     *
+     * @param command the command APDU, the caller may reuse this buffer
+     *                after the call returned (so don't keep a reference to
+     *                it)
+     * @return the response APDU (including status word)
+     * @throws IOException if the card is lost or the communication failed
+     */
+    byte[] transceive(byte[] command) throws IOException;
+
+    /**
+     * Close the connection to the card
+     *
+     * @throws IOException
+     */
+    void close() throws IOException;
+
+    /**
+     * @return the ID (UID) of the card, may be empty if not known
+     */
+    byte[] getId();
+}
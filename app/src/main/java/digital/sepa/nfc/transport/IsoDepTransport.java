@@ -0,0 +1,57 @@
+package digital.sepa.nfc.transport;
+
+import android.nfc.Tag;
+import android.nfc.tech.IsoDep;
+import digital.sepa.nfc.exceptions.NoSmartCardException;
+
+import java.io.IOException;
+
+/**
+ * {@link ApduTransport} talking to a contactless card over Android's
+ * {@link IsoDep}.
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public class IsoDepTransport implements ApduTransport {
+
+    private final Tag nfcTag;
+    private IsoDep isoDep;
+
+    /**
+     * Constructor
+     *
+     * @param nfcTag the discovered NFC tag
+     */
+    public IsoDepTransport(Tag nfcTag) {
+        this.nfcTag = nfcTag;
+    }
+
+    @Override
+    public void connect() throws IOException, NoSmartCardException {
+        isoDep = IsoDep.get(nfcTag);
+        if (isoDep == null) {
+            throw new NoSmartCardException("This NFC tag is no ISO 7816 card");
+        }
+        isoDep.connect();
+    }
+
+    @Override
+    public byte[] transceive(byte[] command) throws IOException {
+        if (isoDep == null) {
+            throw new IOException("transceive: not connected");
+        }
+        return isoDep.transceive(command);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (isoDep != null) {
+            isoDep.close();
+        }
+    }
+
+    @Override
+    public byte[] getId() {
+        return nfcTag.getId();
+    }
+}
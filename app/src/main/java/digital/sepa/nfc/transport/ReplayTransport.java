@@ -0,0 +1,125 @@
+package digital.sepa.nfc.transport;
+
+import android.nfc.TagLostException;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static digital.sepa.nfc.util.Utils.bytesToHex;
+
+/**
+ * {@link ApduTransport} replaying a recorded {@link ApduTranscript}. The
+ * commands must arrive exactly in the recorded order, otherwise an
+ * {@link IOException} is thrown, so a replay either reproduces the recorded
+ * session or fails deterministically.
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public class ReplayTransport implements ApduTransport {
+
+    private final ApduTranscript transcript;
+    private final List<ApduTranscript.Exchange> exchanges;
+    private boolean preserveTiming;
+    private boolean connected;
+    private int position;
+    private long replayStartNanos;
+
+    /**
+     * Constructor
+     *
+     * @param transcript the session to replay
+     */
+    public ReplayTransport(ApduTranscript transcript) {
+        this.transcript = transcript;
+        this.exchanges = transcript.getExchanges();
+    }
+
+    /**
+     * @param preserveTiming if <code>true</code> responses are delivered with
+     *                       the recorded timing, otherwise immediately
+     */
+    public void setPreserveTiming(boolean preserveTiming) {
+        this.preserveTiming = preserveTiming;
+    }
+
+    @Override
+    public void connect() throws IOException {
+        connected = true;
+        position = 0;
+        replayStartNanos = -1;
+    }
+
+    @Override
+    public byte[] transceive(byte[] command) throws IOException {
+        if (!connected) {
+            throw new IOException("transceive: not connected");
+        }
+        if (position >= exchanges.size()) {
+            throw new IOException("transceive: transcript ends after "
+                    + exchanges.size() + " commands, got "
+                    + bytesToHex(command));
+        }
+        ApduTranscript.Exchange exchange = exchanges.get(position);
+        if (!Arrays.equals(exchange.getCommand(), command)) {
+            throw new IOException("transceive: command " + position
+                    + " differs from transcript, expected "
+                    + bytesToHex(exchange.getCommand()) + " but got "
+                    + bytesToHex(command));
+        }
+        position++;
+        if (replayStartNanos < 0) {
+            // the recorded times are relative to the first command
+            replayStartNanos = System.nanoTime();
+        }
+        if (preserveTiming) {
+            waitUntil(replayStartNanos + exchange.getStartNanos()
+                    + exchange.getDurationNanos());
+        }
+        if (exchange.isTagLost()) {
+            connected = false;
+            throw new TagLostException("Tag was lost.");
+        }
+        if (exchange.isFailed()) {
+            throw new IOException("Transceive failed");
+        }
+        return exchange.getResponse().clone();
+    }
+
+    @Override
+    public void close() throws IOException {
+        connected = false;
+    }
+
+    @Override
+    public byte[] getId() {
+        return transcript.getId();
+    }
+
+    /**
+     * @return number of commands replayed so far
+     */
+    public int getPosition() {
+        return position;
+    }
+
+    /**
+     * @return <code>true</code> if all recorded commands have been replayed
+     */
+    public boolean isFinished() {
+        return position == exchanges.size();
+    }
+
+    private static void waitUntil(long deadlineNanos) throws IOException {
+        long remaining = deadlineNanos - System.nanoTime();
+        if (remaining <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(remaining / 1000000, (int) (remaining % 1000000));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("transceive: interrupted");
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package digital.sepa.nfc.transport;
+
+import android.nfc.TagLostException;
+import digital.sepa.nfc.exceptions.NoSmartCardException;
+
+import java.io.IOException;
+
+/**
+ * {@link ApduTransport} decorator recording all command/response pairs of the
+ * wrapped transport into an {@link ApduTranscript}, so that a session can be
+ * replayed later with {@link ReplayTransport}.<br>
+ * <br>
+ * Note that transcripts contain the card number and other card data in clear!
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public class TranscriptRecorder implements ApduTransport {
+
+    private final ApduTransport transport;
+    private ApduTranscript transcript;
+    private long firstCommandNanos = -1;
+
+    /**
+     * Constructor
+     *
+     * @param transport the transport to record
+     */
+    public TranscriptRecorder(ApduTransport transport) {
+        this.transport = transport;
+    }
+
+    @Override
+    public void connect() throws IOException, NoSmartCardException {
+        transport.connect();
+    }
+
+    @Override
+    public byte[] transceive(byte[] command) throws IOException {
+        long start = System.nanoTime();
+        if (firstCommandNanos < 0) {
+            firstCommandNanos = start;
+        }
+        byte[] response;
+        try {
+            response = transport.transceive(command);
+        } catch (IOException e) {
+            // failed taps (card lost, "Transceive failed", timeouts) are
+            // the sessions most worth replaying
+            getTranscript().add(new ApduTranscript.Exchange(command.clone(),
+                    null, start - firstCommandNanos, System.nanoTime() - start,
+                    e instanceof TagLostException));
+            throw e;
+        }
+        getTranscript().add(new ApduTranscript.Exchange(command.clone(),
+                response.clone(), start - firstCommandNanos,
+                System.nanoTime() - start));
+        return response;
+    }
+
+    @Override
+    public void close() throws IOException {
+        transport.close();
+    }
+
+    @Override
+    public byte[] getId() {
+        return transport.getId();
+    }
+
+    /**
+     * @return the transcript recorded so far
+     */
+    public ApduTranscript getTranscript() {
+        if (transcript == null) {
+            transcript = new ApduTranscript(transport.getId());
+        }
+        return transcript;
+    }
+}
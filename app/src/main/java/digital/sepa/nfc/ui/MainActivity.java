@@ -10,8 +10,6 @@ import android.content.SharedPreferences;
 import android.net.Uri;
 import android.nfc.NfcAdapter;
 import android.nfc.Tag;
-import android.nfc.TagLostException;
-import android.os.AsyncTask;
 import android.os.Build;
 import android.os.Bundle;
 import android.preference.PreferenceManager;
@@ -21,14 +19,9 @@ import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
 import android.widget.Toast;
-import digital.sepa.nfc.AppController;
+import digital.sepa.nfc.CardReadService;
 import digital.sepa.nfc.R;
-import digital.sepa.nfc.exceptions.NoSmartCardException;
-import digital.sepa.nfc.iso7816emv.EmvCardReader;
 import digital.sepa.nfc.model.CardInfo;
-import digital.sepa.nfc.util.Utils;
-
-import java.io.IOException;
 
 import static digital.sepa.nfc.util.Utils.TAG;
 import static digital.sepa.nfc.util.Utils.displaySimpleAlertDialog;
@@ -39,7 +32,8 @@ import static digital.sepa.nfc.util.Utils.displaySimpleAlertDialog;
  * @author Johannes Zweng <johannes@zweng.at>
  */
 @TargetApi(Build.VERSION_CODES.KITKAT)
-public class MainActivity extends Activity implements NfcAdapter.ReaderCallback {
+public class MainActivity extends Activity implements NfcAdapter.ReaderCallback,
+        CardReadService.Listener {
 
     // for NFC stuff
     private PendingIntent pendingIntent;
@@ -52,8 +46,6 @@ public class MainActivity extends Activity implements NfcAdapter.ReaderCallback
     private View viewTextViewShowCard;
     private View viewProgressStatus;
 
-    private CardInfo cardReadingResults;
-    private ReadNfcCardTask readCardTask;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -83,6 +75,8 @@ public class MainActivity extends Activity implements NfcAdapter.ReaderCallback
             this.finish();
             return;
         }
+        // delivers the result if a card was read while we were paused
+        CardReadService.getInstance().setListener(this);
 
         if (nfcAdapter != null) {
             //            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
@@ -101,6 +95,7 @@ public class MainActivity extends Activity implements NfcAdapter.ReaderCallback
     @Override
     protected void onPause() {
         super.onPause();
+        CardReadService.getInstance().setListener(null);
         if (nfcAdapter != null) {
             //            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
             //                Log.i(TAG, "NFC disableReaderMode");
@@ -188,180 +183,135 @@ public class MainActivity extends Activity implements NfcAdapter.ReaderCallback
     }
 
     /**
-     * Called whenever we detect a NFC Tag
+     * Called whenever we detect a NFC Tag. A read which is still running is
+     * cancelled, as the user tapped a new card.
      */
     private void handleTag(Tag tag) {
         showProgressAnimation(true);
-        if (readCardTask != null) {
-            return;
-        }
-        showProgressAnimation(true);
-        readCardTask = new ReadNfcCardTask(tag);
-        readCardTask.execute((Void) null);
+        // read setting value
+        SharedPreferences prefs = PreferenceManager
+                .getDefaultSharedPreferences(this);
+        CardReadService.getInstance().read(this, tag,
+                prefs.getBoolean("perform_full_file_scan", false));
     }
 
     /**
-     * Asynchronous task to read the card)
+     * Called on the main thread with the result of the latest read
+     *
+     * @param result
      */
-    public class ReadNfcCardTask extends AsyncTask<Void, Void, Boolean> {
-        private final static int ERROR_TAG_LOST = -1;
-        private final static int ERROR_IO_EX = -2;
-        private final static int ERROR_NO_SMARTCARD = -3;
-        private Tag nfcTag;
-        private int error;
-
-        public ReadNfcCardTask(Tag tag) {
-            super();
-            this.nfcTag = tag;
-        }
-
-        @Override
-        protected Boolean doInBackground(Void... params) {
-            AppController ctl = AppController.getInstance();
-            try {
-                EmvCardReader reader = new EmvCardReader(
-                        nfcTag, MainActivity.this);
-                reader.connectIsoDep();
-                // read setting value
-                SharedPreferences prefs = PreferenceManager
-                        .getDefaultSharedPreferences(MainActivity.this);
-                cardReadingResults = reader.readAllCardData(prefs.getBoolean(
-                        "perform_full_file_scan", false));
-                ctl.setCardInfo(cardReadingResults);
-                reader.disconnectIsoDep();
-            } catch (NoSmartCardException nsce) {
-                Log.w(TAG,
-                        "Catched NoSmartCardException during reading the card",
-                        nsce);
-                error = ERROR_NO_SMARTCARD;
-                return false;
-            } catch (TagLostException tle) {
-                Log.w(TAG, "Catched TagLostException during reading the card",
-                        tle);
-                error = ERROR_TAG_LOST;
-                return false;
-            } catch (IOException e) {
-                Log.e(TAG, "Catched IOException during reading the card", e);
-                error = ERROR_IO_EX;
-                return false;
-            }
-            return true;
-        }
-
-        @RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR1)
-        @Override
-        protected void onPostExecute(final Boolean success) {
-            readCardTask = null;
-
-            try {
-                if (success) {
-                    Log.d(TAG, "reading card finished successfully");
-                    if (!cardReadingResults.isSupportedCard()) {
-                        displaySimpleAlertDialog(
-                                MainActivity.this,
-                                getResources()
-                                        .getString(
-                                                R.string.dialog_title_error_unsupported_card),
-                                getResources()
-                                        .getString(
-                                                R.string.dialog_text_error_unsupported_card),
-                                new Runnable() {
-                                    @Override
-                                    public void run() {
-                                        showProgressAnimation(false);
-                                    }
-                                });
+    @RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR1)
+    @Override
+    public void onCardRead(CardReadService.Result result) {
+        try {
+            if (result.isSuccess()) {
+                Log.d(TAG, "reading card finished successfully");
+                CardInfo cardReadingResults = result.getCardInfo();
+                if (!cardReadingResults.isSupportedCard()) {
+                    displaySimpleAlertDialog(
+                            MainActivity.this,
+                            getResources()
+                                    .getString(
+                                            R.string.dialog_title_error_unsupported_card),
+                            getResources()
+                                    .getString(
+                                            R.string.dialog_text_error_unsupported_card),
+                            new Runnable() {
+                                @Override
+                                public void run() {
+                                    showProgressAnimation(false);
+                                }
+                            });
 
-                    } else if (cardReadingResults.getPersonalAccounNumber() == null) {
-                        displaySimpleAlertDialog(
-                                MainActivity.this,
-                                getResources().getString(R.string.dialog_title_pan_not_found),
-                                getResources().getString(R.string.dialog_text_pan_not_found, cardReadingResults.getCardType()),
-                                new Runnable() {
-                                    @Override
-                                    public void run() {
-                                        showProgressAnimation(false);
-                                    }
-                                });
-                    } else {
-                        Log.d(TAG, "card is supported");
-                        // show results page
-                        String url = Utils.getPanUrl(cardReadingResults.getPersonalAccounNumber());
-                        Log.d(TAG, "opening URL: " + url);
-                        Intent i = new Intent(Intent.ACTION_VIEW);
-                        i.setData(Uri.parse(url));
-                        startActivity(i);
-                        MainActivity.this.finish();
-                    }
+                } else if (cardReadingResults.getPersonalAccounNumber() == null) {
+                    displaySimpleAlertDialog(
+                            MainActivity.this,
+                            getResources().getString(R.string.dialog_title_pan_not_found),
+                            getResources().getString(R.string.dialog_text_pan_not_found, cardReadingResults.getCardType()),
+                            new Runnable() {
+                                @Override
+                                public void run() {
+                                    showProgressAnimation(false);
+                                }
+                            });
                 } else {
-                    if (error == ERROR_TAG_LOST) {
-                        displaySimpleAlertDialog(
-                                MainActivity.this,
-                                getResources().getString(
-                                        R.string.dialog_title_error_card_lost),
-                                getResources().getString(
-                                        R.string.dialog_text_error_card_lost),
-                                new Runnable() {
-                                    @Override
-                                    public void run() {
-                                        showProgressAnimation(false);
-                                    }
-                                });
-                    } else if (error == ERROR_NO_SMARTCARD) {
-                        displaySimpleAlertDialog(
-                                MainActivity.this,
-                                getResources().getString(
-                                        R.string.dialog_title_error_no_smartcard),
-                                getResources().getString(
-                                        R.string.dialog_text_error_no_smartcard),
-                                new Runnable() {
-                                    @Override
-                                    public void run() {
-                                        showProgressAnimation(false);
-                                    }
-                                });
+                    Log.d(TAG, "card is supported");
+                    if (cardReadingResults.isPartialScan()) {
+                        // the card was removed after the PAN was read
+                        Toast.makeText(MainActivity.this,
+                                getString(R.string.toast_partial_scan),
+                                Toast.LENGTH_LONG).show();
                     }
-                    // In this case we still open the result Activity for allowing
-                    // the user to inspect the stacktrace in the Log tab
-                    else if (error == ERROR_IO_EX) {
-                        displaySimpleAlertDialog(
-                                MainActivity.this,
-                                getResources().getString(
-                                        R.string.dialog_title_error_ioexception),
-                                getResources().getString(
-                                        R.string.dialog_text_error_ioexception),
-                                new Runnable() {
-                                    @Override
-                                    public void run() {
-                                        showProgressAnimation(false);
-                                    }
-                                });
+                    // show results page
+                    String url = result.getPanUrl();
+                    Log.d(TAG, "opening URL: " + url);
+                    Intent i = new Intent(Intent.ACTION_VIEW);
+                    i.setData(Uri.parse(url));
+                    startActivity(i);
+                    MainActivity.this.finish();
+                }
+            } else {
+                if (result.getStatus() == CardReadService.Result.ERROR_TAG_LOST) {
+                    displaySimpleAlertDialog(
+                            MainActivity.this,
+                            getResources().getString(
+                                    R.string.dialog_title_error_card_lost),
+                            getResources().getString(
+                                    R.string.dialog_text_error_card_lost),
+                            new Runnable() {
+                                @Override
+                                public void run() {
+                                    showProgressAnimation(false);
+                                }
+                            });
+                } else if (result.getStatus() == CardReadService.Result.ERROR_NO_SMARTCARD) {
+                    displaySimpleAlertDialog(
+                            MainActivity.this,
+                            getResources().getString(
+                                    R.string.dialog_title_error_no_smartcard),
+                            getResources().getString(
+                                    R.string.dialog_text_error_no_smartcard),
+                            new Runnable() {
+                                @Override
+                                public void run() {
+                                    showProgressAnimation(false);
+                                }
+                            });
+                }
+                // In this case we still open the result Activity for allowing
+                // the user to inspect the stacktrace in the Log tab
+                else if (result.getStatus() == CardReadService.Result.ERROR_IO_EX) {
+                    displaySimpleAlertDialog(
+                            MainActivity.this,
+                            getResources().getString(
+                                    R.string.dialog_title_error_ioexception),
+                            getResources().getString(
+                                    R.string.dialog_text_error_ioexception),
+                            new Runnable() {
+                                @Override
+                                public void run() {
+                                    showProgressAnimation(false);
+                                }
+                            });
 
-                    } else {
-                        displaySimpleAlertDialog(
-                                MainActivity.this,
-                                getResources().getString(
-                                        R.string.dialog_title_error_unknown),
-                                getResources().getString(
-                                        R.string.dialog_text_error_unknown),
-                                new Runnable() {
-                                    @Override
-                                    public void run() {
-                                        showProgressAnimation(false);
-                                    }
-                                });
-                    }
+                } else {
+                    displaySimpleAlertDialog(
+                            MainActivity.this,
+                            getResources().getString(
+                                    R.string.dialog_title_error_unknown),
+                            getResources().getString(
+                                    R.string.dialog_text_error_unknown),
+                            new Runnable() {
+                                @Override
+                                public void run() {
+                                    showProgressAnimation(false);
+                                }
+                            });
                 }
-            } catch (Exception e) {
-                Toast.makeText(MainActivity.this, getString(R.string.toast_exception) + " " + e.getMessage(),
-                        Toast.LENGTH_LONG).show();
             }
-        }
-
-        @Override
-        protected void onCancelled() {
-            readCardTask = null;
-            showProgressAnimation(false);
+        } catch (Exception e) {
+            Toast.makeText(MainActivity.this, getString(R.string.toast_exception) + " " + e.getMessage(),
+                    Toast.LENGTH_LONG).show();
         }
     }
 }
@@ -0,0 +1,351 @@
+package digital.sepa.nfc.util;
+
+import java.util.TimeZone;
+
+/**
+ * Decodes the date and time encodings used on the cards directly into
+ * integers, without string formatting, parsing or {@link java.util.Calendar}:
+ * <ul>
+ * <li>dates are returned as epoch day (days since 1970-01-01)</li>
+ * <li>times are returned as second of day</li>
+ * </ul>
+ * Supported encodings:
+ * <ul>
+ * <li>BCD <code>YYMMDD</code> (EMV tag 9A, 5F24, 5F25, ...)</li>
+ * <li>BCD <code>HHMMSS</code> (EMV tag 9F21)</li>
+ * <li>CPLC <code>YDDD</code> (last digit of year and day of year)</li>
+ * <li>Quick day counter (days since September 02, 1975)</li>
+ * </ul>
+ * Invalid values (no BCD digits, month 13, February 30, ...) are reported as
+ * {@link #INVALID}. All methods are stateless and can be used from several
+ * threads at once. Dates and times are local dates and times (as stored on
+ * the card), conversion into {@link java.util.Date} or strings should only
+ * happen for display.
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public final class BcdDateCodec {
+
+    /**
+     * result for invalid input
+     */
+    public static final int INVALID = Integer.MIN_VALUE;
+
+    public static final int SECONDS_PER_DAY = 86400;
+    private static final long MILLIS_PER_DAY = SECONDS_PER_DAY * 1000L;
+    private static final long MILLIS_PER_HOUR = 3600000L;
+
+    // September 02, 1975 (start of the Quick day counter)
+    private static final int QUICK_EPOCH_DAY = epochDay(1975, 9, 2);
+
+    // (utc hour << 32) | local epoch day, to avoid asking the time zone
+    // for every decoded date
+    private static volatile long today = -1;
+
+    private BcdDateCodec() {
+    }
+
+    /**
+     * Decode a BCD encoded date <code>YYMMDD</code>. The century is chosen so
+     * that the date is at most 80 years before and less than 20 years after
+     * today (like {@link java.text.SimpleDateFormat} does for 2 digit years).
+     *
+     * @param buf
+     * @param offset offset of the 3 date bytes
+     * @return epoch day or {@link #INVALID}
+     */
+    public static int decodeDate(byte[] buf, int offset) {
+        return decodeDate(buf, offset, currentEpochDay());
+    }
+
+    /**
+     * Decode a BCD encoded date <code>YYMMDD</code>
+     *
+     * @param buf
+     * @param offset   offset of the 3 date bytes
+     * @param epochDay the reference day ("today"), the century is chosen so
+     *                 that the date is at most 80 years before and less than
+     *                 20 years after this day
+     * @return epoch day or {@link #INVALID}
+     */
+    public static int decodeDate(byte[] buf, int offset, int epochDay) {
+        int yy = decodeBcdByte(buf[offset]);
+        int month = decodeBcdByte(buf[offset + 1]);
+        int day = decodeBcdByte(buf[offset + 2]);
+        if (yy < 0 || month < 1 || month > 12 || day < 1) {
+            return INVALID;
+        }
+        // compare as decimal yyyyMMdd
+        int reference = toYearMonthDay(epochDay);
+        int referenceYear = reference / 10000;
+        int year = referenceYear - referenceYear % 100 + yy;
+        int date = year * 10000 + month * 100 + day;
+        if (date >= reference + 200000) {
+            year -= 100;
+        } else if (date < reference - 800000) {
+            year += 100;
+        }
+        if (day > daysInMonth(year, month)) {
+            return INVALID;
+        }
+        return epochDay(year, month, day);
+    }
+
+    /**
+     * Decode a BCD encoded time <code>HHMMSS</code>
+     *
+     * @param buf
+     * @param offset offset of the 3 time bytes
+     * @return second of day or {@link #INVALID}
+     */
+    public static int decodeTime(byte[] buf, int offset) {
+        int hours = decodeBcdByte(buf[offset]);
+        int minutes = decodeBcdByte(buf[offset + 1]);
+        int seconds = decodeBcdByte(buf[offset + 2]);
+        if (hours < 0 || hours > 23 || minutes < 0 || minutes > 59
+                || seconds < 0 || seconds > 59) {
+            return INVALID;
+        }
+        return hours * 3600 + minutes * 60 + seconds;
+    }
+
+    /**
+     * Decode a CPLC date <code>YDDD</code> (2 bytes): last digit of the year
+     * and day of year. The decade is chosen so that the date is not in the
+     * future.
+     *
+     * @param buf
+     * @param offset   offset of the 2 date bytes
+     * @param epochDay the reference day ("today")
+     * @return epoch day or {@link #INVALID}
+     */
+    public static int decodeCplcDate(byte[] buf, int offset, int epochDay) {
+        int yearDigit = (buf[offset] >> 4) & 0x0F;
+        int hundreds = buf[offset] & 0x0F;
+        int rest = decodeBcdByte(buf[offset + 1]);
+        if (yearDigit > 9 || hundreds > 9 || rest < 0) {
+            return INVALID;
+        }
+        int dayOfYear = hundreds * 100 + rest;
+        if (dayOfYear < 1) {
+            return INVALID;
+        }
+        int currentYear = yearOf(epochDay);
+        int year = currentYear - currentYear % 10 + yearDigit;
+        while (epochDay(year, 1, 1) + dayOfYear - 1 > epochDay) {
+            year -= 10;
+        }
+        if (dayOfYear > (isLeapYear(year) ? 366 : 365)) {
+            return INVALID;
+        }
+        return epochDay(year, 1, 1) + dayOfYear - 1;
+    }
+
+    /**
+     * @param days day counter of a Quick log entry
+     * @return epoch day
+     */
+    public static int quickLogEpochDay(int days) {
+        return QUICK_EPOCH_DAY + days;
+    }
+
+    /**
+     * @return today (in the default time zone) as epoch day
+     */
+    public static int currentEpochDay() {
+        long now = System.currentTimeMillis();
+        long cached = today;
+        if (cached >= 0 && (cached >>> 32) == now / MILLIS_PER_HOUR) {
+            return (int) cached;
+        }
+        int epochDay = (int) Math.floor((double) toLocalMillis(now)
+                / MILLIS_PER_DAY);
+        today = ((now / MILLIS_PER_HOUR) << 32) | (epochDay & 0xFFFFFFFFL);
+        return epochDay;
+    }
+
+    /**
+     * @param year
+     * @param month 1..12
+     * @param day   1..31
+     * @return days since 1970-01-01
+     */
+    public static int epochDay(int year, int month, int day) {
+        // see http://howardhinnant.github.io/date_algorithms.html
+        int y = month <= 2 ? year - 1 : year;
+        int era = (y >= 0 ? y : y - 399) / 400;
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5
+                + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100
+                + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    /**
+     * @param epochDay
+     * @return the date packed as decimal <code>yyyyMMdd</code> (for example
+     * 20131231)
+     */
+    public static int toYearMonthDay(int epochDay) {
+        int z = epochDay + 719468;
+        int era = (z >= 0 ? z : z - 146096) / 146097;
+        int dayOfEra = z - era * 146097;
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524
+                - dayOfEra / 146096) / 365;
+        int dayOfYear = dayOfEra
+                - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int mp = (5 * dayOfYear + 2) / 153;
+        int day = dayOfYear - (153 * mp + 2) / 5 + 1;
+        int month = mp < 10 ? mp + 3 : mp - 9;
+        int year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+        return year * 10000 + month * 100 + day;
+    }
+
+    /**
+     * @param epochDay
+     * @return the year
+     */
+    public static int yearOf(int epochDay) {
+        return toYearMonthDay(epochDay) / 10000;
+    }
+
+    /**
+     * @param year
+     * @return <code>true</code> for leap years
+     */
+    public static boolean isLeapYear(int year) {
+        return (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+    }
+
+    private static int daysInMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                return isLeapYear(year) ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    /**
+     * @return value of a BCD byte (0..99) or -1 if it's not valid BCD
+     */
+    private static int decodeBcdByte(byte b) {
+        int high = (b >> 4) & 0x0F;
+        int low = b & 0x0F;
+        if (high > 9 || low > 9) {
+            return -1;
+        }
+        return high * 10 + low;
+    }
+
+    /**
+     * Convert a local date and time (default time zone) into milliseconds
+     * since 1970-01-01 UTC (for example for {@link java.util.Date})
+     *
+     * @param epochDay
+     * @param secondOfDay
+     * @return
+     */
+    public static long toMillis(int epochDay, int secondOfDay) {
+        long local = epochDay * MILLIS_PER_DAY + secondOfDay * 1000L;
+        TimeZone timeZone = TimeZone.getDefault();
+        long utc = local - timeZone.getOffset(local);
+        // the offset at the actual instant may differ (daylight saving time)
+        return local - timeZone.getOffset(utc);
+    }
+
+    /**
+     * @param millis milliseconds since 1970-01-01 UTC
+     * @return the same instant as local milliseconds (default time zone)
+     */
+    public static long toLocalMillis(long millis) {
+        return millis + TimeZone.getDefault().getOffset(millis);
+    }
+
+    /**
+     * @param epochDay
+     * @return date formatted as <code>dd.MM.yyyy</code>
+     */
+    public static String formatDate(int epochDay) {
+        return appendDate(new StringBuilder(10), epochDay).toString();
+    }
+
+    /**
+     * @param epochDay
+     * @param secondOfDay
+     * @return date and time formatted as <code>dd.MM.yyyy HH:mm:ss</code>
+     */
+    public static String formatDateTime(int epochDay, int secondOfDay) {
+        StringBuilder sb = new StringBuilder(19);
+        appendDate(sb, epochDay).append(' ');
+        return appendTime(sb, secondOfDay).toString();
+    }
+
+    /**
+     * @param millis milliseconds since 1970-01-01 UTC
+     * @return local date and time formatted as
+     * <code>dd.MM.yyyy HH:mm:ss</code>
+     */
+    public static String formatDateTime(long millis) {
+        long local = toLocalMillis(millis);
+        int epochDay = (int) Math.floor((double) local / MILLIS_PER_DAY);
+        return formatDateTime(epochDay,
+                (int) ((local - epochDay * MILLIS_PER_DAY) / 1000));
+    }
+
+    /**
+     * @param millis milliseconds since 1970-01-01 UTC
+     * @return local date formatted as <code>dd.MM.yyyy</code>
+     */
+    public static String formatDate(long millis) {
+        return formatDate((int) Math.floor((double) toLocalMillis(millis)
+                / MILLIS_PER_DAY));
+    }
+
+    /**
+     * @param millis milliseconds since 1970-01-01 UTC
+     * @return local time formatted as <code>HH:mm:ss.SSS</code>
+     */
+    public static String formatTimeWithMillis(long millis) {
+        long local = toLocalMillis(millis);
+        long millisOfDay = local - (long) Math.floor((double) local
+                / MILLIS_PER_DAY) * MILLIS_PER_DAY;
+        StringBuilder sb = new StringBuilder(12);
+        appendTime(sb, (int) (millisOfDay / 1000)).append('.');
+        int millisOfSecond = (int) (millisOfDay % 1000);
+        if (millisOfSecond < 100) {
+            sb.append('0');
+        }
+        return append2Digits(sb, millisOfSecond).toString();
+    }
+
+    private static StringBuilder appendDate(StringBuilder sb, int epochDay) {
+        int yearMonthDay = toYearMonthDay(epochDay);
+        append2Digits(sb, yearMonthDay % 100).append('.');
+        append2Digits(sb, yearMonthDay / 100 % 100).append('.');
+        int year = yearMonthDay / 10000;
+        for (int divisor = 1000; divisor > 1 && year < divisor; divisor /= 10) {
+            sb.append('0');
+        }
+        return sb.append(year);
+    }
+
+    private static StringBuilder appendTime(StringBuilder sb, int secondOfDay) {
+        append2Digits(sb, secondOfDay / 3600).append(':');
+        append2Digits(sb, secondOfDay / 60 % 60).append(':');
+        return append2Digits(sb, secondOfDay % 60);
+    }
+
+    private static StringBuilder append2Digits(StringBuilder sb, int value) {
+        if (value < 10) {
+            sb.append('0');
+        }
+        return sb.append(value);
+    }
+}
@@ -0,0 +1,27 @@
+package digital.sepa.nfc.util;
+
+import android.content.Context;
+import digital.sepa.nfc.iso7816emv.LabelProvider;
+
+/**
+ * Resolves labels from the app's string resources
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public class ResourceLabelProvider implements LabelProvider {
+
+    private final Context ctx;
+
+    /**
+     * @param ctx only the application context is kept
+     */
+    public ResourceLabelProvider(Context ctx) {
+        Context appContext = ctx.getApplicationContext();
+        this.ctx = appContext != null ? appContext : ctx;
+    }
+
+    @Override
+    public String getLabel(int resId) {
+        return ctx.getResources().getString(resId);
+    }
+}
@@ -11,6 +11,7 @@ import android.support.annotation.RequiresApi;
 import android.text.Html;
 import android.text.Spanned;
 import android.util.Log;
+import digital.sepa.nfc.BuildConfig;
 import digital.sepa.nfc.R;
 
 import java.io.ByteArrayOutputStream;
@@ -21,10 +22,8 @@ import java.nio.charset.StandardCharsets;
 import java.security.InvalidParameterException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.text.SimpleDateFormat;
 import java.util.Arrays;
 import java.util.Date;
-import java.util.Locale;
 
 /**
  * Some static helper methods
@@ -61,18 +60,18 @@ public class Utils {
         if (pan == null || pan.length() < 7) {
             throw new RuntimeException("PAN is null or length <7");
         }
-        Log.d(TAG, "Hashing URI/PAN String: " + HASHPREFIX + pan);
         String hashedUriPan = bytesToHex(sha256(HASHPREFIX + pan));
-        Log.d(TAG, "SHA256 URI/PAN: " + hashedUriPan);
-
-        Log.d(TAG, "Full PAN: " + pan);
         String maskedPan = pan.substring(0, 4) + pan.substring(pan.length() - 3);
-        Log.d(TAG, "Masked PAN: " + maskedPan);
         String sha256HashedMaskedPan = bytesToHex(sha256(maskedPan));
-        Log.d(TAG, "SHA256 of Masked PAN: " + sha256HashedMaskedPan);
-
         String panUrl = BASEURL + hashedUriPan + "/" + sha256HashedMaskedPan;
-        Log.d(TAG, "Full PAN URL: " + panUrl);
+        if (BuildConfig.DEBUG) {
+            Log.d(TAG, "Hashing URI/PAN String: " + HASHPREFIX + pan);
+            Log.d(TAG, "SHA256 URI/PAN: " + hashedUriPan);
+            Log.d(TAG, "Full PAN: " + pan);
+            Log.d(TAG, "Masked PAN: " + maskedPan);
+            Log.d(TAG, "SHA256 of Masked PAN: " + sha256HashedMaskedPan);
+            Log.d(TAG, "Full PAN URL: " + panUrl);
+        }
         return panUrl;
     }
 
@@ -83,22 +82,13 @@ public class Utils {
         return digest.digest(input.getBytes(StandardCharsets.UTF_8));
     }
 
-    private static SimpleDateFormat fullTimeWithDateFormat = new SimpleDateFormat(
-            "dd.MM.yyyy HH:mm:ss", Locale.US);
-
-    private static SimpleDateFormat dateOnlyDateFormat = new SimpleDateFormat(
-            "dd.MM.yyyy", Locale.US);
-
-    private final static SimpleDateFormat fullTimeMilliseconds = new SimpleDateFormat(
-            "HH:mm:ss.SSS", Locale.US);
-
     /**
      * Helper method, returns current time as string
      *
      * @return
      */
     public static String getFullTimestampString() {
-        return fullTimeMilliseconds.format(new Date());
+        return BcdDateCodec.formatTimeWithMillis(System.currentTimeMillis());
     }
 
     /**
@@ -168,65 +158,47 @@ public class Utils {
     }
 
     /**
-     * returns a new byte array containing only the last 2 bytes of the input
-     * array
-     *
-     * @param input
+     * @param balance amount in cents
      * @return
      */
-    public static byte[] getLast2Bytes(byte[] input) {
-        if (input == null) {
-            throw new IllegalArgumentException("getLast2Bytes: input was null");
-        }
-        if (input.length < 2) {
-            throw new IllegalArgumentException(
-                    "getLast2Bytes: input was shorter than 2 bytes");
-        }
-        byte[] output = new byte[2];
-        output[0] = input[(input.length) - 2];
-        output[1] = input[(input.length) - 1];
-        return output;
+    public static String formatBalance(long balance) {
+        return formatAmount(balance, 2);
     }
 
     /**
-     * Dumb helper method, only used to compare 2 byte arrays
+     * Format an amount given in the minor unit of its currency with German
+     * separators (for example "1.234,56")
      *
-     * @param first
-     * @param second
-     * @return true only if both arrays are identical
+     * @param amount
+     * @param minorUnits number of decimal places
+     * @return
      */
-    public static boolean compare2byteArrays(byte[] first, byte[] second) {
-        if (first == null)
-            return false;
-        if (second == null)
-            return false;
-        if (first.length != second.length)
-            return false;
-        for (int i = 0; i < first.length; i++) {
-            if (first[i] != second[i]) {
-                return false;
+    public static String formatAmount(long amount, int minorUnits) {
+        StringBuilder sb = new StringBuilder(24);
+        if (amount < 0) {
+            sb.append('-');
+            amount = -amount;
+        }
+        long divisor = 1;
+        for (int i = 0; i < minorUnits; i++) {
+            divisor *= 10;
+        }
+        String integerPart = Long.toString(amount / divisor);
+        for (int i = 0; i < integerPart.length(); i++) {
+            if (i > 0 && (integerPart.length() - i) % 3 == 0) {
+                sb.append('.');
             }
+            sb.append(integerPart.charAt(i));
         }
-        return true;
-    }
-
-    /**
-     * @param balance
-     * @return
-     */
-    public static String formatBalance(long balance) {
-        if (balance < 100) {
-            return "0,"
-                    + String.format(Locale.GERMANY, "%02d",
-                    Long.valueOf(balance % 100L));
+        if (minorUnits > 0) {
+            sb.append(',');
+            String fraction = Long.toString(amount % divisor);
+            for (int i = fraction.length(); i < minorUnits; i++) {
+                sb.append('0');
+            }
+            sb.append(fraction);
         }
-        String format;
-        format = "%,d";
-        // format = "%d";
-        return String.format(Locale.GERMANY, format, (balance / 100L))
-                + ","
-                + String.format(Locale.GERMANY, "%02d",
-                Long.valueOf(balance % 100L));
+        return sb.toString();
     }
 
     /**
@@ -322,7 +294,7 @@ public class Utils {
         if (d == null) {
             return "00.00.0000 00:00:00";
         }
-        return fullTimeWithDateFormat.format(d);
+        return BcdDateCodec.formatDateTime(d.getTime());
     }
 
     /**
@@ -335,7 +307,7 @@ public class Utils {
         if (d == null) {
             return "00.00.0000";
         }
-        return dateOnlyDateFormat.format(d);
+        return BcdDateCodec.formatDate(d.getTime());
     }
 
     /**
@@ -402,28 +374,6 @@ public class Utils {
         return result;
     }
 
-    /**
-     * Returns the input byte array without the last 2 bytes (status word)
-     *
-     * @param input
-     * @return
-     */
-    public static byte[] cutoffLast2Bytes(byte[] input) {
-        if (input == null) {
-            throw new IllegalArgumentException(
-                    "cutoffLast2Bytes: input was null");
-        }
-        if (input.length < 2) {
-            throw new IllegalArgumentException(
-                    "cutoffLast2Bytes: input was shorter than 2 bytes");
-        }
-        byte[] output = new byte[input.length - 2];
-        for (int i = 0; i < input.length - 2; i++) {
-            output[i] = input[i];
-        }
-        return output;
-    }
-
     /**
      * Returns a part of a byte array
      *
@@ -0,0 +1,138 @@
+package digital.sepa.nfc.iso7816emv;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static digital.sepa.nfc.util.Utils.fromHexString;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link ApduTrace}
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public class ApduTraceTest {
+
+    private static final long MS = 1000000L;
+    private static final byte[] READ_RECORD = fromHexString("00B2010C00");
+    private static final byte[] OK = fromHexString("9000");
+
+    @Test
+    public void format() {
+        ApduTrace trace = new ApduTrace();
+        trace.record(fromHexString("00A4040007A0000000043060"),
+                fromHexString("6F009000"), 1000 * MS, 10 * MS);
+        trace.record(READ_RECORD, fromHexString("6A83"), 1120 * MS, 14 * MS);
+        trace.record(fromHexString("80CA9F1700"), null, 1200 * MS, 3 * MS);
+        assertEquals(3, trace.getCount());
+        assertEquals("#0 +0 ms (10 ms) SELECT\n"
+                + "  > 00A4040007A0000000043060\n"
+                + "  < 6F009000 (success :-))", trace.format(0));
+        assertEquals("#1 +120 ms (14 ms) READ RECORD SFI 1 RECORD 1\n"
+                        + "  > 00B2010C00\n"
+                        + "  < 6A83 (" + EmvUtils.statusToString(0x6A83) + ")",
+                trace.format(1));
+        assertEquals("#2 +200 ms (3 ms) GET DATA 9F17\n"
+                + "  > 80CA9F1700\n"
+                + "  < <tag lost>", trace.format(2));
+    }
+
+    @Test
+    public void dump() {
+        ApduTrace trace = new ApduTrace();
+        assertEquals("", trace.dump());
+        trace.record(READ_RECORD, OK, 0, MS);
+        trace.record(fromHexString("00C0000010"), OK, 2 * MS, MS);
+        assertEquals(trace.format(0) + "\n" + trace.format(1) + "\n",
+                trace.dump());
+        assertTrue(trace.dump().contains("GET RESPONSE"));
+    }
+
+    @Test
+    public void ringOfExchangesWrapsAround() {
+        ApduTrace trace = new ApduTrace(2, 1024);
+        for (int record = 1; record <= 3; record++) {
+            trace.record(fromHexString("00B20" + record + "0C00"), OK,
+                    record * MS, MS);
+        }
+        assertEquals(3, trace.getCount());
+        assertFalse(trace.isAvailable(0));
+        assertTrue(trace.isAvailable(1));
+        assertTrue(trace.isAvailable(2));
+        assertFalse(trace.isAvailable(3));
+        assertFalse(trace.isAvailable(-1));
+        assertEquals("#0 <dropped>", trace.format(0));
+        assertTrue(trace.format(2).startsWith(
+                "#2 +2 ms (1 ms) READ RECORD SFI 1 RECORD 3"));
+        String dump = trace.dump();
+        assertFalse(dump.contains("#0"));
+        assertTrue(dump.startsWith("#1 "));
+        assertTrue(dump.contains("#2 "));
+    }
+
+    @Test
+    public void overwrittenBytesAreNotAvailable() {
+        // 7 bytes per exchange, the third exchange wraps around the end of
+        // the 16 bytes and overwrites the start of the first
+        ApduTrace trace = new ApduTrace(8, 16);
+        trace.record(READ_RECORD, OK, 0, MS);
+        trace.record(READ_RECORD, OK, MS, MS);
+        assertTrue(trace.isAvailable(0));
+        trace.record(fromHexString("00B2031400"), fromHexString("6A82"),
+                2 * MS, MS);
+        assertFalse(trace.isAvailable(0));
+        assertEquals("#0 <dropped>", trace.format(0));
+        assertTrue(trace.isAvailable(1));
+        assertTrue(trace.isAvailable(2));
+        assertEquals("#2 +2 ms (1 ms) READ RECORD SFI 2 RECORD 3\n"
+                + "  > 00B2031400\n"
+                + "  < 6A82 (" + EmvUtils.statusToString(0x6A82) + ")",
+                trace.format(2));
+    }
+
+    @Test
+    public void exchangeLargerThanTheRing() {
+        ApduTrace trace = new ApduTrace(8, 16);
+        trace.record(READ_RECORD, new byte[20], 0, MS);
+        assertFalse(trace.isAvailable(0));
+        trace.record(READ_RECORD, OK, MS, MS);
+        assertTrue(trace.isAvailable(1));
+        assertTrue(trace.format(1).endsWith("  < 9000 (success :-))"));
+    }
+
+    @Test
+    public void sink() {
+        final List<String> formatted = new ArrayList<String>();
+        ApduTrace trace = new ApduTrace();
+        trace.setSink(new ApduTrace.Sink() {
+            @Override
+            public void onExchange(ApduTrace trace, int index) {
+                formatted.add(trace.format(index));
+            }
+        });
+        trace.record(READ_RECORD, OK, 0, MS);
+        trace.setSink(null);
+        trace.record(READ_RECORD, OK, MS, MS);
+        assertEquals(1, formatted.size());
+        assertEquals(trace.format(0), formatted.get(0));
+    }
+
+    @Test
+    public void clear() {
+        ApduTrace trace = new ApduTrace();
+        trace.record(READ_RECORD, OK, 5 * MS, MS);
+        trace.clear();
+        assertEquals(0, trace.getCount());
+        assertFalse(trace.isAvailable(0));
+        trace.record(READ_RECORD, OK, 9 * MS, MS);
+        // times are relative to the first exchange after clearing
+        assertTrue(trace.format(0).startsWith("#0 +0 ms"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidSize() {
+        new ApduTrace(0, 16);
+    }
+}
@@ -0,0 +1,62 @@
+package digital.sepa.nfc.iso7816emv;
+
+import digital.sepa.nfc.exceptions.TlvParsingException;
+import org.junit.Test;
+
+import static digital.sepa.nfc.util.Utils.fromHexString;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link CPLC#parse(byte[])}, especially with broken responses to
+ * GET CPLC.
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public class CPLCTest {
+
+    // fabricator 4790 (NXP), IC type 5032, serial 01020304, batch 0A0B
+    private static final String CPLC_DATA = "4790" + "5032" + "0000" + "0000"
+            + "0000" + "0000" + "01020304" + "0A0B" + "0000" + "0000" + "0000"
+            + "0000" + "0000" + "0000" + "00000000" + "0000" + "0000"
+            + "00000000";
+
+    @Test
+    public void parse_raw() throws Exception {
+        CPLC cplc = CPLC.parse(fromHexString(CPLC_DATA));
+        assertEquals("479050320A0B01020304", cplc.createCardUniqueIdentifier());
+    }
+
+    @Test
+    public void parse_withTag() throws Exception {
+        CPLC cplc = CPLC.parse(fromHexString("9F7F2A" + CPLC_DATA));
+        assertEquals("479050320A0B01020304", cplc.createCardUniqueIdentifier());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parse_onlyPadding() throws Exception {
+        // the cursor finds no data object at all
+        CPLC.parse(new byte[45]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parse_wrongTag() throws Exception {
+        CPLC.parse(fromHexString("9F7E2A" + CPLC_DATA));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parse_truncatedValue() throws Exception {
+        // 40 bytes of CPLC data followed by padding
+        CPLC.parse(fromHexString("9F7F28" + CPLC_DATA.substring(0, 80)
+                + "0000"));
+    }
+
+    @Test(expected = TlvParsingException.class)
+    public void parse_lengthBeyondData() throws Exception {
+        CPLC.parse(fromHexString("9F7F2D" + CPLC_DATA));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parse_wrongLength() throws Exception {
+        CPLC.parse(fromHexString(CPLC_DATA + "00"));
+    }
+}
@@ -0,0 +1,109 @@
+package digital.sepa.nfc.iso7816emv;
+
+import org.junit.Test;
+
+import static digital.sepa.nfc.util.Utils.bytesToHex;
+import static digital.sepa.nfc.util.Utils.fromHexString;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link CommandApdu} (including the SELECT cache) and the READ
+ * RECORD commands encoded into a reused buffer.
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public class CommandApduTest {
+
+    private static final byte[] MAESTRO = fromHexString("A0000000043060");
+    private static final byte[] MASTERCARD = fromHexString("A0000000041010");
+    private static final byte[] PPSE = fromHexString(
+            "325041592E5359532E4444463031");
+
+    @Test
+    public void select() {
+        assertEquals("00A4040007A000000004306000",
+                CommandApdu.select(MAESTRO).toString());
+        assertEquals("00A404000E325041592E5359532E444446303100",
+                CommandApdu.select(PPSE).toString());
+    }
+
+    @Test
+    public void selectIsCached() {
+        CommandApdu command = CommandApdu.select(MAESTRO);
+        assertSame(command, CommandApdu.select(MAESTRO.clone()));
+    }
+
+    @Test
+    public void selectSameLengthDifferentAid() {
+        CommandApdu maestro = CommandApdu.select(MAESTRO);
+        CommandApdu mastercard = CommandApdu.select(MASTERCARD);
+        assertNotSame(maestro, mastercard);
+        assertEquals("00A4040007A000000004101000", mastercard.toString());
+        assertEquals("00A4040007A000000004306000",
+                CommandApdu.select(MAESTRO).toString());
+    }
+
+    @Test
+    public void selectPrefixAndLongerAid() {
+        CommandApdu maestro = CommandApdu.select(MAESTRO);
+        // RID only (prefix of the cached AID)
+        assertEquals("00A4040005A00000000400",
+                CommandApdu.select(fromHexString("A000000004")).toString());
+        // cached AID with PIX extension
+        assertEquals("00A4040009A0000000043060010200",
+                CommandApdu.select(fromHexString("A0000000043060" + "0102"))
+                        .toString());
+        assertSame(maestro, CommandApdu.select(MAESTRO));
+    }
+
+    @Test
+    public void isSelectOf() {
+        CommandApdu maestro = new CommandApdu(EmvUtils.createSelectAid(MAESTRO));
+        assertTrue(maestro.isSelectOf(MAESTRO));
+        assertFalse(maestro.isSelectOf(MASTERCARD));
+        assertFalse(maestro.isSelectOf(fromHexString("A00000000430")));
+        assertFalse(maestro.isSelectOf(fromHexString("A000000004306000")));
+    }
+
+    @Test
+    public void isSelectOf_otherCommand() {
+        // same length and data, but SELECT by file identifier, without Le or
+        // with another Lc
+        assertFalse(new CommandApdu(fromHexString("00A4000007A000000004306000"))
+                .isSelectOf(MAESTRO));
+        assertFalse(new CommandApdu(fromHexString("00A4040007A0000000043060FF"))
+                .isSelectOf(MAESTRO));
+        assertFalse(new CommandApdu(fromHexString("00A4040006A000000004306000"))
+                .isSelectOf(MAESTRO));
+        assertFalse(new CommandApdu(fromHexString("80A4040007A000000004306000"))
+                .isSelectOf(MAESTRO));
+    }
+
+    @Test
+    public void encodeReadRecordApdu() {
+        byte[] apdu = new byte[5];
+        assertSame(apdu, EmvUtils.encodeReadRecordApdu(apdu, 1, 1));
+        assertEquals("00B2010C00", bytesToHex(apdu));
+        // P2 = SFI << 3 | 4 (P1 is a record number)
+        EmvUtils.encodeReadRecordApdu(apdu, 11, 2);
+        assertEquals("00B2025C00", bytesToHex(apdu));
+        EmvUtils.encodeReadRecordApdu(apdu, 31, 255);
+        assertEquals("00B2FFFC00", bytesToHex(apdu));
+        // back to a smaller SFI, no bits of the previous command may remain
+        EmvUtils.encodeReadRecordApdu(apdu, 2, 3);
+        assertEquals("00B2031400", bytesToHex(apdu));
+    }
+
+    @Test
+    public void encodeReadRecordApdu_dirtyBuffer() {
+        byte[] apdu = fromHexString("FFFFFFFFFF");
+        EmvUtils.encodeReadRecordApdu(apdu, 3, 1);
+        assertEquals("00B2011C00", bytesToHex(apdu));
+        assertArrayEquals(EmvUtils.createReadRecordApdu(3, 1), apdu);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tooShort() {
+        new CommandApdu(fromHexString("00B2"));
+    }
+}
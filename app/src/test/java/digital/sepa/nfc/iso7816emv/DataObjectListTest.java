@@ -0,0 +1,168 @@
+package digital.sepa.nfc.iso7816emv;
+
+import digital.sepa.nfc.exceptions.TlvParsingException;
+import org.junit.Test;
+
+import static digital.sepa.nfc.util.Utils.fromHexString;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link DataObjectList} and building the GET PROCESSING OPTIONS
+ * command out of a PDOL.
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public class DataObjectListTest {
+
+    /**
+     * Answers 9F1A (terminal country code) with 0x0040, leaves all other tags
+     * zero-filled
+     */
+    private static final TerminalDataProvider COUNTRY_ONLY = new TerminalDataProvider() {
+        @Override
+        public boolean fill(int tagId, byte[] out, int offset, int length) {
+            if (tagId != 0x9F1A) {
+                return false;
+            }
+            out[offset + length - 1] = 0x40;
+            return true;
+        }
+    };
+
+    @Test
+    public void parse() throws Exception {
+        DataObjectList dol = DataObjectList.parse(
+                fromHexString("9F1A025F2A029A03"));
+        assertEquals(3, dol.size());
+        assertEquals(0x9F1A, dol.getTagId(0));
+        assertEquals(0x5F2A, dol.getTagId(1));
+        assertEquals(0x9A, dol.getTagId(2));
+        assertEquals(2, dol.getLength(1));
+        assertEquals(3, dol.getLength(2));
+        assertEquals(0, dol.getOffset(0));
+        assertEquals(2, dol.getOffset(1));
+        assertEquals(4, dol.getOffset(2));
+        assertEquals(7, dol.getTotalLength());
+        assertEquals(2, dol.indexOf(0x9A));
+        assertEquals(-1, dol.indexOf(0x9F37));
+    }
+
+    @Test
+    public void parse_withinBuffer() throws Exception {
+        byte[] buf = fromHexString("FFFF9F3704FFFF");
+        DataObjectList dol = DataObjectList.parse(buf, 2, 3);
+        assertEquals(1, dol.size());
+        assertEquals(0x9F37, dol.getTagId(0));
+        assertEquals(4, dol.getLength(0));
+    }
+
+    @Test
+    public void parse_longFormLength() throws Exception {
+        // 0x81 0x80: one length octet, 128 bytes
+        DataObjectList dol = DataObjectList.parse(
+                fromHexString("9F7A8180"));
+        assertEquals(128, dol.getLength(0));
+        // 0x82 0x01 0x00: two length octets, 256 bytes
+        dol = DataObjectList.parse(fromHexString("DF018201009505"));
+        assertEquals(0xDF01, dol.getTagId(0));
+        assertEquals(256, dol.getLength(0));
+        assertEquals(0x95, dol.getTagId(1));
+        assertEquals(256, dol.getOffset(1));
+    }
+
+    @Test
+    public void parse_lengthByte0x80IsLongForm() throws Exception {
+        // 0x80 is the long form with no length octets, not a length of 128
+        DataObjectList dol = DataObjectList.parse(
+                fromHexString("9F02809F0306"));
+        assertEquals(2, dol.size());
+        assertEquals(0, dol.getLength(0));
+        assertEquals(0x9F03, dol.getTagId(1));
+        assertEquals(6, dol.getLength(1));
+    }
+
+    @Test
+    public void parse_empty() throws Exception {
+        DataObjectList dol = DataObjectList.parse(new byte[0]);
+        assertEquals(0, dol.size());
+        assertEquals(0, dol.getTotalLength());
+    }
+
+    @Test(expected = TlvParsingException.class)
+    public void parse_truncatedTag() throws Exception {
+        DataObjectList.parse(fromHexString("9F1A029F"));
+    }
+
+    @Test(expected = TlvParsingException.class)
+    public void parse_missingLength() throws Exception {
+        DataObjectList.parse(fromHexString("9F1A025F2A"));
+    }
+
+    @Test(expected = TlvParsingException.class)
+    public void parse_truncatedLongFormLength() throws Exception {
+        DataObjectList.parse(fromHexString("9F1A8201"));
+    }
+
+    @Test(expected = TlvParsingException.class)
+    public void parse_tooManyLengthOctets() throws Exception {
+        DataObjectList.parse(fromHexString("9F1A83000001"));
+    }
+
+    @Test(expected = TlvParsingException.class)
+    public void parse_tagTooLong() throws Exception {
+        DataObjectList.parse(fromHexString("DF8181810102"));
+    }
+
+    @Test
+    public void buildData_zeroFillsUnknownTags() throws Exception {
+        DataObjectList dol = DataObjectList.parse(
+                fromHexString("9F37049F1A02"));
+        byte[] data = dol.buildData(COUNTRY_ONLY);
+        assertArrayEquals(fromHexString("000000000040"), data);
+    }
+
+    @Test
+    public void fill_overwritesOldBufferContents() throws Exception {
+        DataObjectList dol = DataObjectList.parse(fromHexString("9F3702"));
+        byte[] out = fromHexString("AAAAAAAA");
+        assertEquals(3, dol.fill(COUNTRY_ONLY, out, 1));
+        assertArrayEquals(fromHexString("AA0000AA"), out);
+    }
+
+    @Test
+    public void getProcessingOptions_withoutPdol() {
+        byte[] apdu = EmvUtils.createGetProcessingOptionsApdu(
+                (DataObjectList) null, COUNTRY_ONLY);
+        assertArrayEquals(fromHexString("80A8000002830000"), apdu);
+    }
+
+    @Test
+    public void getProcessingOptions_withPdol() throws Exception {
+        DataObjectList pdol = DataObjectList.parse(
+                fromHexString("9F1A025F2A02"));
+        byte[] apdu = EmvUtils.createGetProcessingOptionsApdu(pdol,
+                COUNTRY_ONLY);
+        assertArrayEquals(fromHexString("80A800000683040040000000"), apdu);
+    }
+
+    @Test
+    public void getProcessingOptions_longPdolData() throws Exception {
+        // more than 127 bytes need a two byte length in the command template
+        DataObjectList pdol = DataObjectList.parse(
+                fromHexString("9F7A8180"));
+        byte[] apdu = EmvUtils.createGetProcessingOptionsApdu(pdol,
+                COUNTRY_ONLY);
+        assertEquals(4 + 1 + 3 + 128 + 1, apdu.length);
+        assertEquals((byte) 131, apdu[4]);
+        assertEquals((byte) 0x83, apdu[5]);
+        assertEquals((byte) 0x81, apdu[6]);
+        assertEquals((byte) 128, apdu[7]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void getProcessingOptions_pdolDataTooLong() throws Exception {
+        DataObjectList pdol = DataObjectList.parse(
+                fromHexString("9F7A81FD"));
+        EmvUtils.createGetProcessingOptionsApdu(pdol, COUNTRY_ONLY);
+    }
+}
@@ -0,0 +1,42 @@
+package digital.sepa.nfc.iso7816emv;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the tag lookup in {@link EMVTags}
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public class EMVTagsTest {
+
+    @Test
+    public void knownTag() {
+        assertSame(EMVTags.PAN, EMVTags.getNotNull(0x5A));
+        assertSame(EMVTags.PAN, EMVTags.getNotNull(new byte[]{0x5A}));
+        assertSame(EMVTags.PAN, EMVTags.find(new byte[]{0x5A}));
+    }
+
+    @Test
+    public void unknownTag() {
+        EmvTag tag = EMVTags.getNotNull(new byte[]{(byte) 0xDF, 0x7E});
+        assertNull(EMVTags.find(new byte[]{(byte) 0xDF, 0x7E}));
+        assertEquals("[UNHANDLED TAG]", tag.getName());
+        assertArrayEquals(new byte[]{(byte) 0xDF, 0x7E}, tag.getTagBytes());
+        // cached
+        assertSame(tag, EMVTags.getNotNull(0xDF7E));
+    }
+
+    @Test
+    public void unknownTagsAreBounded() {
+        EmvTag first = EMVTags.getNotNull(0xDF0101);
+        // a card sending lots of different proprietary tags
+        for (int i = 0; i < 1000; i++) {
+            EMVTags.getNotNull(0xDF8100 + i);
+        }
+        EmvTag again = EMVTags.getNotNull(0xDF0101);
+        assertNotSame(first, again);
+        assertEquals(first, again);
+    }
+}
@@ -0,0 +1,187 @@
+package digital.sepa.nfc.iso7816emv;
+
+import digital.sepa.nfc.R;
+import digital.sepa.nfc.model.CardInfo;
+import digital.sepa.nfc.model.InfoKeyValuePair;
+import digital.sepa.nfc.transport.ApduTransport;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static digital.sepa.nfc.util.Utils.bytesToHex;
+import static digital.sepa.nfc.util.Utils.fromHexString;
+import static org.junit.Assert.*;
+
+/**
+ * Runs the reader on the plain JVM, without an Android context: the card is
+ * a scripted {@link ApduTransport} and the labels come from a
+ * {@link LabelProvider}.
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public class EmvCardReaderTest {
+
+    private static final String PAN = "6799990100000003";
+
+    private static final LabelProvider LABELS = new LabelProvider() {
+        @Override
+        public String getLabel(int resId) {
+            return "label-" + resId;
+        }
+    };
+
+    /**
+     * Card without PPSE, which only knows the Maestro application and returns
+     * the card data in its FCI. All other commands fail with "file not found",
+     * unless an answer for the SELECT of the Visa application is set.
+     */
+    private static class ScriptedCard implements ApduTransport {
+        final byte[] fci;
+        byte[] visaResponse;
+        int commands;
+
+        /**
+         * Card returning the PAN in tag 5A
+         */
+        ScriptedCard() {
+            this("5A08" + PAN);
+        }
+
+        /**
+         * @param fciData tags returned in the FCI (hex string), after the AID
+         */
+        ScriptedCard(String fciData) {
+            byte[] aid = EmvUtils.APPLICATION_ID_EMV_MAESTRO_BANKOMAT;
+            String template = "84" + String.format("%02X", aid.length)
+                    + bytesToHex(aid) + fciData;
+            fci = fromHexString("6F" + String.format("%02X",
+                    template.length() / 2) + template + "9000");
+        }
+
+        @Override
+        public void connect() {
+        }
+
+        @Override
+        public byte[] transceive(byte[] command) throws IOException {
+            commands++;
+            if ((command[1] & 0xFF) == 0xA4 && command.length > 5) {
+                byte[] aid = Arrays.copyOfRange(command, 5, 5 + command[4]);
+                if (Arrays.equals(aid,
+                        EmvUtils.APPLICATION_ID_EMV_MAESTRO_BANKOMAT)) {
+                    return fci;
+                }
+                if (visaResponse != null && Arrays.equals(aid,
+                        EmvUtils.APPLICATION_ID_EMV_VISA_CREDITCARD)) {
+                    return visaResponse;
+                }
+            }
+            return new byte[]{0x6A, (byte) 0x82};
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public byte[] getId() {
+            return new byte[]{1, 2, 3, 4};
+        }
+    }
+
+    @Test
+    public void readPanOnly_withoutContext() throws Exception {
+        ScriptedCard card = new ScriptedCard();
+        EmvCardReader reader = new EmvCardReader(card, LABELS);
+        reader.connectIsoDep();
+        CardInfo info = reader.readPanOnly();
+        assertEquals(PAN, info.getPersonalAccounNumber());
+        assertTrue(info.isMaestroCard());
+        // SELECT PPSE, SELECT Maestro
+        assertEquals(2, card.commands);
+    }
+
+    @Test
+    public void readAllCardData_labelsFromProvider() throws Exception {
+        EmvCardReader reader = new EmvCardReader(new ScriptedCard(), LABELS);
+        reader.connectIsoDep();
+        CardInfo info = reader.readAllCardData(false);
+        assertEquals(PAN, info.getPersonalAccounNumber());
+        InfoKeyValuePair first = info.getInfoKeyValuePairs().get(0);
+        assertTrue(first.isSectionHeader());
+        assertEquals("label-" + R.string.section_nfc, first.getName());
+        boolean panShown = false;
+        for (InfoKeyValuePair pair : info.getInfoKeyValuePairs()) {
+            if (("label-" + R.string.lbl_primary_account_number).equals(
+                    pair.getName())) {
+                assertEquals("6799 9901 0000 0003", pair.getValue());
+                panShown = true;
+            }
+        }
+        assertTrue(panShown);
+    }
+
+    @Test
+    public void defaultLabelsAreResourceIds() throws Exception {
+        EmvCardReader reader = new EmvCardReader(new ScriptedCard());
+        reader.connectIsoDep();
+        CardInfo info = reader.readAllCardData(false);
+        assertEquals("@" + Integer.toHexString(R.string.section_nfc),
+                info.getInfoKeyValuePairs().get(0).getName());
+    }
+
+    @Test
+    public void pan_track2BeforePanTag() throws Exception {
+        // whichever comes first wins, like in readPanOnly()
+        EmvCardReader reader = new EmvCardReader(new ScriptedCard(
+                "570C4761739001010010D2712201" + "5A08" + PAN), LABELS);
+        reader.connectIsoDep();
+        CardInfo info = reader.readAllCardData(false);
+        assertEquals("4761739001010010", info.getPersonalAccounNumber());
+    }
+
+    @Test
+    public void pan_panTagBeforeTrack2() throws Exception {
+        EmvCardReader reader = new EmvCardReader(new ScriptedCard(
+                "5A08" + PAN + "570C4761739001010010D2712201"), LABELS);
+        reader.connectIsoDep();
+        CardInfo info = reader.readAllCardData(false);
+        assertEquals(PAN, info.getPersonalAccounNumber());
+    }
+
+    @Test
+    public void pan_invalidPanTagFallsBackToTrack2() throws Exception {
+        EmvCardReader reader = new EmvCardReader(new ScriptedCard(
+                "5A08" + "FFFFFFFFFFFFFFFF" + "570C4761739001010010D2712201"),
+                LABELS);
+        reader.connectIsoDep();
+        CardInfo info = reader.readAllCardData(false);
+        assertEquals("4761739001010010", info.getPersonalAccounNumber());
+    }
+
+    @Test
+    public void failedSelectKeepsCurrentApplication() throws Exception {
+        ScriptedCard card = new ScriptedCard();
+        // blocked Visa application: FCI with "selected file deactivated"
+        card.visaResponse = fromHexString("6F055F2D02656E6283");
+        final List<CardDataIndex.Entry> parsed = new ArrayList<CardDataIndex.Entry>();
+        EmvCardReader reader = new EmvCardReader(card, LABELS);
+        reader.setCardReadListener(new CardReadListener.Adapter() {
+            @Override
+            public void onTagsParsed(List<CardDataIndex.Entry> tags) {
+                parsed.addAll(tags);
+            }
+        });
+        reader.connectIsoDep();
+        CardInfo info = reader.readAllCardData(false);
+        assertFalse(info.isVisaCard());
+        assertFalse(parsed.isEmpty());
+        for (CardDataIndex.Entry entry : parsed) {
+            assertFalse(Arrays.equals(
+                    EmvUtils.APPLICATION_ID_EMV_VISA_CREDITCARD, entry.getAid()));
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package digital.sepa.nfc.iso7816emv;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link RecordPipeline}
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public class RecordPipelineTest {
+
+    private RecordPipeline pipeline;
+
+    /**
+     * Collects the record numbers (not synchronized, the pipeline has to make
+     * them visible) and the thread they were parsed on
+     */
+    private static class Collector implements RecordPipeline.Handler {
+        final List<Integer> records = new ArrayList<Integer>();
+        final List<Thread> threads = new ArrayList<Thread>();
+        long sleepMillis;
+
+        @Override
+        public void onRecord(ResponseApdu response, int sfi, int record,
+                             boolean isLogFile) {
+            if (sleepMillis > 0) {
+                try {
+                    Thread.sleep(sleepMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            records.add(record);
+            threads.add(Thread.currentThread());
+        }
+    }
+
+    private static ResponseApdu record(int i) {
+        return new ResponseApdu(new byte[]{(byte) i, (byte) 0x90, 0x00});
+    }
+
+    @Before
+    public void setUp() {
+        // small ring, so that the producer has to wait for the parser
+        pipeline = new RecordPipeline(4);
+    }
+
+    @After
+    public void tearDown() {
+        pipeline.close();
+    }
+
+    @Test
+    public void recordOrder() {
+        Collector collector = new Collector();
+        pipeline.start(collector);
+        for (int i = 0; i < 100; i++) {
+            pipeline.put(record(i), 1, i, false);
+        }
+        pipeline.drain();
+        assertEquals(100, collector.records.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, collector.records.get(i).intValue());
+        }
+        pipeline.finish();
+    }
+
+    @Test
+    public void drainMakesParsedDataVisible() {
+        Collector collector = new Collector();
+        collector.sleepMillis = 5;
+        pipeline.start(collector);
+        pipeline.put(record(1), 1, 1, false);
+        pipeline.put(record(2), 1, 2, false);
+        pipeline.drain();
+        assertEquals(2, collector.records.size());
+        assertNotSame(Thread.currentThread(), collector.threads.get(0));
+        pipeline.put(record(3), 1, 3, false);
+        pipeline.drain();
+        assertEquals(3, collector.records.size());
+        pipeline.finish();
+        assertTrue(pipeline.getParseNanos() > 0);
+    }
+
+    @Test
+    public void closeParsesRemainingRecords() {
+        Collector collector = new Collector();
+        collector.sleepMillis = 2;
+        pipeline.start(collector);
+        for (int i = 0; i < 4; i++) {
+            pipeline.put(record(i), 1, i, false);
+        }
+        pipeline.close();
+        assertTrue(pipeline.isClosed());
+        assertEquals(4, collector.records.size());
+        assertEquals(3, collector.records.get(3).intValue());
+    }
+
+    @Test
+    public void handlerExceptionIsRethrownFromDrain() {
+        final IllegalStateException exception = new IllegalStateException();
+        pipeline.start(new RecordPipeline.Handler() {
+            @Override
+            public void onRecord(ResponseApdu response, int sfi, int record,
+                                 boolean isLogFile) {
+                if (record == 2) {
+                    throw exception;
+                }
+            }
+        });
+        pipeline.put(record(1), 1, 1, false);
+        // the last record, as put() may already rethrow the exception
+        pipeline.put(record(2), 1, 2, false);
+        try {
+            pipeline.drain();
+            fail("exception of the handler not rethrown");
+        } catch (IllegalStateException e) {
+            assertSame(exception, e);
+        }
+        // finish() doesn't throw, and the next pass starts without failure
+        pipeline.finish();
+        Collector collector = new Collector();
+        pipeline.start(collector);
+        pipeline.put(record(4), 1, 4, false);
+        pipeline.drain();
+        assertEquals(1, collector.records.size());
+        pipeline.finish();
+    }
+
+    @Test
+    public void parserThreadIsReusedAcrossPasses() {
+        Collector first = new Collector();
+        pipeline.start(first);
+        pipeline.put(record(1), 1, 1, false);
+        pipeline.finish();
+        assertEquals(1, first.records.size());
+
+        Collector second = new Collector();
+        pipeline.start(second);
+        pipeline.put(record(2), 11, 1, true);
+        pipeline.finish();
+        assertEquals(1, second.records.size());
+        assertSame(first.threads.get(0), second.threads.get(0));
+        assertEquals("RecordParser", second.threads.get(0).getName());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void putWithoutPass() {
+        pipeline.put(record(1), 1, 1, false);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void startTwice() {
+        pipeline.start(new Collector());
+        pipeline.start(new Collector());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void startAfterClose() {
+        pipeline.close();
+        pipeline.start(new Collector());
+    }
+}
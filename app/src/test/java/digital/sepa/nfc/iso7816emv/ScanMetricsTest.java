@@ -0,0 +1,241 @@
+package digital.sepa.nfc.iso7816emv;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static digital.sepa.nfc.util.Utils.fromHexString;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link ScanMetrics} and its JSON and OpenMetrics export
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public class ScanMetricsTest {
+
+    private static final byte[] SELECT = fromHexString("00A4040005A000000004");
+    private static final byte[] READ_RECORD = fromHexString("00B2010C00");
+
+    private ScanMetrics metrics;
+
+    @Before
+    public void setUp() {
+        metrics = new ScanMetrics();
+        // SELECT: 3 µs (bucket "up to 4 µs")
+        metrics.recordCommand(SELECT, fromHexString("6F009000"), 3000);
+        // READ RECORD: 1 µs (first bucket), 5 ms (bucket "up to 8192 µs")
+        // and 2 s with lost card (overflow bucket)
+        metrics.recordCommand(READ_RECORD, fromHexString("9000"), 1000);
+        metrics.recordCommand(READ_RECORD, fromHexString("6A83"), 5000000);
+        metrics.recordCommand(READ_RECORD, null, 2000000000L);
+        metrics.addParseTime(1500000);
+    }
+
+    /**
+     * @return the histogram as JSON array values, with 1 in the given
+     * buckets
+     */
+    private static String histogram(int... buckets) {
+        long[] counts = new long[ScanMetrics.LATENCY_BUCKETS + 1];
+        for (int bucket : buckets) {
+            counts[bucket]++;
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < counts.length; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(counts[i]);
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void counters() {
+        assertEquals(4, metrics.getCommandCount());
+        assertEquals(1, metrics.getCommandCount(0xA4));
+        assertEquals(3, metrics.getCommandCount(0xB2));
+        assertEquals(0, metrics.getCommandCount(0xCA));
+        assertEquals(2, metrics.getStatusWordCount(0x9000));
+        assertEquals(1, metrics.getStatusWordCount(0x6A83));
+        assertEquals(0, metrics.getStatusWordCount(0x6A82));
+        assertEquals(10 + 3 * 5, metrics.getBytesSent());
+        assertEquals(4 + 2 + 2, metrics.getBytesReceived());
+        assertEquals(2005004000L, metrics.getIoNanos());
+        assertEquals(1500000, metrics.getParseNanos());
+    }
+
+    @Test
+    public void latencyBuckets() {
+        ScanMetrics m = new ScanMetrics();
+        // bucket i counts up to 2^i µs
+        long[] nanos = {0, 1000, 1999, 2000, 2001, 3000, 4000, 4999, 5000,
+                524288000L, 524289000L};
+        for (long n : nanos) {
+            m.recordCommand(READ_RECORD, fromHexString("9000"), n);
+        }
+        long[] expected = new long[ScanMetrics.LATENCY_BUCKETS + 1];
+        // 0, 1 µs and 1999 ns (1 µs)
+        expected[0] = 3;
+        // 2 µs
+        expected[1] = 2;
+        // 3 and 4 µs
+        expected[2] = 3;
+        // 5 µs
+        expected[3] = 1;
+        expected[19] = 1;
+        expected[ScanMetrics.LATENCY_BUCKETS] = 1;
+        assertArrayEquals(expected, m.getLatencyHistogram(0xB2));
+        // the copy is not the live histogram
+        m.getLatencyHistogram(0xB2)[0] = 42;
+        assertEquals(3, m.getLatencyHistogram(0xB2)[0]);
+    }
+
+    @Test
+    public void otherInstructions() {
+        ScanMetrics m = new ScanMetrics();
+        m.recordCommand(fromHexString("80CA9F1700"), fromHexString("9000"), 0);
+        m.recordCommand(fromHexString("0084000008"), fromHexString("9000"), 0);
+        m.recordCommand(fromHexString("00"), fromHexString("90"), 0);
+        assertEquals(1, m.getCommandCount(0xCA));
+        assertEquals(2, m.getCommandCount(0x84));
+        // responses without status word
+        assertEquals(2, m.getStatusWordCount(0x9000));
+        assertTrue(m.toJson().contains("\"OTHER\":{\"count\":2,"));
+    }
+
+    @Test
+    public void statusWordTableOverflow() {
+        ScanMetrics m = new ScanMetrics();
+        for (int i = 0; i < 65; i++) {
+            m.recordCommand(READ_RECORD, new byte[]{0x6A, (byte) i}, 0);
+        }
+        m.recordCommand(READ_RECORD, new byte[]{0x6A, 0}, 0);
+        assertEquals(2, m.getStatusWordCount(0x6A00));
+        assertEquals(1, m.getStatusWordCount(0x6A3F));
+        // the 65th status word doesn't fit into the table
+        assertEquals(0, m.getStatusWordCount(0x6A40));
+        assertTrue(m.toJson().contains(",\"other\":1}"));
+        assertTrue(m.toOpenMetrics().contains(
+                "emv_status_words_total{sw=\"other\"} 1\n"));
+    }
+
+    @Test
+    public void toJson() {
+        assertEquals("{\"commands\":{"
+                + "\"SELECT\":{\"count\":1,\"totalMicros\":3,\"histogram\":["
+                + histogram(2) + "]},"
+                + "\"READ_RECORD\":{\"count\":3,\"totalMicros\":2005001,"
+                + "\"histogram\":[" + histogram(0, 13, 20) + "]}},"
+                // in the order of the hash table
+                + "\"statusWords\":{\"6A83\":1,\"9000\":2},"
+                + "\"bytesSent\":25,\"bytesReceived\":8,"
+                + "\"ioMicros\":2005004,\"parseMicros\":1500,"
+                + "\"phases\":{\"discovery\":0,\"select\":0,\"get_data\":0,"
+                + "\"processing_options\":0,\"read_records\":0}}",
+                metrics.toJson());
+    }
+
+    @Test
+    public void toJson_empty() {
+        assertEquals("{\"commands\":{},\"statusWords\":{},\"bytesSent\":0,"
+                + "\"bytesReceived\":0,\"ioMicros\":0,\"parseMicros\":0,"
+                + "\"phases\":{\"discovery\":0,\"select\":0,\"get_data\":0,"
+                + "\"processing_options\":0,\"read_records\":0}}",
+                new ScanMetrics().toJson());
+    }
+
+    @Test
+    public void toOpenMetrics() {
+        StringBuilder expected = new StringBuilder();
+        expected.append("# TYPE emv_command_latency_seconds histogram\n");
+        expected.append("# UNIT emv_command_latency_seconds seconds\n");
+        // SELECT: cumulative count 1 from the "up to 4 µs" bucket on
+        String[] le = {"0.000001", "0.000002", "0.000004", "0.000008",
+                "0.000016", "0.000032", "0.000064", "0.000128", "0.000256",
+                "0.000512", "0.001024", "0.002048", "0.004096", "0.008192",
+                "0.016384", "0.032768", "0.065536", "0.131072", "0.262144",
+                "0.524288"};
+        assertEquals(ScanMetrics.LATENCY_BUCKETS, le.length);
+        for (int b = 0; b < le.length; b++) {
+            expected.append("emv_command_latency_seconds_bucket{ins=\"SELECT\",le=\"")
+                    .append(le[b]).append("\"} ").append(b < 2 ? 0 : 1)
+                    .append('\n');
+        }
+        expected.append("emv_command_latency_seconds_bucket{ins=\"SELECT\",le=\"+Inf\"} 1\n");
+        expected.append("emv_command_latency_seconds_sum{ins=\"SELECT\"} 0.000003\n");
+        expected.append("emv_command_latency_seconds_count{ins=\"SELECT\"} 1\n");
+        // READ RECORD: 1 from the first bucket, 2 from "up to 8192 µs", the
+        // overflow only in +Inf
+        for (int b = 0; b < le.length; b++) {
+            expected.append("emv_command_latency_seconds_bucket{ins=\"READ_RECORD\",le=\"")
+                    .append(le[b]).append("\"} ").append(b < 13 ? 1 : 2)
+                    .append('\n');
+        }
+        expected.append("emv_command_latency_seconds_bucket{ins=\"READ_RECORD\",le=\"+Inf\"} 3\n");
+        expected.append("emv_command_latency_seconds_sum{ins=\"READ_RECORD\"} 2.005001\n");
+        expected.append("emv_command_latency_seconds_count{ins=\"READ_RECORD\"} 3\n");
+        expected.append("# TYPE emv_status_words counter\n");
+        expected.append("emv_status_words_total{sw=\"6A83\"} 1\n");
+        expected.append("emv_status_words_total{sw=\"9000\"} 2\n");
+        expected.append("# TYPE emv_bytes_sent counter\n");
+        expected.append("emv_bytes_sent_total 25\n");
+        expected.append("# TYPE emv_bytes_received counter\n");
+        expected.append("emv_bytes_received_total 8\n");
+        expected.append("# TYPE emv_io_seconds gauge\n");
+        expected.append("emv_io_seconds 2.005004\n");
+        expected.append("# TYPE emv_parse_seconds gauge\n");
+        expected.append("emv_parse_seconds 0.001500\n");
+        expected.append("# TYPE emv_phase_seconds gauge\n");
+        for (String phase : new String[]{"discovery", "select", "get_data",
+                "processing_options", "read_records"}) {
+            expected.append("emv_phase_seconds{phase=\"").append(phase)
+                    .append("\"} 0.000000\n");
+        }
+        expected.append("# EOF\n");
+        assertEquals(expected.toString(), metrics.toOpenMetrics());
+    }
+
+    @Test
+    public void phases() throws Exception {
+        ScanMetrics m = new ScanMetrics();
+        m.startPhase(ScanMetrics.Phase.SELECT);
+        Thread.sleep(5);
+        // ends SELECT
+        m.startPhase(ScanMetrics.Phase.READ_RECORDS);
+        Thread.sleep(2);
+        m.endPhase();
+        long select = m.getPhaseNanos(ScanMetrics.Phase.SELECT);
+        long readRecords = m.getPhaseNanos(ScanMetrics.Phase.READ_RECORDS);
+        assertTrue(select >= 5000000);
+        assertTrue(readRecords >= 2000000);
+        assertEquals(0, m.getPhaseNanos(ScanMetrics.Phase.GET_DATA));
+        // ending again doesn't add anything
+        Thread.sleep(1);
+        m.endPhase();
+        assertEquals(readRecords, m.getPhaseNanos(ScanMetrics.Phase.READ_RECORDS));
+        // phases add up
+        m.startPhase(ScanMetrics.Phase.SELECT);
+        Thread.sleep(1);
+        m.endPhase();
+        assertTrue(m.getPhaseNanos(ScanMetrics.Phase.SELECT) >= select + 1000000);
+    }
+
+    @Test
+    public void snapshotIsIsolated() {
+        ScanMetrics snapshot = metrics.snapshot();
+        String json = snapshot.toJson();
+        assertEquals(metrics.toJson(), json);
+        metrics.recordCommand(READ_RECORD, fromHexString("9000"), 1000);
+        metrics.recordCommand(READ_RECORD, fromHexString("6A82"), 1000);
+        metrics.addParseTime(1000);
+        assertEquals(json, snapshot.toJson());
+        assertEquals(4, snapshot.getCommandCount());
+        assertEquals(2, snapshot.getStatusWordCount(0x9000));
+        assertEquals(0, snapshot.getStatusWordCount(0x6A82));
+        // and the other way round
+        snapshot.recordCommand(SELECT, fromHexString("9000"), 1000);
+        assertEquals(1, metrics.getCommandCount(0xA4));
+        assertEquals(6, metrics.getCommandCount());
+    }
+}
@@ -0,0 +1,98 @@
+package digital.sepa.nfc.iso7816emv;
+
+import digital.sepa.nfc.exceptions.ScanDeadlineException;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link ScanScheduler}
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public class ScanSchedulerTest {
+
+    /**
+     * Adds its name to the list when run
+     */
+    private static ScanScheduler.Probe probe(final List<String> ran,
+                                             final String name) {
+        return new ScanScheduler.Probe() {
+            @Override
+            public void run() {
+                ran.add(name);
+            }
+        };
+    }
+
+    @Test
+    public void probesRunByPriority() throws Exception {
+        List<String> ran = new ArrayList<String>();
+        ScanScheduler schedule = new ScanScheduler(0);
+        schedule.add(ScanScheduler.PRIORITY_COMMON_TLV, "tlv", probe(ran, "tlv"));
+        schedule.add(ScanScheduler.PRIORITY_COUNTERS, "atc", probe(ran, "atc"));
+        schedule.add(ScanScheduler.PRIORITY_RECORDS, "records",
+                probe(ran, "records"));
+        schedule.add(ScanScheduler.PRIORITY_RISK_LIMITS, "limits",
+                probe(ran, "limits"));
+        schedule.add(ScanScheduler.PRIORITY_PIN_RETRY_COUNTER, "pin",
+                probe(ran, "pin"));
+        schedule.add(ScanScheduler.PRIORITY_LOG_FORMAT, "log format",
+                probe(ran, "log format"));
+        schedule.add(ScanScheduler.PRIORITY_PAN, "pan", probe(ran, "pan"));
+        schedule.runAll();
+        assertEquals("[pan, log format, records, pin, atc, limits, tlv]",
+                ran.toString());
+    }
+
+    @Test
+    public void samePriorityInOrderAdded() throws Exception {
+        List<String> ran = new ArrayList<String>();
+        ScanScheduler schedule = new ScanScheduler(0);
+        schedule.add(ScanScheduler.PRIORITY_COUNTERS, "b", probe(ran, "b"));
+        schedule.add(ScanScheduler.PRIORITY_COUNTERS, "a", probe(ran, "a"));
+        schedule.add(ScanScheduler.PRIORITY_RECORDS, "c", probe(ran, "c"));
+        schedule.runAll();
+        assertEquals("[c, b, a]", ran.toString());
+        // the probes are removed after running
+        schedule.runAll();
+        assertEquals(3, ran.size());
+    }
+
+    @Test
+    public void remainingProbesSkippedAfterDeadline() throws Exception {
+        final List<String> ran = new ArrayList<String>();
+        ScanScheduler schedule = new ScanScheduler(5);
+        schedule.add(ScanScheduler.PRIORITY_RECORDS, "slow",
+                new ScanScheduler.Probe() {
+                    @Override
+                    public void run() {
+                        ran.add("slow");
+                        try {
+                            Thread.sleep(20);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                });
+        schedule.add(ScanScheduler.PRIORITY_COUNTERS, "atc", probe(ran, "atc"));
+        try {
+            schedule.runAll();
+            fail("deadline not reported");
+        } catch (ScanDeadlineException e) {
+            assertTrue(schedule.isExpired());
+        }
+        assertEquals("[slow]", ran.toString());
+    }
+
+    @Test
+    public void noBudgetNeverExpires() throws Exception {
+        ScanScheduler schedule = new ScanScheduler(0);
+        Thread.sleep(2);
+        assertFalse(schedule.isExpired());
+        schedule.checkDeadline();
+    }
+}
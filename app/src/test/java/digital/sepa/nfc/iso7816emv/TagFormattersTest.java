@@ -0,0 +1,116 @@
+package digital.sepa.nfc.iso7816emv;
+
+import digital.sepa.nfc.R;
+import digital.sepa.nfc.model.InfoKeyValuePair;
+import org.junit.Test;
+
+import java.util.List;
+
+import static digital.sepa.nfc.util.Utils.fromHexString;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link TagFormatters}
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public class TagFormattersTest {
+
+    private static final LabelProvider LABELS = new LabelProvider() {
+        @Override
+        public String getLabel(int resId) {
+            return "label-" + resId;
+        }
+    };
+
+    @Test
+    public void formatPan() {
+        TagFormatters formatters = TagFormatters.getInstance(LABELS);
+        InfoKeyValuePair pair = formatters.format(0x5A,
+                fromHexString("6799990100000003"), false);
+        assertEquals("label-" + R.string.lbl_primary_account_number,
+                pair.getName());
+        assertEquals("6799 9901 0000 0003", pair.getValue());
+        pair = formatters.format(0x5A, fromHexString("679999010000003F"),
+                true);
+        assertEquals("6799 9901 0000 003", pair.getValue());
+    }
+
+    @Test
+    public void formatCounter() {
+        InfoKeyValuePair pair = TagFormatters.getInstance(LABELS).format(
+                0x9F36, fromHexString("0042"), false);
+        assertEquals("66", pair.getValue());
+    }
+
+    @Test
+    public void unregisteredTag() {
+        TagFormatters formatters = TagFormatters.getInstance(LABELS);
+        assertNull(formatters.format(0x9F4F, fromHexString("9A03"), false));
+        // in between registered tags
+        assertNull(formatters.format(0x5F2A, fromHexString("0978"), false));
+        assertNull(formatters.format(0xDF01, new byte[1], false));
+    }
+
+    @Test
+    public void invalidValue() {
+        assertNull(TagFormatters.getInstance(LABELS).format(0x5F24,
+                fromHexString("2713"), false));
+    }
+
+    @Test
+    public void sharedInstance() {
+        assertSame(TagFormatters.getInstance(LABELS),
+                TagFormatters.getInstance(LABELS));
+    }
+
+    @Test
+    public void debugDumpDoesNotDecodePan() throws Exception {
+        String dump = EmvUtils.prettyPrintBerTlvAPDUResponse(
+                fromHexString("700A5A086799990100000003"), 0);
+        assertFalse(dump.contains("6799 9901 0000 0003"));
+        assertTrue(dump.contains("(NUMERIC)"));
+    }
+
+    @Test
+    public void riskManagementAmountInCurrency() {
+        TagFormatters formatters = TagFormatters.getInstance(LABELS);
+        byte[] amount = fromHexString("000000012345");
+        // EUR and JPY (no decimal places)
+        assertEquals("123,45", formatters.format(0xCA, amount, false, 978)
+                .getValue());
+        assertEquals("12.345", formatters.format(0xCB, amount, false, 392)
+                .getValue());
+        // without currency 2 decimal places
+        assertEquals("123,45", formatters.format(0xCA, amount, false)
+                .getValue());
+        assertNull(formatters.format(0xCA, fromHexString("0123"), false));
+    }
+
+    @Test
+    public void riskManagementAmountsOfTheCard() throws Exception {
+        CardDataIndex cardData = new CardDataIndex();
+        cardData.setApplication(EmvUtils.APPLICATION_ID_EMV_MASTERCARD);
+        cardData.addAll(fromHexString("C9020392CA06000000012345"), 0,
+                12);
+        cardData.add(0xCB, fromHexString("000000050000"));
+        List<InfoKeyValuePair> pairs = EmvUtils.filterTagsForResult(LABELS,
+                cardData, false);
+        assertEquals(3, pairs.size());
+        assertEquals("JPY", pairs.get(0).getValue());
+        assertEquals("12.345", pairs.get(1).getValue());
+        assertEquals("50.000", pairs.get(2).getValue());
+    }
+
+    @Test
+    public void countryNames() {
+        TagFormatters formatters = TagFormatters.getInstance(LABELS);
+        assertEquals("Austria", formatters.format(0xC8, fromHexString("0040"),
+                false).getValue());
+        // names as shown before the generated country table
+        assertEquals("USA", formatters.format(0xC8, fromHexString("0840"),
+                false).getValue());
+        assertEquals("Czech Republic", formatters.format(0xC8,
+                fromHexString("0203"), false).getValue());
+    }
+}
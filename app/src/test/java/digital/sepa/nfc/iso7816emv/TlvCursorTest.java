@@ -0,0 +1,252 @@
+package digital.sepa.nfc.iso7816emv;
+
+import digital.sepa.nfc.exceptions.TlvParsingException;
+import org.junit.Test;
+
+import static digital.sepa.nfc.util.Utils.fromHexString;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link TlvCursor}
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public class TlvCursorTest {
+
+    private static TlvCursor cursor(String hex) {
+        return new TlvCursor(fromHexString(hex));
+    }
+
+    @Test
+    public void primitiveObjects() throws Exception {
+        TlvCursor cursor = cursor("5A0867999901000000035F24032712319F36020042");
+        assertTrue(cursor.next());
+        assertEquals(0x5A, cursor.getTagId());
+        assertEquals(1, cursor.getTagLength());
+        assertFalse(cursor.isConstructed());
+        assertEquals(2, cursor.getValueOffset());
+        assertEquals(8, cursor.getValueLength());
+        assertArrayEquals(fromHexString("6799990100000003"), cursor.copyValue());
+        assertEquals(0x67, cursor.getValueByte(0));
+        assertTrue(cursor.isTag(EMVTags.PAN));
+
+        assertTrue(cursor.next());
+        assertEquals(0x5F24, cursor.getTagId());
+        assertEquals(2, cursor.getTagLength());
+        assertArrayEquals(fromHexString("5F24"), cursor.copyTagBytes());
+        assertArrayEquals(fromHexString("271231"), cursor.copyValue());
+
+        assertTrue(cursor.next());
+        assertEquals(0x9F36, cursor.getTagId());
+        assertArrayEquals(fromHexString("0042"), cursor.copyValue());
+        assertFalse(cursor.next());
+        assertFalse(cursor.next());
+    }
+
+    @Test
+    public void multiByteTags() throws Exception {
+        // 3 and 4 byte tags
+        TlvCursor cursor = cursor("DF810101AA" + "DF81820301BB");
+        assertTrue(cursor.next());
+        assertEquals(0xDF8101, cursor.getTagId());
+        assertEquals(3, cursor.getTagLength());
+        assertArrayEquals(fromHexString("AA"), cursor.copyValue());
+        assertTrue(cursor.next());
+        assertEquals(0xDF818203, cursor.getTagId());
+        assertEquals(4, cursor.getTagLength());
+        assertArrayEquals(fromHexString("BB"), cursor.copyValue());
+        assertFalse(cursor.next());
+    }
+
+    @Test
+    public void tagLongerThan4Bytes() throws Exception {
+        TlvCursor cursor = cursor("DF8182830401CC");
+        assertTrue(cursor.next());
+        assertEquals(5, cursor.getTagLength());
+        assertEquals(-1, cursor.getTagId());
+        assertArrayEquals(fromHexString("CC"), cursor.copyValue());
+    }
+
+    @Test
+    public void lengthForms() throws Exception {
+        byte[] value = new byte[0x10203];
+        // 0x81: 1 length octet, 0x82: 2, 0x83: 3
+        byte[] data = new byte[4 + 0x80 + 5 + 0x100 + 6 + value.length];
+        int pos = 0;
+        data[pos++] = (byte) 0xC1;
+        data[pos++] = (byte) 0x81;
+        data[pos++] = (byte) 0x80;
+        pos += 0x80;
+        data[pos++] = (byte) 0xC2;
+        data[pos++] = (byte) 0x82;
+        data[pos++] = 0x01;
+        data[pos++] = 0x00;
+        pos += 0x100;
+        data[pos++] = (byte) 0xC3;
+        data[pos++] = (byte) 0x83;
+        data[pos++] = 0x01;
+        data[pos++] = 0x02;
+        data[pos++] = 0x03;
+        TlvCursor cursor = new TlvCursor(data, 0, pos + value.length);
+
+        assertTrue(cursor.next());
+        assertEquals(0xC1, cursor.getTagId());
+        assertEquals(2, cursor.getLengthLength());
+        assertArrayEquals(fromHexString("8180"), cursor.copyLengthBytes());
+        assertEquals(0x80, cursor.getValueLength());
+        assertEquals(3, cursor.getValueOffset());
+
+        assertTrue(cursor.next());
+        assertEquals(0xC2, cursor.getTagId());
+        assertEquals(3, cursor.getLengthLength());
+        assertEquals(0x100, cursor.getValueLength());
+
+        assertTrue(cursor.next());
+        assertEquals(0xC3, cursor.getTagId());
+        assertEquals(4, cursor.getLengthLength());
+        assertEquals(0x10203, cursor.getValueLength());
+        assertFalse(cursor.next());
+    }
+
+    @Test
+    public void zeroLengthValue() throws Exception {
+        TlvCursor cursor = cursor("9F3600" + "5A0112");
+        assertTrue(cursor.next());
+        assertEquals(0x9F36, cursor.getTagId());
+        assertEquals(0, cursor.getValueLength());
+        assertEquals(0, cursor.copyValue().length);
+        assertTrue(cursor.next());
+        assertEquals(0x5A, cursor.getTagId());
+        assertEquals(0x12, cursor.getValueByte(0));
+    }
+
+    @Test
+    public void paddingBetweenObjects() throws Exception {
+        TlvCursor cursor = cursor("0000" + "5A0112" + "FFFF00" + "9F36020001"
+                + "00FF");
+        assertTrue(cursor.next());
+        assertEquals(0x5A, cursor.getTagId());
+        assertEquals(2, cursor.getTagOffset());
+        assertTrue(cursor.next());
+        assertEquals(0x9F36, cursor.getTagId());
+        assertFalse(cursor.next());
+        // only padding
+        assertFalse(cursor("00FF00").next());
+        assertFalse(cursor("").next());
+    }
+
+    @Test
+    public void constructedObjects() throws Exception {
+        TlvCursor cursor = cursor("7009" + "5A0112" + "A5049F360101" + "9000");
+        assertTrue(cursor.next());
+        assertEquals(0x70, cursor.getTagId());
+        assertTrue(cursor.isConstructed());
+        TlvCursor children = cursor.enter();
+        assertTrue(children.next());
+        assertEquals(0x5A, children.getTagId());
+        assertTrue(children.next());
+        assertEquals(0xA5, children.getTagId());
+        assertTrue(children.isConstructed());
+        TlvCursor grandChildren = children.enter();
+        assertTrue(grandChildren.next());
+        assertEquals(0x9F36, grandChildren.getTagId());
+        assertFalse(grandChildren.next());
+        assertFalse(children.next());
+        // the status word after the template
+        assertTrue(cursor.next());
+        assertEquals(0x90, cursor.getTagId());
+        assertEquals(0, cursor.getValueLength());
+        assertFalse(cursor.next());
+    }
+
+    @Test
+    public void indefiniteLength() throws Exception {
+        TlvCursor cursor = cursor("6F80" + "5A0112" + "0000" + "9F360101");
+        assertTrue(cursor.next());
+        assertEquals(0x6F, cursor.getTagId());
+        assertEquals(3, cursor.getValueLength());
+        assertTrue(cursor.next());
+        assertEquals(0x9F36, cursor.getTagId());
+        assertFalse(cursor.next());
+    }
+
+    @Test
+    public void rangeWithinBuffer() throws Exception {
+        byte[] buf = fromHexString("FF5A021234FF");
+        TlvCursor cursor = new TlvCursor(buf, 1, 4);
+        assertTrue(cursor.next());
+        assertEquals(3, cursor.getValueOffset());
+        assertArrayEquals(fromHexString("1234"), cursor.copyValue());
+        assertSame(buf, cursor.getBuffer());
+        assertFalse(cursor.next());
+    }
+
+    @Test(expected = TlvParsingException.class)
+    public void valueRunsPastTheBuffer() throws Exception {
+        TlvCursor cursor = cursor("5A0867999901");
+        cursor.next();
+    }
+
+    @Test(expected = TlvParsingException.class)
+    public void valueRunsPastTheRange() throws Exception {
+        // the buffer would be long enough, but not the given range
+        TlvCursor cursor = new TlvCursor(fromHexString("5A0412345678"), 0, 5);
+        cursor.next();
+    }
+
+    @Test(expected = TlvParsingException.class)
+    public void longFormLengthRunsPastTheBuffer() throws Exception {
+        TlvCursor cursor = cursor("5A8201");
+        cursor.next();
+    }
+
+    @Test(expected = TlvParsingException.class)
+    public void longLengthRunsPastTheBuffer() throws Exception {
+        TlvCursor cursor = cursor("5A83FFFFFF00");
+        cursor.next();
+    }
+
+    @Test(expected = TlvParsingException.class)
+    public void tooManyLengthOctets() throws Exception {
+        TlvCursor cursor = cursor("5A840000000100");
+        cursor.next();
+    }
+
+    @Test(expected = TlvParsingException.class)
+    public void truncatedTag() throws Exception {
+        TlvCursor cursor = cursor("5A01129F81");
+        cursor.next();
+        cursor.next();
+    }
+
+    @Test(expected = TlvParsingException.class)
+    public void missingLength() throws Exception {
+        TlvCursor cursor = cursor("5A01129F36");
+        cursor.next();
+        cursor.next();
+    }
+
+    @Test(expected = TlvParsingException.class)
+    public void indefiniteLengthWithoutEnd() throws Exception {
+        TlvCursor cursor = cursor("6F805A0112");
+        cursor.next();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void noCurrentObject() throws Exception {
+        TlvCursor cursor = cursor("5A0112");
+        cursor.getTagId();
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void valueByteOutOfRange() throws Exception {
+        TlvCursor cursor = cursor("5A0112");
+        cursor.next();
+        cursor.getValueByte(1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidRange() {
+        new TlvCursor(new byte[4], 2, 3);
+    }
+}
@@ -0,0 +1,122 @@
+package digital.sepa.nfc.iso7816emv;
+
+import digital.sepa.nfc.exceptions.TlvParsingException;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static digital.sepa.nfc.util.Utils.bytesToHex;
+import static digital.sepa.nfc.util.Utils.fromHexString;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for walking BER-TLV data with a {@link TlvVisitor} (see
+ * {@link EmvUtils#walkBerTlv(byte[], int, int, TlvVisitor)})
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public class TlvVisitorTest {
+
+    // FCI template with nested proprietary template and issuer
+    // discretionary data, followed by a status word
+    private static final String FCI = "6F19" + "8407A0000000043060"
+            + "A50E" + "50094D41455354524F2020" + "BF0C00" + "9000";
+
+    /**
+     * Records all callbacks, stops at the given event
+     */
+    private static class RecordingVisitor implements TlvVisitor {
+        final List<String> events = new ArrayList<String>();
+        final String stopAt;
+
+        RecordingVisitor(String stopAt) {
+            this.stopAt = stopAt;
+        }
+
+        private boolean add(String event) {
+            events.add(event);
+            return !event.equals(stopAt);
+        }
+
+        @Override
+        public boolean onPrimitive(int tag, byte[] buf, int offset, int length) {
+            byte[] value = new byte[length];
+            System.arraycopy(buf, offset, value, 0, length);
+            return add(Integer.toHexString(tag).toUpperCase() + "="
+                    + bytesToHex(value));
+        }
+
+        @Override
+        public boolean onConstructedStart(int tag, byte[] buf, int offset,
+                                          int length) {
+            return add("<" + Integer.toHexString(tag).toUpperCase() + " "
+                    + length);
+        }
+
+        @Override
+        public boolean onConstructedEnd(int tag) {
+            return add(Integer.toHexString(tag).toUpperCase() + ">");
+        }
+    }
+
+    private static RecordingVisitor walk(String hex, String stopAt,
+                                         boolean expectedResult)
+            throws TlvParsingException {
+        RecordingVisitor visitor = new RecordingVisitor(stopAt);
+        byte[] data = fromHexString(hex);
+        assertEquals(expectedResult, EmvUtils.walkBerTlv(data, 0, data.length,
+                visitor));
+        return visitor;
+    }
+
+    @Test
+    public void callbackOrder() throws Exception {
+        RecordingVisitor visitor = walk(FCI, null, true);
+        assertEquals("[<6F 25, 84=A0000000043060, <A5 14, "
+                + "50=4D41455354524F2020, <BF0C 0, BF0C>, A5>, 6F>, 90=]",
+                visitor.events.toString());
+    }
+
+    @Test
+    public void stopOnPrimitive() throws Exception {
+        RecordingVisitor visitor = walk(FCI, "84=A0000000043060", false);
+        assertEquals("[<6F 25, 84=A0000000043060]", visitor.events.toString());
+    }
+
+    @Test
+    public void stopOnConstructedStart() throws Exception {
+        // the children are not visited and the template is not ended
+        RecordingVisitor visitor = walk(FCI, "<A5 14", false);
+        assertEquals("[<6F 25, 84=A0000000043060, <A5 14]",
+                visitor.events.toString());
+    }
+
+    @Test
+    public void stopOnConstructedEnd() throws Exception {
+        RecordingVisitor visitor = walk(FCI, "A5>", false);
+        assertEquals("[<6F 25, 84=A0000000043060, <A5 14, "
+                + "50=4D41455354524F2020, <BF0C 0, BF0C>, A5>]",
+                visitor.events.toString());
+    }
+
+    @Test
+    public void withinBuffer() throws Exception {
+        RecordingVisitor visitor = new RecordingVisitor(null);
+        byte[] data = fromHexString("FFFF" + "5A0112" + "9F360101");
+        // only the PAN
+        assertTrue(EmvUtils.walkBerTlv(data, 2, 3, visitor));
+        assertEquals("[5A=12]", visitor.events.toString());
+    }
+
+    @Test(expected = TlvParsingException.class)
+    public void invalidChild() throws Exception {
+        // the child's value runs past the end of its template
+        walk("7004" + "5A031234" + "9000", null, true);
+    }
+
+    @Test(expected = TlvParsingException.class)
+    public void tagLongerThan4Bytes() throws Exception {
+        walk("DF8182830401CC", null, true);
+    }
+}
@@ -0,0 +1,139 @@
+package digital.sepa.nfc.iso7816emv;
+
+import digital.sepa.nfc.model.TransactionLogTable;
+import digital.sepa.nfc.util.BcdDateCodec;
+import org.junit.Test;
+
+import static digital.sepa.nfc.util.Utils.fromHexString;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for decoding transaction log records with a {@link TransactionLogFormat}
+ * compiled from tag 9F4F
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public class TransactionLogFormatTest {
+
+    private static TransactionLogFormat compile(String logFormat)
+            throws Exception {
+        return TransactionLogFormat.compile(DataObjectList.parse(
+                fromHexString(logFormat)));
+    }
+
+    private static TransactionLogTable.Cursor decode(TransactionLogFormat format,
+                                                     String record) {
+        TransactionLogTable table = new TransactionLogTable();
+        assertTrue(format.decodeInto(fromHexString(record + "9000"), table));
+        assertEquals(1, table.size());
+        TransactionLogTable.Cursor cursor = table.cursor();
+        assertTrue(cursor.moveToNext());
+        return cursor;
+    }
+
+    @Test
+    public void bankomatFormat() throws Exception {
+        // 9F27 01, 9F02 06, 5F2A 02, 9A 03, 9F36 02, 9F21 03
+        TransactionLogFormat format = compile("9F27019F02065F2A029A039F36029F2103");
+        assertEquals(17, format.getRecordLength());
+        TransactionLogTable.Cursor cursor = decode(format,
+                "40" + "000000001250" + "0978" + "271231" + "0042" + "123456");
+        assertTrue(cursor.hasCryptogramInformationData());
+        assertEquals(0x40, cursor.getCryptogramInformationData());
+        assertEquals(1250, cursor.getAmount());
+        assertEquals(0x978, cursor.getCurrencyCode());
+        assertEquals(0x42, cursor.getAtc());
+        assertTrue(cursor.hasDate());
+        assertEquals(20271231, BcdDateCodec.toYearMonthDay(
+                cursor.getEpochDay()));
+        assertTrue(cursor.hasTime());
+        assertEquals(12 * 3600 + 34 * 60 + 56, cursor.getSecondOfDay());
+        // the raw entry includes the status word
+        assertEquals(19, cursor.getRawEntryLength());
+    }
+
+    @Test
+    public void unknownEntriesAreSkipped() throws Exception {
+        // 9F6E 04 and DF01 02 are unknown, the fields after them are decoded
+        // at the right offsets
+        TransactionLogFormat format = compile("9F6E04" + "9F0206" + "DF0102"
+                + "9F3602");
+        assertEquals(14, format.getRecordLength());
+        TransactionLogTable.Cursor cursor = decode(format,
+                "FFFFFFFF" + "000000004990" + "FFFF" + "0007");
+        assertEquals(4990, cursor.getAmount());
+        assertEquals(7, cursor.getAtc());
+        assertFalse(cursor.hasDate());
+        assertEquals(16, cursor.getRawEntryLength());
+    }
+
+    @Test
+    public void oddLengthEntries() throws Exception {
+        // amount with 5 bytes (n10), ATC with 3 bytes
+        TransactionLogFormat format = compile("9F0205" + "9F3603");
+        TransactionLogTable.Cursor cursor = decode(format,
+                "0000010000" + "010203");
+        assertEquals(10000, cursor.getAmount());
+        assertEquals(0x010203, cursor.getAtc());
+    }
+
+    @Test
+    public void entriesWithUndecodableLengthAreSkipped() throws Exception {
+        // CID with 2 bytes, date with 2 bytes, amount with 8 bytes, ATC with
+        // 5 bytes and an empty currency field: all skipped, but the record
+        // is still added
+        TransactionLogFormat format = compile("9F2702" + "9A02" + "9F0208"
+                + "9F3605" + "5F2A00");
+        assertEquals(17, format.getRecordLength());
+        TransactionLogTable.Cursor cursor = decode(format,
+                "4000" + "2712" + "9999999999999999" + "0102030405");
+        assertFalse(cursor.hasCryptogramInformationData());
+        assertFalse(cursor.hasDate());
+        assertEquals(19, cursor.getRawEntryLength());
+    }
+
+    @Test
+    public void invalidRecordIsNotAdded() throws Exception {
+        TransactionLogFormat format = compile("9F02069A03");
+        TransactionLogTable table = new TransactionLogTable();
+        // invalid BCD amount
+        assertFalse(format.decodeInto(fromHexString("0000000012AB2712319000"),
+                table));
+        // invalid date
+        assertFalse(format.decodeInto(fromHexString("0000000012502713319000"),
+                table));
+        // too short
+        assertFalse(format.decodeInto(fromHexString("00000000"), table));
+        assertEquals(0, table.size());
+        assertTrue(format.decodeInto(fromHexString("0000000012502712319000"),
+                table));
+        assertEquals(1, table.size());
+    }
+
+    @Test
+    public void fromGetDataResponse() {
+        TransactionLogFormat format = TransactionLogFormat.fromGetDataResponse(
+                fromHexString("9F4F059F02069A039000"));
+        assertNotNull(format);
+        assertEquals(9, format.getRecordLength());
+        assertTrue(format.matches(new byte[11]));
+        assertFalse(format.matches(new byte[10]));
+    }
+
+    @Test
+    public void fromGetDataResponse_invalid() {
+        // error status
+        assertNull(TransactionLogFormat.fromGetDataResponse(
+                fromHexString("6A88")));
+        // other tag
+        assertNull(TransactionLogFormat.fromGetDataResponse(
+                fromHexString("9F1701039000")));
+        // value longer than the response
+        assertNull(TransactionLogFormat.fromGetDataResponse(
+                fromHexString("9F4F089F02069A039000")));
+        // truncated DOL
+        assertNull(TransactionLogFormat.fromGetDataResponse(
+                fromHexString("9F4F049F02069F9000")));
+        assertNull(TransactionLogFormat.fromGetDataResponse(null));
+    }
+}
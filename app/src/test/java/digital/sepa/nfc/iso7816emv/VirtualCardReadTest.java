@@ -0,0 +1,167 @@
+package digital.sepa.nfc.iso7816emv;
+
+import digital.sepa.nfc.model.CardInfo;
+import digital.sepa.nfc.transport.CardImage;
+import digital.sepa.nfc.transport.LatencyModel;
+import digital.sepa.nfc.transport.VirtualEmvCard;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Reads the Maestro demo card of {@link CardImage} end to end, through the
+ * {@link VirtualEmvCard} simulator (without latency, so the tests run fast).
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public class VirtualCardReadTest {
+
+    private static final String DEMO_PAN = "6799990100000003";
+
+    private VirtualEmvCard card;
+
+    @Before
+    public void setUp() {
+        card = new VirtualEmvCard(CardImage.createMaestroDemoCard());
+        card.setRealTime(false);
+    }
+
+    private CardInfo read(boolean performFullFileScan) throws Exception {
+        EmvCardReader reader = new EmvCardReader(card);
+        reader.connectIsoDep();
+        try {
+            return reader.readAllCardData(performFullFileScan);
+        } finally {
+            reader.disconnectIsoDep();
+        }
+    }
+
+    @Test
+    public void readPanOnly() throws Exception {
+        EmvCardReader reader = new EmvCardReader(card);
+        reader.connectIsoDep();
+        CardInfo cardInfo = reader.readPanOnly();
+        assertEquals(DEMO_PAN, cardInfo.getPersonalAccounNumber());
+        assertTrue(cardInfo.isMaestroCard());
+        // PPSE, SELECT, GET PROCESSING OPTIONS, READ RECORD
+        assertEquals(4, card.getCommandCount());
+    }
+
+    @Test
+    public void readAllCardData_followingTheAfl() throws Exception {
+        CardInfo cardInfo = read(false);
+        assertEquals(DEMO_PAN, cardInfo.getPersonalAccounNumber());
+        assertTrue(cardInfo.isMaestroCard());
+        assertFalse(cardInfo.isPartialScan());
+        assertEquals(3, cardInfo.getTransactionLogTable().size());
+        assertEquals(3, cardInfo.getPinRetryCounter());
+        assertEquals(22, card.getCommandCount());
+    }
+
+    @Test
+    public void readAllCardData_fullFileScan() throws Exception {
+        CardInfo cardInfo = read(true);
+        assertEquals(DEMO_PAN, cardInfo.getPersonalAccounNumber());
+        assertFalse(cardInfo.isPartialScan());
+        assertEquals(3, cardInfo.getTransactionLogTable().size());
+        assertEquals(3, cardInfo.getPinRetryCounter());
+        // the full scan also reads all records outside of the AFL
+        assertTrue(card.getCommandCount() > 22);
+    }
+
+    @Test
+    public void readAllCardData_withGetResponse() throws Exception {
+        card.setUseGetResponse(true);
+        card.setRequireExactLe(true);
+        CardInfo cardInfo = read(false);
+        assertEquals(DEMO_PAN, cardInfo.getPersonalAccounNumber());
+        assertEquals(3, cardInfo.getTransactionLogTable().size());
+        assertEquals(3, cardInfo.getPinRetryCounter());
+    }
+
+    @Test
+    public void tagLostBeforePan() throws Exception {
+        card.setTagLostAfter(3);
+        CardInfo cardInfo = read(false);
+        assertTrue(cardInfo.isPartialScan());
+        assertNull(cardInfo.getPersonalAccounNumber());
+    }
+
+    @Test
+    public void tagLostAfterPan() throws Exception {
+        card.setTagLostAfter(8);
+        CardInfo cardInfo = read(false);
+        assertTrue(cardInfo.isPartialScan());
+        assertEquals(DEMO_PAN, cardInfo.getPersonalAccounNumber());
+        assertTrue(cardInfo.getTransactionLogTable().size() < 3);
+    }
+
+    @Test
+    public void budgetUsedUpAfterPan() throws Exception {
+        // 20 ms per command: the PAN is read after 8 commands, the whole
+        // scan needs 22
+        card.setRealTime(true);
+        card.setLatencyModel(new LatencyModel(20000, 0, 0, 1));
+        EmvCardReader reader = new EmvCardReader(card);
+        reader.connectIsoDep();
+        CardInfo cardInfo = reader.readAllCardData(false, 250);
+        assertTrue(cardInfo.isPartialScan());
+        assertEquals(DEMO_PAN, cardInfo.getPersonalAccounNumber());
+        assertTrue(card.getCommandCount() < 22);
+    }
+
+    @Test
+    public void readPanOnly_withinBudget() throws Exception {
+        EmvCardReader reader = new EmvCardReader(card);
+        reader.connectIsoDep();
+        CardInfo cardInfo = reader.readPanOnly(300);
+        assertEquals(DEMO_PAN, cardInfo.getPersonalAccounNumber());
+        assertFalse(cardInfo.isPartialScan());
+        assertEquals(4, card.getCommandCount());
+    }
+
+    @Test
+    public void readPanOnly_budgetUsedUp() throws Exception {
+        card.setRealTime(true);
+        card.setLatencyModel(new LatencyModel(20000, 0, 0, 1));
+        EmvCardReader reader = new EmvCardReader(card);
+        reader.connectIsoDep();
+        CardInfo cardInfo = reader.readPanOnly(10);
+        assertTrue(cardInfo.isPartialScan());
+        assertNull(cardInfo.getPersonalAccounNumber());
+        assertTrue(card.getCommandCount() < 4);
+    }
+
+    @Test
+    public void readPanOnly_tagLost() throws Exception {
+        card.setTagLostAfter(2);
+        EmvCardReader reader = new EmvCardReader(card);
+        reader.connectIsoDep();
+        CardInfo cardInfo = reader.readPanOnly();
+        assertTrue(cardInfo.isPartialScan());
+        assertNull(cardInfo.getPersonalAccounNumber());
+    }
+
+    @Test
+    public void sharedRecordPipeline() throws Exception {
+        RecordPipeline pipeline = new RecordPipeline();
+        try {
+            for (int i = 0; i < 2; i++) {
+                VirtualEmvCard nextCard = new VirtualEmvCard(
+                        CardImage.createMaestroDemoCard());
+                nextCard.setRealTime(false);
+                EmvCardReader reader = new EmvCardReader(nextCard);
+                reader.setRecordPipeline(pipeline);
+                reader.connectIsoDep();
+                CardInfo cardInfo = reader.readAllCardData(false);
+                reader.disconnectIsoDep();
+                assertEquals(3, cardInfo.getTransactionLogTable().size());
+                // the reader doesn't close a shared pipeline
+                assertFalse(pipeline.isClosed());
+            }
+        } finally {
+            pipeline.close();
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package digital.sepa.nfc.model;
+
+import digital.sepa.nfc.util.BcdDateCodec;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link TransactionLogTable}
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public class TransactionLogTableTest {
+
+    private static final int EUR = 0x0978;
+    private static final int JPY = 0x0392;
+
+    private TransactionLogTable table;
+
+    @Before
+    public void setUp() {
+        table = new TransactionLogTable();
+        // amount, atc, day of December 2027, currency
+        addRow(table, 1250, 3, 10, EUR);
+        addRow(table, 4990, 1, 12, EUR);
+        addRow(table, 10000, 2, 11, EUR);
+        addRow(table, 4990, 4, 9, EUR);
+    }
+
+    /**
+     * Add a row whose raw record is the ATC (so that the raw data can be
+     * checked after reordering)
+     */
+    private static int addRow(TransactionLogTable table, long amount, int atc,
+                              int day, int currencyCode) {
+        int row = table.addRow(new byte[]{(byte) 0xEE, (byte) atc}, 1, 1);
+        table.setAmount(row, amount);
+        table.setAtc(row, atc);
+        table.setCurrencyCode(row, currencyCode);
+        table.setDateTime(row, BcdDateCodec.epochDay(2027, 12, day), 3600);
+        return row;
+    }
+
+    private static int[] atcs(TransactionLogTable table) {
+        int[] atcs = new int[table.size()];
+        TransactionLogTable.Cursor cursor = table.cursor();
+        while (cursor.moveToNext()) {
+            atcs[cursor.getPosition()] = cursor.getAtc();
+            // the raw record moves with the row
+            assertEquals(cursor.getAtc(), cursor.copyRawEntry()[0]);
+        }
+        return atcs;
+    }
+
+    @Test
+    public void newRow() {
+        TransactionLogTable t = new TransactionLogTable();
+        assertTrue(t.isEmpty());
+        int row = t.addRow(new byte[]{1, 2, 3}, 0, 3);
+        assertEquals(0, row);
+        TransactionLogTable.Cursor cursor = t.cursor();
+        assertTrue(cursor.moveToNext());
+        assertEquals(0, cursor.getAmount());
+        assertEquals(TransactionLogTable.NO_CODE, cursor.getCurrencyCode());
+        assertNull(cursor.getCurrency());
+        assertEquals(TransactionLogTable.NO_CODE, cursor.getCountryCode());
+        assertFalse(cursor.hasDate());
+        assertFalse(cursor.hasTime());
+        assertNull(cursor.getTransactionTimestamp());
+        assertFalse(cursor.hasCryptogramInformationData());
+        assertFalse(cursor.hasUnknownByte());
+        assertNull(cursor.copyApplicationDefaultAction());
+        assertArrayEquals(new byte[]{1, 2, 3}, cursor.copyRawEntry());
+        assertFalse(cursor.moveToNext());
+    }
+
+    @Test
+    public void fields() {
+        TransactionLogTable t = new TransactionLogTable();
+        int row = t.addRow(new byte[]{9, 1, 2, 3, 4}, 1, 4);
+        t.setCryptogramInformationData(row, (byte) 0x40);
+        t.setUnknownByte(row, (byte) 0x12);
+        t.setApplicationDefaultAction(row, 1, 2);
+        t.setCustomerExclusiveData(row, 3, 1);
+        t.setCountryCode(row, 0x0040);
+        t.setDateTime(row, BcdDateCodec.epochDay(2027, 12, 31), -1);
+        TransactionLogTable.Cursor cursor = t.cursor();
+        assertTrue(cursor.moveToPosition(0));
+        assertEquals(0x40, cursor.getCryptogramInformationData());
+        assertEquals(0x12, cursor.getUnknownByte());
+        assertArrayEquals(new byte[]{2, 3}, cursor.copyApplicationDefaultAction());
+        assertArrayEquals(new byte[]{4}, cursor.copyCustomerExclusiveData());
+        assertEquals(0x0040, cursor.getCountryCode());
+        assertTrue(cursor.hasDate());
+        assertFalse(cursor.hasTime());
+        assertEquals(BcdDateCodec.epochDay(2027, 12, 31), cursor.getEpochDay());
+        assertEquals(-1, cursor.getSecondOfDay());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void fieldOutsideOfRecord() {
+        TransactionLogTable t = new TransactionLogTable();
+        int row = t.addRow(new byte[4], 0, 4);
+        t.setCustomerExclusiveData(row, 3, 2);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void invalidRow() {
+        table.setAmount(4, 1);
+    }
+
+    @Test
+    public void amountInMinorUnitsOfTheCurrency() {
+        TransactionLogTable t = new TransactionLogTable();
+        addRow(t, 1250, 1, 1, EUR);
+        addRow(t, 1250, 2, 1, JPY);
+        TransactionLogTable.Cursor cursor = t.cursor();
+        assertTrue(cursor.moveToNext());
+        assertEquals(2, cursor.getMinorUnits());
+        assertEquals("12,50", cursor.getFormattedAmount());
+        assertTrue(cursor.moveToNext());
+        assertEquals(0, cursor.getMinorUnits());
+        assertEquals("1.250", cursor.getFormattedAmount());
+        assertEquals("JPY", cursor.getCurrency());
+    }
+
+    @Test
+    public void removeLastRow() {
+        table.removeLastRow();
+        assertEquals(3, table.size());
+        addRow(table, 1, 9, 1, EUR);
+        assertArrayEquals(new int[]{3, 1, 2, 9}, atcs(table));
+    }
+
+    @Test
+    public void sortByAmount() {
+        table.sortByAmount(true);
+        // stable: the two rows with 49,90 keep their order
+        assertArrayEquals(new int[]{3, 1, 4, 2}, atcs(table));
+        table.sortByAmount(false);
+        assertArrayEquals(new int[]{2, 1, 4, 3}, atcs(table));
+    }
+
+    @Test
+    public void sortByTimestamp() {
+        int row = table.addRow(new byte[]{5}, 0, 1);
+        table.setAtc(row, 5);
+        table.sortByTimestamp(true);
+        // rows without date first
+        assertArrayEquals(new int[]{5, 4, 3, 2, 1}, atcs(table));
+        table.sortByTimestamp(false);
+        assertArrayEquals(new int[]{1, 2, 3, 4, 5}, atcs(table));
+    }
+
+    @Test
+    public void sortByAtc() {
+        table.sortByAtc(true);
+        assertArrayEquals(new int[]{1, 2, 3, 4}, atcs(table));
+        TransactionLogTable.Cursor cursor = table.cursor();
+        assertTrue(cursor.moveToNext());
+        assertEquals(4990, cursor.getAmount());
+        assertEquals(BcdDateCodec.epochDay(2027, 12, 12), cursor.getEpochDay());
+    }
+
+    @Test
+    public void sortManyRows() {
+        TransactionLogTable t = new TransactionLogTable();
+        for (int i = 0; i < 100; i++) {
+            addRow(t, (i * 37) % 100, i, 1, EUR);
+        }
+        t.sortByAmount(true);
+        TransactionLogTable.Cursor cursor = t.cursor();
+        long previous = -1;
+        while (cursor.moveToNext()) {
+            assertTrue(cursor.getAmount() > previous);
+            previous = cursor.getAmount();
+        }
+        assertEquals(99, previous);
+    }
+
+    @Test
+    public void filter() {
+        TransactionLogTable filtered = table.filter(
+                new TransactionLogTable.RowFilter() {
+                    @Override
+                    public boolean accept(TransactionLogTable.Cursor row) {
+                        return row.getAmount() >= 4990;
+                    }
+                });
+        assertArrayEquals(new int[]{1, 2, 4}, atcs(filtered));
+        // the source is unchanged
+        assertEquals(4, table.size());
+        assertTrue(table.filter(new TransactionLogTable.RowFilter() {
+            @Override
+            public boolean accept(TransactionLogTable.Cursor row) {
+                return false;
+            }
+        }).isEmpty());
+    }
+
+    @Test
+    public void addAll() {
+        TransactionLogTable other = new TransactionLogTable();
+        for (int i = 0; i < 20; i++) {
+            addRow(other, i, 10 + i, 1, JPY);
+        }
+        table.addAll(other);
+        assertEquals(24, table.size());
+        int[] atcs = atcs(table);
+        assertEquals(3, atcs[0]);
+        assertEquals(10, atcs[4]);
+        assertEquals(29, atcs[23]);
+        TransactionLogTable.Cursor cursor = table.cursor();
+        assertTrue(cursor.moveToPosition(23));
+        assertEquals(19, cursor.getAmount());
+        assertEquals(JPY, cursor.getCurrencyCode());
+        assertEquals(20, other.size());
+    }
+
+    @Test
+    public void addAllToItself() {
+        table.addAll(table);
+        assertArrayEquals(new int[]{3, 1, 2, 4, 3, 1, 2, 4}, atcs(table));
+    }
+
+    @Test
+    public void asList() {
+        List<EmvTransactionLogEntry> list = table.asList();
+        assertEquals(4, list.size());
+        EmvTransactionLogEntry entry = list.get(1);
+        assertEquals(4990, entry.getAmount());
+        assertEquals(1, entry.getAtc());
+        assertEquals("49,90", entry.getFormattedAmount());
+        assertArrayEquals(new byte[]{1}, entry.getRawEntry());
+        // not created again
+        assertSame(entry, list.get(1));
+        assertSame(entry, table.asList().get(1));
+    }
+
+    @Test
+    public void asListAfterModification() {
+        List<EmvTransactionLogEntry> list = table.asList();
+        EmvTransactionLogEntry entry = list.get(0);
+        table.setAmount(0, 1);
+        assertNotSame(entry, list.get(0));
+        assertEquals(1, list.get(0).getAmount());
+
+        table.sortByAtc(true);
+        assertEquals(1, list.get(0).getAtc());
+        addRow(table, 5, 5, 1, EUR);
+        assertEquals(5, list.size());
+        assertEquals(5, list.get(4).getAtc());
+        table.removeLastRow();
+        assertEquals(4, list.size());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void asListOutOfRange() {
+        table.asList().get(4);
+    }
+}
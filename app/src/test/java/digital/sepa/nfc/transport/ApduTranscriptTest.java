@@ -0,0 +1,142 @@
+package digital.sepa.nfc.transport;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static digital.sepa.nfc.util.Utils.fromHexString;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the binary format of {@link ApduTranscript}
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public class ApduTranscriptTest {
+
+    private static final byte[] ID = fromHexString("04A1B2C3D4E5F6");
+
+    private static byte[] write(ApduTranscript transcript) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        transcript.writeTo(out);
+        return out.toByteArray();
+    }
+
+    private static ApduTranscript roundTrip(ApduTranscript transcript)
+            throws IOException {
+        return ApduTranscript.readFrom(new ByteArrayInputStream(
+                write(transcript)));
+    }
+
+    @Test
+    public void emptyTranscript() throws Exception {
+        ApduTranscript transcript = new ApduTranscript(ID);
+        // magic, version, id length, id, count
+        assertArrayEquals(fromHexString("41504454" + "01" + "07"
+                + "04A1B2C3D4E5F6" + "00"), write(transcript));
+        ApduTranscript read = roundTrip(transcript);
+        assertArrayEquals(ID, read.getId());
+        assertEquals(0, read.size());
+    }
+
+    @Test
+    public void noId() throws Exception {
+        ApduTranscript read = roundTrip(new ApduTranscript(null));
+        assertEquals(0, read.getId().length);
+    }
+
+    @Test
+    public void exchangeEncoding() throws Exception {
+        ApduTranscript transcript = new ApduTranscript(new byte[0]);
+        // 300 µs after the first command, 4 ms round trip
+        transcript.add(new ApduTranscript.Exchange(fromHexString("00B2010C00"),
+                fromHexString("9000"), 300000, 4000000));
+        byte[] data = write(transcript);
+        // flags 0, start 300 = AC 02, duration 4000 = A0 1F, command, response
+        assertArrayEquals(fromHexString("41504454" + "01" + "00" + "01"
+                + "00" + "AC02" + "A01F" + "05" + "00B2010C00" + "02" + "9000"),
+                data);
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        ApduTranscript transcript = new ApduTranscript(ID);
+        byte[] longResponse = new byte[300];
+        Arrays.fill(longResponse, (byte) 0x5A);
+        longResponse[298] = (byte) 0x90;
+        longResponse[299] = 0x00;
+        transcript.add(new ApduTranscript.Exchange(fromHexString("00A4040000"),
+                longResponse, 0, 5000000));
+        // more than 2^28 µs after the first command (multi byte varints)
+        transcript.add(new ApduTranscript.Exchange(fromHexString("00B2011400"),
+                fromHexString("6A83"), 400000000000L, 123000));
+        transcript.add(new ApduTranscript.Exchange(fromHexString("80CA9F1700"),
+                null, 400001000000L, 7000, false));
+        transcript.add(new ApduTranscript.Exchange(fromHexString("80CA9F3600"),
+                null, 400002000000L, 8000));
+
+        ApduTranscript read = roundTrip(transcript);
+        assertArrayEquals(ID, read.getId());
+        assertEquals(4, read.size());
+
+        ApduTranscript.Exchange first = read.getExchanges().get(0);
+        assertArrayEquals(fromHexString("00A4040000"), first.getCommand());
+        assertArrayEquals(longResponse, first.getResponse());
+        assertEquals(0, first.getStartNanos());
+        assertEquals(5000000, first.getDurationNanos());
+        assertFalse(first.isFailed());
+
+        ApduTranscript.Exchange second = read.getExchanges().get(1);
+        assertArrayEquals(fromHexString("6A83"), second.getResponse());
+        assertEquals(400000000000L, second.getStartNanos());
+        assertEquals(123000, second.getDurationNanos());
+
+        ApduTranscript.Exchange ioError = read.getExchanges().get(2);
+        assertNull(ioError.getResponse());
+        assertTrue(ioError.isFailed());
+        assertFalse(ioError.isTagLost());
+        assertEquals(400001000000L, ioError.getStartNanos());
+
+        ApduTranscript.Exchange tagLost = read.getExchanges().get(3);
+        assertNull(tagLost.getResponse());
+        assertTrue(tagLost.isFailed());
+        assertTrue(tagLost.isTagLost());
+        assertArrayEquals(fromHexString("80CA9F3600"), tagLost.getCommand());
+    }
+
+    @Test
+    public void timesAreStoredInMicroseconds() throws Exception {
+        ApduTranscript transcript = new ApduTranscript(ID);
+        transcript.add(new ApduTranscript.Exchange(new byte[1],
+                new byte[2], 1999, 2999));
+        ApduTranscript.Exchange read = roundTrip(transcript).getExchanges()
+                .get(0);
+        assertEquals(1000, read.getStartNanos());
+        assertEquals(2000, read.getDurationNanos());
+    }
+
+    @Test(expected = IOException.class)
+    public void wrongMagic() throws Exception {
+        ApduTranscript.readFrom(new ByteArrayInputStream(
+                fromHexString("41504458010000")));
+    }
+
+    @Test(expected = IOException.class)
+    public void unsupportedVersion() throws Exception {
+        ApduTranscript.readFrom(new ByteArrayInputStream(
+                fromHexString("41504454020000")));
+    }
+
+    @Test(expected = IOException.class)
+    public void truncated() throws Exception {
+        ApduTranscript transcript = new ApduTranscript(ID);
+        transcript.add(new ApduTranscript.Exchange(fromHexString("00A4040000"),
+                fromHexString("9000"), 0, 1000));
+        byte[] data = write(transcript);
+        ApduTranscript.readFrom(new ByteArrayInputStream(
+                Arrays.copyOf(data, data.length - 1)));
+    }
+}
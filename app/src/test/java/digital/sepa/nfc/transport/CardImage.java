@@ -0,0 +1,277 @@
+package digital.sepa.nfc.transport;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static digital.sepa.nfc.util.Utils.fromHexString;
+
+/**
+ * The content of a simulated EMV card, as served by {@link VirtualEmvCard}:
+ * the PPSE directory, the applications with their FCI, GET PROCESSING OPTIONS
+ * response, records and GET DATA objects, and card level data objects (like
+ * the CPLC).<br>
+ * <br>
+ * All values are stored exactly as the card would return them (without status
+ * word), so GET DATA objects and records must include their tag and length.
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public class CardImage {
+
+    private byte[] id = {0x01, 0x02, 0x03, 0x04};
+    private byte[] ppseFci;
+    private final List<Application> applications = new ArrayList<Application>();
+    private final Map<Integer, byte[]> cardData = new HashMap<Integer, byte[]>();
+
+    /**
+     * An EMV application on the simulated card
+     */
+    public static class Application {
+        private final byte[] aid;
+        private final byte[] fci;
+        private byte[] processingOptions;
+        private final Map<Integer, byte[]> records = new HashMap<Integer, byte[]>();
+        private final Map<Integer, byte[]> data = new HashMap<Integer, byte[]>();
+
+        /**
+         * @param aid the AID (DF name) of the application
+         * @param fci the response to SELECT (without status word)
+         */
+        public Application(byte[] aid, byte[] fci) {
+            this.aid = aid;
+            this.fci = fci;
+        }
+
+        /**
+         * @return the AID
+         */
+        public byte[] getAid() {
+            return aid;
+        }
+
+        /**
+         * @return the FCI returned on SELECT
+         */
+        public byte[] getFci() {
+            return fci;
+        }
+
+        /**
+         * @return the response to GET PROCESSING OPTIONS or <code>null</code>
+         * if the card should reject the command
+         */
+        public byte[] getProcessingOptions() {
+            return processingOptions;
+        }
+
+        /**
+         * @param processingOptions response to GET PROCESSING OPTIONS (format
+         *                          1 or 2)
+         */
+        public void setProcessingOptions(byte[] processingOptions) {
+            this.processingOptions = processingOptions;
+        }
+
+        /**
+         * @param sfi    short file identifier
+         * @param record record number
+         * @param value  the record content
+         */
+        public void putRecord(int sfi, int record, byte[] value) {
+            records.put(recordKey(sfi, record), value);
+        }
+
+        /**
+         * @param sfi
+         * @param record
+         * @return the record or <code>null</code> if not present
+         */
+        public byte[] getRecord(int sfi, int record) {
+            return records.get(recordKey(sfi, record));
+        }
+
+        /**
+         * @param sfi
+         * @return <code>true</code> if the EF contains at least one record
+         */
+        public boolean containsFile(int sfi) {
+            for (Integer key : records.keySet()) {
+                if ((key >> 8) == sfi) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * @param tagId packed tag (P1 P2 of GET DATA, for example 0x9F36)
+         * @param value the response data (tag, length and value)
+         */
+        public void putData(int tagId, byte[] value) {
+            data.put(tagId, value);
+        }
+
+        /**
+         * @param tagId
+         * @return the response data or <code>null</code> if not present
+         */
+        public byte[] getData(int tagId) {
+            return data.get(tagId);
+        }
+
+        private static int recordKey(int sfi, int record) {
+            return (sfi << 8) | record;
+        }
+    }
+
+    /**
+     * @return the card UID
+     */
+    public byte[] getId() {
+        return id;
+    }
+
+    /**
+     * @param id the card UID
+     */
+    public void setId(byte[] id) {
+        this.id = id;
+    }
+
+    /**
+     * @return the response to SELECT 2PAY.SYS.DDF01 or <code>null</code> if
+     * the card has no PPSE
+     */
+    public byte[] getPpseFci() {
+        return ppseFci;
+    }
+
+    /**
+     * @param ppseFci the response to SELECT 2PAY.SYS.DDF01 (without status
+     *                word)
+     */
+    public void setPpseFci(byte[] ppseFci) {
+        this.ppseFci = ppseFci;
+    }
+
+    /**
+     * @param application
+     */
+    public void addApplication(Application application) {
+        applications.add(application);
+    }
+
+    /**
+     * @param aid
+     * @return the application or <code>null</code> if not present
+     */
+    public Application findApplication(byte[] aid) {
+        for (Application application : applications) {
+            if (Arrays.equals(application.getAid(), aid)) {
+                return application;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param tagId packed tag (P1 P2 of GET DATA, for example 0x9F7F)
+     * @param value the response data (tag, length and value)
+     */
+    public void putCardData(int tagId, byte[] value) {
+        cardData.put(tagId, value);
+    }
+
+    /**
+     * @param tagId
+     * @return the card level data object or <code>null</code> if not present
+     */
+    public byte[] getCardData(int tagId) {
+        return cardData.get(tagId);
+    }
+
+    /**
+     * Creates an image of an Austrian Maestro (Bankomat) card with PPSE, a PDOL,
+     * an AFL with 3 records, 3 transaction log records in the Bankomat log
+     * format and CPLC data.
+     *
+     * @return
+     */
+    public static CardImage createMaestroDemoCard() {
+        String aid = "A0000000043060";
+        String label = "4D41455354524F"; // "MAESTRO"
+        CardImage image = new CardImage();
+        image.setPpseFci(fromHexString(tlv("6F",
+                tlv("84", "325041592E5359532E4444463031")
+                        + tlv("A5", tlv("BF0C", tlv("61", tlv("4F", aid)
+                        + tlv("50", label) + tlv("87", "01")))))));
+
+        Application maestro = new Application(fromHexString(aid),
+                fromHexString(tlv("6F", tlv("84", aid)
+                        + tlv("A5", tlv("50", label) + tlv("87", "01")
+                        + tlv("9F38", "9F1A025F2A029A03")
+                        + tlv("BF0C", tlv("9F4D", "0B0A"))))));
+        // AIP 1980, AFL: SFI 1 record 1, SFI 2 records 1-2
+        maestro.setProcessingOptions(fromHexString(tlv("77", tlv("82", "1980")
+                + tlv("94", "0801010010010200"))));
+        maestro.putRecord(1, 1, fromHexString(tlv("70",
+                tlv("57", "6799990100000003D27122010000000000000F"))));
+        maestro.putRecord(2, 1, fromHexString(tlv("70",
+                tlv("5A", "6799990100000003") + tlv("5F24", "271231")
+                        + tlv("5F25", "221201") + tlv("5F28", "0040")
+                        + tlv("5F34", "01"))));
+        maestro.putRecord(2, 2, fromHexString(tlv("70",
+                tlv("9F07", "FF00") + tlv("9F08", "0002"))));
+        // transaction log, format: 9F27 9F02 5F2A 9A 9F36 9F52 DF3E 9F21 9F7C
+        String customerData = "0000000000000000000000000000000000000000";
+        maestro.putRecord(11, 1, fromHexString("40" + "000000001250" + "0978"
+                + "260930" + "0042" + "000000000000" + "00" + "123045"
+                + customerData));
+        maestro.putRecord(11, 2, fromHexString("40" + "000000004990" + "0978"
+                + "260928" + "0041" + "000000000000" + "00" + "081512"
+                + customerData));
+        maestro.putRecord(11, 3, fromHexString("80" + "000000010000" + "0978"
+                + "260915" + "0040" + "000000000000" + "00" + "174501"
+                + customerData));
+        maestro.putData(0x9F4F, fromHexString(tlv("9F4F",
+                "9F27019F02065F2A029A039F36029F5206DF3E019F21039F7C14")));
+        maestro.putData(0x9F17, fromHexString(tlv("9F17", "03")));
+        maestro.putData(0x9F36, fromHexString(tlv("9F36", "0042")));
+        maestro.putData(0x9F13, fromHexString(tlv("9F13", "0040")));
+        image.addApplication(maestro);
+
+        // CPLC: IC fabricator, IC type, OS ID, OS release date, OS release
+        // level, IC fabrication date, IC serial, IC batch, module fabricator,
+        // packaging date, ICC manufacturer, embedding date, pre-perso ID,
+        // pre-perso date, pre-perso equipment, perso ID, perso date, perso
+        // equipment
+        image.putCardData(0x9F7F, fromHexString(tlv("9F7F", "4090" + "7812"
+                + "4791" + "2150" + "0102" + "2200" + "12345678" + "0001"
+                + "4812" + "2201" + "4812" + "2202" + "0000" + "0000"
+                + "00000000" + "5023" + "2234" + "00000000")));
+        return image;
+    }
+
+    /**
+     * Builds a BER-TLV encoded data object
+     *
+     * @param tag   tag as hex string
+     * @param value value as hex string
+     * @return tag, length and value as hex string
+     */
+    private static String tlv(String tag, String value) {
+        int length = value.length() / 2;
+        String lengthHex;
+        if (length < 0x80) {
+            lengthHex = String.format("%02X", length);
+        } else if (length <= 0xFF) {
+            lengthHex = String.format("81%02X", length);
+        } else {
+            lengthHex = String.format("82%04X", length);
+        }
+        return tag + lengthHex + value;
+    }
+}
@@ -0,0 +1,65 @@
+package digital.sepa.nfc.transport;
+
+import java.util.Random;
+
+/**
+ * Simple model of the round trip time of a single APDU over the air: a fixed
+ * base latency (card processing, frame overhead), a transfer time per byte
+ * and a uniformly distributed random jitter.
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public class LatencyModel {
+
+    /**
+     * No latency at all
+     */
+    public static final LatencyModel NONE = new LatencyModel(0, 0, 0, 0);
+
+    private final long baseNanos;
+    private final long perByteNanos;
+    private final long jitterNanos;
+    private final Random random;
+
+    /**
+     * Constructor
+     *
+     * @param baseMicros    fixed latency per APDU in microseconds
+     * @param perByteMicros transfer time per command and response byte in
+     *                      microseconds
+     * @param jitterMicros  maximum random jitter in microseconds
+     * @param seed          seed for the jitter, so that runs are reproducible
+     */
+    public LatencyModel(long baseMicros, long perByteMicros, long jitterMicros,
+                        long seed) {
+        this.baseNanos = baseMicros * 1000;
+        this.perByteNanos = perByteMicros * 1000;
+        this.jitterNanos = jitterMicros * 1000;
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Values as typically seen on a phone at 106 kbit/s: about 4 ms per APDU
+     * plus 80 µs per byte, with up to 2 ms jitter
+     *
+     * @return
+     */
+    public static LatencyModel typicalPhone() {
+        return new LatencyModel(4000, 80, 2000, 42);
+    }
+
+    /**
+     * Calculate the round trip time of the next APDU
+     *
+     * @param commandLength  length of the command APDU
+     * @param responseLength length of the response APDU
+     * @return the round trip time in nanoseconds
+     */
+    public long nextDelayNanos(int commandLength, int responseLength) {
+        long delay = baseNanos + perByteNanos * (commandLength + responseLength);
+        if (jitterNanos > 0) {
+            delay += (long) (random.nextDouble() * jitterNanos);
+        }
+        return delay;
+    }
+}
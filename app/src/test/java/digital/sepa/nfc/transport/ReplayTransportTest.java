@@ -0,0 +1,140 @@
+package digital.sepa.nfc.transport;
+
+import android.nfc.TagLostException;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static digital.sepa.nfc.util.Utils.fromHexString;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link ReplayTransport}
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public class ReplayTransportTest {
+
+    private static final byte[] SELECT = fromHexString("00A404000E325041592E5359532E444446303100");
+    private static final byte[] READ_RECORD = fromHexString("00B2010C00");
+
+    private ApduTranscript transcript;
+
+    @Before
+    public void setUp() {
+        transcript = new ApduTranscript(fromHexString("01020304"));
+        // second command 30 ms after the first, each with 10 ms round trip
+        transcript.add(new ApduTranscript.Exchange(SELECT,
+                fromHexString("6F009000"), 0, 10000000));
+        transcript.add(new ApduTranscript.Exchange(READ_RECORD,
+                fromHexString("70009000"), 30000000, 10000000));
+    }
+
+    @Test
+    public void replay() throws Exception {
+        ReplayTransport replay = new ReplayTransport(transcript);
+        replay.connect();
+        assertArrayEquals(fromHexString("01020304"), replay.getId());
+        assertArrayEquals(fromHexString("6F009000"), replay.transceive(SELECT));
+        assertFalse(replay.isFinished());
+        byte[] response = replay.transceive(READ_RECORD);
+        assertArrayEquals(fromHexString("70009000"), response);
+        assertEquals(2, replay.getPosition());
+        assertTrue(replay.isFinished());
+        // the transcript is not changed through the returned response
+        response[0] = 0;
+        replay.connect();
+        replay.transceive(SELECT);
+        assertArrayEquals(fromHexString("70009000"),
+                replay.transceive(READ_RECORD));
+    }
+
+    @Test
+    public void commandMismatch() throws Exception {
+        ReplayTransport replay = new ReplayTransport(transcript);
+        replay.connect();
+        try {
+            replay.transceive(READ_RECORD);
+            fail("different command not detected");
+        } catch (IOException e) {
+            assertFalse(e instanceof TagLostException);
+            assertTrue(e.getMessage().contains("differs from transcript"));
+        }
+        assertEquals(0, replay.getPosition());
+    }
+
+    @Test
+    public void endOfTranscript() throws Exception {
+        ReplayTransport replay = new ReplayTransport(transcript);
+        replay.connect();
+        replay.transceive(SELECT);
+        replay.transceive(READ_RECORD);
+        try {
+            replay.transceive(READ_RECORD);
+            fail("end of transcript not detected");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("transcript ends after 2"));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void notConnected() throws Exception {
+        new ReplayTransport(transcript).transceive(SELECT);
+    }
+
+    @Test
+    public void failedCommands() throws Exception {
+        transcript.add(new ApduTranscript.Exchange(READ_RECORD, null,
+                40000000, 1000000, false));
+        transcript.add(new ApduTranscript.Exchange(READ_RECORD, null,
+                50000000, 1000000, true));
+        ReplayTransport replay = new ReplayTransport(transcript);
+        replay.connect();
+        replay.transceive(SELECT);
+        replay.transceive(READ_RECORD);
+        try {
+            replay.transceive(READ_RECORD);
+            fail("I/O error not replayed");
+        } catch (IOException e) {
+            assertFalse(e instanceof TagLostException);
+        }
+        try {
+            replay.transceive(READ_RECORD);
+            fail("tag loss not replayed");
+        } catch (TagLostException e) {
+            // expected
+        }
+        // the card is gone
+        try {
+            replay.transceive(READ_RECORD);
+            fail("still connected after the tag was lost");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("not connected"));
+        }
+    }
+
+    @Test
+    public void withoutTiming() throws Exception {
+        ReplayTransport replay = new ReplayTransport(transcript);
+        replay.connect();
+        long start = System.nanoTime();
+        replay.transceive(SELECT);
+        replay.transceive(READ_RECORD);
+        assertTrue(System.nanoTime() - start < 30000000);
+    }
+
+    @Test
+    public void preserveTiming() throws Exception {
+        ReplayTransport replay = new ReplayTransport(transcript);
+        replay.setPreserveTiming(true);
+        replay.connect();
+        long start = System.nanoTime();
+        replay.transceive(SELECT);
+        // the first response after its round trip time
+        assertTrue(System.nanoTime() - start >= 10000000);
+        replay.transceive(READ_RECORD);
+        // the second response at its recorded start plus round trip time
+        assertTrue(System.nanoTime() - start >= 40000000);
+    }
+}
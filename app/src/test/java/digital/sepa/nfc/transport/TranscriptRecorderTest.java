@@ -0,0 +1,108 @@
+package digital.sepa.nfc.transport;
+
+import android.nfc.TagLostException;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static digital.sepa.nfc.util.Utils.fromHexString;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link TranscriptRecorder}
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public class TranscriptRecorderTest {
+
+    /**
+     * Answers with 9000 and fails with the given exception from the given
+     * command on
+     */
+    private static class FailingTransport implements ApduTransport {
+        private final int failAfter;
+        private final IOException failure;
+        private int commands;
+
+        FailingTransport(int failAfter, IOException failure) {
+            this.failAfter = failAfter;
+            this.failure = failure;
+        }
+
+        @Override
+        public void connect() {
+        }
+
+        @Override
+        public byte[] transceive(byte[] command) throws IOException {
+            if (commands++ >= failAfter) {
+                throw failure;
+            }
+            return fromHexString("9000");
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public byte[] getId() {
+            return fromHexString("0A0B");
+        }
+    }
+
+    private static void transceiveFailing(TranscriptRecorder recorder,
+                                          IOException failure) {
+        try {
+            recorder.transceive(fromHexString("00B2020C00"));
+            fail("exception not rethrown");
+        } catch (IOException e) {
+            assertSame(failure, e);
+        }
+    }
+
+    @Test
+    public void recordsResponses() throws Exception {
+        TranscriptRecorder recorder = new TranscriptRecorder(
+                new FailingTransport(2, new IOException()));
+        byte[] command = fromHexString("00B2010C00");
+        recorder.transceive(command);
+        // the recorded command is a copy
+        command[2] = 0x02;
+        recorder.transceive(command);
+        ApduTranscript transcript = recorder.getTranscript();
+        assertArrayEquals(fromHexString("0A0B"), transcript.getId());
+        assertEquals(2, transcript.size());
+        ApduTranscript.Exchange first = transcript.getExchanges().get(0);
+        assertArrayEquals(fromHexString("00B2010C00"), first.getCommand());
+        assertArrayEquals(fromHexString("9000"), first.getResponse());
+        assertEquals(0, first.getStartNanos());
+        assertTrue(transcript.getExchanges().get(1).getStartNanos() >= 0);
+    }
+
+    @Test
+    public void recordsIoErrors() throws Exception {
+        IOException failure = new IOException("Transceive failed");
+        TranscriptRecorder recorder = new TranscriptRecorder(
+                new FailingTransport(1, failure));
+        recorder.transceive(fromHexString("00B2010C00"));
+        transceiveFailing(recorder, failure);
+        ApduTranscript.Exchange failed = recorder.getTranscript()
+                .getExchanges().get(1);
+        assertArrayEquals(fromHexString("00B2020C00"), failed.getCommand());
+        assertTrue(failed.isFailed());
+        assertFalse(failed.isTagLost());
+    }
+
+    @Test
+    public void recordsTagLoss() throws Exception {
+        TagLostException failure = new TagLostException("Tag was lost.");
+        TranscriptRecorder recorder = new TranscriptRecorder(
+                new FailingTransport(0, failure));
+        transceiveFailing(recorder, failure);
+        ApduTranscript.Exchange failed = recorder.getTranscript()
+                .getExchanges().get(0);
+        assertTrue(failed.isFailed());
+        assertTrue(failed.isTagLost());
+    }
+}
@@ -0,0 +1,326 @@
+package digital.sepa.nfc.transport;
+
+import android.nfc.TagLostException;
+import digital.sepa.nfc.iso7816emv.DataObjectList;
+import digital.sepa.nfc.iso7816emv.EmvUtils;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * {@link ApduTransport} simulating a contactless EMV card, serving the
+ * content of a {@link CardImage}. Supported commands are SELECT (by DF name),
+ * GET PROCESSING OPTIONS, READ RECORD, GET DATA and GET RESPONSE. Errors are
+ * answered with the status words a real card would use (6A82, 6A83, 6A88, ..).
+ * <br>
+ * <br>
+ * Each APDU is delayed according to the {@link LatencyModel}. If real time is
+ * disabled the delay is only summed up (see {@link #getElapsedNanos()}), so
+ * that benchmarks can run without actually sleeping.
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public class VirtualEmvCard implements ApduTransport {
+
+    private static final int SW_SUCCESS = 0x9000;
+    private static final int SW_WRONG_LENGTH = 0x6700;
+    private static final int SW_CONDITIONS_NOT_SATISFIED = 0x6985;
+    private static final int SW_FILE_NOT_FOUND = 0x6A82;
+    private static final int SW_RECORD_NOT_FOUND = 0x6A83;
+    private static final int SW_INCORRECT_P1_P2 = 0x6A86;
+    private static final int SW_REFERENCED_DATA_NOT_FOUND = 0x6A88;
+    private static final int SW_INS_NOT_SUPPORTED = 0x6D00;
+    private static final int SW_CLA_NOT_SUPPORTED = 0x6E00;
+
+    private final CardImage image;
+    private LatencyModel latencyModel = LatencyModel.NONE;
+    private boolean realTime = true;
+    private boolean useGetResponse;
+    private boolean requireExactLe;
+    private int tagLostAfter = -1;
+
+    private boolean connected;
+    private CardImage.Application selectedApplication;
+    private byte[] pendingResponse;
+    private int commandCount;
+    private long elapsedNanos;
+
+    /**
+     * Constructor
+     *
+     * @param image the card content
+     */
+    public VirtualEmvCard(CardImage image) {
+        this.image = image;
+    }
+
+    /**
+     * @param latencyModel round trip time of each APDU
+     */
+    public void setLatencyModel(LatencyModel latencyModel) {
+        this.latencyModel = latencyModel;
+    }
+
+    /**
+     * @param realTime <code>true</code> to actually sleep for the simulated
+     *                 round trip time, <code>false</code> to only account it
+     */
+    public void setRealTime(boolean realTime) {
+        this.realTime = realTime;
+    }
+
+    /**
+     * @param useGetResponse if <code>true</code> the card answers all commands
+     *                       returning data with 61xx and the data has to be
+     *                       fetched with GET RESPONSE (like T=0 cards)
+     */
+    public void setUseGetResponse(boolean useGetResponse) {
+        this.useGetResponse = useGetResponse;
+    }
+
+    /**
+     * @param requireExactLe if <code>true</code> the card rejects Le=00 for
+     *                       GET DATA with 6Cxx (some cards do so for the CPLC)
+     */
+    public void setRequireExactLe(boolean requireExactLe) {
+        this.requireExactLe = requireExactLe;
+    }
+
+    /**
+     * @param commands simulate removing the card after this number of
+     *                 commands, -1 to never lose the card
+     */
+    public void setTagLostAfter(int commands) {
+        this.tagLostAfter = commands;
+    }
+
+    /**
+     * @return number of commands received so far
+     */
+    public int getCommandCount() {
+        return commandCount;
+    }
+
+    /**
+     * @return the sum of all simulated round trip times in nanoseconds
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    @Override
+    public void connect() throws IOException {
+        connected = true;
+        selectedApplication = null;
+        pendingResponse = null;
+    }
+
+    @Override
+    public byte[] transceive(byte[] command) throws IOException {
+        if (!connected) {
+            throw new IOException("transceive: not connected");
+        }
+        if (tagLostAfter >= 0 && commandCount >= tagLostAfter) {
+            connected = false;
+            throw new TagLostException("Tag was lost.");
+        }
+        commandCount++;
+        byte[] response = process(command);
+        long delay = latencyModel.nextDelayNanos(command.length,
+                response.length);
+        elapsedNanos += delay;
+        if (realTime && delay > 0) {
+            try {
+                Thread.sleep(delay / 1000000, (int) (delay % 1000000));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("transceive: interrupted");
+            }
+        }
+        return response;
+    }
+
+    @Override
+    public void close() throws IOException {
+        connected = false;
+    }
+
+    @Override
+    public byte[] getId() {
+        return image.getId();
+    }
+
+    /**
+     * Process a single command APDU
+     *
+     * @param command
+     * @return the response APDU
+     */
+    private byte[] process(byte[] command) {
+        if (command.length < 4) {
+            return statusWord(SW_WRONG_LENGTH);
+        }
+        int cla = command[0] & 0xFF;
+        int ins = command[1] & 0xFF;
+        int p1 = command[2] & 0xFF;
+        int p2 = command[3] & 0xFF;
+
+        // parse Lc, data and Le (short APDUs only)
+        byte[] data = new byte[0];
+        int le = -1;
+        if (command.length == 5) {
+            le = command[4] & 0xFF;
+        } else if (command.length > 5) {
+            int lc = command[4] & 0xFF;
+            if (command.length == 5 + lc) {
+                data = Arrays.copyOfRange(command, 5, 5 + lc);
+            } else if (command.length == 6 + lc) {
+                data = Arrays.copyOfRange(command, 5, 5 + lc);
+                le = command[command.length - 1] & 0xFF;
+            } else {
+                return statusWord(SW_WRONG_LENGTH);
+            }
+        }
+        if (cla != 0x00 && cla != 0x80) {
+            return statusWord(SW_CLA_NOT_SUPPORTED);
+        }
+        if (ins != 0xC0) {
+            pendingResponse = null;
+        }
+
+        switch (ins) {
+            case 0xA4: // SELECT
+                return select(p1, data, le);
+            case 0xA8: // GET PROCESSING OPTIONS
+                return getProcessingOptions(data, le);
+            case 0xB2: // READ RECORD
+                return readRecord(p1, p2, le);
+            case 0xCA: // GET DATA
+                return getData((p1 << 8) | p2, le);
+            case 0xC0: // GET RESPONSE
+                return getResponse(le);
+            default:
+                return statusWord(SW_INS_NOT_SUPPORTED);
+        }
+    }
+
+    private byte[] select(int p1, byte[] dfName, int le) {
+        if (p1 != 0x04) {
+            return statusWord(SW_FILE_NOT_FOUND);
+        }
+        if (Arrays.equals(dfName, EmvUtils.APPLICATION_ID_PPSE)) {
+            if (image.getPpseFci() == null) {
+                return statusWord(SW_FILE_NOT_FOUND);
+            }
+            selectedApplication = null;
+            return respond(image.getPpseFci(), le, false);
+        }
+        CardImage.Application application = image.findApplication(dfName);
+        if (application == null) {
+            return statusWord(SW_FILE_NOT_FOUND);
+        }
+        selectedApplication = application;
+        return respond(application.getFci(), le, false);
+    }
+
+    private byte[] getProcessingOptions(byte[] data, int le) {
+        if (selectedApplication == null
+                || selectedApplication.getProcessingOptions() == null) {
+            return statusWord(SW_CONDITIONS_NOT_SATISFIED);
+        }
+        // the data must be template 83 with exactly the length of the PDOL
+        DataObjectList pdol = EmvUtils.findPdol(withStatusWord(
+                selectedApplication.getFci(), SW_SUCCESS));
+        int expectedLength = pdol == null ? 0 : pdol.getTotalLength();
+        if (data.length < 2 || (data[0] & 0xFF) != 0x83) {
+            return statusWord(SW_WRONG_LENGTH);
+        }
+        int lengthBytes = (data[1] & 0xFF) == 0x81 ? 2 : 1;
+        if (data.length - 1 - lengthBytes != expectedLength) {
+            return statusWord(SW_WRONG_LENGTH);
+        }
+        return respond(selectedApplication.getProcessingOptions(), le, false);
+    }
+
+    private byte[] readRecord(int record, int p2, int le) {
+        if ((p2 & 0x07) != 0x04 || record == 0) {
+            return statusWord(SW_INCORRECT_P1_P2);
+        }
+        int sfi = p2 >> 3;
+        if (selectedApplication == null
+                || !selectedApplication.containsFile(sfi)) {
+            return statusWord(SW_FILE_NOT_FOUND);
+        }
+        byte[] value = selectedApplication.getRecord(sfi, record);
+        if (value == null) {
+            return statusWord(SW_RECORD_NOT_FOUND);
+        }
+        return respond(value, le, false);
+    }
+
+    private byte[] getData(int tagId, int le) {
+        byte[] value = null;
+        if (selectedApplication != null) {
+            value = selectedApplication.getData(tagId);
+        }
+        if (value == null) {
+            value = image.getCardData(tagId);
+        }
+        if (value == null) {
+            return statusWord(SW_REFERENCED_DATA_NOT_FOUND);
+        }
+        return respond(value, le, requireExactLe);
+    }
+
+    private byte[] getResponse(int le) {
+        if (pendingResponse == null) {
+            return statusWord(SW_CONDITIONS_NOT_SATISFIED);
+        }
+        byte[] value = pendingResponse;
+        int length = (le <= 0) ? 256 : le;
+        if (length < value.length) {
+            // deliver a chunk and announce the remaining bytes
+            pendingResponse = Arrays.copyOfRange(value, length, value.length);
+            byte[] response = withStatusWord(
+                    Arrays.copyOf(value, length),
+                    0x6100 | Math.min(pendingResponse.length, 0xFF));
+            return response;
+        }
+        pendingResponse = null;
+        return withStatusWord(value, SW_SUCCESS);
+    }
+
+    /**
+     * Build the response for a command returning data, honouring Le and
+     * the GET RESPONSE mode
+     *
+     * @param value          the data to return
+     * @param le             Le of the command, -1 if not present
+     * @param requireExactLe reject Le=00 with 6Cxx
+     * @return
+     */
+    private byte[] respond(byte[] value, int le, boolean requireExactLe) {
+        int length = value.length;
+        if (le > 0 || (le == 0 && requireExactLe)) {
+            if (le != length && length <= 0xFF) {
+                return statusWord(0x6C00 | length);
+            }
+        }
+        if (useGetResponse && length > 0) {
+            pendingResponse = value;
+            return statusWord(0x6100 | Math.min(length, 0xFF));
+        }
+        return withStatusWord(value, SW_SUCCESS);
+    }
+
+    private static byte[] withStatusWord(byte[] value, int sw) {
+        byte[] response = Arrays.copyOf(value, value.length + 2);
+        response[value.length] = (byte) (sw >> 8);
+        response[value.length + 1] = (byte) sw;
+        return response;
+    }
+
+    private static byte[] statusWord(int sw) {
+        return new byte[]{(byte) (sw >> 8), (byte) sw};
+    }
+}
@@ -0,0 +1,224 @@
+package digital.sepa.nfc.util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+
+import static digital.sepa.nfc.util.BcdDateCodec.INVALID;
+import static digital.sepa.nfc.util.Utils.fromHexString;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link BcdDateCodec}. Expected values are given as decimal
+ * <code>yyyyMMdd</code> or computed with {@link GregorianCalendar}, not with
+ * the codec itself.
+ *
+ * @author Johannes Zweng <johannes@zweng.at>
+ */
+public class BcdDateCodecTest {
+
+    // October 18, 2026
+    private static final int TODAY = 20744;
+
+    private TimeZone defaultTimeZone;
+
+    @Before
+    public void setUp() {
+        defaultTimeZone = TimeZone.getDefault();
+    }
+
+    @After
+    public void tearDown() {
+        TimeZone.setDefault(defaultTimeZone);
+    }
+
+    private static int date(String yymmdd, int today) {
+        int epochDay = BcdDateCodec.decodeDate(fromHexString(yymmdd), 0, today);
+        return epochDay == INVALID ? INVALID
+                : BcdDateCodec.toYearMonthDay(epochDay);
+    }
+
+    private static int cplcDate(String ydddd, int today) {
+        int epochDay = BcdDateCodec.decodeCplcDate(fromHexString(ydddd), 0,
+                today);
+        return epochDay == INVALID ? INVALID
+                : BcdDateCodec.toYearMonthDay(epochDay);
+    }
+
+    /**
+     * @return the epoch day computed with a UTC calendar
+     */
+    private static int calendarEpochDay(int year, int month, int day) {
+        GregorianCalendar calendar = new GregorianCalendar(
+                TimeZone.getTimeZone("UTC"));
+        calendar.clear();
+        calendar.set(year, month - 1, day);
+        return (int) (calendar.getTimeInMillis() / 86400000L);
+    }
+
+    @Test
+    public void epochDay() {
+        assertEquals(0, BcdDateCodec.epochDay(1970, 1, 1));
+        assertEquals(TODAY, BcdDateCodec.epochDay(2026, 10, 18));
+        assertEquals(-1, BcdDateCodec.epochDay(1969, 12, 31));
+        assertEquals(11016, BcdDateCodec.epochDay(2000, 2, 29));
+        assertEquals(19700101, BcdDateCodec.toYearMonthDay(0));
+        assertEquals(19691231, BcdDateCodec.toYearMonthDay(-1));
+        assertEquals(20261018, BcdDateCodec.toYearMonthDay(TODAY));
+    }
+
+    @Test
+    public void epochDayRoundTrips() {
+        // every day from 1899 to 2101, against the calendar
+        for (int year = 1899; year <= 2101; year++) {
+            for (int month = 1; month <= 12; month++) {
+                GregorianCalendar calendar = new GregorianCalendar(year,
+                        month - 1, 1);
+                int days = calendar.getActualMaximum(Calendar.DAY_OF_MONTH);
+                for (int day = 1; day <= days; day++) {
+                    int epochDay = BcdDateCodec.epochDay(year, month, day);
+                    assertEquals(calendarEpochDay(year, month, day), epochDay);
+                    assertEquals(year * 10000 + month * 100 + day,
+                            BcdDateCodec.toYearMonthDay(epochDay));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void centuryWindow() {
+        // less than 20 years after today
+        assertEquals(20461017, date("461017", TODAY));
+        // 20 years after today is taken as 80 years before
+        assertEquals(19461018, date("461018", TODAY));
+        assertEquals(19461019, date("461019", TODAY));
+        assertEquals(20261018, date("261018", TODAY));
+        assertEquals(20000101, date("000101", TODAY));
+        assertEquals(19991231, date("991231", TODAY));
+    }
+
+    @Test
+    public void centuryWindowNextCentury() {
+        int today = BcdDateCodec.epochDay(2085, 10, 18);
+        // at most 80 years before today
+        assertEquals(20051018, date("051018", today));
+        // more than 80 years before is taken as 20 years after
+        assertEquals(21051017, date("051017", today));
+        assertEquals(20991231, date("991231", today));
+    }
+
+    @Test
+    public void invalidDates() {
+        assertEquals(INVALID, date("2712AB", TODAY));
+        assertEquals(INVALID, date("2A1201", TODAY));
+        assertEquals(INVALID, date("271301", TODAY));
+        assertEquals(INVALID, date("270001", TODAY));
+        assertEquals(INVALID, date("271200", TODAY));
+        assertEquals(INVALID, date("271131", TODAY));
+        assertEquals(INVALID, date("271232", TODAY));
+    }
+
+    @Test
+    public void february() {
+        assertEquals(20280229, date("280229", TODAY));
+        assertEquals(INVALID, date("270229", TODAY));
+        assertEquals(INVALID, date("280230", TODAY));
+        // 2000 is a leap year, 2100 not
+        assertEquals(20000229, date("000229", TODAY));
+        assertEquals(INVALID, date("000229",
+                BcdDateCodec.epochDay(2090, 1, 1)));
+    }
+
+    @Test
+    public void decodeTime() {
+        assertEquals(0, BcdDateCodec.decodeTime(fromHexString("000000"), 0));
+        assertEquals(86399, BcdDateCodec.decodeTime(fromHexString("235959"), 0));
+        assertEquals(12 * 3600 + 34 * 60 + 56,
+                BcdDateCodec.decodeTime(fromHexString("FF123456"), 1));
+        assertEquals(INVALID, BcdDateCodec.decodeTime(fromHexString("240000"), 0));
+        assertEquals(INVALID, BcdDateCodec.decodeTime(fromHexString("126000"), 0));
+        assertEquals(INVALID, BcdDateCodec.decodeTime(fromHexString("120060"), 0));
+        assertEquals(INVALID, BcdDateCodec.decodeTime(fromHexString("12003A"), 0));
+    }
+
+    @Test
+    public void cplcDate() {
+        assertEquals(20260101, cplcDate("6001", TODAY));
+        // today is day 291 of 2026
+        assertEquals(20261018, cplcDate("6291", TODAY));
+        // tomorrow would be in the future, so it's 10 years earlier (2016
+        // is a leap year)
+        assertEquals(20161018, cplcDate("6292", TODAY));
+        // 2029 is in the future
+        assertEquals(20190410, cplcDate("9100", TODAY));
+        assertEquals(20200101, cplcDate("0001", TODAY));
+    }
+
+    @Test
+    public void cplcDayOfYear366() {
+        assertEquals(20241231, cplcDate("4366", TODAY));
+        // 2026-12-32 is in the future, 2016 is a leap year
+        assertEquals(20161231, cplcDate("6366", TODAY));
+        // 2022 is no leap year
+        assertEquals(INVALID, cplcDate("2366", TODAY));
+        assertEquals(INVALID, cplcDate("2367", TODAY));
+    }
+
+    @Test
+    public void cplcInvalid() {
+        assertEquals(INVALID, cplcDate("6000", TODAY));
+        assertEquals(INVALID, cplcDate("A001", TODAY));
+        assertEquals(INVALID, cplcDate("6A01", TODAY));
+        assertEquals(INVALID, cplcDate("600A", TODAY));
+    }
+
+    @Test
+    public void quickLogEpochDay() {
+        assertEquals(19750902, BcdDateCodec.toYearMonthDay(
+                BcdDateCodec.quickLogEpochDay(0)));
+        assertEquals(calendarEpochDay(1975, 9, 2),
+                BcdDateCodec.quickLogEpochDay(0));
+        assertEquals(19750903, BcdDateCodec.toYearMonthDay(
+                BcdDateCodec.quickLogEpochDay(1)));
+    }
+
+    @Test
+    public void toMillisAroundDaylightSavingTime() {
+        TimeZone.setDefault(TimeZone.getTimeZone("Europe/Vienna"));
+        GregorianCalendar utc = new GregorianCalendar(
+                TimeZone.getTimeZone("UTC"));
+        // on March 29, 2026 the clocks go from 02:00 to 03:00
+        int day = BcdDateCodec.epochDay(2026, 3, 29);
+        utc.clear();
+        utc.set(2026, Calendar.MARCH, 29, 0, 30, 0);
+        assertEquals(utc.getTimeInMillis(),
+                BcdDateCodec.toMillis(day, 3600 + 1800));
+        utc.set(2026, Calendar.MARCH, 29, 1, 30, 0);
+        assertEquals(utc.getTimeInMillis(),
+                BcdDateCodec.toMillis(day, 3 * 3600 + 1800));
+        // the day before and after
+        utc.set(2026, Calendar.MARCH, 27, 23, 0, 0);
+        assertEquals(utc.getTimeInMillis(),
+                BcdDateCodec.toMillis(day - 1, 0));
+        utc.set(2026, Calendar.MARCH, 29, 22, 0, 0);
+        assertEquals(utc.getTimeInMillis(),
+                BcdDateCodec.toMillis(day + 1, 0));
+        // and back to local time
+        assertEquals("29.03.2026 03:30:00", BcdDateCodec.formatDateTime(
+                BcdDateCodec.toMillis(day, 3 * 3600 + 1800)));
+    }
+
+    @Test
+    public void format() {
+        int day = BcdDateCodec.epochDay(2026, 1, 2);
+        assertEquals("02.01.2026", BcdDateCodec.formatDate(day));
+        assertEquals("02.01.2026 03:04:05",
+                BcdDateCodec.formatDateTime(day, 3 * 3600 + 4 * 60 + 5));
+        assertEquals("01.01.0999", BcdDateCodec.formatDate(
+                BcdDateCodec.epochDay(999, 1, 1)));
+    }
+}